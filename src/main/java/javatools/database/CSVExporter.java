@@ -0,0 +1,451 @@
+package javatools.database;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import javatools.administrative.Announce;
+
+/**
+Copyright 2016 Fabian M. Suchanek
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+
+This class exports the result of a query to a CSV file. The rows are pulled from
+a forward-only cursor with a large fetch size, so that the result does not have to
+fit into memory. The rows are formatted in chunks on worker threads, and written
+in order through a buffered writer (gzipped if desired).<BR>
+A table can also be split by ranges of a numerical key column into several
+queries, which run in parallel on several Database objects (one per connection)
+and write to one file per range ("shard").
+Example:
+<PRE>
+  CSVExporter e=new CSVExporter();
+  e.setGzip(true);
+  e.setAnnounce("Exporting facts");
+  e.export(database, "SELECT * FROM facts", new File("facts.csv.gz"));
+
+  // 16 shards, 4 connections
+  e.exportRanges(Arrays.asList(d1,d2,d3,d4), "facts", "id", 16, new File("facts.csv.gz"));
+  -&gt; facts-00000.csv.gz ... facts-00015.csv.gz
+</PRE>
+By default, the format is the format of CSVFile (header introduced by "# ", values
+with whitespace, quotes or the separator are quoted, NULL is written as the empty string),
+so that CSVLines reads the file back. An empty value at the end of a line is written as "".
+*/
+public class CSVExporter {
+
+  /** Default number of rows that are pulled from the server at once */
+  public static final int FETCHSIZE = 10000;
+
+  /** Number of rows that a worker formats at once */
+  public static final int CHUNKSIZE = 1000;
+
+  /** Size of the output buffer in chars */
+  public static final int BUFFERSIZE = 1024 * 1024;
+
+  /** Separator between the values */
+  protected String separator = ", ";
+
+  /** Prefix of the header line */
+  protected String headerPrefix = "# ";
+
+  /** TRUE if values are quoted as in CSVFile */
+  protected boolean quoting = true;
+
+  /** String for NULL values */
+  protected String nullString = "";
+
+  /** Number of rows that are pulled from the server at once */
+  protected int fetchSize = FETCHSIZE;
+
+  /** Number of formatting threads */
+  protected int threads = Runtime.getRuntime().availableProcessors();
+
+  /** TRUE if the output is gzipped */
+  protected boolean gzip = false;
+
+  /** Progress message or NULL */
+  protected String announceMsg = null;
+
+  /** Sets the separator (", " by default) */
+  public void setSeparator(String separator) {
+    this.separator = separator;
+  }
+
+  /** Sets the prefix of the header line ("# " by default, NULL for no header) */
+  public void setHeaderPrefix(String headerPrefix) {
+    this.headerPrefix = headerPrefix;
+  }
+
+  /** Sets quoting of values with whitespace, quotes or the separator on/off (on by default) */
+  public void setQuoting(boolean quoting) {
+    this.quoting = quoting;
+  }
+
+  /** Sets the string for NULL values (empty by default) */
+  public void setNullString(String nullString) {
+    this.nullString = nullString;
+  }
+
+  /** Sets the number of rows that are pulled from the server at once */
+  public void setFetchSize(int fetchSize) {
+    this.fetchSize = fetchSize;
+  }
+
+  /** Sets the number of formatting threads (1 formats on the reading thread) */
+  public void setThreads(int threads) {
+    if (threads < 1) throw new IllegalArgumentException("CSVExporter needs at least one thread");
+    this.threads = threads;
+  }
+
+  /** Sets gzipping of the output on/off (off by default) */
+  public void setGzip(boolean gzip) {
+    this.gzip = gzip;
+  }
+
+  /** Sets the progress message (NULL for no progress output) */
+  public void setAnnounce(String announceMsg) {
+    this.announceMsg = announceMsg;
+  }
+
+  // ---------------------------------------------------------------------
+  //           Formatting
+  // ---------------------------------------------------------------------
+
+  /** Appends a value as CSVFile.column does (quoted if it contains a quote or whitespace as in \s,
+   * trimmed otherwise), but without regular expressions. Unlike CSVFile, it also quotes values that
+   * contain the separator, so that CSVLines can read them back. */
+  protected void appendValue(StringBuilder b, Object o) {
+    if (o == null) {
+      b.append(nullString);
+      return;
+    }
+    String s = o.toString();
+    if (!quoting) {
+      b.append(s);
+      return;
+    }
+    if (s.indexOf('"') != -1) {
+      b.append('"').append(s.replace("\"", "\"\"")).append('"');
+      return;
+    }
+    if (needsQuotes(s)) b.append('"').append(s).append('"');
+    else b.append(s.trim());
+  }
+
+  /** TRUE if the value contains whitespace (as in the regular expression \s) or the separator */
+  protected boolean needsQuotes(String s) {
+    for (int i = 0; i < s.length(); i++) {
+      switch (s.charAt(i)) {
+        case ' ':
+        case '\t':
+        case '\n':
+        case '\u000B':
+        case '\f':
+        case '\r':
+          return (true);
+      }
+    }
+    String sep = separator.trim();
+    return (!sep.isEmpty() && s.contains(sep));
+  }
+
+  /** Formats rows */
+  protected String format(Object[][] rows, int numRows) {
+    StringBuilder b = new StringBuilder(numRows * 64);
+    for (int r = 0; r < numRows; r++) {
+      Object[] row = rows[r];
+      int start = b.length();
+      for (int c = 0; c < row.length; c++) {
+        if (c != 0) b.append(separator);
+        start = b.length();
+        appendValue(b, row[c]);
+      }
+      // CSVLines drops an empty value at the end of a line, so it is quoted
+      if (quoting && row.length > 1 && b.length() == start) b.append("\"\"");
+      b.append('\n');
+    }
+    return (b.toString());
+  }
+
+  // ---------------------------------------------------------------------
+  //           Export
+  // ---------------------------------------------------------------------
+
+  /** Opens a buffered UTF-8 writer on the file (gzipped if desired) */
+  protected Writer open(File output) throws IOException {
+    OutputStream out = new FileOutputStream(output);
+    if (gzip) out = new GZIPOutputStream(out, 64 * 1024);
+    return (new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), BUFFERSIZE));
+  }
+
+  /** Returns the file of the shard, e.g. facts-00003.csv.gz for facts.csv.gz */
+  public static File shardFile(File output, int shard) {
+    String name = output.getName();
+    int dot = name.indexOf('.');
+    String suffix = String.format("-%05d", shard);
+    if (dot <= 0) name = name + suffix;
+    else name = name.substring(0, dot) + suffix + name.substring(dot);
+    return (new File(output.getParentFile(), name));
+  }
+
+  /** Runs the query on a forward-only cursor. Switches off auto-commit, because
+   * some drivers (e.g., Postgres) fetch the whole result otherwise. The caller
+   * restores auto-commit by closeCursor(), also if this method fails. */
+  protected ResultSet openCursor(Database db, String selectCommand) throws SQLException {
+    Connection c = db.leaseConnection();
+    if (c != null && c.getAutoCommit()) c.setAutoCommit(false);
+    return (db.query(selectCommand, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, db.streamingFetchSize(fetchSize)));
+  }
+
+  /** Closes the cursor (if not NULL) and restores auto-commit. If restoring fails, the
+   * exception is added to the given failure, or thrown if there is none. */
+  protected void closeCursor(Database db, ResultSet r, boolean autoCommit, Throwable failure) throws SQLException {
+    if (r != null) Database.close(r);
+    Connection c = db.leaseConnection();
+    if (c != null) Database.restoreAutoCommit(c, autoCommit, failure);
+  }
+
+  /** Writes the rows of the result to the writer, returns the number of rows.
+   * Formats on the given executor (or on this thread if NULL), keeping at most 2 chunks per thread in memory. */
+  protected long write(ResultSet r, Writer out, ExecutorService formatters) throws IOException, SQLException {
+    ResultSetMetaData meta = r.getMetaData();
+    int numCols = meta.getColumnCount();
+    if (headerPrefix != null) {
+      Object[][] header = new Object[1][numCols];
+      for (int column = 0; column < numCols; column++)
+        header[0][column] = meta.getColumnLabel(column + 1);
+      out.write(headerPrefix);
+      out.write(format(header, 1));
+    }
+    Deque<Future<String>> pending = new ArrayDeque<Future<String>>();
+    int maxPending = Math.max(2, 2 * threads);
+    long rows = 0;
+    Object[][] chunk = new Object[CHUNKSIZE][];
+    int size = 0;
+    boolean more = true;
+    while (more) {
+      more = r.next();
+      if (more) {
+        Object[] row = new Object[numCols];
+        for (int column = 0; column < numCols; column++)
+          row[column] = r.getObject(column + 1);
+        chunk[size++] = row;
+        rows++;
+      }
+      if (size == CHUNKSIZE || (!more && size > 0)) {
+        if (formatters == null) {
+          out.write(format(chunk, size));
+        } else {
+          final Object[][] rowsToFormat = chunk;
+          final int numRows = size;
+          pending.add(formatters.submit(new Callable<String>() {
+
+            @Override
+            public String call() {
+              return (format(rowsToFormat, numRows));
+            }
+          }));
+          chunk = new Object[CHUNKSIZE][];
+        }
+        size = 0;
+      }
+      while (!pending.isEmpty() && (pending.size() >= maxPending || !more || pending.peek().isDone())) {
+        out.write(result(pending.poll()));
+      }
+    }
+    return (rows);
+  }
+
+  /** Waits for a formatted chunk */
+  protected static String result(Future<String> f) throws IOException {
+    try {
+      return (f.get());
+    } catch (InterruptedException e) {
+      throw new IOException("Interrupted while formatting", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Formatting failed", e.getCause());
+    }
+  }
+
+  /** Creates the formatting threads (or NULL if the rows are formatted on the reading thread) */
+  protected ExecutorService newFormatters() {
+    if (threads <= 1) return (null);
+    return (Executors.newFixedThreadPool(threads));
+  }
+
+  /** Exports the result of the query to the file, returns the number of rows */
+  public long export(Database db, String selectCommand, File output) throws IOException, SQLException {
+    if (announceMsg != null) Announce.doing(announceMsg);
+    ExecutorService formatters = newFormatters();
+    try {
+      long rows = export(db, selectCommand, output, formatters);
+      if (announceMsg != null) Announce.done(rows + " rows");
+      return (rows);
+    } catch (IOException e) {
+      if (announceMsg != null) Announce.failed();
+      throw e;
+    } catch (SQLException e) {
+      if (announceMsg != null) Announce.failed();
+      throw e;
+    } finally {
+      if (formatters != null) formatters.shutdownNow();
+    }
+  }
+
+  /** Exports the result of the query to the file with the given formatters.
+   * Auto-commit is restored even if the export fails. Since the connection is shared,
+   * other statements of the same thread run inside the cursor's transaction meanwhile. */
+  protected long export(Database db, String selectCommand, File output, ExecutorService formatters) throws IOException, SQLException {
+    Connection c = db.leaseConnection();
+    boolean autoCommit = c == null || c.getAutoCommit();
+    ResultSet r = null;
+    Throwable failure = null;
+    try {
+      r = openCursor(db, selectCommand);
+      Writer out = open(output);
+      try {
+        return (write(r, out, formatters));
+      } finally {
+        out.close();
+      }
+    } catch (IOException e) {
+      failure = e;
+      throw e;
+    } catch (SQLException e) {
+      failure = e;
+      throw e;
+    } catch (RuntimeException e) {
+      failure = e;
+      throw e;
+    } finally {
+      closeCursor(db, r, autoCommit, failure);
+    }
+  }
+
+  /** Returns the smallest and the largest value of the key column */
+  protected long[] keyRange(Database db, String table, String keyColumn) throws SQLException {
+    ResultSet r = db.query("SELECT MIN(" + keyColumn + "), MAX(" + keyColumn + ") FROM " + table);
+    try {
+      if (!r.next()) return (new long[] { 0, -1 });
+      long min = r.getLong(1);
+      if (r.wasNull()) return (new long[] { 0, -1 });
+      return (new long[] { min, r.getLong(2) });
+    } finally {
+      Database.close(r);
+    }
+  }
+
+  /** Returns the conditions that split the key range from min to max (inclusive) into shards of equal width.
+   * Computes with BigIntegers, because max - min overflows a long near Long.MIN_VALUE and Long.MAX_VALUE.
+   * Shards beyond max get a condition that is always false. */
+  protected static String[] shardRanges(String keyColumn, long min, long max, int shards) {
+    String[] ranges = new String[shards];
+    BigInteger first = BigInteger.valueOf(min);
+    BigInteger last = BigInteger.valueOf(max);
+    BigInteger step = max < min ? BigInteger.ONE : last.subtract(first).divide(BigInteger.valueOf(shards)).add(BigInteger.ONE);
+    for (int i = 0; i < shards; i++) {
+      BigInteger from = first.add(step.multiply(BigInteger.valueOf(i)));
+      BigInteger to = from.add(step).subtract(BigInteger.ONE).min(last);
+      if (from.compareTo(to) > 0) ranges[i] = "1 = 0";
+      else ranges[i] = keyColumn + " >= " + from + " AND " + keyColumn + " <= " + to;
+    }
+    return (ranges);
+  }
+
+  /** Splits the table by ranges of the numerical key column into shards and exports them in parallel,
+   * using one thread per Database. Returns the number of rows. */
+  public long exportRanges(List<? extends Database> dbs, String table, String keyColumn, int shards, File output)
+      throws IOException, SQLException {
+    long[] range = keyRange(dbs.get(0), table, keyColumn);
+    return (exportRanges(dbs, table, keyColumn, range[0], range[1], shards, output));
+  }
+
+  /** Splits the table by ranges of the numerical key column (from min to max, inclusive) into shards
+   * and exports them in parallel into the files given by shardFile(), using one thread per Database.
+   * Rows with a NULL key go to the last shard. Returns the number of rows. */
+  public long exportRanges(List<? extends Database> dbs, final String table, final String keyColumn, long min, long max,
+      final int shards, final File output) throws IOException, SQLException {
+    if (shards < 1) throw new IllegalArgumentException("CSVExporter needs at least one shard");
+    final String[] ranges = shardRanges(keyColumn, min, max, shards);
+    final ExecutorService formatters = newFormatters();
+    ExecutorService workers = Executors.newFixedThreadPool(dbs.size());
+    final AtomicInteger nextShard = new AtomicInteger();
+    final AtomicInteger doneShards = new AtomicInteger();
+    if (announceMsg != null) Announce.progressStart(announceMsg, shards);
+    List<Future<Long>> results = new ArrayList<Future<Long>>();
+    for (final Database db : dbs) {
+      results.add(workers.submit(new Callable<Long>() {
+
+        @Override
+        public Long call() throws Exception {
+          long rows = 0;
+          int shard;
+          while ((shard = nextShard.getAndIncrement()) < shards) {
+            String sql = "SELECT * FROM " + table + " WHERE " + ranges[shard];
+            if (shard == shards - 1) sql += " OR " + keyColumn + " IS NULL";
+            rows += export(db, sql, shardFile(output, shard), formatters);
+            int done = doneShards.incrementAndGet();
+            if (announceMsg != null) synchronized (CSVExporter.this) {
+              Announce.progressAt(done);
+            }
+          }
+          return (rows);
+        }
+      }));
+    }
+    long rows = 0;
+    try {
+      for (Future<Long> f : results) {
+        try {
+          rows += f.get();
+        } catch (InterruptedException e) {
+          throw new IOException("Interrupted while exporting", e);
+        } catch (ExecutionException e) {
+          // Make the other workers stop after their current shard
+          nextShard.set(shards);
+          if (e.getCause() instanceof SQLException) throw (SQLException) e.getCause();
+          if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+          throw new IOException("Export of " + table + " failed", e.getCause());
+        }
+      }
+    } finally {
+      workers.shutdownNow();
+      if (formatters != null) formatters.shutdownNow();
+      if (announceMsg != null) Announce.progressDone();
+    }
+    return (rows);
+  }
+}
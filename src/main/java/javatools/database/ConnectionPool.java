@@ -0,0 +1,358 @@
+package javatools.database;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+Copyright 2016 Fabian M. Suchanek
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+
+This class holds a bounded set of connections of a Database, and leases them
+to threads. A thread keeps its connection until it calls release() (or until it
+dies), so that all queries of a thread (including transactions and open result
+sets) run on the same connection. If all connections are leased, a thread waits
+until one is released (at most leaseTimeout milliseconds). Idle connections are
+checked by Database.isValid() before they are leased again; broken ones are
+replaced by new connections.<BR>
+The pool is created by Database.setPoolSize():
+<PRE>
+  Database d=new PostgresDatabase(...);
+  d.setPoolSize(8);
+  // in each worker thread:
+  try {
+    d.query(...);
+  } finally {
+    d.releaseConnection();
+  }
+  System.out.println(d.getPool());
+  -&gt; ConnectionPool of ... : 3 active, 5 idle, 8 open, 120 leases, average wait 0.2 ms, ...
+</PRE>
+*/
+public class ConnectionPool implements Closeable {
+
+  /** Default time in milliseconds that a thread waits for a connection */
+  public static final long LEASETIMEOUT = 30000;
+
+  /** The database that opens and checks the connections */
+  protected final Database database;
+
+  /** Maximal number of open connections */
+  protected final int maxSize;
+
+  /** Time in milliseconds that a thread waits for a connection */
+  protected long leaseTimeout = LEASETIMEOUT;
+
+  /** Connections that are not leased */
+  protected final Deque<Connection> idle = new ArrayDeque<Connection>();
+
+  /** Leased connections by thread */
+  protected final Map<Thread, Connection> leased = new HashMap<Thread, Connection>();
+
+  /** Number of open connections (idle, leased, or being opened) */
+  protected int open = 0;
+
+  /** TRUE if the pool has been closed */
+  protected boolean closed = false;
+
+  /** Number of leases */
+  protected long leases = 0;
+
+  /** Number of lease attempts that had to wait for a connection */
+  protected long waits = 0;
+
+  /** Total time that threads waited for a connection */
+  protected long waitNanos = 0;
+
+  /** Longest time that a thread waited for a connection */
+  protected long maxWaitNanos = 0;
+
+  /** Number of connections opened */
+  protected long created = 0;
+
+  /** Number of connections closed because they were broken */
+  protected long discarded = 0;
+
+  /** Creates a pool with at most maxSize connections */
+  public ConnectionPool(Database database, int maxSize) {
+    if (maxSize < 1) throw new IllegalArgumentException("A ConnectionPool needs at least one connection");
+    this.database = database;
+    this.maxSize = maxSize;
+  }
+
+  /** Adds an open connection as idle connection (e.g., the connection the database had before pooling) */
+  public synchronized void add(Connection c) {
+    if (c == null) return;
+    if (open >= maxSize) {
+      closeConnection(c);
+      return;
+    }
+    open++;
+    idle.push(c);
+    notifyAll();
+  }
+
+  /** Sets the time in milliseconds that a thread waits for a connection */
+  public void setLeaseTimeout(long leaseTimeout) {
+    this.leaseTimeout = leaseTimeout;
+  }
+
+  /** Returns the connection leased by the current thread, or NULL */
+  public synchronized Connection current() {
+    return (leased.get(Thread.currentThread()));
+  }
+
+  /** Returns the connection of the current thread. Leases one if necessary, waiting if all are leased. */
+  public Connection lease() throws SQLException {
+    Thread thread = Thread.currentThread();
+    Connection c;
+    long start = System.nanoTime();
+    boolean waited = false;
+    boolean reclaimed = false;
+    synchronized (this) {
+      c = leased.get(thread);
+      if (c != null) return (c);
+      long deadline = start + leaseTimeout * 1000000L;
+      while (true) {
+        if (closed) throw new SQLException("ConnectionPool is closed");
+        if (!idle.isEmpty()) {
+          c = idle.pop();
+          break;
+        }
+        if (open < maxSize) {
+          open++;
+          break;
+        }
+        c = reclaim();
+        if (c != null) {
+          reclaimed = true;
+          break;
+        }
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) throw new SQLException("No connection available after " + leaseTimeout + " ms (" + maxSize + " connections leased)");
+        if (!waited) waits++;
+        waited = true;
+        try {
+          wait(remaining / 1000000L + 1);
+        } catch (InterruptedException e) {
+          throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+      }
+    }
+    // Check (or reset) or open the connection outside of the lock, the slot is ours
+    if (c != null && ((reclaimed && !reset(c)) || !database.isValid(c))) {
+      closeConnection(c);
+      c = null;
+      synchronized (this) {
+        discarded++;
+      }
+    }
+    boolean opened = false;
+    if (c == null) {
+      try {
+        c = database.newConnection();
+        opened = true;
+      } catch (SQLException e) {
+        synchronized (this) {
+          open--;
+          notifyAll();
+        }
+        throw e;
+      }
+    }
+    try {
+      database.leased(c);
+    } catch (SQLException e) {
+      closeConnection(c);
+      synchronized (this) {
+        open--;
+        discarded++;
+        notifyAll();
+      }
+      throw e;
+    }
+    long nanos = System.nanoTime() - start;
+    synchronized (this) {
+      if (closed) {
+        open--;
+        closeConnection(c);
+        throw new SQLException("ConnectionPool is closed");
+      }
+      leased.put(thread, c);
+      if (opened) created++;
+      leases++;
+      waitNanos += nanos;
+      if (nanos > maxWaitNanos) maxWaitNanos = nanos;
+    }
+    return (c);
+  }
+
+  /** Takes back the connection of a thread that died without releasing it, or returns NULL.
+   * The connection has to be reset (see reset()) before it is leased again. */
+  protected synchronized Connection reclaim() {
+    Iterator<Map.Entry<Thread, Connection>> it = leased.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<Thread, Connection> e = it.next();
+      if (e.getKey().isAlive()) continue;
+      it.remove();
+      return (e.getValue());
+    }
+    return (null);
+  }
+
+  /** Rolls back an open transaction of a connection and restores autocommit (see Database.resetConnection).
+   * Returns FALSE if that failed. */
+  protected boolean reset(Connection c) {
+    try {
+      database.resetConnection(c);
+      return (true);
+    } catch (SQLException e) {
+      return (false);
+    }
+  }
+
+  /** Gives the connection of the current thread back to the pool. Rolls back an open transaction. */
+  public void release() {
+    Connection c;
+    synchronized (this) {
+      c = leased.remove(Thread.currentThread());
+    }
+    if (c == null) return;
+    if (!reset(c)) {
+      discard(c);
+      return;
+    }
+    synchronized (this) {
+      if (closed) {
+        open--;
+        closeConnection(c);
+      } else {
+        idle.push(c);
+      }
+      notifyAll();
+    }
+  }
+
+  /** Closes the connection of the current thread (e.g., because it is broken). The next lease opens a new one. */
+  public void discard() {
+    Connection c;
+    synchronized (this) {
+      c = leased.remove(Thread.currentThread());
+    }
+    if (c != null) discard(c);
+  }
+
+  /** Closes a connection that was leased */
+  protected void discard(Connection c) {
+    closeConnection(c);
+    synchronized (this) {
+      open--;
+      discarded++;
+      notifyAll();
+    }
+  }
+
+  /** Closes all connections, including the leased ones */
+  @Override
+  public void close() {
+    List<Connection> toClose = new ArrayList<Connection>();
+    synchronized (this) {
+      if (closed) return;
+      closed = true;
+      toClose.addAll(idle);
+      toClose.addAll(leased.values());
+      open -= toClose.size();
+      idle.clear();
+      leased.clear();
+      notifyAll();
+    }
+    for (Connection c : toClose)
+      closeConnection(c);
+  }
+
+  /** Closes a connection and the statements that the database cached for it */
+  protected void closeConnection(Connection c) {
+    database.invalidateStatements(c);
+    database.transactions.remove(c);
+    Database.close(c);
+  }
+
+  // ---------------------------------------------------------------------
+  //           Metrics
+  // ---------------------------------------------------------------------
+
+  /** Returns the maximal number of connections */
+  public int getMaxSize() {
+    return (maxSize);
+  }
+
+  /** Returns the number of leased connections */
+  public synchronized int getActiveCount() {
+    return (leased.size());
+  }
+
+  /** Returns the number of idle connections */
+  public synchronized int getIdleCount() {
+    return (idle.size());
+  }
+
+  /** Returns the number of open connections */
+  public synchronized int getOpenCount() {
+    return (open);
+  }
+
+  /** Returns the number of leases */
+  public synchronized long getLeaseCount() {
+    return (leases);
+  }
+
+  /** Returns the number of lease attempts that had to wait because all connections were leased */
+  public synchronized long getWaitCount() {
+    return (waits);
+  }
+
+  /** Returns the average time in milliseconds that a lease took (including opening or checking the connection) */
+  public synchronized double getAverageWaitMillis() {
+    return (leases == 0 ? 0 : waitNanos / 1e6 / leases);
+  }
+
+  /** Returns the longest time in milliseconds that a lease took */
+  public synchronized double getMaxWaitMillis() {
+    return (maxWaitNanos / 1e6);
+  }
+
+  /** Returns the number of connections that were opened */
+  public synchronized long getCreatedCount() {
+    return (created);
+  }
+
+  /** Returns the number of connections that were closed because they were broken */
+  public synchronized long getDiscardedCount() {
+    return (discarded);
+  }
+
+  @Override
+  public synchronized String toString() {
+    return (String.format("ConnectionPool of %s: %d active, %d idle, %d open, %d leases, %d waits, average wait %.1f ms, max wait %.1f ms, %d created, %d discarded",
+        database, leased.size(), idle.size(), open, leases, waits, getAverageWaitMillis(), getMaxWaitMillis(), created, discarded));
+  }
+}
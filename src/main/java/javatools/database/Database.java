@@ -4,6 +4,10 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.Driver;
 import java.sql.DriverManager;
@@ -16,9 +20,23 @@ import java.sql.Statement;
 import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import javatools.administrative.Announce;
 import javatools.administrative.D;
@@ -55,6 +73,11 @@ import javatools.filehandlers.UTF8Writer;
  * } 
  * -&gt; Pizza Spaghetti Saltimbocca
  * </PRE>
+ * 
+ * Queries with parameters are prepared once per connection and cached:
+ * <PRE>
+ * ResultSet r=d.query("SELECT price FROM food WHERE foodname=?", "Pizza");
+ * </PRE>
  *  
  * It is possible to execute multiple INSERT statements by a bulk loader: 
  * <PRE>
@@ -67,7 +90,14 @@ import javatools.filehandlers.UTF8Writer;
  * </PRE>
  * 
  * The inserters are automatically flushed every 1000 insertions and when
- * closed. They are flushed and closed when the database is closed.
+ * closed. They are flushed and closed when the database is closed. An
+ * AsyncInserter (see newAsyncInserter) flushes on a background thread instead.
+ * An inserter prepares its query once per connection, and reports its 
+ * throughput (see getRowsPerSecond() and getAverageBatchLatency()).
+ * <P>
+ * By default, a Database has one connection. After setPoolSize(n), it keeps up
+ * to n connections, and each thread that queries the database leases one of its
+ * own until it calls releaseConnection() (see ConnectionPool).
  * <P>
  * Unfortunately, the same datatype is called differently on different database
  * systems, behaves differently and is written down differently. There is an
@@ -137,15 +167,22 @@ public abstract class Database {
    *  otherwise we will simply issue a dummy query and see whether we get an answer */
   int validityCheckTimeout = 150;
 
+  /** indicates whether newInserter may return an inserter that uses the bulk loading
+   *  command of the database (such as COPY in Postgres) instead of INSERT statements,
+   *  if the driver supports it. Off by default, because the bulk loaders do not report
+   *  bad rows the same way as INSERT statements (see setBulkLoading) */
+  boolean bulkLoading = false;
+
   // ---------------------------------------------------------------------
   //           Internals
   // ---------------------------------------------------------------------
 
-  /** Handle for the database */
+  /** Handle for the database (NULL in pooled mode, see setPoolSize) */
   protected Connection connection;
 
-  /** 
-  
+  /** The pool of connections in pooled mode, or NULL */
+  protected ConnectionPool pool;
+
   /** Describes this database */
   protected String description = "Unconnected default database";
 
@@ -164,17 +201,58 @@ public abstract class Database {
    *       of the same type...check that and adapt */
   protected Driver driver = null;
 
-  /** Returns the connection */
+  /** Returns the connection. In pooled mode, returns the connection leased by the current thread
+   * (and leases one if necessary, see leaseConnection). */
   public Connection getConnection() {
-    return (connection);
+    if (pool == null) return (connection);
+    try {
+      return (pool.lease());
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /** Returns the connection. In pooled mode, returns the connection leased by the current thread,
+   * and leases one if the thread has none (waiting if all connections are leased). */
+  protected Connection leaseConnection() throws SQLException {
+    if (pool == null) return (connection);
+    return (pool.lease());
+  }
+
+  /** In pooled mode, gives the connection of the current thread back to the pool. 
+   * Open result sets of the thread become invalid, an open transaction is rolled back.
+   * In unpooled mode, closes the prepared statements that the current thread cached (see query(String, Object...)).*/
+  public void releaseConnection() {
+    if (pool != null) pool.release();
+    else closeStatements(connection, Thread.currentThread());
+  }
+
+  /** Switches to pooled mode with at most the given number of connections, or back to a single connection
+   * if the size is 0. In pooled mode, each thread that queries the database leases a connection of its own
+   * and keeps it until it calls releaseConnection(). See ConnectionPool. */
+  public void setPoolSize(int maxConnections) throws SQLException {
+    if (maxConnections == 0) {
+      if (pool == null) return;
+      pool.close();
+      pool = null;
+      connect();
+      return;
+    }
+    ConnectionPool newPool = new ConnectionPool(this, maxConnections);
+    if (pool != null) pool.close();
+    else newPool.add(connection);
+    connection = null;
+    pool = newPool;
+  }
+
+  /** Returns the pool of connections (or NULL if the database is not in pooled mode) */
+  public ConnectionPool getPool() {
+    return (pool);
   }
 
   /** the default transaction mode into which to change for transactions */
   private static int defaultTransactionMode = Connection.TRANSACTION_REPEATABLE_READ;
 
-  /** keep track of original transaction mode setting */
-  private int originalTransactionMode;
-
   /** Holds all active inserters to close them in the end*/
   protected List<Inserter> inserters = new ArrayList<Inserter>();
 
@@ -226,8 +304,15 @@ public abstract class Database {
    ****                                   Initiate and ShutDown                                                 ****
    *****************************************************************************************************************/
 
-  /** (re-)connects to the database specified */
+  /** (re-)connects to the database specified. In pooled mode, replaces the connection of the current thread. */
   public void reconnect() throws SQLException {
+    if (pool != null) {
+      pool.discard();
+      pool.lease();
+      return;
+    }
+    invalidateStatements(connection);
+    transactions.remove(connection);
     close(connection);
     connect();
   }
@@ -235,6 +320,11 @@ public abstract class Database {
   /** connects to the database specified */
   public abstract void connect() throws SQLException;
 
+  /** Opens a new connection to the database specified (used by the ConnectionPool) */
+  protected Connection newConnection() throws SQLException {
+    throw new SQLFeatureNotSupportedException(getClass().getSimpleName() + " cannot open additional connections");
+  }
+
   /** Closes a connection */
   public static void close(Connection connection) {
     try {
@@ -276,7 +366,7 @@ public abstract class Database {
   public void close() {
     if (closed) // we need to make sure we only close it once (either manually or by finalizer)
       return;
-    if (inTransactionMode) {
+    if (currentTransaction() != null) {
       try {
         commitTransaction();
       } catch (TransactionSQLException ex) {
@@ -285,6 +375,8 @@ public abstract class Database {
     }
     while (inserters.size() != 0)
       inserters.get(0).close();
+    if (pool != null) pool.close();
+    invalidateStatements(connection);
     close(connection);
     try {
       DriverManager.deregisterDriver(driver);
@@ -297,7 +389,7 @@ public abstract class Database {
   /** Flush the connection 
   * @throws SQLException */
   public void flush() throws SQLException {
-    if (inTransactionMode) {
+    if (currentTransaction() != null) {
       try {
         commitTransaction();
       } catch (TransactionSQLException ex) {
@@ -377,6 +469,21 @@ public abstract class Database {
     this.fetchsize = fetchsize;
   }
 
+  /** indicates whether newInserter may return an inserter that uses the bulk loading
+   *  command of the database (such as COPY in Postgres) instead of INSERT statements */
+  public boolean isBulkLoading() {
+    return bulkLoading;
+  }
+
+  /** enables/disables inserters that use the bulk loading command of the database
+   *  (such as COPY in Postgres) instead of INSERT statements, if the driver supports it.
+   *  A bulk loader sends a whole batch in one command: COPY fails for the whole batch if one
+   *  row is bad, LOAD DATA reports bad rows as warnings (the MySQL inserter turns them into
+   *  an SQLException and rolls the batch back, see MySQLDatabase). Off by default. */
+  public void setBulkLoading(boolean bulkLoading) {
+    this.bulkLoading = bulkLoading;
+  }
+
   /** time in milliseconds after which a connection is considered broken 
    *  when no answer is received within that time frame
    */
@@ -424,17 +531,36 @@ public abstract class Database {
     this.resultSetType = resultSetType;
   }
 
-  /** Checks whether the connection to the database is still alive */
+  /** Checks whether the connection to the database (in pooled mode: the connection of the current thread) is still alive */
   public boolean connected() {
     try {
-      return (!connection.isClosed()) && connection.isValid(validityCheckTimeout);
+      return (isValid(leaseConnection()));
+    } catch (SQLException ex) {
+      return false;
+    }
+  }
+
+  /** Returns a query that checks the connection if the driver does not support isValid() */
+  protected String validationQuery() {
+    //This should work for: H2, MySQL, MS SQL Server, PostgreSQL, SQLite; Oracle is treated differently, see OracleDatabase
+    return ("SELECT 1");
+  }
+
+  /** Checks whether a connection is still alive */
+  protected boolean isValid(Connection c) {
+    if (c == null) return (false);
+    try {
+      return (!c.isClosed()) && c.isValid(validityCheckTimeout);
     } catch (SQLFeatureNotSupportedException nosupport) {
-      try { //This should work for: H2, MySQL, MS SQL Server, PostgreSQL, SQLite; Oracle is treated differently, see OracleDatabase
-        ResultSet rs = executeQuery("SELECT 1", resultSetType, resultSetConcurrency, null);
-        close(rs);
+      Statement s = null;
+      try {
+        s = c.createStatement(resultSetType, resultSetConcurrency);
+        close(s.executeQuery(validationQuery()));
         return true;
       } catch (SQLException ex) {
         return false;
+      } finally {
+        close(s);
       }
     } catch (SQLException ex) {
       Announce.warning("Connection check failed, this should not happen.", ex);
@@ -478,7 +604,7 @@ public abstract class Database {
    * methods.
    */
   protected ResultSet executeQuery(String sql, int resultSetType, int resultSetConcurrency, Integer fetchsize) throws SQLException {
-    Statement stmnt = connection.createStatement(resultSetType, resultSetConcurrency);
+    Statement stmnt = leaseConnection().createStatement(resultSetType, resultSetConcurrency);
     if (fetchsize != null) stmnt.setFetchSize(fetchsize);
     else stmnt.setFetchSize(this.fetchsize);
     return (stmnt.executeQuery(sql));
@@ -552,7 +678,7 @@ public abstract class Database {
   protected int executeUpdateQuery(String sqlcs) throws SQLException {
     String sql = prepareQuery(sqlcs.toString());
     try {
-      Statement s = connection.createStatement();
+      Statement s = leaseConnection().createStatement();
       int result = s.executeUpdate(sql);
       close(s);
       return (result);
@@ -561,6 +687,259 @@ public abstract class Database {
     }
   }
 
+  // ---------------------------------------------------------------------
+  //                  Parameterized queries
+  // ---------------------------------------------------------------------
+
+  /** Default number of prepared statements that are cached per connection */
+  public static final int STATEMENTCACHESIZE = 64;
+
+  /** Number of prepared statements that are cached per connection */
+  protected int statementCacheSize = STATEMENTCACHESIZE;
+
+  /** Holds the cached prepared statements per connection and thread. In pooled mode, a connection belongs to
+   * one thread at a time, and all threads share its cache (under the key NULL). In unpooled mode, the threads
+   * share the connection, and each thread has a cache of its own, so that no two threads bind and execute 
+   * the same statement (or invalidate each other's results). The caches of threads that have died are
+   * closed when another thread misses the cache, or by releaseConnection(). */
+  protected final Map<Connection, Map<Thread, StatementCache>> statementCaches = new HashMap<Connection, Map<Thread, StatementCache>>();
+
+  /** Holds the cached statements of this database, so that executePreparedUpdate does not close them */
+  protected final Set<Statement> cachedStatements = Collections.synchronizedSet(new HashSet<Statement>());
+
+  /** Number of parameterized queries that found their statement in the cache */
+  protected long statementCacheHits = 0;
+
+  /** Number of parameterized queries that had to prepare their statement */
+  protected long statementCacheMisses = 0;
+
+  /** An LRU cache of the prepared statements of a connection, keyed by their SQL text. 
+   * Closes the statements that drop out.*/
+  protected static class StatementCache extends LinkedHashMap<String, PreparedStatement> {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Maximal number of statements */
+    protected final int maxSize;
+
+    /** The cached statements of the database */
+    protected final Set<Statement> cachedStatements;
+
+    public StatementCache(int maxSize, Set<Statement> cachedStatements) {
+      super(16, 0.75f, true);
+      this.maxSize = maxSize;
+      this.cachedStatements = cachedStatements;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+      if (size() <= maxSize) return (false);
+      cachedStatements.remove(eldest.getValue());
+      close(eldest.getValue());
+      return (true);
+    }
+
+    /** Closes all statements */
+    public void closeAll() {
+      for (PreparedStatement statement : values()) {
+        cachedStatements.remove(statement);
+        close(statement);
+      }
+      clear();
+    }
+  }
+
+  /** Sets the number of prepared statements that are cached per connection (0 switches the cache off) */
+  public void setStatementCacheSize(int size) {
+    synchronized (statementCaches) {
+      for (Map<Thread, StatementCache> caches : statementCaches.values())
+        for (StatementCache cache : caches.values())
+          cache.closeAll();
+      statementCaches.clear();
+      statementCacheSize = size;
+    }
+  }
+
+  /** Returns the number of parameterized queries that found their statement in the cache */
+  public long getStatementCacheHits() {
+    synchronized (statementCaches) {
+      return (statementCacheHits);
+    }
+  }
+
+  /** Returns the number of parameterized queries that had to prepare their statement */
+  public long getStatementCacheMisses() {
+    synchronized (statementCaches) {
+      return (statementCacheMisses);
+    }
+  }
+
+  /** Closes the cached statements of a connection (called when the connection is closed or replaced) */
+  protected void invalidateStatements(Connection c) {
+    Map<Thread, StatementCache> caches;
+    synchronized (statementCaches) {
+      caches = statementCaches.remove(c);
+      if (caches == null) return;
+      for (StatementCache cache : caches.values())
+        cache.closeAll();
+    }
+  }
+
+  /** Closes the cached statements of the thread on the connection */
+  protected void closeStatements(Connection c, Thread thread) {
+    synchronized (statementCaches) {
+      Map<Thread, StatementCache> caches = statementCaches.get(c);
+      if (caches == null) return;
+      StatementCache cache = caches.remove(thread);
+      if (cache != null) cache.closeAll();
+    }
+  }
+
+  /** Closes the cached statements of threads that have died (call only when synchronized on statementCaches) */
+  protected void closeDeadThreads(Map<Thread, StatementCache> caches) {
+    Iterator<Map.Entry<Thread, StatementCache>> it = caches.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<Thread, StatementCache> entry = it.next();
+      if (entry.getKey() == null || entry.getKey().isAlive()) continue;
+      entry.getValue().closeAll();
+      it.remove();
+    }
+  }
+
+  /** Returns a prepared statement for the query from the cache of the connection, prepares it if necessary */
+  protected PreparedStatement preparedStatement(Connection c, String sql) throws SQLException {
+    if (statementCacheSize <= 0) {
+      synchronized (statementCaches) {
+        statementCacheMisses++;
+      }
+      return (c.prepareStatement(sql, resultSetType, resultSetConcurrency));
+    }
+    Thread owner = pool == null ? Thread.currentThread() : null;
+    StatementCache cache;
+    PreparedStatement statement;
+    synchronized (statementCaches) {
+      Map<Thread, StatementCache> caches = statementCaches.get(c);
+      if (caches == null) statementCaches.put(c, caches = new HashMap<Thread, StatementCache>());
+      cache = caches.get(owner);
+      if (cache == null) caches.put(owner, cache = new StatementCache(statementCacheSize, cachedStatements));
+      statement = cache.get(sql);
+      if (statement != null && !statement.isClosed()) {
+        statementCacheHits++;
+        return (statement);
+      }
+      statementCacheMisses++;
+      closeDeadThreads(caches);
+    }
+    statement = c.prepareStatement(sql, resultSetType, resultSetConcurrency);
+    cachedStatements.add(statement);
+    synchronized (statementCaches) {
+      cache.put(sql, statement);
+    }
+    return (statement);
+  }
+
+  /** Sets the parameters of a prepared statement. Uses the SQL type of java2SQL where there is one. */
+  protected void bind(PreparedStatement statement, Object... params) throws SQLException {
+    statement.clearParameters();
+    for (int i = 0; i < params.length; i++) {
+      Object o = params[i];
+      if (o == null) {
+        statement.setNull(i + 1, Types.NULL);
+        continue;
+      }
+      SQLType type = java2SQL.get(o.getClass());
+      if (type != null) statement.setObject(i + 1, o, type.getTypeCode());
+      else statement.setObject(i + 1, o);
+    }
+  }
+
+  /** Runs a parameterized query on a prepared statement. The result of a cached statement
+   * hands out a view of the statement that close() does not close (see cachedResult). */
+  protected ResultSet executePreparedQuery(String sql, Object... params) throws SQLException {
+    PreparedStatement statement = preparedStatement(leaseConnection(), sql);
+    bind(statement, params);
+    statement.setFetchSize(fetchsize);
+    ResultSet result = statement.executeQuery();
+    if (!cachedStatements.contains(statement)) return (result);
+    return (cachedResult(result, statement));
+  }
+
+  /** Wraps the result of a cached statement, so that getStatement() returns a view of
+   * the statement whose close() does nothing. Then Database.close(ResultSet) and callers that
+   * close the statement of the result do not close the cached statement. */
+  protected static ResultSet cachedResult(final ResultSet result, final PreparedStatement statement) {
+    final PreparedStatement view = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+        new Class<?>[] { PreparedStatement.class }, new InvocationHandler() {
+
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("close") && method.getParameterTypes().length == 0) return (null);
+            return (delegate(statement, method, args));
+          }
+        });
+    return ((ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class }, new InvocationHandler() {
+
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getName().equals("getStatement") && method.getParameterTypes().length == 0) return (view);
+        return (delegate(result, method, args));
+      }
+    }));
+  }
+
+  /** Calls the method on the target, unwraps the exception of the call */
+  protected static Object delegate(Object target, Method method, Object[] args) throws Throwable {
+    try {
+      return (method.invoke(target, args));
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  /** Runs a parameterized update query on a prepared statement */
+  protected int executePreparedUpdate(String sql, Object... params) throws SQLException {
+    PreparedStatement statement = preparedStatement(leaseConnection(), sql);
+    try {
+      bind(statement, params);
+      return (statement.executeUpdate());
+    } catch (SQLException e) {
+      throw new SQLException(sql + " " + Arrays.toString(params) + "\n" + e.getMessage(), e);
+    } finally {
+      if (!cachedStatements.contains(statement)) close(statement);
+    }
+  }
+
+  /**
+   * Returns the results for a query with parameters (given as '?' in the query), e.g. 
+   * query("SELECT * FROM facts WHERE arg1=? AND arg2=?", "Elvis", "Tupelo").
+   * The query is prepared once per connection (in unpooled mode: once per connection and thread) and 
+   * kept in an LRU cache (see setStatementCacheSize), so that the database does not have to plan it again. 
+   * Call Database.close(ResultSet) on the result; this does not close the cached statement. The result is 
+   * valid until the same thread runs the same query again. To pass exactly two int parameters, pass them as an Object[], 
+   * because query(sql, int, int) takes the type and concurrency of the result set.
+   */
+  public ResultSet query(String sql, Object... params) throws SQLException {
+    sql = prepareQuery(sql);
+    try {
+      return executePreparedQuery(sql, params);
+    } catch (SQLException e) {
+      attemptReconnect(e, autoReconnectOnSelect);
+      return executePreparedQuery(sql, params);
+    }
+  }
+
+  /** Executes an SQL update query with parameters (given as '?' in the query), returns the number of rows added/deleted.
+   * The query is prepared once per connection and kept in an LRU cache (see query(String, Object...)).*/
+  public int executeUpdate(String sql, Object... params) throws SQLException {
+    sql = prepareQuery(sql);
+    try {
+      return executePreparedUpdate(sql, params);
+    } catch (SQLException e) {
+      attemptReconnect(e, autoReconnectOnUpdate);
+      return executePreparedUpdate(sql, params);
+    }
+  }
+
   /** Returns the results for a query as a ResultIterator */
   public <T> ResultIterator<T> query(CharSequence sql, ResultIterator.ResultWrapper<T> rc) throws SQLException {
     return (new ResultIterator<T>(query(sql, resultSetType, resultSetConcurrency), rc));
@@ -586,39 +965,56 @@ public abstract class Database {
   //                  Transactions
   // ---------------------------------------------------------------------  
 
-  /** indicates whether autocommit was enabled before we switched if off to start a transaction */
-  boolean autoCommitWasOn = true;
+  /** The state of an open transaction */
+  protected static class Transaction {
+
+    /** indicates whether autocommit was enabled before we switched if off to start the transaction */
+    protected boolean autoCommitWasOn = true;
 
-  boolean inTransactionMode = false;
+    /** keep track of original transaction mode setting */
+    protected int originalTransactionMode;
+  }
+
+  /** Holds the open transactions by their connection (in pooled mode, each thread has a connection of its own) */
+  protected final Map<Connection, Transaction> transactions = Collections.synchronizedMap(new HashMap<Connection, Transaction>());
+
+  /** Returns the open transaction on the connection of the current thread (without leasing one), or NULL */
+  protected Transaction currentTransaction() {
+    Connection c = pool == null ? connection : pool.current();
+    return (c == null ? null : transactions.get(c));
+  }
 
-  /** Initiates a transaction by disabling autocommit and enabling transaction mode */
+  /** Initiates a transaction by disabling autocommit and enabling transaction mode 
+   * (in pooled mode: on the connection of the current thread) */
   public void startTransaction() throws InitTransactionSQLException {
-    if (!inTransactionMode) {
-      try {
-        autoCommitWasOn = connection.getAutoCommit();
-        if (autoCommitWasOn) connection.setAutoCommit(false);
-      } catch (SQLException ex) {
-        throw new InitTransactionSQLException("Could not check and disable autocommit \nError was" + ex, ex);
-      }
-      try {
-        originalTransactionMode = connection.getTransactionIsolation();
-      } catch (SQLException ex) {
-        throw new InitTransactionSQLException("Could not get hold of transaction isolation\nError was" + ex, ex);
-      }
-      try {
-        connection.setTransactionIsolation(defaultTransactionMode);
-      } catch (SQLException ex) {
-        throw new InitTransactionSQLException("Could not set transaction isolation mode\nError was" + ex, ex);
-      }
-      inTransactionMode = true;
+    Connection c;
+    Transaction t = new Transaction();
+    try {
+      c = leaseConnection();
+      if (transactions.containsKey(c)) return;
+      t.autoCommitWasOn = c.getAutoCommit();
+      if (t.autoCommitWasOn) c.setAutoCommit(false);
+    } catch (SQLException ex) {
+      throw new InitTransactionSQLException("Could not check and disable autocommit \nError was" + ex, ex);
+    }
+    try {
+      t.originalTransactionMode = c.getTransactionIsolation();
+    } catch (SQLException ex) {
+      throw new InitTransactionSQLException("Could not get hold of transaction isolation\nError was" + ex, ex);
     }
+    try {
+      c.setTransactionIsolation(defaultTransactionMode);
+    } catch (SQLException ex) {
+      throw new InitTransactionSQLException("Could not set transaction isolation mode\nError was" + ex, ex);
+    }
+    transactions.put(c, t);
   }
 
   /** commits the transaction aggregated so far 
    * if the commit fails the transaction is rolled back!*/
   protected void commitTransaction() throws TransactionSQLException {
     try {
-      connection.commit();
+      leaseConnection().commit();
     } catch (SQLException ex) {
       CommitTransactionSQLException commitfail = new CommitTransactionSQLException("Could not commit transaction.", ex);
       try {
@@ -633,7 +1029,7 @@ public abstract class Database {
   /** resets the transaction rolling it back and closing it  */
   public void resetTransaction() throws TransactionSQLException {
     try {
-      connection.rollback();
+      leaseConnection().rollback();
     } catch (SQLException ex2) {
       throw new RollbackTransactionSQLException("Could not rollback transaction.");
     }
@@ -642,20 +1038,54 @@ public abstract class Database {
 
   /** executes the transaction and switches back from transaction mode into autocommit mode */
   public void endTransaction() throws TransactionSQLException {
-    if (inTransactionMode) {
-      commitTransaction();
-      try {
-        connection.setTransactionIsolation(originalTransactionMode);
-      } catch (SQLException ex) {
-        throw new TransactionSQLException("Could not shutdown transaction mode\n Error was:" + ex, ex);
-      }
-      try {
-        if (autoCommitWasOn) connection.setAutoCommit(true);
-      } catch (SQLException ex) {
-        throw new StartAutoCommitSQLException("Could not start autocommit\n Error was:" + ex, ex);
-      }
-      inTransactionMode = false;
+    Connection c;
+    try {
+      c = leaseConnection();
+    } catch (SQLException ex) {
+      throw new TransactionSQLException("Could not get hold of the connection\n Error was:" + ex, ex);
+    }
+    Transaction t = transactions.get(c);
+    if (t == null) return;
+    commitTransaction();
+    try {
+      c.setTransactionIsolation(t.originalTransactionMode);
+    } catch (SQLException ex) {
+      throw new TransactionSQLException("Could not shutdown transaction mode\n Error was:" + ex, ex);
+    }
+    try {
+      if (t.autoCommitWasOn) c.setAutoCommit(true);
+    } catch (SQLException ex) {
+      throw new StartAutoCommitSQLException("Could not start autocommit\n Error was:" + ex, ex);
     }
+    transactions.remove(c);
+  }
+
+  /** Rolls back an open transaction of a connection that goes back to the pool, and restores 
+   * autocommit and the transaction isolation (used by the ConnectionPool) */
+  protected void resetConnection(Connection c) throws SQLException {
+    Transaction t = transactions.remove(c);
+    if (c.isClosed()) return;
+    if (!c.getAutoCommit()) {
+      c.rollback();
+      c.setAutoCommit(true);
+    }
+    if (t != null) c.setTransactionIsolation(t.originalTransactionMode);
+  }
+
+  /** Sets the auto-commit mode of a connection back to what it was. If that fails, the exception 
+   * is added to the given failure, or thrown if there is none. */
+  protected static void restoreAutoCommit(Connection c, boolean autoCommit, Throwable failure) throws SQLException {
+    try {
+      if (c.getAutoCommit() != autoCommit) c.setAutoCommit(autoCommit);
+    } catch (SQLException e) {
+      if (failure == null) throw e;
+      failure.addSuppressed(e);
+    }
+  }
+
+  /** Called by the ConnectionPool when it leases a connection to a thread. Subclasses can re-apply 
+   * settings that changed while the connection was idle.*/
+  protected void leased(Connection c) throws SQLException {
   }
 
   /** Please use the version without parameter
@@ -978,48 +1408,32 @@ public abstract class Database {
     dumpQueryAsCSV("SELECT * FROM " + table, output, separator);
   }
 
-  /** Produces a CSV version of the query*/
+  /** Produces a CSV version of the query (values separated by the separator and a blank, NULL as "null").
+   * Streams the result through a CSVExporter (see there).*/
   public void makeCSVForQuery(String selectCommand, File output, char separator) throws IOException, SQLException {
-    ResultSet r = query(selectCommand);
-    Writer out = new UTF8Writer(output);
-    int columns = r.getMetaData().getColumnCount();
-    for (int column = 1; column <= columns; column++) {
-      out.write(r.getMetaData().getColumnLabel(column));
-      if (column == columns) out.write("\n");
-      else out.write(separator + " ");
-    }
-    while (r.next()) {
-      for (int column = 1; column <= columns; column++) {
-        Object o = r.getObject(column);
-        out.write(o == null ? "null" : o.toString());
-        if (column == columns) out.write("\n");
-        else out.write(separator + " ");
-      }
-    }
-    close(r);
-    out.close();
+    CSVExporter exporter = new CSVExporter();
+    exporter.setSeparator(separator + " ");
+    exporter.setHeaderPrefix("");
+    exporter.setQuoting(false);
+    exporter.setNullString("null");
+    exporter.export(this, selectCommand, output);
   }
 
-  /** Produces a CSV version of the query*/
+  /** Produces a CSV version of the query in the format of CSVFile.
+   * Streams the result through a CSVExporter (see there).*/
   public void dumpQueryAsCSV(String selectCommand, File output, char separator) throws IOException, SQLException {
-    ResultSet r = query(selectCommand);
-    ResultSetMetaData meta = r.getMetaData();
-    int numCols = meta.getColumnCount();
-    List<String> labels = new ArrayList<String>();
-    for (int i = 1; i <= numCols; i++)
-      labels.add(meta.getColumnLabel(i));
-    CSVFile csv = new CSVFile(output, false, separator + "", labels);
-    while (r.next()) {
-      Object[] cols = new String[numCols];
-      for (int column = 0; column < numCols; column++)
-        cols[column] = r.getObject(column + 1);
-      csv.write(cols);
-    }
-    close(r);
-    csv.close();
+    CSVExporter exporter = new CSVExporter();
+    exporter.setSeparator(separator + "");
+    exporter.export(this, selectCommand, output);
   }
 
-  /** Loads a CSV file into a table*/
+  /** Returns the fetch size that makes the driver stream a result with the given number of rows per round trip.
+   * Used by CSVExporter.*/
+  protected int streamingFetchSize(int rows) {
+    return (rows);
+  }
+
+  /** Loads a CSV file into a table. Uses the bulk loading command of the database if possible (see newInserter).*/
   public void loadCSV(String table, File input, boolean clearTable, char separator) throws IOException, SQLException {
     if (clearTable) executeUpdate("DELETE FROM " + table);
     Inserter bulki = newInserter(table);
@@ -1085,11 +1499,118 @@ public abstract class Database {
    ****                                      Inserters                                                          ****
    *****************************************************************************************************************/
 
+  /** Holds the rows of an Inserter, in one preallocated array per column */
+  public static class Batch {
+
+    /** The values, indexed by column and row */
+    public Object[][] columns;
+
+    /** Number of rows */
+    public int size = 0;
+
+    /** Creates a batch for a number of columns and (initially) rows */
+    public Batch(int numColumns, int capacity) {
+      columns = new Object[numColumns][Math.max(capacity, 1)];
+    }
+
+    /** Makes room for one more row */
+    protected void ensureCapacity() {
+      if (size < columns[0].length) return;
+      for (int c = 0; c < columns.length; c++)
+        columns[c] = Arrays.copyOf(columns[c], columns[c].length * 2);
+    }
+
+    /** Adds a row */
+    public void add(List<Object> row) throws SQLException {
+      if (row.size() != columns.length) throw new SQLException("Row " + row + " has " + row.size() + " values, but the inserter has " + columns.length + " columns");
+      ensureCapacity();
+      for (int c = 0; c < columns.length; c++)
+        columns[c][size] = row.get(c);
+      size++;
+    }
+
+    /** Adds a row */
+    public void add(Object... row) throws SQLException {
+      if (row.length != columns.length) throw new SQLException("Row " + Arrays.toString(row) + " has " + row.length + " values, but the inserter has " + columns.length + " columns");
+      ensureCapacity();
+      for (int c = 0; c < columns.length; c++)
+        columns[c][size] = row[c];
+      size++;
+    }
+
+    /** Adds all rows of another batch */
+    public void addAll(Batch other) {
+      for (int r = 0; r < other.size; r++) {
+        ensureCapacity();
+        for (int c = 0; c < columns.length; c++)
+          columns[c][size] = other.columns[c][r];
+        size++;
+      }
+    }
+
+    /** Returns a value */
+    public Object get(int row, int column) {
+      return (columns[column][row]);
+    }
+
+    /** Returns a copy of a row */
+    public List<Object> row(int row) {
+      List<Object> result = new ArrayList<Object>(columns.length);
+      for (int c = 0; c < columns.length; c++)
+        result.add(columns[c][row]);
+      return (result);
+    }
+
+    /** Returns a copy of all rows */
+    public List<List<Object>> rows() {
+      List<List<Object>> result = new ArrayList<List<Object>>(size);
+      for (int r = 0; r < size; r++)
+        result.add(row(r));
+      return (result);
+    }
+
+    /** Removes all rows (keeps the arrays) */
+    public void clear() {
+      for (int c = 0; c < columns.length; c++)
+        Arrays.fill(columns[c], 0, size, null);
+      size = 0;
+    }
+
+    /** TRUE if there are no rows */
+    public boolean isEmpty() {
+      return (size == 0);
+    }
+  }
+
   /** Represents a bulk loader*/
   public class Inserter implements Closeable {
 
     /** the currently cached values */
-    protected List<List<Object>> values = new ArrayList<List<Object>>();
+    protected Batch values;
+
+    /** An empty batch that replaces the values when they are flushed (or NULL) */
+    protected Batch spare;
+
+    /** The prepared query, reused across batches (or NULL) */
+    protected PreparedStatement preparedStatement;
+
+    /** The connection for which the query was prepared */
+    protected Connection preparedConnection;
+
+    /** Number of rows that have been flushed */
+    protected long flushedRows = 0;
+
+    /** Number of batches that have been flushed */
+    protected long flushedBatches = 0;
+
+    /** Time spent in flushing, in nanoseconds */
+    protected long flushNanos = 0;
+
+    /** Time spent in flushing the last batch, in nanoseconds */
+    protected long lastFlushNanos = 0;
+
+    /** Guards the statistics (which the flusher of an AsyncInserter updates) */
+    protected final Object statsLock = new Object();
 
     /** Table where the data will be inserted*/
     protected String tableName;
@@ -1100,6 +1621,9 @@ public abstract class Database {
     /** Column types*/
     protected SQLType[] columnTypes;
 
+    /** Column names, or NULL if the values are inserted into all columns*/
+    protected String[] columnNames;
+
     /** Tells after how many commands we will flush the batch*/
     private int batchThreshold = 1000;
 
@@ -1114,24 +1638,28 @@ public abstract class Database {
     public Inserter(String table) throws SQLException {
       inserters.add(this);
       setTargetTable(table);
+      values = new Batch(columnTypes.length, batchThreshold);
     }
 
     /** Creates a bulk loader for a table with column types given by Java classes*/
     public Inserter(String table, Class<?>... columnTypes) throws SQLException {
       inserters.add(this);
       setTargetTable(table, columnTypes);
+      values = new Batch(columnTypes.length, batchThreshold);
     }
 
     /** Creates a bulk loader with column types from java.sql.Type */
     public Inserter(String table, int... columnTypes) throws SQLException {
       inserters.add(this);
       setTargetTable(table, columnTypes);
+      values = new Batch(columnTypes.length, batchThreshold);
     }
 
     /** Creates a bulk loader for specific coloumns of a table with column types given by their names and Java classes*/
     public Inserter(String table, String[] colnames, Class<?>[] coltypes) throws SQLException {
       inserters.add(this);
       setTargetTable(table, colnames, coltypes);
+      values = new Batch(columnTypes.length, batchThreshold);
     }
 
     /** Flushes and closes */
@@ -1144,6 +1672,7 @@ public abstract class Database {
       } catch (SQLException e) {
         Announce.error(e);
       }
+      closeStatement();
       inserters.remove(this);
       closed = true;
     }
@@ -1173,7 +1702,52 @@ public abstract class Database {
 
     /** returns the number of entries gathered */
     public int getBatchSize() {
-      return values.size();
+      return values.size;
+    }
+
+    /** Returns the number of rows that have been flushed */
+    public long getFlushedRows() {
+      synchronized (statsLock) {
+        return flushedRows;
+      }
+    }
+
+    /** Returns the number of batches that have been flushed */
+    public long getFlushedBatches() {
+      synchronized (statsLock) {
+        return flushedBatches;
+      }
+    }
+
+    /** Returns the time it took to flush the last batch, in milliseconds */
+    public double getLastBatchLatency() {
+      synchronized (statsLock) {
+        return lastFlushNanos / 1000000.0;
+      }
+    }
+
+    /** Returns the average time it took to flush a batch, in milliseconds */
+    public double getAverageBatchLatency() {
+      synchronized (statsLock) {
+        return flushedBatches == 0 ? 0 : flushNanos / 1000000.0 / flushedBatches;
+      }
+    }
+
+    /** Returns the number of rows flushed per second of flushing */
+    public double getRowsPerSecond() {
+      synchronized (statsLock) {
+        return flushNanos == 0 ? 0 : flushedRows * 1000000000.0 / flushNanos;
+      }
+    }
+
+    /** Records the flushing of a batch */
+    protected void recordFlush(int rows, long nanos) {
+      synchronized (statsLock) {
+        flushedRows += rows;
+        flushedBatches++;
+        flushNanos += nanos;
+        lastFlushNanos = nanos;
+      }
     }
 
     /** Returns the number of columns*/
@@ -1245,6 +1819,7 @@ public abstract class Database {
         i++;
       }
       tableName = table;
+      columnNames = colnames;
       table = "INSERT INTO " + table + "(";
       table += StringModifier.implode(colnames, ",");
       table += ") VALUES(";
@@ -1261,55 +1836,553 @@ public abstract class Database {
     /** Inserts a row*/
     public void insert(List<Object> row) throws SQLException {
       this.values.add(row);
-      if (values.size() % batchThreshold == 0) flush();
+      if (values.size % batchThreshold == 0) flush();
     }
 
     /** Inserts a row*/
     public void insert(Object... values) throws SQLException {
-      insert(Arrays.asList(values));
+      this.values.add(values);
+      if (this.values.size % batchThreshold == 0) flush();
     }
 
     /** Flushes the batch*/
     public synchronized void flush() throws SQLException {
 
       if (values.isEmpty()) return;
-      List<List<Object>> oldBatch = values;
-      values = new ArrayList<List<Object>>();
+      Batch oldBatch = values;
+      values = spare != null ? spare : new Batch(columnTypes.length, batchThreshold);
+      spare = null;
       try {
-        flush(oldBatch);
-      } catch (SQLException e) {
+        flushWithReconnect(oldBatch);
+      } catch (SQLException ex2) {
+        oldBatch.addAll(values);
+        values.clear();
+        spare = values;
+        values = oldBatch;
+        throw ex2;
+      }
+      oldBatch.clear();
+      spare = oldBatch;
+    }
 
+    /** Flushes a batch. If that fails, tries to reconnect and flushes the batch again. */
+    protected void flushWithReconnect(Batch batch) throws SQLException {
+      try {
+        flush(batch);
+      } catch (SQLException e) {
+        // The statement may be broken, prepare it anew
+        closeStatement();
         String details = e.getNextException() == null ? "" : e.getNextException().getMessage();
-        SQLException ex = new SQLException(e.getMessage() + "\n\n" + details);
+        SQLException ex = new SQLException(e.getMessage() + "\n\n" + details, e);
+        attemptReconnect(ex, autoReconnectOnUpdate);
+        flush(batch);
+      }
+    }
+
+    /** Returns the prepared query for the current connection, prepares it if necessary */
+    protected PreparedStatement preparedStatement() throws SQLException {
+      Connection c = leaseConnection();
+      if (preparedStatement == null || preparedConnection != c) {
+        closeStatement();
+        preparedStatement = c.prepareStatement(query);
+        preparedConnection = c;
+      }
+      return (preparedStatement);
+    }
+
+    /** Closes the prepared query */
+    protected void closeStatement() {
+      Database.close(preparedStatement);
+      preparedStatement = null;
+      preparedConnection = null;
+    }
+
+    /** Executes the batch, records the time. If that fails, clears the batch of the statement, 
+     * so that the statement can be reused (a failure to clear it is added to the original exception). */
+    protected void flush(Batch batch) throws SQLException {
+      long start = System.nanoTime();
+      PreparedStatement preparedStatement = preparedStatement();
+      try {
+        for (int r = 0; r < batch.size; r++) {
+          try {
+            for (int c = 0; c < columnTypes.length; c++) {
+              preparedStatement.setObject(c + 1, batch.columns[c][r], columnTypes[c].getTypeCode());
+            }
+            preparedStatement.addBatch();
+          } catch (SQLException e) {
+            throw new SQLException("Bulk-insert into " + tableName + " " + batch.row(r) + "\n" + e.getMessage(), e);
+          }
+        }
+        preparedStatement.executeBatch();
+      } catch (SQLException e) {
         try {
-          attemptReconnect(ex, autoReconnectOnUpdate);
-          flush(oldBatch);
-        } catch (SQLException ex2) {
-          values.addAll(oldBatch);
-          throw ex2;
+          preparedStatement.clearBatch();
+        } catch (SQLException e2) {
+          e.addSuppressed(e2);
         }
+        throw e;
       }
+      preparedStatement.clearBatch();
+      recordFlush(batch.size, System.nanoTime() - start);
     }
+  }
 
-    protected void flush(List<List<Object>> batch) throws SQLException {
-      PreparedStatement preparedStatement = getConnection().prepareStatement(query);
-      for (List<Object> row : batch) {
-        try {
-          for (int i = 0; i < row.size(); i++) {
-            preparedStatement.setObject(i + 1, row.get(i), columnTypes[i].getTypeCode());
+  /** Number of batches per flusher that an AsyncInserter can hold back before insert() waits */
+  public static final int MAXPENDINGBATCHES = 4;
+
+  /** Is notified by an AsyncInserter if a batch could not be flushed */
+  public static interface FailureHandler {
+
+    /** Called on the flushing thread with the rows of the batch and the exception */
+    public void failed(List<List<Object>> batch, SQLException e);
+  }
+
+  /** 
+   * An Inserter that flushes its batches on background threads (flushers), so that 
+   * insert() returns as soon as the row is stored. The batches are flushed with 
+   * the same reconnect-and-retry logic as the Inserter. If a batch fails, its rows 
+   * are kept (see getFailedRows()), the FailureHandler is notified, and the next call to
+   * insert(), flush() or drain() throws the exception. If insert() throws, its
+   * row has not been stored; flush() hands over the current batch before it throws.<BR>
+   * By default, there is one flusher, which flushes the batches in the order in which 
+   * they were filled. It uses the connection of the database, so queries on the same 
+   * database may wait for a batch to finish. In pooled mode (see setPoolSize), each
+   * flusher leases a connection of its own, and setFlushers() can start several flushers,
+   * which flush their batches concurrently (and thus not necessarily in order). 
+   * The flushers release their connections when they stop, i.e., on close().
+   */
+  public class AsyncInserter extends Inserter {
+
+    /** Runs the flushers */
+    protected ExecutorService flusher;
+
+    /** Number of flushers */
+    protected int numFlushers = 1;
+
+    /** Number of flushers that have started and not yet released their connection (guarded by pendingLock) */
+    protected int liveFlushers = 0;
+
+    /** Number of batches that have been handed to the flushers and are not yet flushed (guarded by pendingLock) */
+    protected int pendingBatches = 0;
+
+    /** Guards pendingBatches and liveFlushers */
+    protected final Object pendingLock = new Object();
+
+    /** The prepared queries of the flushers by connection (in pooled mode, each flusher has a connection of its own) */
+    protected final Map<Connection, PreparedStatement> flusherStatements = new HashMap<Connection, PreparedStatement>();
+
+    /** Holds the first failure that has not yet been thrown, or NULL */
+    protected volatile SQLException failure = null;
+
+    /** Holds the rows of the batches that failed */
+    protected List<List<Object>> failedRows = Collections.synchronizedList(new ArrayList<List<Object>>());
+
+    /** Is notified of failures, or NULL */
+    protected volatile FailureHandler failureHandler = null;
+
+    /** Empty batches. If there is none, the flushers are MAXPENDINGBATCHES batches per flusher behind. */
+    protected BlockingQueue<Batch> freeBatches;
+
+    /** Creates an asynchronous bulk loader*/
+    public AsyncInserter(String table) throws SQLException {
+      super(table);
+      startFlushers(1);
+    }
+
+    /** Creates an asynchronous bulk loader for a table with column types given by Java classes*/
+    public AsyncInserter(String table, Class<?>... columnTypes) throws SQLException {
+      super(table, columnTypes);
+      startFlushers(1);
+    }
+
+    /** Creates an asynchronous bulk loader with column types from java.sql.Type */
+    public AsyncInserter(String table, int... columnTypes) throws SQLException {
+      super(table, columnTypes);
+      startFlushers(1);
+    }
+
+    /** Creates an asynchronous bulk loader for specific coloumns of a table with column types given by their names and Java classes*/
+    public AsyncInserter(String table, String[] colnames, Class<?>[] coltypes) throws SQLException {
+      super(table, colnames, coltypes);
+      startFlushers(1);
+    }
+
+    /** Starts the flushers. Each flusher closes its prepared query and releases its connection when it stops. */
+    protected void startFlushers(int n) {
+      numFlushers = n;
+      freeBatches = new ArrayBlockingQueue<Batch>(MAXPENDINGBATCHES * n);
+      for (int i = 0; i < MAXPENDINGBATCHES * n; i++)
+        freeBatches.add(new Batch(columnTypes.length, getBatchThreshold()));
+      final String name = "AsyncInserter for " + tableName;
+      flusher = Executors.newFixedThreadPool(n, new ThreadFactory() {
+
+        @Override
+        public Thread newThread(final Runnable r) {
+          Thread t = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+              synchronized (pendingLock) {
+                liveFlushers++;
+              }
+              try {
+                r.run();
+              } finally {
+                closeStatement();
+                releaseConnection();
+                synchronized (pendingLock) {
+                  liveFlushers--;
+                  pendingLock.notifyAll();
+                }
+              }
+            }
+          }, name);
+          t.setDaemon(true);
+          return (t);
+        }
+      });
+    }
+
+    /** Stops the flushers after the batches that they hold, waits until they have released their connections */
+    protected void stopFlushers() throws SQLException {
+      flusher.shutdown();
+      try {
+        while (!flusher.awaitTermination(1, TimeUnit.MINUTES))
+          Announce.warning("Waiting for the flushers of", tableName);
+        synchronized (pendingLock) {
+          while (liveFlushers > 0)
+            pendingLock.wait();
+        }
+      } catch (InterruptedException e) {
+        throw new SQLException("Interrupted while stopping the flushers of " + tableName, e);
+      }
+    }
+
+    /** 
+     * Sets the number of flushers (1 by default). Each flusher leases a connection of its
+     * own, so several flushers need pooled mode (see setPoolSize), and the pool should have
+     * a connection for each of them. Several flushers flush their batches concurrently, so that
+     * the batches do not necessarily reach the database in order. Waits until the pending batches 
+     * have been flushed, and throws the first failure.
+     */
+    public synchronized void setFlushers(int n) throws SQLException {
+      if (n < 1) throw new IllegalArgumentException("An AsyncInserter needs at least one flusher");
+      if (n > 1 && pool == null) throw new SQLException("Several flushers need pooled mode, see Database.setPoolSize()");
+      drain();
+      if (n == numFlushers) return;
+      stopFlushers();
+      startFlushers(n);
+    }
+
+    /** Returns the number of flushers */
+    public int getFlushers() {
+      return (numFlushers);
+    }
+
+    /** Returns the prepared query for the connection of the current flusher, prepares it if necessary */
+    @Override
+    protected PreparedStatement preparedStatement() throws SQLException {
+      Connection c = leaseConnection();
+      synchronized (flusherStatements) {
+        PreparedStatement statement = flusherStatements.get(c);
+        if (statement != null) return (statement);
+      }
+      PreparedStatement statement = c.prepareStatement(query);
+      synchronized (flusherStatements) {
+        flusherStatements.put(c, statement);
+      }
+      return (statement);
+    }
+
+    /** Closes the prepared query for the connection of the current thread */
+    @Override
+    protected void closeStatement() {
+      Connection c = pool == null ? connection : pool.current();
+      PreparedStatement statement;
+      synchronized (flusherStatements) {
+        statement = flusherStatements.remove(c);
+      }
+      Database.close(statement);
+    }
+
+    /** Sets the handler that is notified of failed batches */
+    public void setFailureHandler(FailureHandler handler) {
+      failureHandler = handler;
+    }
+
+    /** Returns the rows of the batches that failed so far */
+    public List<List<Object>> getFailedRows() {
+      return (failedRows);
+    }
+
+    /** Throws the first failure of the flushers that has not yet been thrown */
+    protected void checkFailure() throws SQLException {
+      SQLException e = failure;
+      if (e == null) return;
+      failure = null;
+      throw e;
+    }
+
+    /** Inserts a row, hands the batch to the flushers when it is full*/
+    @Override
+    public void insert(List<Object> row) throws SQLException {
+      checkFailure();
+      this.values.add(row);
+      if (values.size >= getBatchThreshold()) submit();
+    }
+
+    /** Inserts a row, hands the batch to the flushers when it is full*/
+    @Override
+    public void insert(Object... values) throws SQLException {
+      checkFailure();
+      this.values.add(values);
+      if (this.values.size >= getBatchThreshold()) submit();
+    }
+
+    /** 
+     * Hands the current batch to the flushers and returns a Future for the
+     * number of flushed rows (or NULL if the batch is empty). Waits if
+     * MAXPENDINGBATCHES batches per flusher are already waiting. The batch is handed
+     * over even if an earlier batch failed; then the failure is thrown afterwards.
+     */
+    public synchronized Future<Integer> flushAsync() throws SQLException {
+      Future<Integer> result = submit();
+      checkFailure();
+      return (result);
+    }
+
+    /** Marks a batch as flushed (or failed), wakes up drain() */
+    protected void batchDone() {
+      synchronized (pendingLock) {
+        pendingBatches--;
+        pendingLock.notifyAll();
+      }
+    }
+
+    /** Hands the current batch to the flushers, see flushAsync(). Does not throw earlier failures. */
+    protected synchronized Future<Integer> submit() throws SQLException {
+      if (values.isEmpty()) return (null);
+      final Batch batch = values;
+      final BlockingQueue<Batch> free = freeBatches;
+      try {
+        values = free.take();
+      } catch (InterruptedException e) {
+        throw new SQLException("Interrupted while waiting for the flushers of " + tableName, e);
+      }
+      synchronized (pendingLock) {
+        pendingBatches++;
+      }
+      try {
+        return (flusher.submit(new Callable<Integer>() {
+
+          @Override
+          public Integer call() throws SQLException {
+            try {
+              flushWithReconnect(batch);
+              return (batch.size);
+            } catch (SQLException e) {
+              List<List<Object>> rows = batch.rows();
+              failedRows.addAll(rows);
+              if (failure == null) failure = e;
+              FailureHandler handler = failureHandler;
+              if (handler != null) handler.failed(rows, e);
+              throw e;
+            } finally {
+              batch.clear();
+              free.add(batch);
+              batchDone();
+            }
+          }
+        }));
+      } catch (RejectedExecutionException e) {
+        batchDone();
+        free.add(values);
+        values = batch;
+        throw new SQLException("AsyncInserter for " + tableName + " is closed", e);
+      }
+    }
+
+    /** Waits until all batches handed to the flushers have been flushed, throws the first failure */
+    public void drain() throws SQLException {
+      synchronized (pendingLock) {
+        while (pendingBatches > 0) {
+          try {
+            pendingLock.wait();
+          } catch (InterruptedException e) {
+            throw new SQLException("Interrupted while waiting for the flushers of " + tableName, e);
           }
-          preparedStatement.addBatch();
-        } catch (SQLException e) {
-          throw new SQLException("Bulk-insert into " + tableName + " " + row + "\n" + e.getMessage());
         }
       }
-      preparedStatement.executeBatch();
-      preparedStatement.clearBatch();
-      Database.close(preparedStatement);
+      checkFailure();
+    }
+
+    /** Flushes the batch and waits until all batches have been flushed, throws the first failure*/
+    @Override
+    public synchronized void flush() throws SQLException {
+      try {
+        submit();
+      } finally {
+        drain();
+      }
+    }
+
+    /** 
+     * Flushes, waits for all batches and stops the flushers. The current
+     * batch is flushed even if an earlier batch failed. The rows of all failed
+     * batches stay available in getFailedRows(), and the failure is reported
+     * like for the Inserter. When close() returns, the flushers have released 
+     * their connections.
+     */
+    @Override
+    public synchronized void close() {
+      super.close();
+      try {
+        stopFlushers();
+      } catch (SQLException e) {
+        Announce.error(e);
+      }
     }
   }
 
-  /** Returns an inserter for a table with specific column types*/
+  /** Number of rows after which a BulkInserter is flushed by default */
+  public static final int BULKBATCHSIZE = 10000;
+
+  /**
+   * An Inserter that sends each batch as text to the bulk loading command of
+   * the database (such as COPY in Postgres or LOAD DATA in MySQL). The rows are
+   * separated by newlines, the values by tabs. NULL is written as \N, and
+   * backslashes, tabs and line breaks are escaped by a backslash. Dates and
+   * Calendars are written as timestamps, byte arrays in hex (as \x0a1b..., the
+   * format of Postgres), all other values by toString(). Subclasses implement load().
+   */
+  public abstract class BulkInserter extends Inserter {
+
+    /** Holds the text of a batch (reused) */
+    protected StringBuilder text = new StringBuilder();
+
+    /** Creates a bulk loader*/
+    public BulkInserter(String table) throws SQLException {
+      super(table);
+      setBatchThreshold(BULKBATCHSIZE);
+    }
+
+    /** Creates a bulk loader for a table with column types given by Java classes*/
+    public BulkInserter(String table, Class<?>... columnTypes) throws SQLException {
+      super(table, columnTypes);
+      setBatchThreshold(BULKBATCHSIZE);
+    }
+
+    /** Creates a bulk loader with column types from java.sql.Type */
+    public BulkInserter(String table, int... columnTypes) throws SQLException {
+      super(table, columnTypes);
+      setBatchThreshold(BULKBATCHSIZE);
+    }
+
+    /** Creates a bulk loader for specific coloumns of a table with column types given by their names and Java classes*/
+    public BulkInserter(String table, String[] colnames, Class<?>[] coltypes) throws SQLException {
+      super(table, colnames, coltypes);
+      setBatchThreshold(BULKBATCHSIZE);
+    }
+
+    /** Returns the column list for the bulk loading command, e.g. " (a, b)", or "" for all columns */
+    protected String columnList() {
+      if (columnNames == null) return ("");
+      return (" (" + StringModifier.implode(columnNames, ", ") + ")");
+    }
+
+    /** Appends a value in the text format of the bulk loader */
+    protected void appendValue(StringBuilder b, Object o) {
+      if (o == null) {
+        b.append("\\N");
+        return;
+      }
+      String s;
+      if (o instanceof java.util.Date && !(o instanceof java.sql.Date) && !(o instanceof java.sql.Time)) s = new java.sql.Timestamp(
+          ((java.util.Date) o).getTime()).toString();
+      else if (o instanceof java.util.Calendar) s = new java.sql.Timestamp(((java.util.Calendar) o).getTimeInMillis()).toString();
+      else if (o instanceof byte[]) s = hex((byte[]) o);
+      else s = o.toString();
+      for (int i = 0; i < s.length(); i++) {
+        char c = s.charAt(i);
+        switch (c) {
+          case '\\':
+            b.append("\\\\");
+            break;
+          case '\t':
+            b.append("\\t");
+            break;
+          case '\n':
+            b.append("\\n");
+            break;
+          case '\r':
+            b.append("\\r");
+            break;
+          default:
+            b.append(c);
+        }
+      }
+    }
+
+    /** Returns the bytes in hex, as \x0a1b... */
+    protected String hex(byte[] bytes) {
+      StringBuilder b = new StringBuilder(2 + bytes.length * 2).append("\\x");
+      for (byte x : bytes) {
+        b.append(Character.forDigit((x >> 4) & 0xF, 16)).append(Character.forDigit(x & 0xF, 16));
+      }
+      return (b.toString());
+    }
+
+    /** TRUE if the batch contains a byte array */
+    protected boolean containsBytes(Batch batch) {
+      for (int c = 0; c < batch.columns.length; c++) {
+        for (int r = 0; r < batch.size; r++)
+          if (batch.columns[c][r] instanceof byte[]) return (true);
+      }
+      return (false);
+    }
+
+    /** Formats the batch as text and hands it to load() */
+    @Override
+    protected void flush(Batch batch) throws SQLException {
+      long start = System.nanoTime();
+      text.setLength(0);
+      for (int r = 0; r < batch.size; r++) {
+        for (int c = 0; c < columnTypes.length; c++) {
+          if (c != 0) text.append('\t');
+          appendValue(text, batch.columns[c][r]);
+        }
+        text.append('\n');
+      }
+      load(text, batch.size);
+      recordFlush(batch.size, System.nanoTime() - start);
+    }
+
+    /** Sends the rows (formatted as text) to the database */
+    protected abstract void load(CharSequence rows, int numRows) throws SQLException;
+
+    /** Flushes the batch by INSERT statements, for bulk loaders that fall back on them */
+    protected void flushByInserts(Batch batch) throws SQLException {
+      super.flush(batch);
+    }
+  }
+
+  /** Returns an asynchronous inserter for a table*/
+  public AsyncInserter newAsyncInserter(String table) throws SQLException {
+    return (new AsyncInserter(table));
+  }
+
+  /** Returns an asynchronous inserter for a table with specific column types*/
+  public AsyncInserter newAsyncInserter(String table, Class<?>... argumentTypes) throws SQLException {
+    return (new AsyncInserter(table, argumentTypes));
+  }
+
+  /** Returns an asynchronous inserter for a table with specific column types given as java.sql.Type constants*/
+  public AsyncInserter newAsyncInserter(String table, int... argumentTypes) throws SQLException {
+    return (new AsyncInserter(table, argumentTypes));
+  }
+
+  /** Returns an inserter for a table with specific column types. 
+   * Subclasses return a BulkInserter if the driver supports bulk loading and isBulkLoading() is true.*/
   public Inserter newInserter(String table) throws SQLException {
     return (new Inserter(table));
   }
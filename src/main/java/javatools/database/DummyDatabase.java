@@ -4,12 +4,16 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.math.BigDecimal;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.sql.Array;
 import java.sql.Blob;
 import java.sql.Clob;
+import java.sql.Connection;
 import java.sql.Date;
 import java.sql.NClob;
 import java.sql.Ref;
@@ -17,6 +21,7 @@ import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.RowId;
 import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
 import java.sql.SQLWarning;
 import java.sql.SQLXML;
 import java.sql.Statement;
@@ -53,6 +58,8 @@ import javatools.filehandlers.FileLines;
  * 
  * This class provides a dummy database that knows just one single table.
  * All queries run on this table and the WHERE clause is ignored.
+ * In pooled mode (see Database.setPoolSize), queries lease stand-in connections,
+ * so that the ConnectionPool can be tested without a database server.
  * Example:<PRE>
    Database d=new DummyDatabase(Arrays.asList("arg1","relation","arg2"),
 				"Albert_Einstein","bornOnDate","1879-03-14",
@@ -75,6 +82,7 @@ public class DummyDatabase extends Database {
   /** Executes an SQL update query, returns the number of rows added/deleted */
   @Override
   public int executeUpdate(CharSequence sqlcs) throws SQLException {
+    if (pool != null) leaseConnection();
     Announce.debug(sqlcs);
     return (0);
   }
@@ -133,9 +141,112 @@ public class DummyDatabase extends Database {
     description = "Dummy database with schema " + columnNames + " and " + numRows + " rows from file " + values;
   }
 
+  /** An inserter that appends the rows to the table, going through the text format of the bulk loaders.
+   * This allows testing the bulk loading code without a database server.*/
+  public class DummyInserter extends BulkInserter {
+
+    public DummyInserter(String table) throws SQLException {
+      super(table);
+    }
+
+    public DummyInserter(String table, Class<?>... columnTypes) throws SQLException {
+      super(table, columnTypes);
+    }
+
+    public DummyInserter(String table, int... columnTypes) throws SQLException {
+      super(table, columnTypes);
+    }
+
+    public DummyInserter(String table, String[] colnames, Class<?>[] coltypes) throws SQLException {
+      super(table, colnames, coltypes);
+    }
+
+    /** Undoes the escaping of appendValue */
+    protected String unescape(String value) {
+      if (value.equals("\\N")) return (null);
+      if (value.indexOf('\\') == -1) return (value);
+      StringBuilder b = new StringBuilder(value.length());
+      for (int i = 0; i < value.length(); i++) {
+        char c = value.charAt(i);
+        if (c != '\\' || i == value.length() - 1) {
+          b.append(c);
+          continue;
+        }
+        switch (c = value.charAt(++i)) {
+          case 't':
+            b.append('\t');
+            break;
+          case 'n':
+            b.append('\n');
+            break;
+          case 'r':
+            b.append('\r');
+            break;
+          default:
+            b.append(c);
+        }
+      }
+      return (b.toString());
+    }
+
+    @Override
+    protected void load(CharSequence rows, int numRows) throws SQLException {
+      int[] positions = new int[columnTypes.length];
+      for (int i = 0; i < positions.length; i++) {
+        positions[i] = columnNames == null ? i : DummyDatabase.this.columnNames.indexOf(columnNames[i].toLowerCase());
+        if (positions[i] == -1) throw new SQLException("Unknown column: " + columnNames[i]);
+      }
+      while (columns.size() < positions.length) {
+        columns.add(new ArrayList<String>(Arrays.asList(new String[DummyDatabase.this.numRows])));
+      }
+      // Every row ends with a line break, so that the last element is empty. Empty rows before it are kept.
+      String[] lines = rows.toString().split("\n", -1);
+      for (int l = 0; l < lines.length - 1; l++) {
+        String line = lines[l];
+        String[] values = line.split("\t", -1);
+        if (values.length != positions.length) throw new SQLException("Row has " + values.length + " columns instead of " + positions.length);
+        for (int c = 0; c < columns.size(); c++) {
+          columns.get(c).add(null);
+        }
+        for (int i = 0; i < values.length; i++) {
+          columns.get(positions[i]).set(DummyDatabase.this.numRows, unescape(values[i]));
+        }
+        DummyDatabase.this.numRows++;
+      }
+    }
+  }
+
+  /** Returns a DummyInserter if bulk loading is switched on, else an Inserter*/
+  @Override
+  public Inserter newInserter(String table) throws SQLException {
+    if (!bulkLoading) return (super.newInserter(table));
+    return (new DummyInserter(table));
+  }
+
+  /** Returns a DummyInserter if bulk loading is switched on, else an Inserter*/
+  @Override
+  public Inserter newInserter(String table, Class<?>... argumentTypes) throws SQLException {
+    if (!bulkLoading) return (super.newInserter(table, argumentTypes));
+    return (new DummyInserter(table, argumentTypes));
+  }
+
+  /** Returns a DummyInserter if bulk loading is switched on, else an Inserter*/
+  @Override
+  public Inserter newInserter(String table, int... argumentTypes) throws SQLException {
+    if (!bulkLoading) return (super.newInserter(table, argumentTypes));
+    return (new DummyInserter(table, argumentTypes));
+  }
+
+  /** Executes a query (ignores the fetch size)*/
+  @Override
+  public ResultSet query(CharSequence sqlcs, int resultSetType, int resultSetConcurrency, Integer fetchsize) throws SQLException {
+    return (query(sqlcs, resultSetType, resultSetConcurrency));
+  }
+
   /** Executes a query */
   @Override
   public ResultSet query(CharSequence sqlcs, int resultSetType, int resultSetConcurrency) throws SQLException {
+    if (pool != null) leaseConnection();
     String sql = prepareQuery(sqlcs.toString());
     if (sql.toUpperCase().startsWith("INSERT") || sql.toUpperCase().startsWith("UPDATE") || sql.toUpperCase().startsWith("DELETE")
         || sql.toUpperCase().startsWith("CREATE") || sql.toUpperCase().startsWith("DROP") || sql.toUpperCase().startsWith("ALTER")) {
@@ -1352,4 +1463,41 @@ public class DummyDatabase extends Database {
     // TODO Auto-generated method stub
 
   }
+
+  /** Returns a stand-in connection, so that the ConnectionPool can be tested with a DummyDatabase. 
+   * The connection supports only close(), isClosed(), isValid() and the auto-commit methods.*/
+  @Override
+  protected Connection newConnection() throws SQLException {
+    return ((Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, new DummyConnection()));
+  }
+
+  /** Implements the stand-in connection */
+  protected static class DummyConnection implements InvocationHandler {
+
+    /** TRUE if the connection has been closed */
+    protected boolean closed = false;
+
+    /** Auto-commit mode */
+    protected boolean autoCommit = true;
+
+    /** Transaction isolation */
+    protected int isolation = Connection.TRANSACTION_READ_COMMITTED;
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      String name = method.getName();
+      if (name.equals("close")) closed = true;
+      else if (name.equals("isClosed")) return (closed);
+      else if (name.equals("isValid")) return (!closed);
+      else if (name.equals("getAutoCommit")) return (autoCommit);
+      else if (name.equals("setAutoCommit")) autoCommit = (Boolean) args[0];
+      else if (name.equals("getTransactionIsolation")) return (isolation);
+      else if (name.equals("setTransactionIsolation")) isolation = (Integer) args[0];
+      else if (name.equals("hashCode")) return (System.identityHashCode(proxy));
+      else if (name.equals("equals")) return (proxy == args[0]);
+      else if (name.equals("toString")) return ("DummyConnection@" + Integer.toHexString(System.identityHashCode(proxy)));
+      else if (!name.equals("commit") && !name.equals("rollback")) throw new SQLFeatureNotSupportedException(name);
+      return (null);
+    }
+  }
 }
@@ -1,8 +1,16 @@
 package javatools.database;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
 import java.sql.Driver;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Types;
 import java.util.Iterator;
 import java.util.Map;
@@ -41,6 +49,9 @@ Example:
         Spaghetti|Italy   |8000     |
         Saltimboc|Italy   |8000     |        
 </PRE>
+If bulk loading is switched on (see setBulkLoading or the constructor), the driver can stream 
+local files and the server allows it, newInserter returns a LoadDataInserter, which loads
+the rows by LOAD DATA LOCAL INFILE instead of INSERT statements.
 */
 public class MySQLDatabase extends Database {
 
@@ -59,6 +70,14 @@ public class MySQLDatabase extends Database {
    * all other arguments may be null*/
   public MySQLDatabase(String user, String password, String database, String host, String port)
       throws InstantiationException, IllegalAccessException, ClassNotFoundException, SQLException {
+    this(user, password, database, host, port, false);
+  }
+
+  /** Constructs a new MySQLDatabase from a user and a password, all other arguments may be null.
+   * If bulkLoading is true, the connections allow LOAD DATA LOCAL (see setBulkLoading)*/
+  public MySQLDatabase(String user, String password, String database, String host, String port, boolean bulkLoading)
+      throws InstantiationException, IllegalAccessException, ClassNotFoundException, SQLException {
+    this.bulkLoading = bulkLoading;
     Driver driver = (Driver) Class.forName("com.mysql.jdbc.Driver").newInstance();
     DriverManager.registerDriver(driver);
     if (host == null || host.length() == 0) host = "localhost";
@@ -100,11 +119,21 @@ public class MySQLDatabase extends Database {
   /** connects to the database specified */
   @Override
   public void connect() throws SQLException {
-    connection = DriverManager.getConnection("jdbc:mysql://" + host + port + "/" + database + "?user=" + user + "&password=" + password);
-    connection.setAutoCommit(true);
+    connection = newConnection();
     description = "MySQL database for " + user + " at " + host + ":" + port + ", database " + database;
   }
 
+  /** opens a new connection to the database specified */
+  @Override
+  protected Connection newConnection() throws SQLException {
+    String url = "jdbc:mysql://" + host + port + "/" + database + "?user=" + user + "&password=" + password;
+    // Connector/J 8 does not stream local files for LOAD DATA unless asked to
+    if (bulkLoading) url += "&allowLoadLocalInfile=true";
+    Connection c = DriverManager.getConnection(url);
+    c.setAutoCommit(true);
+    return (c);
+  }
+
   @Override
   public boolean jarAvailable() {
     try {
@@ -230,7 +259,7 @@ public class MySQLDatabase extends Database {
       sql.append(" WRITE");
       if (it.hasNext()) sql.append(", ");
     }
-    connection.createStatement().executeUpdate(sql.toString());
+    leaseConnection().createStatement().executeUpdate(sql.toString());
   }
 
   /** Locks a table in read mode, i.e. only this connection can read or write the table
@@ -248,14 +277,14 @@ public class MySQLDatabase extends Database {
       sql.append(" WRITE");
       if (it.hasNext()) sql.append(", ");
     }
-    connection.createStatement().executeUpdate(sql.toString());
+    leaseConnection().createStatement().executeUpdate(sql.toString());
   }
 
   /** releases all locks the connection holds, commits the current transaction and ends it 
    * switches back to autocommit mode*/
   @Override
   public void releaseLocksAndEndTransaction() throws SQLException {
-    connection.createStatement().executeUpdate("UNLOCK TABLES");
+    leaseConnection().createStatement().executeUpdate("UNLOCK TABLES");
     endTransaction(true);
   }
 
@@ -294,6 +323,208 @@ public class MySQLDatabase extends Database {
     return "int AUTO_INCREMENT";
   }
 
+  /** Returns Integer.MIN_VALUE, which makes the MySQL driver stream the result row by row
+   * (any other fetch size makes it load the whole result into memory) */
+  @Override
+  protected int streamingFetchSize(int rows) {
+    return (Integer.MIN_VALUE);
+  }
+
+  // ---------------------------------------------------------------------
+  //                 Bulk loading
+  // ---------------------------------------------------------------------
+
+  /** Statement classes of Connector/J 8 and 5 that can stream a local file for LOAD DATA */
+  protected static final String[] LOCALINFILECLASSES = { "com.mysql.cj.jdbc.JdbcStatement", "com.mysql.jdbc.Statement" };
+
+  /** Returns the method of the driver that streams a local file for LOAD DATA, or NULL */
+  protected static Method localInfileMethod() {
+    for (String c : LOCALINFILECLASSES) {
+      try {
+        return (Class.forName(c).getMethod("setLocalInfileInputStream", InputStream.class));
+      } catch (Exception e) {
+      } catch (LinkageError e) {
+      }
+    }
+    return (null);
+  }
+
+  /** Caches whether the server allows LOAD DATA LOCAL (NULL if not yet asked) */
+  protected volatile Boolean localInfileOnServer = null;
+
+  /** TRUE if the server allows LOAD DATA LOCAL (asks the server once) */
+  protected boolean localInfileOnServer() {
+    if (localInfileOnServer == null) {
+      try {
+        Boolean on = queryValue("SELECT @@local_infile", ResultIterator.BooleanWrapper);
+        localInfileOnServer = on != null && on;
+      } catch (SQLException e) {
+        localInfileOnServer = false;
+      }
+    }
+    return (localInfileOnServer);
+  }
+
+  /** TRUE if the driver can stream local files for LOAD DATA and the server allows LOAD DATA LOCAL.
+   * The driver also has to allow it (allowLoadLocalInfile), which this class asks for only on
+   * connections opened while bulk loading is switched on. If the driver refuses, the
+   * LoadDataInserter falls back on INSERT statements. */
+  public boolean loadDataSupported() {
+    return ((connection != null || pool != null) && localInfileMethod() != null && localInfileOnServer());
+  }
+
+  /** TRUE if the exception says that LOAD DATA LOCAL is disabled on the client or the server */
+  protected static boolean localInfileDisabled(SQLException e) {
+    // ER_NOT_ALLOWED_COMMAND, ER_CLIENT_LOCAL_FILES_DISABLED, or the check of Connector/J 8
+    if (e.getErrorCode() == 1148 || e.getErrorCode() == 3948) return (true);
+    return (e.getMessage() != null && e.getMessage().contains("Loading local data is disabled"));
+  }
+
+  /** Thrown by LoadDataInserter.load() if LOAD DATA LOCAL is disabled */
+  protected static class LocalInfileDisabledException extends SQLException {
+
+    private static final long serialVersionUID = 1L;
+
+    public LocalInfileDisabledException(SQLException cause) {
+      super(cause.getMessage(), cause.getSQLState(), cause.getErrorCode(), cause);
+    }
+  }
+
+  /** An inserter that loads its batches by LOAD DATA LOCAL INFILE. 
+   * LOAD DATA does not fail on bad rows, it skips or truncates them with a warning. Therefore, 
+   * the inserter asks the server for the warnings after each batch, and throws an SQLException 
+   * if there are any. In autocommit mode, it loads each batch in a transaction of its own, and rolls
+   * the batch back in that case (this needs a transactional table, such as InnoDB). Afterwards, it
+   * switches autocommit back on, even if the batch failed. Note that in unpooled mode, other threads 
+   * share the connection and thus the transaction of the batch. If LOAD DATA LOCAL turns out to be 
+   * disabled, the inserter falls back on INSERT statements. It also inserts the batches that contain
+   * byte arrays by INSERT statements, because LOAD DATA reads the text as UTF-8. */
+  public class LoadDataInserter extends BulkInserter {
+
+    /** FALSE once LOAD DATA LOCAL turned out to be disabled */
+    protected boolean loadData = true;
+
+    public LoadDataInserter(String table) throws SQLException {
+      super(table);
+    }
+
+    public LoadDataInserter(String table, Class<?>... columnTypes) throws SQLException {
+      super(table, columnTypes);
+    }
+
+    public LoadDataInserter(String table, int... columnTypes) throws SQLException {
+      super(table, columnTypes);
+    }
+
+    public LoadDataInserter(String table, String[] colnames, Class<?>[] coltypes) throws SQLException {
+      super(table, colnames, coltypes);
+    }
+
+    /** Writes booleans as 1 and 0 */
+    @Override
+    protected void appendValue(StringBuilder b, Object o) {
+      if (o instanceof Boolean) b.append(((Boolean) o).booleanValue() ? '1' : '0');
+      else super.appendValue(b, o);
+    }
+
+    /** Loads the batch, or inserts it by INSERT statements if LOAD DATA LOCAL is disabled or the batch contains byte arrays */
+    @Override
+    protected void flush(Batch batch) throws SQLException {
+      if (loadData && !containsBytes(batch)) {
+        try {
+          super.flush(batch);
+          return;
+        } catch (LocalInfileDisabledException e) {
+          loadData = false;
+        }
+      }
+      flushByInserts(batch);
+    }
+
+    @Override
+    protected void load(CharSequence rows, int numRows) throws SQLException {
+      Connection c = leaseConnection();
+      boolean autoCommit = c.getAutoCommit();
+      Statement statement = c.createStatement();
+      SQLException failure = null;
+      try {
+        if (autoCommit) c.setAutoCommit(false);
+        execute(statement, rows);
+        String warnings = warnings(statement);
+        if (warnings != null) throw new SQLException("LOAD DATA into " + tableName + " " + warnings);
+        if (autoCommit) c.commit();
+      } catch (SQLException e) {
+        if (autoCommit) rollback(c);
+        failure = e instanceof LocalInfileDisabledException || !localInfileDisabled(e) ? e : new LocalInfileDisabledException(e);
+        throw failure;
+      } finally {
+        Database.close(statement);
+        restoreAutoCommit(c, autoCommit, failure);
+      }
+    }
+
+    /** Runs LOAD DATA LOCAL with the rows as the local file */
+    protected void execute(Statement statement, CharSequence rows) throws SQLException {
+      Method setLocalInfile = localInfileMethod();
+      if (setLocalInfile == null) throw new LocalInfileDisabledException(new SQLException("The driver cannot stream local files for LOAD DATA"));
+      try {
+        Object mysqlStatement = statement.unwrap(setLocalInfile.getDeclaringClass());
+        setLocalInfile.invoke(mysqlStatement, new ByteArrayInputStream(rows.toString().getBytes("UTF-8")));
+      } catch (InvocationTargetException e) {
+        throw new SQLException("LOAD DATA into " + tableName + " failed", e.getCause());
+      } catch (IllegalAccessException e) {
+        throw new SQLException("LOAD DATA into " + tableName + " failed", e);
+      } catch (UnsupportedEncodingException e) {
+        throw new SQLException("LOAD DATA into " + tableName + " failed", e);
+      }
+      statement.execute("LOAD DATA LOCAL INFILE 'javatools.tsv' INTO TABLE " + tableName + " CHARACTER SET utf8" + columnList());
+    }
+
+    /** Returns the warnings and errors of the last command (by SHOW WARNINGS), or NULL if there are none */
+    protected String warnings(Statement statement) throws SQLException {
+      ResultSet r = statement.executeQuery("SHOW WARNINGS");
+      StringBuilder b = new StringBuilder();
+      try {
+        while (r.next()) {
+          if ("Note".equalsIgnoreCase(r.getString(1))) continue;
+          b.append("\n").append(r.getString(1)).append(' ').append(r.getInt(2)).append(": ").append(r.getString(3));
+        }
+      } finally {
+        Database.close(r);
+      }
+      return (b.length() == 0 ? null : b.toString());
+    }
+  }
+
+  /** Rolls back, ignores errors (the original exception is more telling) */
+  protected static void rollback(Connection c) {
+    try {
+      c.rollback();
+    } catch (SQLException e) {
+    }
+  }
+
+  /** Returns a LoadDataInserter if possible, else an Inserter*/
+  @Override
+  public Inserter newInserter(String table) throws SQLException {
+    if (bulkLoading && loadDataSupported()) return (new LoadDataInserter(table));
+    return (super.newInserter(table));
+  }
+
+  /** Returns a LoadDataInserter if possible, else an Inserter*/
+  @Override
+  public Inserter newInserter(String table, Class<?>... argumentTypes) throws SQLException {
+    if (bulkLoading && loadDataSupported()) return (new LoadDataInserter(table, argumentTypes));
+    return (super.newInserter(table, argumentTypes));
+  }
+
+  /** Returns a LoadDataInserter if possible, else an Inserter*/
+  @Override
+  public Inserter newInserter(String table, int... argumentTypes) throws SQLException {
+    if (bulkLoading && loadDataSupported()) return (new LoadDataInserter(table, argumentTypes));
+    return (super.newInserter(table, argumentTypes));
+  }
+
   public static void main(String[] args) throws Exception {
   }
 }
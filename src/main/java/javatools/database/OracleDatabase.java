@@ -1,10 +1,9 @@
 package javatools.database;
 
+import java.sql.Connection;
 import java.sql.Driver;
 import java.sql.DriverManager;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.SQLFeatureNotSupportedException;
 import java.sql.Types;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -128,15 +127,21 @@ public class OracleDatabase extends Database {
    * @deprecated  replaced by {@link #reconnect()} */
   @Deprecated
   public void resetConnection() throws SQLException {
-    close(connection);
-    connect();
+    reconnect();
   }
 
   /** connects to the database specified */
   @Override
   public void connect() throws SQLException {
-    connection = DriverManager.getConnection(connectionString);
-    connection.setAutoCommit(true);
+    connection = newConnection();
+  }
+
+  /** opens a new connection to the database specified */
+  @Override
+  protected Connection newConnection() throws SQLException {
+    Connection c = DriverManager.getConnection(connectionString);
+    c.setAutoCommit(true);
+    return (c);
   }
 
   /** Makes an SQL query limited to n results */
@@ -220,24 +225,13 @@ public class OracleDatabase extends Database {
     return false;
   }
 
-  /** Checks whether the connection to the database is still alive */
+  /** Returns a query that checks the connection if the driver does not support isValid() */
   @Override
-  public boolean connected() {
-    try {
-      return (!connection.isClosed()) && connection.isValid(validityCheckTimeout);
-    } catch (SQLFeatureNotSupportedException nosupport) {
-      try {
-        ResultSet rs = query("SELECT 1 FROM DUAL", resultSetType, resultSetConcurrency, null);
-        close(rs);
-        return true;
-      } catch (SQLException ex) {
-        return false;
-      }
-    } catch (SQLException ex) {
-      throw new RuntimeException("This is very unexpected and actually should never happen.", ex);
-    }
+  protected String validationQuery() {
+    return ("SELECT 1 FROM DUAL");
   }
 
+
   public static void main(String[] args) {
     OracleDatabase database = new OracleDatabase();
     String sql = "SELECT arg2 FROM facts WHERE relation=something AND arg1= something";
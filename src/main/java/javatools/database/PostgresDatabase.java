@@ -1,12 +1,18 @@
 package javatools.database;
 
+import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
 import java.sql.Driver;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
+import java.util.Collections;
 import java.util.Map;
+import java.util.WeakHashMap;
 
 import javatools.administrative.D;
 
@@ -45,7 +51,10 @@ Example:
 </PRE>
 This class also provides SQL datatypes (extensions of SQLType.java) that
 behave according to the conventions of Postgres. For example, VARCHAR string literals print 
-inner quotes as doublequotes.*/
+inner quotes as doublequotes.<BR>
+If bulk loading is switched on (see setBulkLoading) and the driver provides the CopyManager,
+newInserter returns a CopyInserter, which loads the rows by COPY ... FROM STDIN instead of
+INSERT statements.*/
 public class PostgresDatabase extends Database {
 
   /** holds the user name */
@@ -62,6 +71,12 @@ public class PostgresDatabase extends Database {
   /** Holds the default schema*/
   protected String schema = null;
 
+  /** Holds the search path set by setSchema or setExclusiveSchema (or NULL), for the connections of the pool*/
+  protected volatile String searchPath = null;
+
+  /** Holds the search path that each connection of the pool has*/
+  protected final Map<Connection, String> searchPaths = Collections.synchronizedMap(new WeakHashMap<Connection, String>());
+
   /** indicates whether to use ssl */
   private boolean useSSL = false;
 
@@ -115,25 +130,51 @@ public class PostgresDatabase extends Database {
   /** connects to the database specified */
   @Override
   public void connect() throws SQLException {
-    String url = "jdbc:postgresql://" + host + ":" + port + (database == null ? "" : "/" + database)
-        + (useSSL ? "?ssl=true&sslfactory=org.postgresql.ssl.NonValidatingFactory" : "");
-    connection = DriverManager.getConnection(url, user, password);
-    connection.setAutoCommit(true);
+    connection = newConnection();
+    searchPath = null;
     setSchema(schema);
     description = "Postgres database '" + database + "' as '" + user + "' at " + host + ":" + port + " using schema '" + schema + "'";
   }
 
-  /** Sets the default schema*/
+  /** opens a new connection to the database specified, with the search path of the current connection */
+  @Override
+  protected Connection newConnection() throws SQLException {
+    String url = "jdbc:postgresql://" + host + ":" + port + (database == null ? "" : "/" + database)
+        + (useSSL ? "?ssl=true&sslfactory=org.postgresql.ssl.NonValidatingFactory" : "");
+    Connection c = DriverManager.getConnection(url, user, password);
+    c.setAutoCommit(true);
+    leased(c);
+    return (c);
+  }
+
+  /** Sets the search path of setSchema on a connection of the pool that does not have it yet */
+  @Override
+  protected void leased(Connection c) throws SQLException {
+    String path = searchPath;
+    if (path == null || path.equals(searchPaths.get(c))) return;
+    Statement stmnt = c.createStatement();
+    try {
+      stmnt.executeUpdate("SET search_path TO " + path);
+    } finally {
+      close(stmnt);
+    }
+    searchPaths.put(c, path);
+  }
+
+  /** Sets the default schema (in pooled mode: for the connection of the current thread, and for the 
+   * other connections when they are leased the next time)*/
   public void setSchema(String s) throws SQLException {
     if (s == null) return;
-    executeUpdate("SET search_path TO " + s + ", public");
+    searchPath = s + ", public";
+    leased(leaseConnection());
     schema = s;
     description = description.substring(0, description.lastIndexOf(' ')) + " " + schema;
   }
 
-  /** Sets the default schema*/
+  /** Sets the default schema, without public as fallback (in pooled mode: see setSchema)*/
   public void setExclusiveSchema(String s) throws SQLException {
-    executeUpdate("SET search_path TO " + s + "");
+    searchPath = s;
+    leased(leaseConnection());
     schema = s;
     description = description.substring(0, description.lastIndexOf(' ')) + " " + schema;
   }
@@ -283,7 +324,7 @@ public class PostgresDatabase extends Database {
   public void startTransaction() throws InitTransactionSQLException {
     super.startTransaction();
     try {
-      Statement stmnt = connection.createStatement();
+      Statement stmnt = leaseConnection().createStatement();
       stmnt.executeUpdate("BEGIN");
       close(stmnt);
     } catch (SQLException ex) {
@@ -296,10 +337,11 @@ public class PostgresDatabase extends Database {
   @Override
   protected void commitTransaction() throws TransactionSQLException {
     try {
-      Statement stmnt = connection.createStatement();
+      Connection c = leaseConnection();
+      Statement stmnt = c.createStatement();
       stmnt.executeUpdate("COMMIT");
       close(stmnt);
-      connection.commit();
+      c.commit();
     } catch (SQLException ex) {
       CommitTransactionSQLException commitfail = new CommitTransactionSQLException("Could not commit transaction.", ex);
       try {
@@ -316,7 +358,7 @@ public class PostgresDatabase extends Database {
   public void lockTableWriteAccess(Map<String, String> tablesAndAliases) throws SQLException {
     for (String table : tablesAndAliases.keySet()) {
       String sql = "LOCK TABLE " + table + " IN EXCLUSIVE MODE";
-      connection.createStatement().executeUpdate(sql);
+      leaseConnection().createStatement().executeUpdate(sql);
     }
   }
 
@@ -325,7 +367,7 @@ public class PostgresDatabase extends Database {
   public void lockTableReadAccess(Map<String, String> tablesAndAliases) throws SQLException {
     for (String table : tablesAndAliases.keySet()) {
       String sql = "LOCK TABLE " + table + " IN ACCESS EXCLUSIVE MODE";
-      connection.createStatement().executeUpdate(sql);
+      leaseConnection().createStatement().executeUpdate(sql);
     }
   }
 
@@ -335,6 +377,105 @@ public class PostgresDatabase extends Database {
     endTransaction(true);
   }
 
+  // ---------------------------------------------------------------------
+  //                 Bulk loading
+  // ---------------------------------------------------------------------
+
+  /** TRUE if the driver provides the CopyManager for the current connection */
+  public boolean copySupported() {
+    try {
+      Class<?> baseConnection = Class.forName("org.postgresql.core.BaseConnection");
+      Class.forName("org.postgresql.copy.CopyManager");
+      Connection c = leaseConnection();
+      return (c != null && c.isWrapperFor(baseConnection));
+    } catch (Exception e) {
+      return (false);
+    } catch (LinkageError e) {
+      return (false);
+    }
+  }
+
+  /** An inserter that loads its batches by COPY ... FROM STDIN*/
+  public class CopyInserter extends BulkInserter {
+
+    /** The CopyManager of the driver (or NULL) */
+    protected Object copyManager;
+
+    /** The copyIn method of the CopyManager */
+    protected Method copyIn;
+
+    /** The connection of the CopyManager */
+    protected Connection copyConnection;
+
+    public CopyInserter(String table) throws SQLException {
+      super(table);
+    }
+
+    public CopyInserter(String table, Class<?>... columnTypes) throws SQLException {
+      super(table, columnTypes);
+    }
+
+    public CopyInserter(String table, int... columnTypes) throws SQLException {
+      super(table, columnTypes);
+    }
+
+    public CopyInserter(String table, String[] colnames, Class<?>[] coltypes) throws SQLException {
+      super(table, colnames, coltypes);
+    }
+
+    /** Creates the CopyManager for the current connection (via reflection, so that the driver is not needed for compiling) */
+    protected void prepareCopyManager() throws SQLException {
+      Connection c = leaseConnection();
+      if (copyManager != null && copyConnection == c) return;
+      try {
+        Class<?> baseConnection = Class.forName("org.postgresql.core.BaseConnection");
+        Class<?> copyManagerClass = Class.forName("org.postgresql.copy.CopyManager");
+        copyManager = copyManagerClass.getConstructor(baseConnection).newInstance(c.unwrap(baseConnection));
+        copyIn = copyManagerClass.getMethod("copyIn", String.class, java.io.Reader.class);
+        copyConnection = c;
+      } catch (InvocationTargetException e) {
+        throw new SQLException("Cannot create the CopyManager", e.getCause());
+      } catch (Exception e) {
+        throw new SQLException("Cannot create the CopyManager", e);
+      }
+    }
+
+    @Override
+    protected void load(CharSequence rows, int numRows) throws SQLException {
+      prepareCopyManager();
+      try {
+        copyIn.invoke(copyManager, "COPY " + tableName + columnList() + " FROM STDIN", new StringReader(rows.toString()));
+      } catch (InvocationTargetException e) {
+        copyManager = null;
+        if (e.getCause() instanceof SQLException) throw (SQLException) e.getCause();
+        throw new SQLException("COPY into " + tableName + " failed", e.getCause());
+      } catch (IllegalAccessException e) {
+        throw new SQLException("COPY into " + tableName + " failed", e);
+      }
+    }
+  }
+
+  /** Returns a CopyInserter if possible, else an Inserter*/
+  @Override
+  public Inserter newInserter(String table) throws SQLException {
+    if (bulkLoading && copySupported()) return (new CopyInserter(table));
+    return (super.newInserter(table));
+  }
+
+  /** Returns a CopyInserter if possible, else an Inserter*/
+  @Override
+  public Inserter newInserter(String table, Class<?>... argumentTypes) throws SQLException {
+    if (bulkLoading && copySupported()) return (new CopyInserter(table, argumentTypes));
+    return (super.newInserter(table, argumentTypes));
+  }
+
+  /** Returns a CopyInserter if possible, else an Inserter*/
+  @Override
+  public Inserter newInserter(String table, int... argumentTypes) throws SQLException {
+    if (bulkLoading && copySupported()) return (new CopyInserter(table, argumentTypes));
+    return (super.newInserter(table, argumentTypes));
+  }
+
   public static void main(String[] args) {
     try {
       Database d = new PostgresDatabase("postgres", "postgres", "postgres", null, null);
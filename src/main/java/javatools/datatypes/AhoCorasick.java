@@ -0,0 +1,324 @@
+package javatools.datatypes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javatools.administrative.D;
+
+/**
+Copyright 2016 Fabian M. Suchanek
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+This class finds all words of a dictionary in a text in one pass over the text
+(Aho-Corasick). Trie.wordsIn() starts a new lookup at every position of the text,
+which costs the length of the text times the length of the longest word. This class
+adds to each node of a FrozenTrie a failure link (the node of the longest proper
+suffix of the node's string that is also in the trie) and a dictionary link
+(the next node on the failure chain that is a word), so that it never goes back
+in the text.<BR>
+Options:
+<UL>
+<LI>ignoreCase (given when the automaton is built): letters match regardless of their case
+<LI>withLongestOnly(): returns only non-overlapping matches, taking the leftmost, and the longest of those that start at the same position
+<LI>withWholeWords(): returns only matches that do not start or end inside a word of the text
+</UL>
+The automaton is immutable, so that several threads can use it at the same time. The with...() methods
+return a new automaton that shares the tables of this one.<BR>
+Example:
+<PRE>
+  TrieMap&lt;String&gt; map=new TrieMap&lt;String&gt;();
+  map.put("Elvis", "&lt;Elvis_Presley&gt;");
+  map.put("Elvis Presley", "&lt;Elvis_Presley&gt;");
+  map.put("Memphis", "&lt;Memphis&gt;");
+  AhoCorasick&lt;String&gt; ac=AhoCorasick.of(map, true).withLongestOnly(true).withWholeWords(true);
+  ac.matches("elvis presley was born in Tupelo, not in Memphis");
+  --&gt; [0-13 &lt;Elvis_Presley&gt;, 41-48 &lt;Memphis&gt;]
+</PRE>
+*/
+public class AhoCorasick<V> {
+
+  /** A match of a word in a text */
+  public static class Match<V> {
+
+    /** Position of the first character of the match in the text */
+    public final int start;
+
+    /** Position after the last character of the match in the text */
+    public final int end;
+
+    /** Value of the word */
+    public final V value;
+
+    public Match(int start, int end, V value) {
+      this.start = start;
+      this.end = end;
+      this.value = value;
+    }
+
+    /** Returns the length of the match */
+    public int length() {
+      return (end - start);
+    }
+
+    @Override
+    public String toString() {
+      return start + "-" + end + " " + value;
+    }
+  }
+
+  /** Holds the words */
+  protected final FrozenTrie trie;
+
+  /** Holds the values by word number */
+  protected final Object[] values;
+
+  /** Failure link of each node */
+  protected final int[] fail;
+
+  /** Dictionary link of each node, or -1 */
+  protected final int[] dictionary;
+
+  /** Depth of each node */
+  protected final int[] depth;
+
+  /** TRUE if the text is lowercased before matching */
+  protected final boolean ignoreCase;
+
+  /** TRUE if only the leftmost longest matches are returned */
+  protected final boolean longestOnly;
+
+  /** TRUE if matches must not start or end inside a word */
+  protected final boolean wholeWords;
+
+  /** Builds the automaton for a FrozenTrie and its values (by word number) */
+  protected AhoCorasick(FrozenTrie trie, Object[] values, boolean ignoreCase) {
+    this.trie = trie;
+    this.values = values;
+    this.ignoreCase = ignoreCase;
+    this.longestOnly = false;
+    this.wholeWords = false;
+    int numNodes = trie.numNodes();
+    fail = new int[numNodes];
+    dictionary = new int[numNodes];
+    depth = new int[numNodes];
+    dictionary[0] = -1;
+    // The nodes are numbered breadth-first, so that the failure link of a node is done before the node
+    for (int node = 0; node < numNodes; node++) {
+      for (int child = trie.firstChild.get(node); child < trie.firstChild.get(node + 1); child++) {
+        char c = trie.labels.get(child - 1);
+        depth[child] = depth[node] + 1;
+        int f = 0;
+        if (node != 0) {
+          f = fail[node];
+          while (true) {
+            int next = trie.child(f, c);
+            if (next != -1) {
+              f = next;
+              break;
+            }
+            if (f == 0) break;
+            f = fail[f];
+          }
+        }
+        fail[child] = f;
+        dictionary[child] = trie.word(f) != -1 ? f : dictionary[f];
+      }
+    }
+  }
+
+  /** Shares the tables of an automaton, with other options */
+  protected AhoCorasick(AhoCorasick<V> automaton, boolean longestOnly, boolean wholeWords) {
+    this.trie = automaton.trie;
+    this.values = automaton.values;
+    this.fail = automaton.fail;
+    this.dictionary = automaton.dictionary;
+    this.depth = automaton.depth;
+    this.ignoreCase = automaton.ignoreCase;
+    this.longestOnly = longestOnly;
+    this.wholeWords = wholeWords;
+  }
+
+  /** Builds the automaton for the words of a Trie. The value of a match is the word of the Trie. */
+  public static AhoCorasick<String> of(Trie trie, boolean ignoreCase) {
+    Map<String, String> words = new LinkedHashMap<String, String>();
+    for (String s : trie.strings())
+      words.put(s, s);
+    return (of(words, ignoreCase));
+  }
+
+  /** Builds the automaton for the words of a FrozenTrie. The value of a match is the word of the FrozenTrie. */
+  public static AhoCorasick<String> of(FrozenTrie trie, boolean ignoreCase) {
+    Map<String, String> words = new LinkedHashMap<String, String>();
+    for (CharSequence s : trie)
+      words.put(s.toString(), s.toString());
+    return (of(words, ignoreCase));
+  }
+
+  /** Builds the automaton for the entries of a TrieMap */
+  public static <V> AhoCorasick<V> of(TrieMap<V> map, boolean ignoreCase) {
+    Map<String, V> entries = new LinkedHashMap<String, V>();
+    for (Map.Entry<CharSequence, V> e : map)
+      entries.put(e.getKey().toString(), e.getValue());
+    return (of(entries, ignoreCase));
+  }
+
+  /** Builds the automaton for the entries of a FrozenTrieMap */
+  public static <V> AhoCorasick<V> of(FrozenTrieMap<V> map, boolean ignoreCase) {
+    if (!ignoreCase) return (new AhoCorasick<V>(map.trie, map.values, false));
+    Map<String, V> entries = new LinkedHashMap<String, V>();
+    for (Map.Entry<CharSequence, V> e : map)
+      entries.put(e.getKey().toString(), e.getValue());
+    return (of(entries, true));
+  }
+
+  /** Builds the automaton for the entries of a map. If ignoreCase is set, the first of several keys that differ only in case wins. */
+  public static <V> AhoCorasick<V> of(Map<String, V> entries, boolean ignoreCase) {
+    TrieMap<V> map = new TrieMap<V>();
+    for (Map.Entry<String, V> e : entries.entrySet()) {
+      String key = ignoreCase ? lowerCase(e.getKey()) : e.getKey();
+      TrieMap<V> node = map.get(key, 0, true);
+      if (node.value == null) map.put(key, e.getValue());
+    }
+    FrozenTrieMap<V> frozen = map.freeze();
+    return (new AhoCorasick<V>(frozen.trie, frozen.values, ignoreCase));
+  }
+
+  /** Lowercases char by char, so that the positions do not change */
+  protected static String lowerCase(CharSequence s) {
+    char[] result = new char[s.length()];
+    for (int i = 0; i < result.length; i++)
+      result[i] = Character.toLowerCase(s.charAt(i));
+    return (new String(result));
+  }
+
+  /** Returns an automaton that returns only non-overlapping matches: the leftmost, and the longest among those with the same start */
+  public AhoCorasick<V> withLongestOnly(boolean longestOnly) {
+    return (new AhoCorasick<V>(this, longestOnly, wholeWords));
+  }
+
+  /** Returns an automaton that returns only matches that do not start or end inside a word (letters and digits) */
+  public AhoCorasick<V> withWholeWords(boolean wholeWords) {
+    return (new AhoCorasick<V>(this, longestOnly, wholeWords));
+  }
+
+  /** TRUE if only the leftmost longest matches are returned */
+  public boolean longestOnly() {
+    return (longestOnly);
+  }
+
+  /** TRUE if matches must not start or end inside a word */
+  public boolean wholeWords() {
+    return (wholeWords);
+  }
+
+  /** Returns the number of words */
+  public int size() {
+    return (trie.size());
+  }
+
+  /** TRUE if the match from start to end does not start or end inside a word */
+  protected static boolean isWholeWord(CharSequence text, int start, int end) {
+    if (start > 0 && Character.isLetterOrDigit(text.charAt(start - 1)) && Character.isLetterOrDigit(text.charAt(start))) return (false);
+    if (end < text.length() && Character.isLetterOrDigit(text.charAt(end - 1)) && Character.isLetterOrDigit(text.charAt(end))) return (false);
+    return (true);
+  }
+
+  /** Returns all matches in the text, ordered by their start (and longest first) */
+  @SuppressWarnings("unchecked")
+  public List<Match<V>> matches(CharSequence text) {
+    List<Match<V>> result = new ArrayList<Match<V>>();
+    int state = 0;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (ignoreCase) c = Character.toLowerCase(c);
+      while (true) {
+        int next = trie.child(state, c);
+        if (next != -1) {
+          state = next;
+          break;
+        }
+        if (state == 0) break;
+        state = fail[state];
+      }
+      for (int node = trie.word(state) != -1 ? state : dictionary[state]; node != -1; node = dictionary[node]) {
+        int start = i + 1 - depth[node];
+        if (wholeWords && !isWholeWord(text, start, i + 1)) continue;
+        result.add(new Match<V>(start, i + 1, (V) values[trie.word(node)]));
+      }
+    }
+    // The matches were found by their end
+    Collections.sort(result, new Comparator<Match<V>>() {
+
+      @Override
+      public int compare(Match<V> m1, Match<V> m2) {
+        if (m1.start != m2.start) return (m1.start < m2.start ? -1 : 1);
+        return (m2.end - m1.end);
+      }
+    });
+    if (!longestOnly) return (result);
+    // Keep the leftmost longest matches that do not overlap
+    List<Match<V>> longest = new ArrayList<Match<V>>();
+    int end = 0;
+    for (Match<V> m : result) {
+      if (m.start < end) continue;
+      longest.add(m);
+      end = m.end;
+    }
+    return (longest);
+  }
+
+  @Override
+  public String toString() {
+    return "AhoCorasick automaton with " + size() + " words" + (ignoreCase ? ", ignoring case" : "") + (longestOnly ? ", longest matches" : "")
+        + (wholeWords ? ", whole words" : "");
+  }
+
+  /** Compares Trie.wordsIn with the automaton */
+  public static void main(String[] args) throws Exception {
+    TrieMap<String> map = new TrieMap<String>();
+    map.put("Elvis", "<Elvis_Presley>");
+    map.put("Elvis Presley", "<Elvis_Presley>");
+    map.put("Presley", "<Presley>");
+    map.put("Memphis", "<Memphis>");
+    map.put("is", "<is>");
+    AhoCorasick<String> ac = of(map, true);
+    String text = "elvis presley was born in Tupelo, not in Memphis";
+    D.p(ac.matches(text));
+    D.p(ac.withLongestOnly(true).withWholeWords(true).matches(text));
+    // Speed
+    Trie trie = new Trie();
+    for (int i = 0; i < 100000; i++)
+      trie.add("entity" + Integer.toString(i * 7919, 36));
+    StringBuilder b = new StringBuilder();
+    for (int i = 0; i < 200000; i++)
+      b.append("entity").append(Integer.toString(i * 13, 36)).append(' ');
+    FrozenTrie frozen = trie.freeze();
+    AhoCorasick<String> automaton = of(frozen, false).withLongestOnly(true);
+    for (int run = 0; run < 3; run++) {
+      long time = System.nanoTime();
+      int n = trie.wordsIn(b).asList().size();
+      D.p("Trie.wordsIn:", n, "matches in", (System.nanoTime() - time) / 1000000, "ms");
+      time = System.nanoTime();
+      n = frozen.wordsIn(b).asList().size();
+      D.p("FrozenTrie.wordsIn:", n, "matches in", (System.nanoTime() - time) / 1000000, "ms");
+      time = System.nanoTime();
+      n = automaton.matches(b).size();
+      D.p("AhoCorasick:", n, "matches in", (System.nanoTime() - time) / 1000000, "ms");
+    }
+  }
+}
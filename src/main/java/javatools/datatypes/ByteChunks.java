@@ -0,0 +1,115 @@
+package javatools.datatypes;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+Copyright 2016 Fabian M. Suchanek
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Bytes outside of the heap, addressed by longs. The bytes are held in direct
+or mapped ByteBuffers of at most 1 GB each. Ints and longs have to be
+stored at multiples of their size, so that they do not cross two buffers.
+Used by StringDictionary and SparseDataset.
+*/
+class ByteChunks {
+
+  /** Bits of the position within a buffer */
+  protected static final int SHIFT = 30;
+
+  /** Size of a full buffer */
+  protected static final int CHUNKSIZE = 1 << SHIFT;
+
+  /** Mask of the position within a buffer */
+  protected static final long MASK = CHUNKSIZE - 1;
+
+  /** Size of the first buffer */
+  protected static final int FIRSTSIZE = 4096;
+
+  /** Holds the buffers */
+  protected final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+
+  /** Number of bytes that can be addressed */
+  protected long capacity = 0;
+
+  /** Makes room for size bytes. The first buffer grows by doubling until it is full, then new buffers are added. */
+  protected void ensure(long size) {
+    if (size <= capacity) return;
+    while (buffers.size() == 1 && capacity < CHUNKSIZE && capacity < size) {
+      ByteBuffer old = buffers.get(0);
+      ByteBuffer b = ByteBuffer.allocateDirect((int) Math.min(capacity * 2, CHUNKSIZE));
+      old.clear();
+      b.put(old);
+      buffers.set(0, b);
+      capacity = b.capacity();
+    }
+    while (capacity < size) {
+      int length = buffers.isEmpty() ? (int) Math.min(Math.max(FIRSTSIZE, Long.highestOneBit(size - 1) << 1), CHUNKSIZE) : CHUNKSIZE;
+      buffers.add(ByteBuffer.allocateDirect(length));
+      capacity += length;
+    }
+  }
+
+  protected byte get(long pos) {
+    return (buffers.get((int) (pos >>> SHIFT)).get((int) (pos & MASK)));
+  }
+
+  protected void put(long pos, byte b) {
+    buffers.get((int) (pos >>> SHIFT)).put((int) (pos & MASK), b);
+  }
+
+  protected int getInt(long pos) {
+    return (buffers.get((int) (pos >>> SHIFT)).getInt((int) (pos & MASK)));
+  }
+
+  protected void putInt(long pos, int i) {
+    buffers.get((int) (pos >>> SHIFT)).putInt((int) (pos & MASK), i);
+  }
+
+  protected long getLong(long pos) {
+    return (buffers.get((int) (pos >>> SHIFT)).getLong((int) (pos & MASK)));
+  }
+
+  protected void putLong(long pos, long l) {
+    buffers.get((int) (pos >>> SHIFT)).putLong((int) (pos & MASK), l);
+  }
+
+  /** Writes the first length bytes (padded with zeros if they were never written) */
+  protected void write(FileChannel channel, long length) throws IOException {
+    ensure(length);
+    for (ByteBuffer b : buffers) {
+      if (length <= 0) break;
+      ByteBuffer d = b.duplicate();
+      d.clear();
+      d.limit((int) Math.min(length, d.capacity()));
+      length -= d.limit();
+      while (d.hasRemaining())
+        channel.write(d);
+    }
+  }
+
+  /** Maps length bytes of the file from the given position */
+  protected static ByteChunks map(FileChannel channel, long position, long length) throws IOException {
+    ByteChunks result = new ByteChunks();
+    while (result.capacity < length) {
+      long size = Math.min(length - result.capacity, CHUNKSIZE);
+      result.buffers.add(channel.map(FileChannel.MapMode.READ_ONLY, position + result.capacity, size));
+      result.capacity += size;
+    }
+    return (result);
+  }
+}
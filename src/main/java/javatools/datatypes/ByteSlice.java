@@ -0,0 +1,177 @@
+package javatools.datatypes;
+
+import java.nio.charset.Charset;
+
+import javatools.administrative.D;
+
+/**
+ * Copyright 2016 Fabian M. Suchanek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * This class represents a window on a byte array, with 1 byte per character
+ * (as in ByteString). Unlike ByteString, a ByteSlice does not copy the bytes:
+ * it just points to a region of a shared array. This makes ByteSlices cheap,
+ * but also volatile: if the array changes, the ByteSlice changes as well. Call
+ * toString() or copy() to keep the content.<BR>
+ * Example:
+ *
+ * <PRE>
+ * byte[] b = "Hello world".getBytes();
+ * ByteSlice s = new ByteSlice(b, 6, 5);
+ * System.out.println(s);
+ * --&gt; world
+ * </PRE>
+ *
+ * @author Fabian M. Suchanek
+ */
+public class ByteSlice implements CharSequence, Comparable<ByteSlice> {
+
+  /** Charset that maps bytes 1:1 to chars */
+  public static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+  /** Holds the bytes (shared) */
+  public byte[] data;
+
+  /** Start of the slice in data */
+  public int start;
+
+  /** Number of bytes of the slice */
+  public int length;
+
+  /** Constructs an empty slice, to be set by set() */
+  public ByteSlice() {
+    this(new byte[0], 0, 0);
+  }
+
+  /** Constructs a slice on the given region of the array */
+  public ByteSlice(byte[] data, int start, int length) {
+    set(data, start, length);
+  }
+
+  /** Constructs a slice on the whole array */
+  public ByteSlice(byte[] data) {
+    this(data, 0, data.length);
+  }
+
+  /** Makes this slice point to another region, returns this */
+  public ByteSlice set(byte[] data, int start, int length) {
+    this.data = data;
+    this.start = start;
+    this.length = length;
+    return (this);
+  }
+
+  /** Returns the byte at the given position */
+  public byte byteAt(int pos) {
+    return (data[start + pos]);
+  }
+
+  @Override
+  public char charAt(int pos) {
+    return (char) (data[start + pos] & 0xFF);
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  /** Returns a slice on the same array (does not copy) */
+  @Override
+  public ByteSlice subSequence(int from, int to) {
+    return new ByteSlice(data, start + from, to - from);
+  }
+
+  /** Returns the position of the first occurrence of the byte from position from on, or -1 */
+  public int indexOf(byte b, int from) {
+    for (int i = start + from; i < start + length; i++) {
+      if (data[i] == b) return (i - start);
+    }
+    return (-1);
+  }
+
+  /** Returns the position of the first occurrence of the byte, or -1 */
+  public int indexOf(byte b) {
+    return (indexOf(b, 0));
+  }
+
+  /** TRUE if the slice starts with the given (1 byte per char) sequence */
+  public boolean startsWith(CharSequence s) {
+    if (s.length() > length) return (false);
+    for (int i = 0; i < s.length(); i++) {
+      if (charAt(i) != s.charAt(i)) return (false);
+    }
+    return (true);
+  }
+
+  /** Returns a slice on a private copy of the bytes */
+  public ByteSlice copy() {
+    return new ByteSlice(toByteArray());
+  }
+
+  /** Returns a copy of the bytes */
+  public byte[] toByteArray() {
+    byte[] result = new byte[length];
+    System.arraycopy(data, start, result, 0, length);
+    return (result);
+  }
+
+  /** Decodes the bytes in the given charset (e.g., UTF-8) */
+  public String toString(Charset charset) {
+    return new String(data, start, length, charset);
+  }
+
+  /** Returns the bytes as a String with 1 byte per char */
+  @Override
+  public String toString() {
+    return (toString(LATIN1));
+  }
+
+  /** Hash code of the current content (as in Arrays.hashCode) */
+  @Override
+  public int hashCode() {
+    int result = 1;
+    for (int i = start; i < start + length; i++)
+      result = 31 * result + data[i];
+    return (result);
+  }
+
+  /** TRUE if the other ByteSlice currently has the same content */
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof ByteSlice)) return (false);
+    ByteSlice other = (ByteSlice) obj;
+    if (other.length != length) return (false);
+    for (int i = 0; i < length; i++) {
+      if (data[start + i] != other.data[other.start + i]) return (false);
+    }
+    return (true);
+  }
+
+  /** Compares the unsigned bytes lexicographically */
+  @Override
+  public int compareTo(ByteSlice other) {
+    int min = Math.min(length, other.length);
+    for (int i = 0; i < min; i++) {
+      int c = (data[start + i] & 0xFF) - (other.data[other.start + i] & 0xFF);
+      if (c != 0) return (c);
+    }
+    return (length - other.length);
+  }
+
+  public static void main(String[] args) throws Exception {
+    ByteSlice s = new ByteSlice("Hello world".getBytes(LATIN1), 6, 5);
+    D.p(s, s.subSequence(1, 3), s.indexOf((byte) 'l'));
+  }
+}
@@ -0,0 +1,269 @@
+package javatools.datatypes;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+Copyright 2016 Fabian M. Suchanek
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+This class implements a HashMap with double values that can be used by several
+threads at the same time. The keys are distributed over a number of stripes, each
+of which is an DoubleHashMap with its own lock. Threads that update keys of different
+stripes do not wait for each other.<BR>
+Example:
+<PRE>
+  final ConcurrentDoubleHashMap&lt;String&gt; counts=new ConcurrentDoubleHashMap&lt;String&gt;();
+  // in each thread
+  for(String word : words) counts.increase(word);
+  // at the end
+  DoubleHashMap&lt;String&gt; result=counts.snapshot();
+</PRE>
+The iterator runs on a snapshot (see snapshot()), so that it is not disturbed by concurrent updates.
+ */
+public class ConcurrentDoubleHashMap<K> extends AbstractSet<K> {
+
+  /** Holds the stripes */
+  protected final DoubleHashMap<K>[] stripes;
+
+  /** Holds the locks of the stripes */
+  protected final ReentrantLock[] locks;
+
+  /** Number of bits that select the stripe */
+  protected final int stripeBits;
+
+  /** Creates a map with 4 stripes per processor */
+  public ConcurrentDoubleHashMap() {
+    this(4 * Runtime.getRuntime().availableProcessors());
+  }
+
+  /** Creates a map with the given number of stripes (rounded up to a power of 2) */
+  public ConcurrentDoubleHashMap(int numStripes) {
+    int bits = 0;
+    while ((1 << bits) < numStripes && bits < 16)
+      bits++;
+    stripeBits = bits;
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    DoubleHashMap<K>[] array = (DoubleHashMap<K>[]) new DoubleHashMap[1 << bits];
+    stripes = array;
+    locks = new ReentrantLock[1 << bits];
+    for (int i = 0; i < stripes.length; i++) {
+      stripes[i] = new DoubleHashMap<K>();
+      locks[i] = new ReentrantLock();
+    }
+  }
+
+  /** Returns the stripe of a key (from the high bits of the scrambled hash code, so that the DoubleHashMaps can use the low bits) */
+  protected int stripe(Object key) {
+    if (stripeBits == 0) return (0);
+    int h = key.hashCode() * 0x9E3779B9;
+    return (h >>> (32 - stripeBits));
+  }
+
+  /**
+   * Increases a value, true for 'added new key with delta as value', false
+   * for 'increased existing value'
+   */
+  public boolean add(K key, double delta) {
+    int s = stripe(key);
+    locks[s].lock();
+    try {
+      return (stripes[s].add(key, delta));
+    } finally {
+      locks[s].unlock();
+    }
+  }
+
+  /**
+   * Increases a value, true for 'added new key with value 1', false for
+   * 'increased existing value'
+   */
+  public boolean increase(K key) {
+    return (add(key, 1));
+  }
+
+  /**
+   * Adds a key, true for 'added the key as new', false for 'overwrote
+   * existing value'
+   */
+  public boolean put(K key, double value) {
+    int s = stripe(key);
+    locks[s].lock();
+    try {
+      return (stripes[s].put(key, value));
+    } finally {
+      locks[s].unlock();
+    }
+  }
+
+  /** Retrieves a value */
+  public double get(K key, double defaultValue) {
+    int s = stripe(key);
+    locks[s].lock();
+    try {
+      return (stripes[s].containsKey(key) ? stripes[s].get(key) : defaultValue);
+    } finally {
+      locks[s].unlock();
+    }
+  }
+
+  /** Retrieves a value */
+  public double get(K key) {
+    return (get(key, -1));
+  }
+
+  /** True if value is there */
+  public boolean containsKey(Object key) {
+    int s = stripe(key);
+    locks[s].lock();
+    try {
+      return (stripes[s].containsKey(key));
+    } finally {
+      locks[s].unlock();
+    }
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    return containsKey(o);
+  }
+
+  @Override
+  public boolean add(K e) {
+    return (increase(e));
+  }
+
+  /** Returns the number of keys (which may change while it is computed) */
+  @Override
+  public int size() {
+    int size = 0;
+    for (int s = 0; s < stripes.length; s++) {
+      locks[s].lock();
+      try {
+        size += stripes[s].size();
+      } finally {
+        locks[s].unlock();
+      }
+    }
+    return (size);
+  }
+
+  @Override
+  public void clear() {
+    lockAll();
+    try {
+      for (DoubleHashMap<K> stripe : stripes)
+        stripe.clear();
+    } finally {
+      unlockAll();
+    }
+  }
+
+  /** Locks all stripes (always in the same order, so that two threads cannot block each other) */
+  protected void lockAll() {
+    for (ReentrantLock lock : locks)
+      lock.lock();
+  }
+
+  /** Unlocks all stripes */
+  protected void unlockAll() {
+    for (int s = locks.length - 1; s >= 0; s--)
+      locks[s].unlock();
+  }
+
+  /** Returns a copy of the map as it was at one point in time */
+  public DoubleHashMap<K> snapshot() {
+    DoubleHashMap<K> result = new DoubleHashMap<K>();
+    lockAll();
+    try {
+      for (DoubleHashMap<K> stripe : stripes)
+        result.add(stripe);
+    } finally {
+      unlockAll();
+    }
+    return (result);
+  }
+
+  /** Returns the keys of a snapshot */
+  public PeekIterator<K> keys() {
+    return (snapshot().keys());
+  }
+
+  /** Iterates over the keys of a snapshot */
+  @Override
+  public Iterator<K> iterator() {
+    return keys();
+  }
+
+  /** Adds all values up */
+  public void add(DoubleHashMap<K> countBindings) {
+    for (K key : countBindings.keys()) {
+      add(key, countBindings.get(key));
+    }
+  }
+
+  /** Adds up the values of all maps, using the given number of threads. Returns this. */
+  public ConcurrentDoubleHashMap<K> merge(List<? extends DoubleHashMap<K>> maps, int threads) throws InterruptedException {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Object>> results = new ArrayList<Future<Object>>();
+      for (final DoubleHashMap<K> map : maps) {
+        results.add(executor.submit(new Callable<Object>() {
+
+          @Override
+          public Object call() {
+            add(map);
+            return (null);
+          }
+        }));
+      }
+      for (Future<Object> f : results)
+        f.get();
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    } finally {
+      executor.shutdown();
+    }
+    return (this);
+  }
+
+  /** Adds up the values of all maps in parallel. Returns this. */
+  public ConcurrentDoubleHashMap<K> merge(List<? extends DoubleHashMap<K>> maps) throws InterruptedException {
+    return (merge(maps, Runtime.getRuntime().availableProcessors()));
+  }
+
+  /** Computes the sum of a snapshot */
+  public double computeSum() {
+    return (snapshot().computeSum());
+  }
+
+  /** Finds the maximum value of a snapshot */
+  public double findMax() {
+    return (snapshot().findMax());
+  }
+
+  @Override
+  public String toString() {
+    return (snapshot().toString());
+  }
+
+}
@@ -1,7 +1,6 @@
 package javatools.datatypes;
 
 import java.util.AbstractSet;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -25,8 +24,9 @@ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
 See the License for the specific language governing permissions and
 limitations under the License. 
  
- This class implements a HashMap with double values.
- 
+ This class implements a HashMap with double values. Like IntHashMap, it uses
+ an open-addressing table whose size is a power of 2, scrambles the hash codes,
+ grows at a configurable load factor, and shifts keys back on removal.
  */
 public class DoubleHashMap<K> extends AbstractSet<K> {
 
@@ -39,11 +39,24 @@ public class DoubleHashMap<K> extends AbstractSet<K> {
   /** Holds size */
   protected int size;
 
+  /** Maximal ratio of keys to positions */
+  protected float loadFactor = IntHashMap.LOADFACTOR;
+
+  /** Number of keys above which the table grows */
+  protected int threshold;
+
   /** Constructor*/
   public DoubleHashMap() {
     clear();
   }
 
+  /** Creates a DoubleHashMap that holds capacity keys without growing, with a load factor between 0 and 1*/
+  public DoubleHashMap(int capacity, float loadFactor) {
+    if (!(loadFactor > 0 && loadFactor < 1)) throw new IllegalArgumentException("The load factor has to be between 0 and 1: " + loadFactor);
+    this.loadFactor = loadFactor;
+    clear(capacity);
+  }
+
   /** Creates a DoubleHashMap with these keys set to 1*/
   public DoubleHashMap(K... keys) {
     this();
@@ -51,9 +64,9 @@ public class DoubleHashMap<K> extends AbstractSet<K> {
       add(k);
   }
 
-  /** Returns an index where to store the object*/
+  /** Returns an index where to store the object (len is a power of 2)*/
   protected int index(Object key, int len) {
-    return (Math.abs(key.hashCode()) % len);
+    return (IntHashMap.hash(key) & (len - 1));
   }
 
   /** Returns an index where to store the object*/
@@ -68,13 +81,11 @@ public class DoubleHashMap<K> extends AbstractSet<K> {
 
   /** Finds a key, keys[find] will be NULL if non-existent */
   protected int find(Object key) {
+    int mask = keys.length - 1;
     int i = index(key);
-    while (true) {
-      if (keys[i] == null) return (i);
-      if (keys[i].equals(key)) return (i);
-      i++;
-      if (i == keys.length) i = 0;
-    }
+    while (keys[i] != null && !keys[i].equals(key))
+      i = (i + 1) & mask;
+    return (i);
   }
 
   /** Retrieves a value */
@@ -95,8 +106,7 @@ public class DoubleHashMap<K> extends AbstractSet<K> {
     if (keys[pos] == null) {
       keys[pos] = key;
       values[pos] = delta;
-      size++;
-      if (size > keys.length * 3 / 4) rehash();
+      if (++size > threshold) rehash();
       return (true);
     }
     values[pos] += delta;
@@ -119,7 +129,7 @@ public class DoubleHashMap<K> extends AbstractSet<K> {
       @Override
       protected K internalNext() throws Exception {
         pos++;
-        for (; pos < keys.length; pos++) {
+        for (; pos < e.length; pos++) {
           if (e[pos] != null) {
             return ((K) e[pos]);
           }
@@ -133,8 +143,7 @@ public class DoubleHashMap<K> extends AbstractSet<K> {
   /** Adds a key, true for 'added the key as new', false for 'overwrote existing value' */
   public boolean put(K key, double value) {
     if (put(keys, values, key, value)) {
-      size++;
-      if (size > keys.length * 3 / 4) rehash();
+      if (++size > threshold) rehash();
       return (true);
     }
     return (false);
@@ -142,6 +151,7 @@ public class DoubleHashMap<K> extends AbstractSet<K> {
 
   /** Adds a key, true for 'added the key as new', false for 'overwrote existing value' */
   protected boolean put(Object[] keys, double[] values, Object key, double value) {
+    int mask = keys.length - 1;
     int i = index(key, keys.length);
     while (true) {
       if (keys[i] == null) {
@@ -153,20 +163,53 @@ public class DoubleHashMap<K> extends AbstractSet<K> {
         values[i] = value;
         return (false);
       }
-      i++;
-      if (i == keys.length) i = 0;
+      i = (i + 1) & mask;
+    }
+  }
+
+  @Override
+  public boolean remove(Object key) {
+    int pos = find(key);
+    if (keys[pos] == null) return (false);
+    removeIndex(pos);
+    return (true);
+  }
+
+  /** Removes the key at a position. Moves back following keys that would not be found otherwise.*/
+  protected void removeIndex(int hole) {
+    int mask = keys.length - 1;
+    int j = hole;
+    while (true) {
+      j = (j + 1) & mask;
+      if (keys[j] == null) break;
+      int home = index(keys[j]);
+      // The key at j can fill the hole if its home is not in (hole, j]
+      if (hole <= j ? (home <= hole || home > j) : (home <= hole && home > j)) {
+        keys[hole] = keys[j];
+        values[hole] = values[j];
+        hole = j;
+      }
     }
+    keys[hole] = null;
+    values[hole] = 0;
+    size--;
   }
 
-  /** Rehashes */
+  /** Rehashes into a table of twice the size*/
   protected void rehash() {
-    Object[] newKeys = new Object[keys.length * 2];
-    double[] newValues = new double[keys.length * 2];
+    resize(keys.length * 2);
+  }
+
+  /** Moves the keys to a table of the given size (a power of 2)*/
+  protected void resize(int length) {
+    Object[] newKeys = new Object[length];
+    double[] newValues = new double[length];
     for (int i = 0; i < keys.length; i++) {
       if (keys[i] != null) put(newKeys, newValues, keys[i], values[i]);
     }
     keys = newKeys;
     values = newValues;
+    threshold = IntHashMap.threshold(length, loadFactor);
   }
 
   /** Test*/
@@ -196,9 +239,16 @@ public class DoubleHashMap<K> extends AbstractSet<K> {
 
   @Override
   public void clear() {
+    clear(0);
+  }
+
+  /** Removes all keys, and makes room for capacity keys*/
+  public void clear(int capacity) {
+    int length = IntHashMap.tableSize(capacity, loadFactor);
     size = 0;
-    keys = new Object[10];
-    values = new double[10];
+    keys = new Object[length];
+    values = new double[length];
+    threshold = IntHashMap.threshold(length, loadFactor);
   }
 
   @Override
@@ -267,18 +317,22 @@ public class DoubleHashMap<K> extends AbstractSet<K> {
 
   @Override
   public boolean equals(Object o) {
-    if (!(o instanceof IntHashMap<?>)) return (false);
-    IntHashMap<?> other = (IntHashMap<?>) o;
+    if (!(o instanceof DoubleHashMap<?>)) return (false);
+    DoubleHashMap<?> other = (DoubleHashMap<?>) o;
     if (other.size() != this.size()) return (false);
     for (int i = 0; i < keys.length; i++) {
-      if (keys[i] != null && values[i] != other.get(keys[i])) return (false);
+      if (keys[i] != null && (!other.containsKey(keys[i]) || values[i] != other.values[other.find(keys[i])])) return (false);
     }
     return (true);
   }
 
   @Override
   public int hashCode() {
-    return Arrays.hashCode(values);
+    int h = 0;
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != null) h += keys[i].hashCode() ^ Double.valueOf(values[i]).hashCode();
+    }
+    return (h);
   }
 
   /** Finds the maximum value*/
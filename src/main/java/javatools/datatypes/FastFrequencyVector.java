@@ -1,5 +1,14 @@
 package javatools.datatypes;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
 import javatools.administrative.D;
 
 /**
@@ -15,11 +24,348 @@ Unless required by applicable law or agreed to in writing, software
 distributed under the License is distributed on an "AS IS" BASIS,
 WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
 See the License for the specific language governing permissions and
-limitations under the License. 
+limitations under the License.
 
-This class FrequencyVector methods with DoubleHashMap and IntHashMap
+This class is a FrequencyVector that is backed by a DoubleHashMap instead of
+a map of boxed numbers. It does not sort its terms when it is constructed: The
+terms are ranked only when termAtRank(), topTerms() or sortedTerms() is called,
+and then only as far as needed, by partial selection. With another
+FastFrequencyVector, the intersection and the cosine look up the terms of the
+smaller vector in the larger one, without building new sets. All other methods
+are those of FrequencyVector.
+The class also provides the fuzzy precision and recall of DoubleHashMaps and
+IntHashMaps as static methods.
+<PRE>
+  DoubleHashMap&lt;String&gt; map=new DoubleHashMap&lt;String&gt;();
+  map.add("scientist", 2);
+  ...
+  FastFrequencyVector&lt;String&gt; v=new FastFrequencyVector&lt;String&gt;(map);
+  v.topTerms(10);
+  v.cosine(other);
+</PRE>
  */
-public class FastFrequencyVector {
+public class FastFrequencyVector<T> extends FrequencyVector<T, Double> {
+
+  /** Holds the vector itself*/
+  protected DoubleHashMap<T> frequencies;
+
+  /** Holds the terms for ranking, created on demand. The first numRanked are sorted by decreasing frequency, all others are not larger. */
+  protected Object[] rankedTerms;
+
+  /** Holds the values of rankedTerms*/
+  protected double[] rankedValues;
+
+  /** Number of terms in rankedTerms that are sorted*/
+  protected int numRanked = 0;
+
+  /** Constructs a frequency vector. The frequency vector is backed by the map. ZERO-entries are removed! */
+  public FastFrequencyVector(DoubleHashMap<T> applications) {
+    frequencies = applications;
+    List<Object> zeros = null;
+    for (int i = 0; i < frequencies.keys.length; i++) {
+      if (frequencies.keys[i] == null) continue;
+      double d = frequencies.values[i];
+      if (d <= 0) {
+        if (zeros == null) zeros = new ArrayList<Object>();
+        zeros.add(frequencies.keys[i]);
+        continue;
+      }
+      sum += d;
+      norm += d * d;
+      if (d > max) max = d;
+    }
+    if (zeros != null) {
+      for (Object zero : zeros)
+        frequencies.remove(zero);
+    }
+    norm = Math.sqrt(norm);
+  }
+
+  /** Constructs a frequency vector from counts */
+  public FastFrequencyVector(IntHashMap<T> applications) {
+    this(toDoubleHashMap(applications));
+  }
+
+  /** Constructs a frequency vector from a map */
+  public FastFrequencyVector(Map<T, ? extends Number> applications) {
+    this(toDoubleHashMap(applications));
+  }
+
+  /** Constructs a frequency vector from a FrequencyVector */
+  public FastFrequencyVector(FrequencyVector<T, ?> v) {
+    this(toDoubleHashMap(v));
+  }
+
+  /** Copies counts into a DoubleHashMap */
+  protected static <T> DoubleHashMap<T> toDoubleHashMap(IntHashMap<T> applications) {
+    DoubleHashMap<T> result = new DoubleHashMap<T>(applications.size(), IntHashMap.LOADFACTOR);
+    for (int i = 0; i < applications.keys.length; i++) {
+      @SuppressWarnings("unchecked")
+      T key = (T) applications.keys[i];
+      if (key != null) result.put(key, applications.values[i]);
+    }
+    return (result);
+  }
+
+  /** Copies a FrequencyVector into a DoubleHashMap */
+  protected static <T> DoubleHashMap<T> toDoubleHashMap(FrequencyVector<T, ?> v) {
+    DoubleHashMap<T> result = new DoubleHashMap<T>(v.numTerms(), IntHashMap.LOADFACTOR);
+    for (T term : v.terms())
+      result.put(term, v.doubleValueFor(term));
+    return (result);
+  }
+
+  /** Copies a map into a DoubleHashMap */
+  protected static <T> DoubleHashMap<T> toDoubleHashMap(Map<T, ? extends Number> applications) {
+    DoubleHashMap<T> result = new DoubleHashMap<T>(applications.size(), IntHashMap.LOADFACTOR);
+    for (Map.Entry<T, ? extends Number> entry : applications.entrySet()) {
+      result.put(entry.getKey(), entry.getValue().doubleValue());
+    }
+    return (result);
+  }
+
+  // ---------------------------------------------------------------------------
+  //                   Accessor methods
+  // ---------------------------------------------------------------------------
+
+  /** Returns the number of terms in the support*/
+  @Override
+  public int numTerms() {
+    return (frequencies.size());
+  }
+
+  /** Returns the frequency for a term (or null)*/
+  @Override
+  public Double valueFor(T term) {
+    int pos = frequencies.find(term);
+    return (frequencies.keys[pos] == null ? null : frequencies.values[pos]);
+  }
+
+  /** Returns the frequency for a term (or 0)*/
+  @Override
+  public double doubleValueFor(T term) {
+    return (frequencies.get(term, 0));
+  }
+
+  /** TRUE if the term has a non-zero frequency*/
+  public boolean contains(T term) {
+    return (frequencies.containsKey(term));
+  }
+
+  /** Returns the terms. The set is backed by the vector.*/
+  @Override
+  public Set<T> terms() {
+    return (Collections.unmodifiableSet(frequencies));
+  }
+
+  // ---------------------------------------------------------------------------
+  //                   Ranking
+  // ---------------------------------------------------------------------------
+
+  /** Returns the term at rank i (or null)*/
+  @Override
+  @SuppressWarnings("unchecked")
+  public synchronized T termAtRank(int i) {
+    if (i >= numTerms()) return (null);
+    rank(i + 1);
+    return ((T) rankedTerms[i]);
+  }
+
+  /** Returns the k terms with the highest frequencies, sorted by decreasing frequency. Among equal frequencies, the order is arbitrary.
+   * The list cannot be modified.*/
+  @SuppressWarnings("unchecked")
+  public synchronized List<T> topTerms(int k) {
+    k = Math.min(k, numTerms());
+    if (k <= 0) return (Collections.<T> emptyList());
+    rank(k);
+    // The first numRanked terms do not move any more
+    return (Collections.unmodifiableList((List<T>) (List<?>) Arrays.asList(rankedTerms).subList(0, k)));
+  }
+
+  /** Returns the terms sorted by decreasing frequency. The list cannot be modified.*/
+  @Override
+  public List<T> sortedTerms() {
+    return (topTerms(numTerms()));
+  }
+
+  /** Makes sure that at least k terms are sorted. Ranks at least twice as many terms as before, so that asking for the ranks one by one is linear. */
+  protected synchronized void rank(int k) {
+    if (k <= numRanked) return;
+    if (rankedTerms == null) {
+      rankedTerms = new Object[frequencies.size()];
+      rankedValues = new double[frequencies.size()];
+      int n = 0;
+      for (int i = 0; i < frequencies.keys.length; i++) {
+        if (frequencies.keys[i] == null) continue;
+        rankedTerms[n] = frequencies.keys[i];
+        rankedValues[n++] = frequencies.values[i];
+      }
+    }
+    int end = Math.min(rankedTerms.length, Math.max(k, numRanked * 2));
+    // The terms after numRanked are not larger than the ranked ones, so we select among them only
+    select(numRanked, rankedTerms.length - 1, end - 1);
+    sort(numRanked, end - 1);
+    numRanked = end;
+  }
+
+  /** Swaps two terms of the ranking*/
+  protected void swap(int i, int j) {
+    Object t = rankedTerms[i];
+    rankedTerms[i] = rankedTerms[j];
+    rankedTerms[j] = t;
+    double v = rankedValues[i];
+    rankedValues[i] = rankedValues[j];
+    rankedValues[j] = v;
+  }
+
+  /**
+   * Partitions the terms from lo to hi (inclusive) around the value of the middle one into
+   * larger, equal and smaller values. Returns the first position of the equal ones in the
+   * upper and the last position in the lower 32 bits. Equal values are grouped, because
+   * frequencies have many ties.
+   */
+  protected long partition(int lo, int hi) {
+    double pivot = rankedValues[(lo + hi) >>> 1];
+    int lt = lo;
+    int gt = hi;
+    int i = lo;
+    while (i <= gt) {
+      if (rankedValues[i] > pivot) swap(i++, lt++);
+      else if (rankedValues[i] < pivot) swap(i, gt--);
+      else i++;
+    }
+    return (((long) lt << 32) | gt);
+  }
+
+  /** Rearranges the terms from lo to hi (inclusive) so that position k holds the term it would hold if they were sorted, with larger ones before and smaller ones after*/
+  protected void select(int lo, int hi, int k) {
+    while (lo < hi) {
+      long p = partition(lo, hi);
+      int lt = (int) (p >>> 32);
+      int gt = (int) p;
+      if (k < lt) hi = lt - 1;
+      else if (k > gt) lo = gt + 1;
+      else return;
+    }
+  }
+
+  /** Sorts the terms from lo to hi (inclusive) by decreasing value*/
+  protected void sort(int lo, int hi) {
+    while (lo < hi) {
+      long p = partition(lo, hi);
+      int lt = (int) (p >>> 32);
+      int gt = (int) p;
+      // Recurse into the smaller part
+      if (lt - lo < hi - gt) {
+        sort(lo, lt - 1);
+        lo = gt + 1;
+      } else {
+        sort(gt + 1, hi);
+        hi = lt - 1;
+      }
+    }
+  }
+
+  @Override
+  public int hashCode() {
+    return frequencies.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return (obj != null && obj instanceof FastFrequencyVector && ((FastFrequencyVector<?>) obj).frequencies.equals(frequencies));
+  }
+
+  // ---------------------------------------------------------------------------
+  //                   Intersection and cosine
+  // ---------------------------------------------------------------------------
+
+  /** Returns the size of the common support*/
+  public int intersectionSize(FastFrequencyVector<T> other) {
+    DoubleHashMap<T> small = this.numTerms() <= other.numTerms() ? this.frequencies : other.frequencies;
+    DoubleHashMap<T> large = small == this.frequencies ? other.frequencies : this.frequencies;
+    int result = 0;
+    for (int i = 0; i < small.keys.length; i++) {
+      if (small.keys[i] != null && large.containsKey(small.keys[i])) result++;
+    }
+    return (result);
+  }
+
+  /** Computes the common supports*/
+  @Override
+  @SuppressWarnings("unchecked")
+  public Set<T> intersection(FrequencyVector<T, ?> other) {
+    if (!(other instanceof FastFrequencyVector)) return (super.intersection(other));
+    FastFrequencyVector<T> o = (FastFrequencyVector<T>) other;
+    DoubleHashMap<T> small = this.numTerms() <= o.numTerms() ? this.frequencies : o.frequencies;
+    DoubleHashMap<T> large = small == this.frequencies ? o.frequencies : this.frequencies;
+    Set<T> result = new TreeSet<T>();
+    for (int i = 0; i < small.keys.length; i++) {
+      if (small.keys[i] != null && large.containsKey(small.keys[i])) result.add((T) small.keys[i]);
+    }
+    return (result);
+  }
+
+  /** Returns the size of the intersection of the top k terms*/
+  public int topKIntersectionSize(FastFrequencyVector<T> other, int k) {
+    List<T> mine = this.topTerms(k);
+    List<T> others = other.topTerms(k);
+    if (others.isEmpty()) return (0);
+    // Only terms with at least the k-th value of the other vector can be in its top k
+    double kth = other.doubleValueFor(others.get(others.size() - 1));
+    int result = 0;
+    for (T term : mine) {
+      if (other.doubleValueFor(term) >= kth && others.contains(term)) result++;
+    }
+    return (result);
+  }
+
+  /** Computes the dot product with another vector*/
+  public double sprod(FastFrequencyVector<T> other) {
+    DoubleHashMap<T> small = this.numTerms() <= other.numTerms() ? this.frequencies : other.frequencies;
+    DoubleHashMap<T> large = small == this.frequencies ? other.frequencies : this.frequencies;
+    double result = 0;
+    for (int i = 0; i < small.keys.length; i++) {
+      if (small.keys[i] == null) continue;
+      int pos = large.find(small.keys[i]);
+      if (large.keys[pos] != null) result += small.values[i] * large.values[pos];
+    }
+    return (result);
+  }
+
+  /** Computes the cosine to another vector*/
+  @Override
+  @SuppressWarnings("unchecked")
+  public double cosine(FrequencyVector<T, ?> other) {
+    if (!(other instanceof FastFrequencyVector)) return (super.cosine(other));
+    if (this.norm() == 0 || other.norm() == 0) return (0);
+    return (sprod((FastFrequencyVector<T>) other) / this.norm() / other.norm());
+  }
+
+  // ---------------------------------------------------------------------------
+  //                   Precision and recall
+  // ---------------------------------------------------------------------------
+
+  /** Computes the standard precision*/
+  @Override
+  @SuppressWarnings("unchecked")
+  public double precisionWithRespectTo(FrequencyVector<T, ?> trueFrequencies) {
+    if (!(trueFrequencies instanceof FastFrequencyVector)) return (super.precisionWithRespectTo(trueFrequencies));
+    return (this.numTerms() == 0 ? 1 : (double) intersectionSize((FastFrequencyVector<T>) trueFrequencies) / this.numTerms());
+  }
+
+  /** Computes the fuzzy recall */
+  @Override
+  public double fuzzyRecallWithRespectTo(FrequencyVector<T, Double> trueFrequencies) {
+    if (!(trueFrequencies instanceof FastFrequencyVector)) return (super.fuzzyRecallWithRespectTo(trueFrequencies));
+    if (trueFrequencies.sum() == 0) return (1);
+    return (fuzzyRecall(this.frequencies, this.max(), 0, ((FastFrequencyVector<T>) trueFrequencies).frequencies, trueFrequencies.max(),
+        trueFrequencies.sum()));
+  }
+
+  // ---------------------------------------------------------------------------
+  //                   Fuzzy precision and recall of maps
+  // ---------------------------------------------------------------------------
 
   /** Computes the fuzzy precision of this vector wrt the other vector */
   public static <K> double fuzzyPrecision(DoubleHashMap<K> me, DoubleHashMap<K> other) {
@@ -34,17 +380,22 @@ public class FastFrequencyVector {
   /** Computes the fuzzy recall of this vector wrt the other vector */
   public static <K> double fuzzyRecall(DoubleHashMap<K> me, DoubleHashMap<K> other) {
     if (other.isEmpty()) return (1.0);
-    double myMax = me.findMax();
-    double otherMax = other.findMax();
+    return (fuzzyRecall(me, me.findMax(), -1, other, other.findMax(), other.computeSum()));
+  }
+
+  /** Computes the fuzzy recall of this vector wrt the other vector, given the maxima, the value of missing terms, and the sum of the other vector */
+  protected static <K> double fuzzyRecall(DoubleHashMap<K> me, double myMax, double missing, DoubleHashMap<K> other, double otherMax, double otherSum) {
     double fuzzyRecall = 0;
-    for (K trueTerm : other.keys()) {
-      double trueValue = other.get(trueTerm) / otherMax;
-      double guessedValue = me.get(trueTerm) / myMax;
+    for (int i = 0; i < other.keys.length; i++) {
+      if (other.keys[i] == null) continue;
+      double trueValue = other.values[i] / otherMax;
+      int pos = me.find(other.keys[i]);
+      double guessedValue = (me.keys[pos] == null ? missing : me.values[pos]) / myMax;
       if (trueValue > guessedValue) {
         fuzzyRecall += trueValue - guessedValue;
       }
     }
-    fuzzyRecall = 1 - fuzzyRecall / other.computeSum() * otherMax;
+    fuzzyRecall = 1 - fuzzyRecall / otherSum * otherMax;
     if (fuzzyRecall < 0) fuzzyRecall = 0; // Small rounding errors may occur
     return (fuzzyRecall);
   }
@@ -55,9 +406,10 @@ public class FastFrequencyVector {
     double myMax = me.findMax();
     double otherMax = other.findMax();
     double fuzzyRecall = 0;
-    for (K trueTerm : other.keys()) {
-      double trueValue = other.get(trueTerm) / otherMax;
-      double guessedValue = me.get(trueTerm) / myMax;
+    for (int i = 0; i < other.keys.length; i++) {
+      if (other.keys[i] == null) continue;
+      double trueValue = other.values[i] / otherMax;
+      double guessedValue = me.get(other.keys[i]) / myMax;
       if (trueValue > guessedValue) {
         fuzzyRecall += trueValue - guessedValue;
       }
@@ -67,7 +419,59 @@ public class FastFrequencyVector {
     return (fuzzyRecall);
   }
 
-  public static void main(String[] args) throws Exception {
+  // ---------------------------------------------------------------------------
+  //                   Test method
+  // ---------------------------------------------------------------------------
+
+  /** Compares the construction, the top 10 and the cosine to FrequencyVector */
+  public static void benchmark(int numVectors, int numTerms) {
+    Random random = new Random(42);
+    List<Map<Integer, Integer>> maps = new ArrayList<Map<Integer, Integer>>();
+    for (int i = 0; i < numVectors; i++) {
+      Map<Integer, Integer> map = new java.util.HashMap<Integer, Integer>();
+      for (int j = 0; j < numTerms; j++)
+        map.put(random.nextInt(numTerms * 10), 1 + random.nextInt(100));
+      maps.add(map);
+    }
+    List<IntHashMap<Integer>> intMaps = new ArrayList<IntHashMap<Integer>>();
+    for (Map<Integer, Integer> map : maps) {
+      IntHashMap<Integer> intMap = new IntHashMap<Integer>();
+      for (Map.Entry<Integer, Integer> entry : map.entrySet())
+        intMap.put(entry.getKey(), entry.getValue());
+      intMaps.add(intMap);
+    }
+    long time = System.nanoTime();
+    List<FrequencyVector<Integer, Integer>> slow = new ArrayList<FrequencyVector<Integer, Integer>>();
+    double slowCosine = 0;
+    for (Map<Integer, Integer> map : maps) {
+      FrequencyVector<Integer, Integer> v = new FrequencyVector<Integer, Integer>(map);
+      v.sortedTerms().subList(0, Math.min(10, v.numTerms()));
+      if (!slow.isEmpty()) slowCosine += v.cosine(slow.get(slow.size() - 1));
+      slow.add(v);
+    }
+    long slowTime = System.nanoTime() - time;
+    time = System.nanoTime();
+    List<FastFrequencyVector<Integer>> fast = new ArrayList<FastFrequencyVector<Integer>>();
+    double fastCosine = 0;
+    for (IntHashMap<Integer> map : intMaps) {
+      FastFrequencyVector<Integer> v = new FastFrequencyVector<Integer>(map);
+      v.topTerms(10);
+      if (!fast.isEmpty()) fastCosine += v.cosine(fast.get(fast.size() - 1));
+      fast.add(v);
+    }
+    long fastTime = System.nanoTime() - time;
+    int mismatches = 0;
+    for (int i = 0; i < numVectors; i++) {
+      List<Integer> top = fast.get(i).topTerms(10);
+      for (int j = 0; j < top.size(); j++) {
+        if (fast.get(i).doubleValueFor(top.get(j)) != slow.get(i).doubleValueFor(slow.get(i).termAtRank(j))) mismatches++;
+      }
+    }
+    D.p("FrequencyVector:    ", slowTime / 1000000, "ms, cosine sum", slowCosine);
+    D.p("FastFrequencyVector:", fastTime / 1000000, "ms, cosine sum", fastCosine, ", rank mismatches", mismatches);
+  }
+
+  public static void main(String[] args) {
     IntHashMap<String> person = new IntHashMap<String>();
     person.put("birthDate", 100);
     person.put("birthPlace", 80);
@@ -86,5 +490,10 @@ public class FastFrequencyVector {
     D.p("LivingPerson is covered by person:", fuzzyPrecision(livingPerson, person));
     D.p("Scientist covers what person has:", fuzzyRecall(scientist, person));
     D.p("Scientist is covered by person:", fuzzyPrecision(scientist, person));
+    FastFrequencyVector<String> scientistVector = new FastFrequencyVector<String>(scientist);
+    FastFrequencyVector<String> personVector = new FastFrequencyVector<String>(person);
+    D.p("Scientist:", scientistVector, ", top 2:", scientistVector.topTerms(2));
+    D.p("Cosine to person:", scientistVector.cosine(personVector), ", fuzzy recall:", scientistVector.fuzzyRecallWithRespectTo(personVector));
+    benchmark(200000, 50);
   }
 }
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -36,7 +37,8 @@ limitations under the License.
 The class represents a vector of terms with their frequencies. 
 See the paper for explanations.
  
-Also provides Wilson interval computation.
+Also provides Wilson interval computation. See FastFrequencyVector for a
+subclass without boxed numbers that ranks its terms only on demand.
  
 @author Fabian M. Suchanek
 */
@@ -57,6 +59,11 @@ public class FrequencyVector<T, V extends Number & Comparable<V>> {
   /** Holds the terms of the vector sorted by decreasing frequency*/
   protected List<T> sortedTerms;
 
+  /** Constructs an empty vector for subclasses that hold their terms elsewhere. They have to override
+   * numTerms(), valueFor(), doubleValueFor(), terms() and sortedTerms(), which all other methods use, and equals() and hashCode().*/
+  protected FrequencyVector() {
+  }
+
   /** Constructs a frequency vector. The frequency vector is backed by the map. ZERO-entries are removed! */
   public FrequencyVector(Map<T, V> applications) {
     data = applications;
@@ -181,7 +188,17 @@ public class FrequencyVector<T, V extends Number & Comparable<V>> {
 
   @Override
   public boolean equals(Object obj) {
-    return (obj != null && obj instanceof FrequencyVector && ((FrequencyVector<?, ?>) obj).data.equals(data));
+    return (obj != null && obj instanceof FrequencyVector && data.equals(((FrequencyVector<?, ?>) obj).data));
+  }
+
+  /** Returns an empty map of the class of the backing map (or a HashMap)*/
+  @SuppressWarnings("unchecked")
+  protected Map<T, Double> newMap() {
+    try {
+      if (data != null) return (this.data.getClass().newInstance());
+    } catch (Exception e) {
+    }
+    return (new HashMap<T, Double>());
   }
 
   // ---------------------------------------------------------------------------
@@ -189,29 +206,19 @@ public class FrequencyVector<T, V extends Number & Comparable<V>> {
   // ---------------------------------------------------------------------------
 
   /** Normalizes this vector */
-  @SuppressWarnings("unchecked")
   public FrequencyVector<T, Double> normalized() {
-    Map<T, Double> result = null;
-    try {
-      result = this.data.getClass().newInstance();
-    } catch (Exception e) {
-    }
-    for (Map.Entry<T, V> entry : data.entrySet()) {
-      result.put(entry.getKey(), entry.getValue().doubleValue() / norm());
+    Map<T, Double> result = newMap();
+    for (T term : terms()) {
+      result.put(term, doubleValueFor(term) / norm());
     }
     return (new FrequencyVector<T, Double>(result));
   }
 
   /** Max-Normalizes this vector */
-  @SuppressWarnings("unchecked")
   public FrequencyVector<T, Double> maxNormalized() {
-    Map<T, Double> result = null;
-    try {
-      result = this.data.getClass().newInstance();
-    } catch (Exception e) {
-    }
-    for (Map.Entry<T, V> entry : data.entrySet()) {
-      result.put(entry.getKey(), entry.getValue().doubleValue() / max());
+    Map<T, Double> result = newMap();
+    for (T term : terms()) {
+      result.put(term, doubleValueFor(term) / max());
     }
     return (new FrequencyVector<T, Double>(result));
   }
@@ -222,8 +229,8 @@ public class FrequencyVector<T, V extends Number & Comparable<V>> {
 
   /** Computes the common supports*/
   public Set<T> intersection(FrequencyVector<T, ?> other) {
-    Set<T> intersection = new TreeSet<T>(data.keySet());
-    intersection.retainAll(other.data.keySet());
+    Set<T> intersection = new TreeSet<T>(terms());
+    intersection.retainAll(other.terms());
     return (intersection);
   }
 
@@ -243,7 +250,7 @@ public class FrequencyVector<T, V extends Number & Comparable<V>> {
     if (this.norm() == 0 || other.norm() == 0) return (0);
     double cosine = 0;
     for (T term : intersection) {
-      cosine += data.get(term).doubleValue() * other.data.get(term).doubleValue();
+      cosine += doubleValueFor(term) * other.doubleValueFor(term);
     }
     return (cosine / this.norm() / other.norm());
   }
@@ -327,7 +334,7 @@ public class FrequencyVector<T, V extends Number & Comparable<V>> {
     if (groundTruth.size() == 0) return (1);
     double avep = 0;
     int intersectionSoFar = 0;
-    for (int i = 0; i < this.sortedTerms.size(); i++) {
+    for (int i = 0; i < this.numTerms(); i++) {
       if (groundTruth.contains(this.termAtRank(i))) {
         intersectionSoFar++;
         avep += intersectionSoFar / (i + 1);
@@ -339,7 +346,7 @@ public class FrequencyVector<T, V extends Number & Comparable<V>> {
   /** Computes the average precision, shuffling subsets to get an optimal value*/
   public double optimalAveragePrecision(FrequencyVector<T, ?> trueFrequencies) {
     double bestAP = 0;
-    for (int i = 1; i < trueFrequencies.sortedTerms.size(); i++) {
+    for (int i = 1; i < trueFrequencies.numTerms(); i++) {
       double ap = averagePrecision(trueFrequencies.sortedTerms().subList(0, i));
       if (ap > bestAP) bestAP = ap;
     }
@@ -442,13 +449,8 @@ public class FrequencyVector<T, V extends Number & Comparable<V>> {
   // ---------------------------------------------------------------------------
 
   /** Computes the mean vector of this vector and the other one*/
-  @SuppressWarnings("unchecked")
   public FrequencyVector<T, Double> normalizedMeanWith(FrequencyVector<T, V> other) {
-    Map<T, Double> mean = null;
-    try {
-      mean = this.data.getClass().newInstance();
-    } catch (Exception e) {
-    }
+    Map<T, Double> mean = newMap();
     for (T term : this.sortedTerms()) {
       mean.put(term, doubleValueFor(term) / 2);
     }
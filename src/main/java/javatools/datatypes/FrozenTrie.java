@@ -0,0 +1,425 @@
+package javatools.datatypes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Map;
+
+import javatools.administrative.D;
+
+/**
+Copyright 2016 Fabian M. Suchanek
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+This class is an immutable, compact version of a Trie. It is created by Trie.freeze().
+The nodes are numbered in breadth-first order, so that the children of a node
+have consecutive numbers. Three arrays describe the trie: for each node, the
+number of its first child and the number of its word (or -1), and for each
+node except the root, the character that leads to it. The children of a node are
+sorted by their character, and are found by binary search. This takes about
+10 bytes per node instead of the objects, TreeMaps and boxed Characters of a Trie.
+Lookups do not create objects.<BR>
+A FrozenTrie can be saved to a file, and the file can be mapped into memory by open():
+<PRE>
+  Trie t=new Trie();
+  t.add("Elvis");
+  t.add("Elvis Presley");
+  t.freeze().save(new File("names.trie"));
+  ...
+  FrozenTrie names=FrozenTrie.open(new File("names.trie"));
+  names.containedLength("Elvis Presley sings", 0);
+  --&gt; 13
+</PRE>
+*/
+public class FrozenTrie extends AbstractSet<CharSequence> {
+
+  /** Marks the files of frozen tries */
+  public static final long MAGIC = 0x4A54545249453031L; // "JTTRIE01"
+
+  /** Size of the header of the file */
+  protected static final int HEADERSIZE = 16;
+
+  /** Number of the first child of each node, plus one entry for the end */
+  protected IntBuffer firstChild;
+
+  /** Character that leads to each node (except the root, node 0) */
+  protected CharBuffer labels;
+
+  /** Number of the word of each node, or -1 */
+  protected IntBuffer words;
+
+  /** Number of nodes */
+  protected int numNodes;
+
+  /** Number of words */
+  protected int size;
+
+  /** Constructs a FrozenTrie from its arrays */
+  protected FrozenTrie(IntBuffer firstChild, CharBuffer labels, IntBuffer words, int size) {
+    this.firstChild = firstChild;
+    this.labels = labels;
+    this.words = words;
+    this.numNodes = words.limit();
+    this.size = size;
+  }
+
+  /** Tells of() the structure of a trie (such as a Trie or a TrieMap) */
+  protected static interface Nodes<N> {
+
+    /** Returns the children of a node by their character, in increasing order */
+    public Map<Character, N> children(N node);
+
+    /** TRUE if the node ends a word */
+    public boolean isWord(N node);
+
+    /** Is called for each node that ends a word, in the order of the word numbers */
+    public void word(N node, int word);
+  }
+
+  /** Freezes a Trie (see Trie.freeze())*/
+  public static FrozenTrie of(Trie trie) {
+    return (of(trie, new Nodes<Trie>() {
+
+      @Override
+      public Map<Character, Trie> children(Trie node) {
+        return (node.children);
+      }
+
+      @Override
+      public boolean isWord(Trie node) {
+        return (node.isWord);
+      }
+
+      @Override
+      public void word(Trie node, int word) {
+      }
+    }));
+  }
+
+  /** Freezes a trie whose structure is given by nodes. Numbers the nodes breadth-first. */
+  protected static <N> FrozenTrie of(N root, Nodes<N> nodes) {
+    ArrayDeque<N> queue = new ArrayDeque<N>();
+    IntBuffer firstChild = IntBuffer.allocate(countNodes(root, nodes) + 1);
+    CharBuffer labels = CharBuffer.allocate(firstChild.capacity() - 2);
+    IntBuffer words = IntBuffer.allocate(firstChild.capacity() - 1);
+    int numWords = 0;
+    int next = 1;
+    queue.add(root);
+    for (int node = 0; !queue.isEmpty(); node++) {
+      N t = queue.poll();
+      if (nodes.isWord(t)) {
+        nodes.word(t, numWords);
+        words.put(node, numWords++);
+      } else {
+        words.put(node, -1);
+      }
+      firstChild.put(node, next);
+      for (Map.Entry<Character, N> e : nodes.children(t).entrySet()) {
+        labels.put(next - 1, e.getKey());
+        queue.add(e.getValue());
+        next++;
+      }
+    }
+    firstChild.put(words.capacity(), next);
+    return (new FrozenTrie(firstChild, labels, words, numWords));
+  }
+
+  /** Counts the nodes of a trie */
+  protected static <N> int countNodes(N root, Nodes<N> nodes) {
+    int result = 0;
+    ArrayDeque<N> stack = new ArrayDeque<N>();
+    stack.push(root);
+    while (!stack.isEmpty()) {
+      N t = stack.pop();
+      result++;
+      for (N child : nodes.children(t).values())
+        stack.push(child);
+    }
+    return (result);
+  }
+
+  // ---------------------------------------------------------------------
+  //           Lookup
+  // ---------------------------------------------------------------------
+
+  /** Returns the child of the node with the given character, or -1 */
+  public int child(int node, char c) {
+    int low = firstChild.get(node);
+    int high = firstChild.get(node + 1) - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      char m = labels.get(mid - 1);
+      if (m < c) low = mid + 1;
+      else if (m > c) high = mid - 1;
+      else return (mid);
+    }
+    return (-1);
+  }
+
+  /** Returns the number of the word of the node, or -1 */
+  public int word(int node) {
+    return (words.get(node));
+  }
+
+  /** Returns the node of the sequence from start to end, or -1 */
+  public int node(CharSequence s, int start, int end) {
+    int node = 0;
+    for (int i = start; i < end && node != -1; i++)
+      node = child(node, s.charAt(i));
+    return (node);
+  }
+
+  /** Returns the number of the word, or -1 (the word numbers are 0..size()-1) */
+  public int indexOf(CharSequence s) {
+    int node = node(s, 0, s.length());
+    return (node == -1 ? -1 : words.get(node));
+  }
+
+  @Override
+  public boolean contains(Object s) {
+    return (s instanceof CharSequence && indexOf((CharSequence) s) != -1);
+  }
+
+  /**
+   * Finds the longest word that starts at startPos. Returns -1 if there is none,
+   * else the length of the word in the upper 32 bits and the number of the word in the lower 32 bits.
+   */
+  public long longestWord(CharSequence s, int startPos) {
+    int node = 0;
+    long result = words.get(0) == -1 ? -1 : words.get(0);
+    for (int i = startPos; i < s.length(); i++) {
+      node = child(node, s.charAt(i));
+      if (node == -1) break;
+      int word = words.get(node);
+      if (word != -1) result = (long) (i - startPos + 1) << 32 | word;
+    }
+    return (result);
+  }
+
+  /**
+   * Returns the length of the longest contained subsequence, starting from
+   * start position (or -1)
+   */
+  public int containedLength(CharSequence s, int startPos) {
+    long word = longestWord(s, startPos);
+    return (word == -1 ? -1 : (int) (word >>> 32));
+  }
+
+  /** Returns all words found */
+  public PeekIterator<CharSequence> wordsIn(final CharSequence text) {
+    return (new PeekIterator<CharSequence>() {
+
+      int pos = -1;
+
+      @Override
+      public CharSequence internalNext() {
+        while (++pos < text.length()) {
+          int subtreeLength = containedLength(text, pos);
+          if (subtreeLength != -1) return (text.subSequence(pos, subtreeLength + pos));
+        }
+        return (null);
+      }
+    });
+  }
+
+  @Override
+  public int size() {
+    return (size);
+  }
+
+  /** Returns the number of nodes */
+  public int numNodes() {
+    return (numNodes);
+  }
+
+  /** Returns the words in alphabetical order, depth first */
+  @Override
+  public PeekIterator<CharSequence> iterator() {
+    return (new PeekIterator<CharSequence>() {
+
+      /** Nodes on the path from the root */
+      int[] path = new int[16];
+
+      /** Next child of each node on the path */
+      int[] nextChild = new int[16];
+
+      int depth = -1;
+
+      StringBuilder currentString = new StringBuilder();
+
+      @Override
+      protected CharSequence internalNext() throws Exception {
+        if (depth == -1) {
+          if (numNodes == 0) return (null);
+          depth = 0;
+          nextChild[0] = firstChild.get(0);
+          if (words.get(0) != -1) return ("");
+        }
+        while (depth >= 0) {
+          int node = path[depth];
+          if (nextChild[depth] == firstChild.get(node + 1)) {
+            // Go up
+            depth--;
+            if (currentString.length() > 0) currentString.setLength(currentString.length() - 1);
+            continue;
+          }
+          // Go down
+          int child = nextChild[depth]++;
+          if (++depth == path.length) {
+            path = Arrays.copyOf(path, depth * 2);
+            nextChild = Arrays.copyOf(nextChild, depth * 2);
+          }
+          path[depth] = child;
+          nextChild[depth] = firstChild.get(child);
+          currentString.append(labels.get(child - 1));
+          if (words.get(child) != -1) return (currentString.toString());
+        }
+        return (null);
+      }
+    });
+  }
+
+  @Override
+  public String toString() {
+    return "FrozenTrie with " + size() + " elements and " + numNodes + " nodes";
+  }
+
+  // ---------------------------------------------------------------------
+  //           Files
+  // ---------------------------------------------------------------------
+
+  /** Rounds up to a multiple of 4 */
+  protected static long align(long n) {
+    return ((n + 3) & ~3L);
+  }
+
+  /** Writes the frozen trie to a file, which can be mapped into memory by open() */
+  public void save(File f) throws IOException {
+    RandomAccessFile out = new RandomAccessFile(f, "rw");
+    try {
+      out.setLength(0);
+      write(out.getChannel());
+    } finally {
+      out.close();
+    }
+  }
+
+  /** Writes the header and the arrays, returns the number of bytes written */
+  protected long write(FileChannel channel) throws IOException {
+    ByteBuffer b = ByteBuffer.allocate(1024 * 1024);
+    b.putLong(MAGIC).putInt(numNodes).putInt(size);
+    for (int i = 0; i <= numNodes; i++)
+      b = flushIfFull(b, channel).putInt(firstChild.get(i));
+    for (int i = 0; i < numNodes; i++)
+      b = flushIfFull(b, channel).putInt(words.get(i));
+    for (int i = 0; i < numNodes - 1; i++)
+      b = flushIfFull(b, channel).putChar(labels.get(i));
+    // Pad the file (not the buffer, which may have been flushed) to a multiple of 4
+    b = flushIfFull(b, channel);
+    for (long i = HEADERSIZE + (numNodes + 1) * 4L + numNodes * 4L + (numNodes - 1) * 2L; i < fileLength(numNodes); i++)
+      b.put((byte) 0);
+    b.flip();
+    while (b.hasRemaining())
+      channel.write(b);
+    return (fileLength(numNodes));
+  }
+
+  /** Writes the buffer to the channel if it has less than 8 bytes left, returns the buffer */
+  protected static ByteBuffer flushIfFull(ByteBuffer b, FileChannel channel) throws IOException {
+    if (b.remaining() >= 8) return (b);
+    b.flip();
+    while (b.hasRemaining())
+      channel.write(b);
+    b.clear();
+    return (b);
+  }
+
+  /** Maps a file written by save() into memory */
+  public static FrozenTrie open(File f) throws IOException {
+    RandomAccessFile in = new RandomAccessFile(f, "r");
+    try {
+      return (read(in.getChannel(), f));
+    } finally {
+      // The mapping stays valid after the file is closed
+      in.close();
+    }
+  }
+
+  /** Maps the header and the arrays */
+  protected static FrozenTrie read(FileChannel channel, File f) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADERSIZE);
+    while (header.hasRemaining()) {
+      if (channel.read(header, header.position()) < 0) throw new IOException(f + " is not a frozen trie");
+    }
+    header.flip();
+    if (header.getLong() != MAGIC) throw new IOException(f + " is not a frozen trie");
+    int numNodes = header.getInt();
+    int size = header.getInt();
+    if (numNodes < 1 || channel.size() < fileLength(numNodes)) throw new IOException(f + " is truncated");
+    long pos = HEADERSIZE;
+    IntBuffer firstChild = channel.map(FileChannel.MapMode.READ_ONLY, pos, (numNodes + 1) * 4L).asIntBuffer();
+    pos += (numNodes + 1) * 4L;
+    IntBuffer words = channel.map(FileChannel.MapMode.READ_ONLY, pos, numNodes * 4L).asIntBuffer();
+    pos += numNodes * 4L;
+    CharBuffer labels = channel.map(FileChannel.MapMode.READ_ONLY, pos, (numNodes - 1) * 2L).asCharBuffer();
+    return (new FrozenTrie(firstChild, labels, words, size));
+  }
+
+  /** Returns the number of bytes of the file of a frozen trie with the given number of nodes */
+  protected static long fileLength(int numNodes) {
+    return (align(HEADERSIZE + (numNodes + 1) * 4L + numNodes * 4L + (numNodes - 1) * 2L));
+  }
+
+  /** Test method */
+  public static void main(String[] args) throws Exception {
+    Trie t = new Trie();
+    t.add("hallo");
+    t.add("du");
+    t.add("duplizieren");
+    FrozenTrie f = t.freeze();
+    D.p(f, f.iterator().asList());
+    D.p(f.wordsIn("Blah hallo blub hallo fasel du duplizieren").asList());
+    File file = File.createTempFile("trie", ".trie");
+    f.save(file);
+    f = open(file);
+    D.p(f, f.contains("du"), f.contains("dup"), f.containedLength("duplizieren!", 0));
+    file.delete();
+    // Compare the memory
+    int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    System.gc();
+    long heap = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    t = new Trie();
+    for (int i = 0; i < n; i++)
+      t.add("Entity_" + Integer.toString(i * 7919, 36));
+    System.gc();
+    long trieHeap = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory() - heap;
+    f = t.freeze();
+    t = null;
+    System.gc();
+    long frozenHeap = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory() - heap;
+    D.p("Trie:", trieHeap / 1024 / 1024, "MB, FrozenTrie:", frozenHeap / 1024 / 1024, "MB for", n, "words and", f.numNodes(), "nodes");
+    long time = System.nanoTime();
+    int found = 0;
+    for (int i = 0; i < n; i++)
+      if (f.contains("Entity_" + Integer.toString(i * 7919, 36))) found++;
+    D.p("Looked up", found, "words in", (System.nanoTime() - time) / 1000000, "ms");
+  }
+}
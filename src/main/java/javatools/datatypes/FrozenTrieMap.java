@@ -0,0 +1,227 @@
+package javatools.datatypes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javatools.administrative.D;
+
+/**
+Copyright 2016 Fabian M. Suchanek
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+This class is an immutable, compact version of a TrieMap. It is created by TrieMap.freeze().
+The keys are stored in a FrozenTrie, and the values in an array in the order of the
+word numbers of the FrozenTrie. save() writes the FrozenTrie followed by the serialized
+values. open() maps the FrozenTrie into memory and deserializes the values, so
+the values have to be Serializable.
+*/
+public class FrozenTrieMap<V> extends AbstractMap<CharSequence, V> implements Iterable<Map.Entry<CharSequence, V>> {
+
+  /** Holds the keys */
+  protected FrozenTrie trie;
+
+  /** Holds the values by word number */
+  protected Object[] values;
+
+  /** Constructs a FrozenTrieMap */
+  protected FrozenTrieMap(FrozenTrie trie, Object[] values) {
+    this.trie = trie;
+    this.values = values;
+  }
+
+  /** Freezes a TrieMap (see TrieMap.freeze())*/
+  public static <V> FrozenTrieMap<V> of(TrieMap<V> map) {
+    final List<Object> values = new ArrayList<Object>();
+    FrozenTrie trie = FrozenTrie.of(map, new FrozenTrie.Nodes<TrieMap<V>>() {
+
+      @Override
+      public Map<Character, TrieMap<V>> children(TrieMap<V> node) {
+        return (node.children);
+      }
+
+      @Override
+      public boolean isWord(TrieMap<V> node) {
+        return (node.value != null);
+      }
+
+      @Override
+      public void word(TrieMap<V> node, int word) {
+        values.add(node.value);
+      }
+    });
+    return (new FrozenTrieMap<V>(trie, values.toArray()));
+  }
+
+  /** Returns the keys */
+  public FrozenTrie keys() {
+    return (trie);
+  }
+
+  /** Returns the value of a word number of the FrozenTrie */
+  @SuppressWarnings("unchecked")
+  public V value(int word) {
+    return ((V) values[word]);
+  }
+
+  @Override
+  public V get(Object key) {
+    if (!(key instanceof CharSequence)) return (null);
+    int word = trie.indexOf((CharSequence) key);
+    return (word == -1 ? null : value(word));
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return (trie.contains(key));
+  }
+
+  @Override
+  public V put(CharSequence key, V value) {
+    throw new UnsupportedOperationException("FrozenTrieMap is immutable");
+  }
+
+  @Override
+  public int size() {
+    return (trie.size());
+  }
+
+  /**
+   * Returns the length of the longest contained subsequence, starting from
+   * start position (or -1)
+   */
+  public int containedLength(CharSequence s, int startPos) {
+    return (trie.containedLength(s, startPos));
+  }
+
+  /** Returns all words found in 'text' */
+  public PeekIterator<CharSequence> wordsIn(final CharSequence text) {
+    return (trie.wordsIn(text));
+  }
+
+  /** Returns all entries found in 'text' */
+  public PeekIterator<Entry<CharSequence, V>> entriesIn(final CharSequence text) {
+    return (new PeekIterator<Entry<CharSequence, V>>() {
+
+      int pos = -1;
+
+      @Override
+      public Entry<CharSequence, V> internalNext() {
+        while (++pos < text.length()) {
+          long word = trie.longestWord(text, pos);
+          if (word != -1) return (new AbstractMap.SimpleEntry<CharSequence, V>(text.subSequence(pos, pos + (int) (word >>> 32)), value((int) word)));
+        }
+        return (null);
+      }
+    });
+  }
+
+  @Override
+  public Iterator<Entry<CharSequence, V>> iterator() {
+    final Iterator<CharSequence> keys = trie.iterator();
+    return (new PeekIterator<Entry<CharSequence, V>>() {
+
+      @Override
+      protected Entry<CharSequence, V> internalNext() throws Exception {
+        if (!keys.hasNext()) return (null);
+        CharSequence key = keys.next();
+        return (new AbstractMap.SimpleEntry<CharSequence, V>(key, value(trie.indexOf(key))));
+      }
+    });
+  }
+
+  @Override
+  public Set<Entry<CharSequence, V>> entrySet() {
+    return new AbstractSet<Entry<CharSequence, V>>() {
+
+      @Override
+      public Iterator<Entry<CharSequence, V>> iterator() {
+        return FrozenTrieMap.this.iterator();
+      }
+
+      @Override
+      public int size() {
+        return FrozenTrieMap.this.size();
+      }
+    };
+  }
+
+  @Override
+  public String toString() {
+    return "FrozenTrieMap with " + size() + " elements and " + trie.numNodes() + " nodes";
+  }
+
+  /** Writes the keys and the (serializable) values to a file, which can be read by open() */
+  public void save(File f) throws IOException {
+    RandomAccessFile out = new RandomAccessFile(f, "rw");
+    try {
+      out.setLength(0);
+      FileChannel channel = out.getChannel();
+      long pos = trie.write(channel);
+      channel.position(pos);
+      ObjectOutputStream o = new ObjectOutputStream(Channels.newOutputStream(channel));
+      o.writeObject(values);
+      o.flush();
+    } finally {
+      out.close();
+    }
+  }
+
+  /** Maps the keys of a file written by save() into memory, and reads the values */
+  public static <V> FrozenTrieMap<V> open(File f) throws IOException {
+    RandomAccessFile in = new RandomAccessFile(f, "r");
+    try {
+      FileChannel channel = in.getChannel();
+      FrozenTrie trie = FrozenTrie.read(channel, f);
+      channel.position(FrozenTrie.fileLength(trie.numNodes()));
+      ObjectInputStream o = new ObjectInputStream(Channels.newInputStream(channel));
+      Object[] values = (Object[]) o.readObject();
+      if (values.length != trie.size()) throw new IOException(f + " has " + values.length + " values for " + trie.size() + " keys");
+      return (new FrozenTrieMap<V>(trie, values));
+    } catch (ClassNotFoundException e) {
+      throw new IOException("Cannot read the values of " + f, e);
+    } finally {
+      in.close();
+    }
+  }
+
+  /** Test method */
+  public static void main(String[] args) throws Exception {
+    TrieMap<String> t = new TrieMap<String>();
+    t.put("hallo", "<hallo>");
+    t.put("key", "<key>");
+    t.put("du", "<du>");
+    t.put("dublin", "<dublin>");
+    FrozenTrieMap<String> f = t.freeze();
+    for (Map.Entry<CharSequence, String> e : f)
+      D.p(e.getKey() + ": " + e.getValue());
+    D.p(f.entriesIn("Blah hallo blub hallo fasel du aus dublin").asList());
+    File file = File.createTempFile("trie", ".trie");
+    f.save(file);
+    f = open(file);
+    D.p(f, f.get("dublin"), f.get("dub"), f.containsKey("key"));
+    file.delete();
+  }
+}
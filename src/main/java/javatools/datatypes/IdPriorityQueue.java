@@ -1,6 +1,10 @@
 package javatools.datatypes;
 
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Random;
 import java.util.NoSuchElementException;
 
 import javatools.administrative.D;
@@ -23,21 +27,28 @@ limitations under the License.
    
        
   This class implements a priority queue, whose elements are integers (ids) and whose
-  priorities are doubles. 
+  priorities are doubles. The ids are kept in a binary heap, and the hash table of IntSet 
+  stores the position of each id in the heap. Therefore, add() (also to update a priority), 
+  remove() and poll() take logarithmic time, and peek() takes constant time.
 */
 
 public class IdPriorityQueue extends IntSet {
 
-  /** Holds the priorities*/
+  /** Holds the ids in heap order (the id with the highest priority comes first)*/
+  protected int[] heap;
+
+  /** Holds the priorities in heap order*/
   protected double[] priorities;
 
-  /** stores highest index*/
-  protected int highestIndex = -1;
+  /** Holds for each heap position the position of the id in the hash table*/
+  protected int[] heapSlots;
+
+  /** Holds for each position of the hash table the position of the id in the heap*/
+  protected int[] positions;
 
   /** Constructor with initial capacity*/
   public IdPriorityQueue(int capacity) {
     super(capacity);
-    priorities = new double[capacity];
   }
 
   /** Constructor with capacity 10*/
@@ -51,98 +62,183 @@ public class IdPriorityQueue extends IntSet {
     int pos = indexOf(i);
     // If we found the element, update its priority
     if (pos != -1) {
-      if (highestIndex == pos && priorities[pos] < priority) highestIndex = -1;
-      if (highestIndex != -1 && priorities[highestIndex] < priority) highestIndex = pos;
-      priorities[pos] = priority;
+      int k = positions[pos];
+      double old = priorities[k];
+      priorities[k] = priority;
+      if (priority > old) siftUp(k);
+      else siftDown(k);
       return;
     }
-    if (numElements == data.length) {
-      data = Arrays.copyOf(data, data.length + 100);
-      priorities = Arrays.copyOf(priorities, data.length + 100);
+    if ((numElements + 1) * 2 > data.length) {
+      resize(data.length * 2);
+      indexOf(i);
+    }
+    if (numElements == heap.length) {
+      int newLength = heap.length * 2;
+      heap = Arrays.copyOf(heap, newLength);
+      priorities = Arrays.copyOf(priorities, newLength);
+      heapSlots = Arrays.copyOf(heapSlots, newLength);
     }
     data[addIndex] = i;
     isThere.set(addIndex);
-    priorities[addIndex] = priority;
-    if (addIndex > lastIndex) lastIndex = addIndex;
-    numElements++;
-    if (highestIndex != -1 && priorities[highestIndex] < priorities[addIndex]) highestIndex = addIndex;
+    int k = numElements++;
+    heap[k] = i;
+    priorities[k] = priority;
+    heapSlots[k] = addIndex;
+    positions[addIndex] = k;
+    siftUp(k);
   }
 
-  /** Truncates the id to int, then adds (linear time)*/
+  /** Truncates the id to int, then adds (logarithmic time)*/
   public void put(long id, double priority) {
     add((int) id, priority);
   }
 
-  /** Returns the index with highest priority*/
+  /** Puts the element at heap position k to heap position to*/
+  protected void place(int k, int to) {
+    heap[to] = heap[k];
+    priorities[to] = priorities[k];
+    heapSlots[to] = heapSlots[k];
+    positions[heapSlots[to]] = to;
+  }
+
+  /** Moves the element at heap position k up to its place*/
+  protected void siftUp(int k) {
+    int id = heap[k];
+    double priority = priorities[k];
+    int slot = heapSlots[k];
+    while (k > 0) {
+      int parent = (k - 1) >>> 1;
+      if (priorities[parent] >= priority) break;
+      place(parent, k);
+      k = parent;
+    }
+    heap[k] = id;
+    priorities[k] = priority;
+    heapSlots[k] = slot;
+    positions[slot] = k;
+  }
+
+  /** Moves the element at heap position k down to its place*/
+  protected void siftDown(int k) {
+    int id = heap[k];
+    double priority = priorities[k];
+    int slot = heapSlots[k];
+    while (true) {
+      int child = 2 * k + 1;
+      if (child >= numElements) break;
+      if (child + 1 < numElements && priorities[child + 1] > priorities[child]) child++;
+      if (priorities[child] <= priority) break;
+      place(child, k);
+      k = child;
+    }
+    heap[k] = id;
+    priorities[k] = priority;
+    heapSlots[k] = slot;
+    positions[slot] = k;
+  }
+
+  /** Removes the element at heap position k from the heap (but not from the hash table)*/
+  protected void removeHeapIndex(int k) {
+    int last = numElements - 1;
+    if (k == last) return;
+    place(last, k);
+    siftDown(k);
+    siftUp(k);
+  }
+
+  /** Keeps the heap positions in sync when the hash table moves an element*/
+  @Override
+  protected void move(int from, int to) {
+    super.move(from, to);
+    int k = positions[from];
+    positions[to] = k;
+    heapSlots[k] = to;
+  }
+
+  /** Rebuilds the positions after the hash table changed its size*/
+  @Override
+  protected void resize(int size) {
+    super.resize(size);
+    positions = new int[size];
+    for (int k = 0; k < numElements; k++) {
+      int slot = indexOf(heap[k]);
+      heapSlots[k] = slot;
+      positions[slot] = k;
+    }
+  }
+
+  /** Returns the index (in the hash table) with highest priority*/
   protected int highestIndex() {
     if (numElements == 0) throw new NoSuchElementException();
-    if (highestIndex != -1) return (highestIndex);
-    int max = -1;
-    for (int i = 0; i <= lastIndex; i++) {
-      if (isThere.get(i) && (max == -1 || priorities[i] > priorities[max])) max = i;
-    }
-    return highestIndex = max;
+    return (heapSlots[0]);
   }
 
   /** Returns and removes the id with highest priority*/
   @Override
   public int poll() {
-    int pos = highestIndex();
-    isThere.set(pos, false);
-    numElements--;
-    highestIndex = -1;
-    int toReturn = data[pos];
+    int slot = highestIndex();
+    removeHeapIndex(0);
+    int toReturn = removeIndex(slot);
     shrink();
     return (toReturn);
   }
 
-  /** Shrinks the set space if it is too large*/
-  @Override
-  protected void shrink() {
-    if (numElements < data.length / 2 && data.length > 300) {
-      IdPriorityQueue result = new IdPriorityQueue(numElements + 100);
-      result.addAll(this);
-      this.data = result.data;
-      this.isThere = result.isThere;
-      this.priorities = result.priorities;
-      this.lastIndex = result.lastIndex;
-      this.numElements = result.numElements;
-      this.highestIndex = -1;
-    }
-  }
-
   /** Returns the highest priority*/
   public double highestPriority() {
-    return (priorities[highestIndex()]);
+    highestIndex();
+    return (priorities[0]);
   }
 
   /** Returns the id with the highest priority*/
   public int peek() {
-    return (data[highestIndex()]);
+    highestIndex();
+    return (heap[0]);
+  }
+
+  /** Returns the priority of the id, or NaN if the id is not in the queue*/
+  public double priority(int i) {
+    int pos = indexOf(i);
+    if (pos == -1) return (Double.NaN);
+    return (priorities[positions[pos]]);
   }
 
   @Override
   public boolean remove(int i) {
     int pos = indexOf(i);
     if (pos == -1) return false;
-    if (pos == highestIndex) highestIndex = -1;
+    removeHeapIndex(positions[pos]);
     removeIndex(pos);
     shrink();
     return true;
   }
 
+  @Override
+  public boolean retainAll(Collection<?> c) {
+    // Collect first, because removing moves other elements
+    IntSet toRemove = new IntSet();
+    for (int k = 0; k < numElements; k++) {
+      if (!c.contains(heap[k])) toRemove.add(heap[k]);
+    }
+    return (removeAll(toRemove));
+  }
+
   @Override
   public void clear(int capacity) {
     super.clear(capacity);
-    priorities = new double[capacity];
-    highestIndex = -1;
+    int heapSize = Math.max(capacity, 1);
+    heap = new int[heapSize];
+    priorities = new double[heapSize];
+    heapSlots = new int[heapSize];
+    positions = new int[data.length];
   }
 
   // ------------ Wrappers -----------------
 
   public void addAll(IdPriorityQueue s) {
-    for (int i = 0; i <= s.lastIndex; i++) {
-      if (s.isThere.get(i)) add(s.data[i], s.priorities[i]);
+    if (s == this) return;
+    for (int k = 0; k < s.numElements; k++) {
+      add(s.heap[k], s.priorities[k]);
     }
   }
 
@@ -154,14 +250,45 @@ public class IdPriorityQueue extends IntSet {
   @Override
   public String toString() {
     StringBuilder result = new StringBuilder("[");
-    for (int i = 0; i <= lastIndex; i++) {
-      if (!isThere.get(i)) continue;
-      result.append(data[i]).append(" (").append(priorities[i]).append("), ");
+    for (int k = 0; k < numElements; k++) {
+      result.append(heap[k]).append(" (").append(priorities[k]).append("), ");
     }
     if (result.length() > 2) result.setLength(result.length() - 2);
     return result.append(']').toString();
   }
 
+  /** Compares the queue to java.util.PriorityQueue (which cannot update priorities) on n ids*/
+  public static void benchmark(int n) {
+    Random random = new Random(42);
+    double[] priorities = new double[n];
+    for (int i = 0; i < n; i++)
+      priorities[i] = random.nextDouble();
+    long time = System.nanoTime();
+    IdPriorityQueue q = new IdPriorityQueue();
+    for (int i = 0; i < n; i++)
+      q.add(i, priorities[i]);
+    for (int i = 0; i < n; i += 2)
+      q.add(i, priorities[i] / 2);
+    long sum = 0;
+    while (!q.isEmpty())
+      sum += q.poll();
+    D.p("IdPriorityQueue:", n, "ids in", (System.nanoTime() - time) / 1000000, "ms", sum);
+    time = System.nanoTime();
+    PriorityQueue<double[]> p = new PriorityQueue<double[]>(11, new Comparator<double[]>() {
+
+      @Override
+      public int compare(double[] o1, double[] o2) {
+        return Double.compare(o2[1], o1[1]);
+      }
+    });
+    for (int i = 0; i < n; i++)
+      p.add(new double[] { i, priorities[i] });
+    sum = 0;
+    while (!p.isEmpty())
+      sum += (int) p.poll()[0];
+    D.p("java.util.PriorityQueue:", n, "ids in", (System.nanoTime() - time) / 1000000, "ms", sum);
+  }
+
   /** Test */
   public static void main(String[] args) {
     IdPriorityQueue q = new IdPriorityQueue();
@@ -178,6 +305,8 @@ public class IdPriorityQueue extends IntSet {
       D.p(q);
       D.p(q.poll());
     }
+    for (int run = 0; run < 3; run++)
+      benchmark(1000000);
   }
 
 }
@@ -1,14 +1,15 @@
 package javatools.datatypes;
 
 import java.util.AbstractSet;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Random;
 
 import javatools.administrative.D;
 
@@ -27,7 +28,12 @@ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
 See the License for the specific language governing permissions and
 limitations under the License. 
 
-This class implements a HashMap with integer values.
+This class implements a HashMap with integer values. The keys live in an
+open-addressing table whose size is a power of 2. The hash codes of the keys
+are scrambled before they are mapped to a position, so that similar hash codes
+do not end up in neighboring positions. The table grows when the ratio of
+keys to positions exceeds the load factor. Removal shifts the following keys
+back instead of leaving markers, so that lookups do not degrade over time.
  */
 public class IntHashMap<K> extends AbstractSet<K> {
 
@@ -40,11 +46,30 @@ public class IntHashMap<K> extends AbstractSet<K> {
   /** Holds size */
   protected int size;
 
+  /** Default maximal ratio of keys to positions */
+  public static final float LOADFACTOR = 0.75f;
+
+  /** Smallest size of the table */
+  protected static final int MINTABLESIZE = 8;
+
+  /** Maximal ratio of keys to positions */
+  protected float loadFactor = LOADFACTOR;
+
+  /** Number of keys above which the table grows */
+  protected int threshold;
+
   /** Constructor */
   public IntHashMap() {
     clear();
   }
 
+  /** Creates an intHashMap that holds capacity keys without growing, with a load factor between 0 and 1 */
+  public IntHashMap(int capacity, float loadFactor) {
+    if (!(loadFactor > 0 && loadFactor < 1)) throw new IllegalArgumentException("The load factor has to be between 0 and 1: " + loadFactor);
+    this.loadFactor = loadFactor;
+    clear(capacity);
+  }
+
   /** Creates an intHashMap with these keys set to 1 */
   public IntHashMap(K... keys) {
     this();
@@ -80,9 +105,15 @@ public class IntHashMap<K> extends AbstractSet<K> {
       put(entry.getKey(), entry.getValue().size());
   }
 
-  /** Returns an index where to store the object */
+  /** Scrambles the bits of the hash code, so that similar hash codes do not end up in neighboring positions */
+  protected static int hash(Object key) {
+    int h = key.hashCode() * 0x9E3779B9;
+    return (h ^ (h >>> 16));
+  }
+
+  /** Returns an index where to store the object (len is a power of 2) */
   protected int index(Object key, int len) {
-    return (Math.abs(key.hashCode()) % len);
+    return (hash(key) & (len - 1));
   }
 
   /** Returns an index where to store the object */
@@ -97,13 +128,11 @@ public class IntHashMap<K> extends AbstractSet<K> {
 
   /** Finds a key, keys[find] will be NULL if non-existent */
   protected int find(Object key) {
+    int mask = keys.length - 1;
     int i = index(key);
-    while (true) {
-      if (keys[i] == null) return (i);
-      if (keys[i].equals(key)) return (i);
-      i++;
-      if (i == keys.length) i = 0;
-    }
+    while (keys[i] != null && !keys[i].equals(key))
+      i = (i + 1) & mask;
+    return (i);
   }
 
   /** Retrieves a value */
@@ -127,8 +156,7 @@ public class IntHashMap<K> extends AbstractSet<K> {
     if (keys[pos] == null) {
       keys[pos] = key;
       values[pos] = delta;
-      size++;
-      if (size > keys.length * 3 / 4) rehash();
+      if (++size > threshold) rehash();
       return (true);
     }
     values[pos] += delta;
@@ -154,8 +182,8 @@ public class IntHashMap<K> extends AbstractSet<K> {
       @Override
       protected K internalNext() throws Exception {
         pos++;
-        for (; pos < keys.length; pos++) {
-          if (e[pos] != null && e[pos] != DEL) {
+        for (; pos < e.length; pos++) {
+          if (e[pos] != null) {
             return ((K) e[pos]);
           }
         }
@@ -171,8 +199,7 @@ public class IntHashMap<K> extends AbstractSet<K> {
    */
   public boolean put(K key, int value) {
     if (put(keys, values, key, value)) {
-      size++;
-      if (size > keys.length * 3 / 4) rehash();
+      if (++size > threshold) rehash();
       return (true);
     }
     return (false);
@@ -183,9 +210,10 @@ public class IntHashMap<K> extends AbstractSet<K> {
    * existing value'
    */
   protected boolean put(Object[] keys, int[] values, Object key, int value) {
+    int mask = keys.length - 1;
     int i = index(key, keys.length);
     while (true) {
-      if (keys[i] == null || keys[i] == DEL) {
+      if (keys[i] == null) {
         keys[i] = key;
         values[i] = value;
         return (true);
@@ -194,33 +222,66 @@ public class IntHashMap<K> extends AbstractSet<K> {
         values[i] = value;
         return (false);
       }
-      i++;
-      if (i == keys.length) i = 0;
+      i = (i + 1) & mask;
     }
   }
 
-  protected Object DEL = new Object();
-
   @Override
-  public boolean remove(Object arg0) {
-    int pos = find(arg0);
+  public boolean remove(Object key) {
+    int pos = find(key);
     if (keys[pos] == null) return (false);
-    keys[pos] = DEL;
-    values[pos] = 0;
-    size--;
-    rehash();
+    removeIndex(pos);
     return (true);
   }
 
-  /** Rehashes */
+  /** Removes the key at a position. Moves back following keys that would not be found otherwise. */
+  protected void removeIndex(int hole) {
+    int mask = keys.length - 1;
+    int j = hole;
+    while (true) {
+      j = (j + 1) & mask;
+      if (keys[j] == null) break;
+      int home = index(keys[j]);
+      // The key at j can fill the hole if its home is not in (hole, j]
+      if (hole <= j ? (home <= hole || home > j) : (home <= hole && home > j)) {
+        keys[hole] = keys[j];
+        values[hole] = values[j];
+        hole = j;
+      }
+    }
+    keys[hole] = null;
+    values[hole] = 0;
+    size--;
+  }
+
+  /** Rehashes into a table of twice the size */
   protected void rehash() {
-    Object[] newKeys = new Object[keys.length * 2];
-    int[] newValues = new int[keys.length * 2];
+    resize(keys.length * 2);
+  }
+
+  /** Moves the keys to a table of the given size (a power of 2) */
+  protected void resize(int length) {
+    Object[] newKeys = new Object[length];
+    int[] newValues = new int[length];
     for (int i = 0; i < keys.length; i++) {
-      if (keys[i] != null && keys[i] != DEL) put(newKeys, newValues, keys[i], values[i]);
+      if (keys[i] != null) put(newKeys, newValues, keys[i], values[i]);
     }
     keys = newKeys;
     values = newValues;
+    threshold = threshold(length, loadFactor);
+  }
+
+  /** Returns the number of keys above which a table of the given size grows */
+  protected static int threshold(int length, float loadFactor) {
+    return (Math.min((int) (length * loadFactor), length - 1));
+  }
+
+  /** Returns the size of the table that holds capacity keys without growing */
+  protected static int tableSize(int capacity, float loadFactor) {
+    int length = MINTABLESIZE;
+    while (threshold(length, loadFactor) < capacity && length < (1 << 30))
+      length <<= 1;
+    return (length);
   }
 
   @Override
@@ -240,9 +301,16 @@ public class IntHashMap<K> extends AbstractSet<K> {
 
   @Override
   public void clear() {
+    clear(0);
+  }
+
+  /** Removes all keys, and makes room for capacity keys */
+  public void clear(int capacity) {
+    int length = tableSize(capacity, loadFactor);
     size = 0;
-    keys = new Object[10];
-    values = new int[10];
+    keys = new Object[length];
+    values = new int[length];
+    threshold = threshold(length, loadFactor);
   }
 
   @Override
@@ -327,7 +395,11 @@ public class IntHashMap<K> extends AbstractSet<K> {
 
   @Override
   public int hashCode() {
-    return Arrays.hashCode(values);
+    int h = 0;
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != null) h += keys[i].hashCode() ^ values[i];
+    }
+    return (h);
   }
 
   /** Finds the maximum value*/
@@ -348,6 +420,62 @@ public class IntHashMap<K> extends AbstractSet<K> {
     return (sum);
   }
 
+  /** Returns n keys of a distribution: sequential integers, integers that differ only in the high bits,
+   * Zipf-like skewed integers, or strings that all have the same hash code */
+  protected static Object[] benchmarkKeys(String distribution, int n) {
+    Object[] result = new Object[n];
+    Random random = new Random(42);
+    for (int i = 0; i < n; i++) {
+      if (distribution.equals("sequential")) result[i] = i;
+      else if (distribution.equals("high bits")) result[i] = Integer.MIN_VALUE + (i << 12);
+      else if (distribution.equals("skewed")) result[i] = (int) Math.pow(n, random.nextDouble());
+      else {
+        // "Aa" and "BB" have the same hash code, and so have all strings made of them
+        StringBuilder b = new StringBuilder();
+        for (int bit = 0; bit < 20; bit++)
+          b.append((i >> bit & 1) == 0 ? "Aa" : "BB");
+        result[i] = b.toString();
+      }
+    }
+    return (result);
+  }
+
+  /** Compares IntHashMap and HashMap on counting, looking up and removing n keys of different distributions */
+  public static void benchmark(int n) {
+    for (String distribution : new String[] { "sequential", "high bits", "skewed", "same hash code" }) {
+      // Keys with the same hash code make any hash table quadratic, so use fewer of them
+      Object[] keys = benchmarkKeys(distribution, distribution.equals("same hash code") ? Math.min(n, 5000) : n);
+      long time = System.nanoTime();
+      IntHashMap<Object> m = new IntHashMap<Object>();
+      for (Object key : keys)
+        m.increase(key);
+      long sum = 0;
+      for (Object key : keys)
+        sum += m.get(key);
+      for (int i = 0; i < keys.length; i += 2)
+        m.remove(keys[i]);
+      for (Object key : keys)
+        sum += m.get(key, 0);
+      D.p("IntHashMap,", distribution + ":", keys.length, "keys in", (System.nanoTime() - time) / 1000000, "ms", sum, m.size());
+      time = System.nanoTime();
+      HashMap<Object, Integer> h = new HashMap<Object, Integer>();
+      for (Object key : keys) {
+        Integer count = h.get(key);
+        h.put(key, count == null ? 1 : count + 1);
+      }
+      sum = 0;
+      for (Object key : keys)
+        sum += h.get(key);
+      for (int i = 0; i < keys.length; i += 2)
+        h.remove(keys[i]);
+      for (Object key : keys) {
+        Integer count = h.get(key);
+        if (count != null) sum += count;
+      }
+      D.p("HashMap,", distribution + ":", keys.length, "keys in", (System.nanoTime() - time) / 1000000, "ms", sum, h.size());
+    }
+  }
+
   /** Test */
   public static void main(String[] args) throws Exception {
     IntHashMap<String> m = new IntHashMap<String>();
@@ -358,6 +486,8 @@ public class IntHashMap<K> extends AbstractSet<K> {
     m.remove("#32");
     for (String key : m.keys())
       D.p(key, m.get(key));
+    for (int run = 0; run < 3; run++)
+      benchmark(1000000);
   }
 
 }
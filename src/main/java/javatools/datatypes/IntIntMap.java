@@ -0,0 +1,404 @@
+package javatools.datatypes;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+import javatools.administrative.D;
+
+/**
+Copyright 2016 Fabian M. Suchanek
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License. 
+
+This class implements a HashMap with int keys and int values, without boxing.
+Like IntKeyMap, it uses an open-addressing table whose size is a power of 2,
+scrambles the keys, grows at a configurable load factor, and shifts keys back
+on removal. Integer.MAX_VALUE marks empty positions, and cannot be used as a key.<BR>
+Example:
+<PRE>
+  IntIntMap counts=new IntIntMap();
+  for(int id : ids) counts.increase(id);
+  int[] keys=new int[counts.size()];
+  int[] values=new int[counts.size()];
+  counts.toSortedArrays(keys, values);
+</PRE>
+ */
+public class IntIntMap {
+
+  /** Holds the keys */
+  protected int[] keys;
+
+  /** Holds the values */
+  protected int[] values;
+
+  /** Holds size */
+  protected int size;
+
+  /** Marks empty positions */
+  protected static final int NOKEY = Integer.MAX_VALUE;
+
+  /** Maximal ratio of keys to positions */
+  protected float loadFactor = IntHashMap.LOADFACTOR;
+
+  /** Number of keys above which the table grows */
+  protected int threshold;
+
+  /** Constructor */
+  public IntIntMap() {
+    clear();
+  }
+
+  /** Creates a map that holds capacity keys without growing */
+  public IntIntMap(int capacity) {
+    clear(capacity);
+  }
+
+  /** Creates a map that holds capacity keys without growing, with a load factor between 0 and 1 */
+  public IntIntMap(int capacity, float loadFactor) {
+    if (!(loadFactor > 0 && loadFactor < 1)) throw new IllegalArgumentException("The load factor has to be between 0 and 1: " + loadFactor);
+    this.loadFactor = loadFactor;
+    clear(capacity);
+  }
+
+  /** Scrambles the bits of the key, so that consecutive keys do not end up in neighboring positions */
+  protected static int hash(int key) {
+    return (IntSet.hash(key));
+  }
+  /** Returns an index where to store the key (len is a power of 2) */
+  protected int index(int key, int len) {
+    return (hash(key) & (len - 1));
+  }
+
+  /** Returns an index where to store the key */
+  protected int index(int key) {
+    return (index(key, keys.length));
+  }
+
+  /** Finds a key, keys[find] will be NOKEY if non-existent */
+  protected int find(int key) {
+    int mask = keys.length - 1;
+    int i = index(key);
+    while (keys[i] != NOKEY && keys[i] != key)
+      i = (i + 1) & mask;
+    return (i);
+  }
+
+  /** Retrieves a value, -1 if the key is not there */
+  public int get(int key) {
+    return (get(key, -1));
+  }
+
+  /** Retrieves a value */
+  public int get(int key, int defaultValue) {
+    int pos = find(key);
+    if (keys[pos] == NOKEY) return (defaultValue);
+    else return (values[pos]);
+  }
+
+  /** True if value is there */
+  public boolean containsKey(int key) {
+    return (keys[find(key)] != NOKEY);
+  }
+
+  /** Checks that the key can be stored */
+  protected static void check(int key) {
+    if (key == NOKEY) throw new RuntimeException("Integer.MAX_VALUE cannot be stored as key. Sorry...");
+  }
+
+  /**
+   * Increases a value, true for 'added new key with delta as value', false
+   * for 'increased existing value'
+   */
+  public boolean add(int key, int delta) {
+    check(key);
+    int pos = find(key);
+    if (keys[pos] == NOKEY) {
+      keys[pos] = key;
+      values[pos] = delta;
+      if (++size > threshold) rehash();
+      return (true);
+    }
+    values[pos] += delta;
+    return (false);
+  }
+
+  /**
+   * Increases a value, true for 'added new key with value 1', false for
+   * 'increased existing value'
+   */
+  public boolean increase(int key) {
+    return (add(key, 1));
+  }
+
+  /**
+   * Adds a key, true for 'added the key as new', false for 'overwrote
+   * existing value'
+   */
+  public boolean put(int key, int value) {
+    check(key);
+    if (put(keys, values, key, value)) {
+      if (++size > threshold) rehash();
+      return (true);
+    }
+    return (false);
+  }
+
+  /**
+   * Adds a key, true for 'added the key as new', false for 'overwrote
+   * existing value'
+   */
+  protected boolean put(int[] keys, int[] values, int key, int value) {
+    int mask = keys.length - 1;
+    int i = index(key, keys.length);
+    while (true) {
+      if (keys[i] == NOKEY) {
+        keys[i] = key;
+        values[i] = value;
+        return (true);
+      }
+      if (keys[i] == key) {
+        values[i] = value;
+        return (false);
+      }
+      i = (i + 1) & mask;
+    }
+  }
+
+  /** Removes a key, true if it was there */
+  public boolean remove(int key) {
+    int pos = find(key);
+    if (keys[pos] == NOKEY) return (false);
+    removeIndex(pos);
+    return (true);
+  }
+
+  /** Removes the key at a position. Moves back following keys that would not be found otherwise. */
+  protected void removeIndex(int hole) {
+    int mask = keys.length - 1;
+    int j = hole;
+    while (true) {
+      j = (j + 1) & mask;
+      if (keys[j] == NOKEY) break;
+      int home = index(keys[j]);
+      // The key at j can fill the hole if its home is not in (hole, j]
+      if (hole <= j ? (home <= hole || home > j) : (home <= hole && home > j)) {
+        keys[hole] = keys[j];
+        values[hole] = values[j];
+        hole = j;
+      }
+    }
+    keys[hole] = NOKEY;
+    values[hole] = 0;
+    size--;
+  }
+
+  /** Rehashes into a table of twice the size */
+  protected void rehash() {
+    resize(keys.length * 2);
+  }
+
+  /** Moves the keys to a table of the given size (a power of 2) */
+  protected void resize(int length) {
+    int[] newKeys = new int[length];
+    Arrays.fill(newKeys, NOKEY);
+    int[] newValues = new int[length];
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != NOKEY) put(newKeys, newValues, keys[i], values[i]);
+    }
+    keys = newKeys;
+    values = newValues;
+    threshold = IntHashMap.threshold(length, loadFactor);
+  }
+
+  /** Returns keys. Can be used only once. */
+  public PeekIterator<Integer> keys() {
+    final int[] e = keys;
+    return (new PeekIterator<Integer>() {
+
+      int pos = -1;
+
+      @Override
+      protected Integer internalNext() throws Exception {
+        pos++;
+        for (; pos < e.length; pos++) {
+          if (e[pos] != NOKEY) {
+            return (e[pos]);
+          }
+        }
+        return (null);
+      }
+
+    });
+  }
+
+  /**
+   * Writes the keys in increasing order to sortedKeys, and their values to
+   * the same positions of sortedValues. Both arrays need size() positions.
+   * Returns size().
+   */
+  public int toSortedArrays(int[] sortedKeys, int[] sortedValues) {
+    if (sortedKeys.length < size || sortedValues.length < size) throw new IllegalArgumentException("The arrays need " + size + " positions");
+    int n = 0;
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != NOKEY) sortedKeys[n++] = keys[i];
+    }
+    Arrays.sort(sortedKeys, 0, n);
+    for (int i = 0; i < n; i++)
+      sortedValues[i] = values[find(sortedKeys[i])];
+    return (n);
+  }
+
+  /** Returns the keys in increasing order */
+  public int[] sortedKeys() {
+    int[] result = new int[size];
+    int n = 0;
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != NOKEY) result[n++] = keys[i];
+    }
+    Arrays.sort(result);
+    return (result);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /** TRUE if there is no mapping*/
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public void clear() {
+    clear(0);
+  }
+
+  /** Removes all keys, and makes room for capacity keys */
+  public void clear(int capacity) {
+    int length = IntHashMap.tableSize(capacity, loadFactor);
+    size = 0;
+    keys = new int[length];
+    Arrays.fill(keys, NOKEY);
+    values = new int[length];
+    threshold = IntHashMap.threshold(length, loadFactor);
+  }
+
+  /** Adds all values up */
+  public void add(IntIntMap other) {
+    for (int i = 0; i < other.keys.length; i++) {
+      if (other.keys[i] != NOKEY) add(other.keys[i], other.values[i]);
+    }
+  }
+
+  /** Finds the maximum value*/
+  public int findMax() {
+    int max = Integer.MIN_VALUE;
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != NOKEY && values[i] > max) max = values[i];
+    }
+    return (max);
+  }
+
+  /** Computes the sum*/
+  public long computeSum() {
+    long sum = 0;
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != NOKEY) sum += values[i];
+    }
+    return (sum);
+  }
+
+  @Override
+  public String toString() {
+    if (isEmpty()) return ("{}");
+    StringBuilder b = new StringBuilder("{");
+    int counter = 30;
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] == NOKEY) continue;
+      if (counter-- == 0) {
+        b.append("..., ");
+        break;
+      }
+      b.append(keys[i]).append('=').append(values[i]).append(", ");
+    }
+    b.setLength(b.length() - 2);
+    return (b.append("}").toString());
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof IntIntMap)) return (false);
+    IntIntMap other = (IntIntMap) o;
+    if (other.size() != this.size()) return (false);
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != NOKEY && (!other.containsKey(keys[i]) || other.get(keys[i]) != values[i])) return (false);
+    }
+    return (true);
+  }
+
+  @Override
+  public int hashCode() {
+    int h = 0;
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != NOKEY) h += keys[i] ^ values[i];
+    }
+    return (h);
+  }
+
+  /** Compares IntIntMap and HashMap on counting, looking up and removing n random keys */
+  public static void benchmark(int n) {
+    Random random = new Random(42);
+    int[] keys = new int[n];
+    for (int i = 0; i < n; i++)
+      keys[i] = random.nextInt(n);
+    long time = System.nanoTime();
+    IntIntMap m = new IntIntMap();
+    for (int key : keys)
+      m.add(key, 1);
+    long sum = 0;
+    for (int key : keys)
+      sum += m.get(key);
+    for (int i = 0; i < n; i += 2)
+      m.remove(keys[i]);
+    D.p("IntIntMap:", n, "keys in", (System.nanoTime() - time) / 1000000, "ms", sum, m.size());
+    time = System.nanoTime();
+    HashMap<Integer, Integer> h = new HashMap<Integer, Integer>();
+    for (int key : keys) {
+      Integer value = h.get(key);
+      h.put(key, value == null ? 1 : value + 1);
+    }
+    sum = 0;
+    for (int key : keys)
+      sum += h.get(key);
+    for (int i = 0; i < n; i += 2)
+      h.remove(keys[i]);
+    D.p("HashMap:", n, "keys in", (System.nanoTime() - time) / 1000000, "ms", sum, h.size());
+  }
+
+  /** Test */
+  public static void main(String[] args) throws Exception {
+    IntIntMap m = new IntIntMap();
+    for (int i = 1; i < 3000; i *= 2)
+      m.put(i, i);
+    m.add(8, 10);
+    m.remove(16);
+    D.p(m);
+    int[] keys = new int[m.size()];
+    int[] values = new int[m.size()];
+    m.toSortedArrays(keys, values);
+    for (int i = 0; i < keys.length; i++)
+      D.p(keys[i], values[i]);
+    for (int run = 0; run < 3; run++)
+      benchmark(1000000);
+  }
+}
@@ -1,8 +1,10 @@
 package javatools.datatypes;
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
 
 import javatools.administrative.D;
 
@@ -21,7 +23,10 @@ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
 See the License for the specific language governing permissions and
 limitations under the License. 
 
-This class implements a HashMap with integer keys.
+This class implements a HashMap with integer keys. Like IntHashMap, it uses
+an open-addressing table whose size is a power of 2, scrambles the keys,
+grows at a configurable load factor, and shifts keys back on removal.
+Integer.MAX_VALUE marks empty positions, and cannot be used as a key.
  */
 public class IntKeyMap<K> {
 
@@ -34,11 +39,32 @@ public class IntKeyMap<K> {
   /** Holds size */
   protected int size;
 
+  /** Marks empty positions */
+  protected static final int NOKEY = Integer.MAX_VALUE;
+
+  /** Maximal ratio of keys to positions */
+  protected float loadFactor = IntHashMap.LOADFACTOR;
+
+  /** Number of keys above which the table grows */
+  protected int threshold;
+
   /** Constructor */
   public IntKeyMap() {
     clear();
   }
 
+  /** Creates an intKeyMap that holds capacity keys without growing */
+  public IntKeyMap(int capacity) {
+    clear(capacity);
+  }
+
+  /** Creates an intKeyMap that holds capacity keys without growing, with a load factor between 0 and 1 */
+  public IntKeyMap(int capacity, float loadFactor) {
+    if (!(loadFactor > 0 && loadFactor < 1)) throw new IllegalArgumentException("The load factor has to be between 0 and 1: " + loadFactor);
+    this.loadFactor = loadFactor;
+    clear(capacity);
+  }
+
   /** Creates an intHashMap from a list that contains keys and values in alternation*/
   public IntKeyMap(Object... keyValuePairs) {
     this(Arrays.asList(keyValuePairs));
@@ -60,7 +86,7 @@ public class IntKeyMap<K> {
 
   /** Returns an index where to store the object */
   protected int index(int key, int len) {
-    return (Math.abs(key) % len);
+    return (IntSet.hash(key) & (len - 1));
   }
 
   /** Returns an index where to store the object */
@@ -75,25 +101,23 @@ public class IntKeyMap<K> {
 
   /** Finds a key, keys[find] will be Integer.MAX_VALUE if non-existent */
   protected int find(int key) {
+    int mask = keys.length - 1;
     int i = index(key);
-    while (true) {
-      if (keys[i] == Integer.MAX_VALUE) return (i);
-      if (keys[i] == key) return (i);
-      i++;
-      if (i == keys.length) i = 0;
-    }
+    while (keys[i] != NOKEY && keys[i] != key)
+      i = (i + 1) & mask;
+    return (i);
   }
 
   /** Retrieves a value */
   public K get(int key, K defaultValue) {
     int pos = find(key);
-    if (keys[pos] == Integer.MAX_VALUE) return (defaultValue);
+    if (keys[pos] == NOKEY) return (defaultValue);
     else return (values[pos]);
   }
 
   /** True if value is there */
   public boolean containsKey(int key) {
-    return (keys[find(key)] != Integer.MAX_VALUE);
+    return (keys[find(key)] != NOKEY);
   }
 
   /** Returns keys. Can be used only once. */
@@ -106,8 +130,8 @@ public class IntKeyMap<K> {
       @Override
       protected Integer internalNext() throws Exception {
         pos++;
-        for (; pos < keys.length; pos++) {
-          if (e[pos] != Integer.MAX_VALUE) {
+        for (; pos < e.length; pos++) {
+          if (e[pos] != NOKEY) {
             return (e[pos]);
           }
         }
@@ -122,10 +146,9 @@ public class IntKeyMap<K> {
    * existing value'
    */
   public boolean put(int key, K value) {
-    if (key == Integer.MAX_VALUE) throw new RuntimeException("Integer.MAX_VALUE cannot be stored as key. Sorry...");
+    if (key == NOKEY) throw new RuntimeException("Integer.MAX_VALUE cannot be stored as key. Sorry...");
     if (put(keys, values, key, value)) {
-      size++;
-      if (size > keys.length * 3 / 4) rehash();
+      if (++size > threshold) rehash();
       return (true);
     }
     return (false);
@@ -136,9 +159,10 @@ public class IntKeyMap<K> {
    * existing value'
    */
   protected boolean put(int[] keys, K[] values, int key, K value) {
+    int mask = keys.length - 1;
     int i = index(key, keys.length);
     while (true) {
-      if (keys[i] == Integer.MAX_VALUE) {
+      if (keys[i] == NOKEY) {
         keys[i] = key;
         values[i] = value;
         return (true);
@@ -147,22 +171,55 @@ public class IntKeyMap<K> {
         values[i] = value;
         return (false);
       }
-      i++;
-      if (i == keys.length) i = 0;
+      i = (i + 1) & mask;
+    }
+  }
+
+  /** Removes a key, true if it was there */
+  public boolean remove(int key) {
+    int pos = find(key);
+    if (keys[pos] == NOKEY) return (false);
+    removeIndex(pos);
+    return (true);
+  }
+
+  /** Removes the key at a position. Moves back following keys that would not be found otherwise. */
+  protected void removeIndex(int hole) {
+    int mask = keys.length - 1;
+    int j = hole;
+    while (true) {
+      j = (j + 1) & mask;
+      if (keys[j] == NOKEY) break;
+      int home = index(keys[j]);
+      // The key at j can fill the hole if its home is not in (hole, j]
+      if (hole <= j ? (home <= hole || home > j) : (home <= hole && home > j)) {
+        keys[hole] = keys[j];
+        values[hole] = values[j];
+        hole = j;
+      }
     }
+    keys[hole] = NOKEY;
+    values[hole] = null;
+    size--;
   }
 
-  /** Rehashes */
+  /** Rehashes into a table of twice the size */
   protected void rehash() {
-    int[] newKeys = new int[keys.length * 2];
-    Arrays.fill(newKeys, Integer.MAX_VALUE);
+    resize(keys.length * 2);
+  }
+
+  /** Moves the keys to a table of the given size (a power of 2) */
+  protected void resize(int length) {
+    int[] newKeys = new int[length];
+    Arrays.fill(newKeys, NOKEY);
     @SuppressWarnings("unchecked")
-    K[] newValues = (K[]) new Object[keys.length * 2];
+    K[] newValues = (K[]) new Object[length];
     for (int i = 0; i < keys.length; i++) {
-      if (keys[i] != Integer.MAX_VALUE) put(newKeys, newValues, keys[i], values[i]);
+      if (keys[i] != NOKEY) put(newKeys, newValues, keys[i], values[i]);
     }
     keys = newKeys;
     values = newValues;
+    threshold = IntHashMap.threshold(length, loadFactor);
   }
 
   public Iterator<Integer> iterator() {
@@ -173,12 +230,19 @@ public class IntKeyMap<K> {
     return size;
   }
 
-  @SuppressWarnings("unchecked")
   public void clear() {
+    clear(0);
+  }
+
+  /** Removes all keys, and makes room for capacity keys */
+  @SuppressWarnings("unchecked")
+  public void clear(int capacity) {
+    int length = IntHashMap.tableSize(capacity, loadFactor);
     size = 0;
-    keys = new int[10];
-    Arrays.fill(keys, Integer.MAX_VALUE);
-    values = (K[]) new Object[10];
+    keys = new int[length];
+    Arrays.fill(keys, NOKEY);
+    values = (K[]) new Object[length];
+    threshold = IntHashMap.threshold(length, loadFactor);
   }
 
   public boolean contains(int o) {
@@ -212,14 +276,56 @@ public class IntKeyMap<K> {
     IntKeyMap<?> other = (IntKeyMap<?>) o;
     if (other.size() != this.size()) return (false);
     for (int i = 0; i < keys.length; i++) {
-      if (keys[i] == Integer.MAX_VALUE && values[i] != other.get(keys[i])) return (false);
+      if (keys[i] != NOKEY && (!other.containsKey(keys[i]) || !D.equal(values[i], other.get(keys[i])))) return (false);
     }
     return (true);
   }
 
   @Override
   public int hashCode() {
-    return Arrays.hashCode(values);
+    int h = 0;
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != NOKEY) h += keys[i] ^ (values[i] == null ? 0 : values[i].hashCode());
+    }
+    return (h);
+  }
+
+  /** Compares IntKeyMap and HashMap on storing, looking up and removing n keys of different distributions */
+  public static void benchmark(int n) {
+    Random random = new Random(42);
+    for (String distribution : new String[] { "sequential", "high bits", "negative", "random" }) {
+      int[] keys = new int[n];
+      for (int i = 0; i < n; i++) {
+        if (distribution.equals("sequential")) keys[i] = i;
+        else if (distribution.equals("high bits")) keys[i] = i << 12;
+        else if (distribution.equals("negative")) keys[i] = Integer.MIN_VALUE + i;
+        else keys[i] = random.nextInt(Integer.MAX_VALUE);
+      }
+      long time = System.nanoTime();
+      IntKeyMap<String> m = new IntKeyMap<String>();
+      for (int key : keys)
+        m.put(key, distribution);
+      int found = 0;
+      for (int key : keys)
+        if (m.get(key) != null) found++;
+      for (int i = 0; i < n; i += 2)
+        m.remove(keys[i]);
+      for (int key : keys)
+        if (m.get(key) != null) found++;
+      D.p("IntKeyMap,", distribution + ":", n, "keys in", (System.nanoTime() - time) / 1000000, "ms", found, m.size());
+      time = System.nanoTime();
+      HashMap<Integer, String> h = new HashMap<Integer, String>();
+      for (int key : keys)
+        h.put(key, distribution);
+      found = 0;
+      for (int key : keys)
+        if (h.get(key) != null) found++;
+      for (int i = 0; i < n; i += 2)
+        h.remove(keys[i]);
+      for (int key : keys)
+        if (h.get(key) != null) found++;
+      D.p("HashMap,", distribution + ":", n, "keys in", (System.nanoTime() - time) / 1000000, "ms", found, h.size());
+    }
   }
 
   /** Test */
@@ -233,5 +339,7 @@ public class IntKeyMap<K> {
     m.put(8, "#0");
     for (int key : m.keys())
       D.p(key, m.get(key));
+    for (int run = 0; run < 3; run++)
+      benchmark(1000000);
   }
 }
@@ -3,6 +3,7 @@ package javatools.datatypes;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.NoSuchElementException;
 import java.util.Set;
 
@@ -24,14 +25,17 @@ See the License for the specific language governing permissions and
 limitations under the License. 
 
      
-This class implements a space-efficient integer set. All operations are linear time, though...<BR>
+This class implements a space-efficient integer set. The integers are stored in a hash table
+with open addressing (linear probing), so that add(), contains() and remove() take
+constant time on average. Removal shifts the following elements back instead of
+leaving markers, so that the table does not degrade over time.<BR>
 */
 public class IntSet implements Set<Integer> {
 
-  /** Holds the integers*/
+  /** Holds the integers (hash table, its length is a power of 2)*/
   protected int[] data;
 
-  /** Tells whether the int is there*/
+  /** Tells whether a position of the table is occupied*/
   protected BitSet isThere;
 
   /** Number of integers in data*/
@@ -43,9 +47,12 @@ public class IntSet implements Set<Integer> {
   /** Index pointing to an empty position. Handled exclusively by indexOf()*/
   protected int addIndex = 0;
 
-  /** Last index that contains a value*/
+  /** Last index of the table*/
   protected int lastIndex = -1;
 
+  /** Smallest size of the table*/
+  protected static final int MINTABLESIZE = 4;
+
   @Override
   public PeekIterator<Integer> iterator() {
     return new PeekIterator<Integer>() {
@@ -54,71 +61,122 @@ public class IntSet implements Set<Integer> {
 
       @Override
       protected Integer internalNext() throws Exception {
-        while (true) {
-          if (pos > lastIndex) return (null);
-          if (isThere.get(pos)) return (data[pos]);
-          pos++;
-        }
+        pos = isThere.nextSetBit(pos);
+        if (pos < 0) return (null);
+        return (data[pos++]);
       }
     };
   }
 
+  /** Scrambles the bits of an integer, so that consecutive integers do not end up in consecutive positions*/
+  protected static int hash(int v) {
+    int h = v * 0x9E3779B9;
+    return (h ^ (h >>> 16));
+  }
+
+  /** Returns the position where the search for v starts*/
+  protected int home(int v) {
+    return (hash(v) & lastIndex);
+  }
+
+  /** Returns the size of the table for a given number of elements*/
+  protected static int tableSize(int capacity) {
+    int size = MINTABLESIZE;
+    while (size < capacity * 2 && size < (1 << 30))
+      size <<= 1;
+    return (size);
+  }
+
   /** Adds the element*/
   public boolean add(int v) {
     // Use contains() also to set the addIndex
     if (contains(v)) return (false);
-    if (numElements == data.length) data = Arrays.copyOf(data, data.length + 100);
+    if ((numElements + 1) * 2 > data.length) {
+      resize(data.length * 2);
+      indexOf(v);
+    }
     data[addIndex] = v;
-    isThere.set(addIndex, true);
+    isThere.set(addIndex);
     numElements++;
-    if (addIndex > lastIndex) lastIndex = addIndex;
     return (true);
   }
 
   public void clear(int capacity) {
+    int size = tableSize(capacity);
     numElements = 0;
-    data = new int[capacity];
-    isThere = new BitSet(capacity);
-    lastIndex = -1;
+    data = new int[size];
+    isThere = new BitSet(size);
+    lastIndex = size - 1;
+    pollIndex = 0;
+  }
+
+  /** Moves the elements to a table of the given size (a power of 2)*/
+  protected void resize(int size) {
+    int[] oldData = data;
+    BitSet oldThere = isThere;
+    data = new int[size];
+    isThere = new BitSet(size);
+    lastIndex = size - 1;
+    pollIndex = 0;
+    for (int i = oldThere.nextSetBit(0); i >= 0; i = oldThere.nextSetBit(i + 1)) {
+      indexOf(oldData[i]);
+      data[addIndex] = oldData[i];
+      isThere.set(addIndex);
+    }
   }
 
   public int poll() {
     if (numElements == 0) throw new NoSuchElementException();
     shrink();
-    while (true) {
-      if (pollIndex > lastIndex) pollIndex = 0;
-      if (isThere.get(pollIndex)) return (removeIndex(pollIndex));
-      pollIndex++;
-    }
+    if (pollIndex > lastIndex) pollIndex = 0;
+    int pos = isThere.nextSetBit(pollIndex);
+    if (pos < 0) pos = isThere.nextSetBit(0);
+    pollIndex = pos;
+    return (removeIndex(pos));
   }
 
-  /** Finds the element, sets addIndex to a free position*/
+  /** Finds the element, sets addIndex to the free position where it would go*/
   protected int indexOf(int v) {
-    addIndex = lastIndex + 1;
-    for (int i = 0; i <= lastIndex; i++) {
-      if (!isThere.get(i)) addIndex = i;
-      if (data[i] == v && isThere.get(i)) return (i);
+    int i = home(v);
+    while (isThere.get(i)) {
+      if (data[i] == v) return (i);
+      i = (i + 1) & lastIndex;
     }
+    addIndex = i;
     return (-1);
   }
 
   /** Deletes empty space if necessary*/
   protected void shrink() {
-    if (numElements < data.length / 2 && data.length > 300) {
-      IntSet result = new IntSet(numElements + 100);
-      result.addAll(this);
-      this.data = result.data;
-      this.isThere = result.isThere;
-      this.lastIndex = result.lastIndex;
-      this.numElements = result.numElements;
+    if (numElements * 8 < data.length && data.length > 256) {
+      resize(tableSize(numElements * 2));
     }
   }
 
-  /** Removes an item*/
+  /** Moves the element at position from to the empty position to*/
+  protected void move(int from, int to) {
+    data[to] = data[from];
+  }
+
+  /** Removes an item. Moves back following elements that would not be found otherwise.*/
   protected int removeIndex(int index) {
-    isThere.set(index, false);
+    int result = data[index];
+    int hole = index;
+    int j = index;
+    while (true) {
+      j = (j + 1) & lastIndex;
+      if (!isThere.get(j)) break;
+      int home = home(data[j]);
+      // The element at j can fill the hole if its home is not in (hole, j]
+      boolean fills = hole <= j ? (home <= hole || home > j) : (home <= hole && home > j);
+      if (fills) {
+        move(j, hole);
+        hole = j;
+      }
+    }
+    isThere.clear(hole);
     numElements--;
-    return (data[index]);
+    return (result);
   }
 
   // ----------- Wrapper methods -------------
@@ -162,15 +220,12 @@ public class IntSet implements Set<Integer> {
   /** Removes all elements that are not in c*/
   @Override
   public boolean retainAll(Collection<?> c) {
-    boolean result = false;
-    for (int i = 0; i <= lastIndex; i++) {
-      if (isThere.get(i) && !c.contains(data[i])) {
-        removeIndex(i);
-        result = true;
-      }
+    // Collect first, because removing moves other elements
+    IntSet toRemove = new IntSet();
+    for (int i = isThere.nextSetBit(0); i >= 0; i = isThere.nextSetBit(i + 1)) {
+      if (!c.contains(data[i])) toRemove.add(data[i]);
     }
-    shrink();
-    return result;
+    return (removeAll(toRemove));
   }
 
   /** Removes one element, returns TRUE if the set was modified*/
@@ -205,9 +260,14 @@ public class IntSet implements Set<Integer> {
 
   /** Removes all elements in c*/
   public boolean removeAll(IntSet c) {
+    if (c == this) {
+      boolean result = !isEmpty();
+      clear();
+      return (result);
+    }
     boolean result = false;
-    for (int i = 0; i <= c.lastIndex; i++) {
-      if (c.isThere.get(i)) result |= remove(c.data[i]);
+    for (int i = c.isThere.nextSetBit(0); i >= 0; i = c.isThere.nextSetBit(i + 1)) {
+      result |= remove(c.data[i]);
     }
     return result;
   }
@@ -217,8 +277,8 @@ public class IntSet implements Set<Integer> {
   public Object[] toArray() {
     Object[] result = new Object[numElements];
     int j = 0;
-    for (int i = 0; i <= lastIndex; i++) {
-      if (isThere.get(i)) result[j++] = new Integer(data[i]);
+    for (int i = isThere.nextSetBit(0); i >= 0; i = isThere.nextSetBit(i + 1)) {
+      result[j++] = new Integer(data[i]);
     }
     return result;
   }
@@ -232,8 +292,8 @@ public class IntSet implements Set<Integer> {
   @Override
   public String toString() {
     StringBuilder res = new StringBuilder("[");
-    for (int i = 0; i <= lastIndex; i++) {
-      if (isThere.get(i)) res.append(data[i]).append(", ");
+    for (int i = isThere.nextSetBit(0); i >= 0; i = isThere.nextSetBit(i + 1)) {
+      res.append(data[i]).append(", ");
     }
     if (numElements > 0) res.setLength(res.length() - 2);
     return res.append("]").toString();
@@ -266,8 +326,9 @@ public class IntSet implements Set<Integer> {
   /** Adds all elements*/
   public boolean addAll(IntSet s) {
     boolean returnValue = false;
-    for (int index = 0; index <= s.lastIndex; index++) {
-      if (s.isThere.get(index)) returnValue |= add(s.data[index]);
+    if (s == this) return (false);
+    for (int index = s.isThere.nextSetBit(0); index >= 0; index = s.isThere.nextSetBit(index + 1)) {
+      returnValue |= add(s.data[index]);
     }
     return (returnValue);
   }
@@ -292,8 +353,8 @@ public class IntSet implements Set<Integer> {
 
   /** Adds all elements of this set to s*/
   public void addTo(BitSet s) {
-    for (int i = 0; i <= lastIndex; i++) {
-      if (isThere.get(i)) s.set(data[i]);
+    for (int i = isThere.nextSetBit(0); i >= 0; i = isThere.nextSetBit(i + 1)) {
+      s.set(data[i]);
     }
   }
 
@@ -364,6 +425,30 @@ public class IntSet implements Set<Integer> {
     return add((Number) e);
   }
 
+  /** Compares the set to java.util.HashSet on n integers*/
+  public static void benchmark(int n) {
+    long time = System.nanoTime();
+    IntSet s = new IntSet();
+    for (int i = 0; i < n; i++)
+      s.add(i * 7);
+    int found = 0;
+    for (int i = 0; i < n; i++)
+      if (s.contains(i)) found++;
+    for (int i = 0; i < n; i += 2)
+      s.remove(i * 7);
+    D.p("IntSet:", n, "ints in", (System.nanoTime() - time) / 1000000, "ms", found, s.size());
+    time = System.nanoTime();
+    HashSet<Integer> h = new HashSet<Integer>();
+    for (int i = 0; i < n; i++)
+      h.add(i * 7);
+    found = 0;
+    for (int i = 0; i < n; i++)
+      if (h.contains(i)) found++;
+    for (int i = 0; i < n; i += 2)
+      h.remove(i * 7);
+    D.p("HashSet:", n, "ints in", (System.nanoTime() - time) / 1000000, "ms", found, h.size());
+  }
+
   /** Test method*/
   public static void main(String[] args) {
     IntSet s = new IntSet();
@@ -377,6 +462,8 @@ public class IntSet implements Set<Integer> {
     while (!s.isEmpty()) {
       D.p(s.poll());
     }
+    for (int run = 0; run < 3; run++)
+      benchmark(1000000);
   }
 
 }
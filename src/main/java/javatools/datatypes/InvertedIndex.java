@@ -0,0 +1,627 @@
+package javatools.datatypes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javatools.administrative.D;
+
+/**
+ * Copyright 2016 Fabian M. Suchanek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * <p>
+ * This class is an in-memory inverted index of SparseVectors or (Fast)FrequencyVectors.
+ * It maps every dimension (or term) to a posting list of the vectors that have
+ * a non-zero value in that dimension, together with that value divided by the
+ * norm of the vector. It finds the k vectors with the highest cosine to a query
+ * without looking at all vectors: The max-score algorithm visits the posting
+ * lists of the query in parallel, and skips the vectors that can no longer
+ * make it into the top k, because their score is bounded by the maximal
+ * weights of the posting lists. The result is the same as that of a full scan.<BR>
+ * Vectors can be added at any time; they get the ids 0,1,2,... in the order in
+ * which they were added. Queries can run in parallel with each other.
+ * Dimensions of SparseVectors and terms of FrequencyVectors share the same
+ * space, so an index should hold only one of the two kinds.<BR>
+ * The eucledian distance is computed from the same posting lists. Other
+ * distances fall back to a scan over all vectors.
+ * Example:
+ * <PRE>
+ *   InvertedIndex index=new InvertedIndex();
+ *   for(SparseVector v : vectors) index.add(v);
+ *   for(InvertedIndex.Neighbor n : index.topK(query, 10)) {
+ *     D.p(n.id, n.score);
+ *   }
+ *   // Many queries at once
+ *   List&lt;List&lt;InvertedIndex.Neighbor&gt;&gt; neighbors=index.topK(queries, 10, 8);
+ *   // Any distance
+ *   index.nearest(query, 10, SparseVector.eucledianDistance);
+ * </PRE>
+ */
+public class InvertedIndex {
+
+  /** A vector of the index with its score (cosine or distance) for a query */
+  public static class Neighbor {
+
+    /** Id of the vector, i.e., the position in which it was added */
+    public final int id;
+
+    /** Cosine to the query for topK(), distance to the query for nearest() */
+    public final double score;
+
+    public Neighbor(int id, double score) {
+      this.id = id;
+      this.score = score;
+    }
+
+    @Override
+    public String toString() {
+      return (id + ":" + score);
+    }
+  }
+
+  /** Holds the vectors that contain a dimension, sorted by id */
+  protected static class PostingList {
+
+    /** Ids of the vectors */
+    protected int[] ids = new int[4];
+
+    /** Value of the dimension divided by the norm of the vector */
+    protected double[] weights = new double[4];
+
+    /** Number of vectors */
+    protected int size;
+
+    /** Largest weight */
+    protected double max = Double.NEGATIVE_INFINITY;
+
+    /** Smallest weight */
+    protected double min = Double.POSITIVE_INFINITY;
+
+    /** Appends a vector, which has to have a larger id than all others */
+    protected void add(int id, double weight) {
+      if (size == ids.length) {
+        ids = Arrays.copyOf(ids, size * 2);
+        weights = Arrays.copyOf(weights, size * 2);
+      }
+      ids[size] = id;
+      weights[size++] = weight;
+      if (weight > max) max = weight;
+      if (weight < min) min = weight;
+    }
+
+    /** Returns the first position at or after start that has an id >= id (or size) */
+    protected int seek(int start, int id) {
+      // Gallop, then search binary
+      int step = 1;
+      int end = start;
+      while (end < size && ids[end] < id) {
+        start = end + 1;
+        end += step;
+        step <<= 1;
+      }
+      if (end > size) end = size;
+      int pos = Arrays.binarySearch(ids, start, end, id);
+      return (pos < 0 ? -pos - 1 : pos);
+    }
+  }
+
+  /** Scores up to this value count as 0, they come from rounding the normalized weights */
+  protected static final double EPSILON = 1e-12;
+
+  /** Maps a dimension to its posting list */
+  protected final IntKeyMap<PostingList> postings = new IntKeyMap<PostingList>();
+
+  /** Maps a term of a FrequencyVector to its dimension */
+  protected final IntHashMap<Object> terms = new IntHashMap<Object>();
+
+  /** Holds the vectors in the order in which they were added */
+  protected final List<SparseVector> vectors = new ArrayList<SparseVector>();
+
+  /** Holds the norms of the vectors */
+  protected double[] norms = new double[16];
+
+  /** Guards the index: adding writes, querying reads */
+  protected final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  /** Adds a vector, returns its id. Vectors with norm 0 get an id, but are never found. */
+  public int add(SparseVector v) {
+    lock.writeLock().lock();
+    try {
+      int id = vectors.size();
+      vectors.add(v);
+      if (id == norms.length) norms = Arrays.copyOf(norms, id * 2);
+      double norm = v.l2norm();
+      norms[id] = norm;
+      if (norm == 0) return (id);
+      for (int i = 0; i < v.size(); i++) {
+        if (v.val[i] == 0) continue;
+        PostingList list = postings.get(v.dim[i]);
+        if (list == null) {
+          list = new PostingList();
+          postings.put(v.dim[i], list);
+        }
+        list.add(id, v.val[i] / norm);
+      }
+      return (id);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Adds a FrequencyVector, returns its id */
+  public int add(FrequencyVector<?, ?> v) {
+    lock.writeLock().lock();
+    try {
+      return (add(vector(v, true)));
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Adds all vectors, returns the id of the first one */
+  public int addAll(SparseVector... vs) {
+    lock.writeLock().lock();
+    try {
+      int first = vectors.size();
+      for (SparseVector v : vs)
+        add(v);
+      return (first);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Returns the vector with the given id (for FrequencyVectors, the vector over the term dimensions) */
+  public SparseVector get(int id) {
+    lock.readLock().lock();
+    try {
+      return (vectors.get(id));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Returns the number of vectors */
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return (vectors.size());
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Returns the number of dimensions that appear in some vector */
+  public int numDimensions() {
+    lock.readLock().lock();
+    try {
+      return (postings.size());
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Returns the dimension of a term (or -1) */
+  public int dimension(Object term) {
+    lock.readLock().lock();
+    try {
+      return (terms.get(term));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Translates a FrequencyVector to a SparseVector over the term dimensions.
+   * Unknown terms get a new dimension if add is TRUE, and are dropped otherwise.
+   */
+  protected <T> SparseVector vector(FrequencyVector<T, ?> v, boolean add) {
+    Object[] keys = new Object[v.numTerms()];
+    double[] values = new double[keys.length];
+    int i = 0;
+    for (T term : v.terms()) {
+      keys[i] = term;
+      values[i++] = v.doubleValueFor(term);
+    }
+    return (vector(keys, values, add));
+  }
+
+  /** Translates terms (null entries are skipped) and their values to a SparseVector over the term dimensions, see vector(FrequencyVector, boolean) */
+  protected SparseVector vector(Object[] keys, double[] values, boolean add) {
+    int[] dims = new int[keys.length];
+    double[] vals = new double[dims.length];
+    int size = 0;
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] == null) continue;
+      int dim = terms.get(keys[i]);
+      if (dim == -1) {
+        if (!add) continue;
+        dim = terms.size();
+        terms.put(keys[i], dim);
+      }
+      dims[size] = dim;
+      vals[size++] = values[i];
+    }
+    // Sort the dimensions, the keys of the map come in any order
+    long[] sorted = new long[size];
+    for (int i = 0; i < size; i++)
+      sorted[i] = ((long) dims[i] << 32) | i;
+    Arrays.sort(sorted);
+    int[] d = new int[size];
+    double[] val = new double[size];
+    for (int i = 0; i < size; i++) {
+      d[i] = (int) (sorted[i] >>> 32);
+      val[i] = vals[(int) sorted[i]];
+    }
+    return (new SparseVector(0, d, val));
+  }
+
+  // ---------------------------------------------------------------------
+  //           Cosine
+  // ---------------------------------------------------------------------
+
+  /** Keeps the k entries with the highest scores; among equal scores, the earlier ones */
+  protected static class TopK {
+
+    /** Orders the worst entry first */
+    protected static final Comparator<Neighbor> WORSTFIRST = new Comparator<Neighbor>() {
+
+      @Override
+      public int compare(Neighbor o1, Neighbor o2) {
+        if (o1.score != o2.score) return (o1.score < o2.score ? -1 : 1);
+        return (o2.id - o1.id);
+      }
+    };
+
+    protected final PriorityQueue<Neighbor> heap;
+
+    protected final int k;
+
+    protected TopK(int k) {
+      this.k = k;
+      heap = new PriorityQueue<Neighbor>(k + 1, WORSTFIRST);
+    }
+
+    /** Returns the score that an entry has to beat */
+    protected double threshold() {
+      return (heap.size() < k ? Double.NEGATIVE_INFINITY : heap.peek().score);
+    }
+
+    /** Adds an entry if it beats the threshold, returns TRUE if the threshold changed */
+    protected boolean add(int id, double score) {
+      if (score <= threshold()) return (false);
+      heap.add(new Neighbor(id, score));
+      if (heap.size() > k) heap.poll();
+      return (heap.size() == k);
+    }
+
+    /** Returns the entries, best first. If negate is TRUE, the scores are negated. */
+    protected List<Neighbor> result(boolean negate) {
+      Neighbor[] result = heap.toArray(new Neighbor[heap.size()]);
+      Arrays.sort(result, Collections.reverseOrder(WORSTFIRST));
+      if (negate) {
+        for (int i = 0; i < result.length; i++)
+          result[i] = new Neighbor(result[i].id, -result[i].score);
+      }
+      return (Arrays.asList(result));
+    }
+  }
+
+  /** Returns the (at most) k vectors with the highest cosine to the query, highest first. Only vectors with a positive cosine are found,
+   * i.e., vectors that share a dimension with the query, and, if there are negative values, whose scalar product with the query is positive. */
+  public List<Neighbor> topK(SparseVector query, int k) {
+    double norm = query.l2norm();
+    double[] weights = new double[query.size()];
+    for (int i = 0; i < weights.length; i++)
+      weights[i] = norm == 0 ? 0 : query.val[i] / norm;
+    return (topK(query.dim, weights, query.size(), k));
+  }
+
+  /** Returns the (at most) k vectors with the highest cosine to the query, highest first. Only vectors that share a term with the query are found. */
+  public List<Neighbor> topK(FrequencyVector<?, ?> query, int k) {
+    lock.readLock().lock();
+    try {
+      SparseVector v = vector(query, false);
+      // Normalize by the norm of the query, including the terms that are not in the index
+      double[] weights = new double[v.size()];
+      for (int i = 0; i < weights.length; i++)
+        weights[i] = v.val[i] / query.norm();
+      return (topK(v.dim, weights, v.size(), k));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Runs max-score over the posting lists of the given dimensions with the given
+   * (normalized) weights. The lists are sorted by their maximal contribution to
+   * the score. The lists with the smallest contributions, whose sum cannot beat
+   * the current k-th score, are non-essential: A vector that appears only in
+   * them cannot make it into the top k. So the candidates come from the
+   * essential lists only, and the non-essential lists are just probed for them.
+   * Only vectors with a positive score are returned, so that lists that cannot
+   * contribute a positive score are non-essential from the start.
+   */
+  protected List<Neighbor> topK(int[] dims, double[] weights, int numDims, int k) {
+    lock.readLock().lock();
+    try {
+      TopK top = new TopK(k);
+      if (k <= 0) return (top.result(false));
+      PostingList[] lists = new PostingList[numDims];
+      double[] w = new double[numDims];
+      double[] bound = new double[numDims];
+      Integer[] order = new Integer[numDims];
+      int n = 0;
+      for (int i = 0; i < numDims; i++) {
+        PostingList list = postings.get(dims[i]);
+        if (list == null || weights[i] == 0) continue;
+        lists[n] = list;
+        w[n] = weights[i];
+        bound[n] = Math.max(0, Math.max(w[n] * list.max, w[n] * list.min));
+        order[n] = n;
+        n++;
+      }
+      final double[] b = bound;
+      Arrays.sort(order, 0, n, new Comparator<Integer>() {
+
+        @Override
+        public int compare(Integer o1, Integer o2) {
+          return (Double.compare(b[o1], b[o2]));
+        }
+      });
+      PostingList[] l = new PostingList[n];
+      double[] lw = new double[n];
+      // upTo[i] is the sum of the bounds of the lists 0...i
+      double[] upTo = new double[n];
+      for (int i = 0; i < n; i++) {
+        l[i] = lists[order[i]];
+        lw[i] = w[order[i]];
+        upTo[i] = bound[order[i]] + (i == 0 ? 0 : upTo[i - 1]);
+      }
+      int[] pos = new int[n];
+      // The lists before firstEssential are non-essential
+      int firstEssential = 0;
+      double threshold = EPSILON;
+      while (firstEssential < n && upTo[firstEssential] <= threshold)
+        firstEssential++;
+      while (firstEssential < n) {
+        int id = Integer.MAX_VALUE;
+        for (int i = firstEssential; i < n; i++) {
+          if (pos[i] < l[i].size && l[i].ids[pos[i]] < id) id = l[i].ids[pos[i]];
+        }
+        if (id == Integer.MAX_VALUE) break;
+        double score = 0;
+        for (int i = firstEssential; i < n; i++) {
+          if (pos[i] < l[i].size && l[i].ids[pos[i]] == id) {
+            score += lw[i] * l[i].weights[pos[i]];
+            pos[i]++;
+          }
+        }
+        for (int i = firstEssential - 1; i >= 0; i--) {
+          if (score + upTo[i] <= threshold) break;
+          pos[i] = l[i].seek(pos[i], id);
+          if (pos[i] < l[i].size && l[i].ids[pos[i]] == id) score += lw[i] * l[i].weights[pos[i]];
+        }
+        if (score > EPSILON && top.add(id, score)) {
+          threshold = top.threshold();
+          while (firstEssential < n && upTo[firstEssential] <= threshold)
+            firstEssential++;
+        }
+      }
+      return (top.result(false));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Answers the queries in parallel with the given number of threads, see topK(SparseVector, int) */
+  public List<List<Neighbor>> topK(final SparseVector[] queries, final int k, int threads) throws InterruptedException {
+    return (parallel(queries, k, null, threads));
+  }
+
+  // ---------------------------------------------------------------------
+  //           Distances
+  // ---------------------------------------------------------------------
+
+  /**
+   * Returns the k vectors with the smallest distance to the query, smallest first.
+   * The cosine distance is computed by topK() and finds only vectors with a positive
+   * cosine to the query. The eucledian distance is computed exactly from the
+   * posting lists and the norms. Other distances scan all vectors.
+   */
+  public List<Neighbor> nearest(SparseVector query, int k, SparseVector.Distance distance) {
+    if (distance == SparseVector.cosineDistance) {
+      List<Neighbor> result = new ArrayList<Neighbor>();
+      for (Neighbor n : topK(query, k))
+        result.add(new Neighbor(n.id, 1 - n.score));
+      return (result);
+    }
+    lock.readLock().lock();
+    try {
+      TopK top = new TopK(k);
+      if (k <= 0) return (top.result(true));
+      int numVectors = vectors.size();
+      if (distance == SparseVector.eucledianDistance) {
+        // |q-v|^2 = |q|^2 + |v|^2 - 2 q*v, and q*v is 0 for vectors outside the posting lists
+        double[] sprod = new double[numVectors];
+        for (int i = 0; i < query.size(); i++) {
+          PostingList list = postings.get(query.dim[i]);
+          if (list == null) continue;
+          for (int j = 0; j < list.size; j++) {
+            sprod[list.ids[j]] += query.val[i] * list.weights[j] * norms[list.ids[j]];
+          }
+        }
+        double squaredNorm = query.squaredl2norm();
+        for (int id = 0; id < numVectors; id++) {
+          double d = squaredNorm + norms[id] * norms[id] - 2 * sprod[id];
+          top.add(id, -Math.sqrt(Math.max(0, d)));
+        }
+      } else {
+        for (int id = 0; id < numVectors; id++) {
+          top.add(id, -distance.distance(query, vectors.get(id)));
+        }
+      }
+      return (top.result(true));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Answers the queries in parallel with the given number of threads, see nearest() */
+  public List<List<Neighbor>> nearest(final SparseVector[] queries, final int k, final SparseVector.Distance distance, int threads) throws InterruptedException {
+    return (parallel(queries, k, distance, threads));
+  }
+
+  /** Runs topK() (if distance is null) or nearest() on chunks of the queries in parallel */
+  protected List<List<Neighbor>> parallel(final SparseVector[] queries, final int k, final SparseVector.Distance distance, int threads)
+      throws InterruptedException {
+    final List<List<Neighbor>> result = new ArrayList<List<Neighbor>>(Collections.<List<Neighbor>> nCopies(queries.length, null));
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Object>> futures = new ArrayList<Future<Object>>();
+      int chunk = Math.max(1, (queries.length + threads * 4 - 1) / (threads * 4));
+      for (int start = 0; start < queries.length; start += chunk) {
+        final int from = start;
+        final int to = Math.min(queries.length, start + chunk);
+        futures.add(executor.submit(new Callable<Object>() {
+
+          @Override
+          public Object call() {
+            for (int i = from; i < to; i++) {
+              result.set(i, distance == null ? topK(queries[i], k) : nearest(queries[i], k, distance));
+            }
+            return (null);
+          }
+        }));
+      }
+      for (Future<Object> f : futures)
+        f.get();
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    } finally {
+      executor.shutdown();
+    }
+    return (result);
+  }
+
+  @Override
+  public String toString() {
+    return "InvertedIndex with " + size() + " vectors and " + numDimensions() + " dimensions";
+  }
+
+  // ---------------------------------------------------------------------
+  //           Benchmark
+  // ---------------------------------------------------------------------
+
+  /** Returns a random vector with the given number of non-zero values from a Zipf-like distribution over the dimensions */
+  protected static SparseVector randomVector(Random random, int numDims, int size) {
+    int[] dims = new int[size];
+    for (int i = 0; i < size; i++)
+      dims[i] = (int) Math.pow(numDims, random.nextDouble());
+    Arrays.sort(dims);
+    int n = 0;
+    for (int i = 0; i < size; i++) {
+      if (n == 0 || dims[n - 1] != dims[i]) dims[n++] = dims[i];
+    }
+    double[] vals = new double[n];
+    for (int i = 0; i < n; i++)
+      vals[i] = 1 + random.nextInt(5);
+    return (new SparseVector(0, Arrays.copyOf(dims, n), vals));
+  }
+
+  /** Compares the index to a scan over all vectors */
+  public static void benchmark(int numVectors, int numQueries, int k, int threads) throws InterruptedException {
+    Random random = new Random(42);
+    SparseVector[] vectors = new SparseVector[numVectors];
+    for (int i = 0; i < numVectors; i++)
+      vectors[i] = randomVector(random, 100000, 30);
+    SparseVector[] queries = new SparseVector[numQueries];
+    for (int i = 0; i < numQueries; i++)
+      queries[i] = randomVector(random, 100000, 10);
+    long time = System.nanoTime();
+    InvertedIndex index = new InvertedIndex();
+    index.addAll(vectors);
+    D.p(index, "built in", (System.nanoTime() - time) / 1000000, "ms");
+
+    time = System.nanoTime();
+    int mismatches = 0;
+    for (SparseVector query : queries) {
+      TopK top = new TopK(k);
+      for (int id = 0; id < numVectors; id++) {
+        double cosine = query.cosine(vectors[id]);
+        if (cosine > 0) top.add(id, cosine);
+      }
+      List<Neighbor> expected = top.result(false);
+      List<Neighbor> found = index.topK(query, k);
+      if (expected.size() != found.size()) mismatches++;
+      else for (int i = 0; i < found.size(); i++) {
+        if (Math.abs(expected.get(i).score - found.get(i).score) > 1e-9) {
+          mismatches++;
+          break;
+        }
+      }
+    }
+    long scan = System.nanoTime() - time;
+    time = System.nanoTime();
+    for (SparseVector query : queries)
+      index.topK(query, k);
+    long single = System.nanoTime() - time;
+    time = System.nanoTime();
+    index.topK(queries, k, threads);
+    long parallel = System.nanoTime() - time;
+    D.p("Scan and compare:", scan / numQueries / 1000, "us per query, mismatches:", mismatches);
+    D.p("Max-score:", single / numQueries / 1000, "us per query");
+    D.p("Max-score with", threads, "threads:", parallel / numQueries / 1000, "us per query");
+
+    mismatches = 0;
+    for (int q = 0; q < Math.min(numQueries, 20); q++) {
+      List<Neighbor> fast = index.nearest(queries[q], k, SparseVector.eucledianDistance);
+      List<Neighbor> slow = index.nearest(queries[q], k, new SparseVector.Distance() {
+
+        @Override
+        public double distance(SparseVector v1, SparseVector v2) {
+          return (v1.eucledianDistance(v2));
+        }
+      });
+      for (int i = 0; i < fast.size(); i++) {
+        if (Math.abs(fast.get(i).score - slow.get(i).score) > 1e-9) {
+          mismatches++;
+          break;
+        }
+      }
+    }
+    D.p("Eucledian distance, mismatches:", mismatches);
+  }
+
+  /** Test method */
+  public static void main(String[] args) throws Exception {
+    InvertedIndex index = new InvertedIndex();
+    index.add(new FrequencyVector<String, Integer>(new FinalMap<String, Integer>("physicist", 3, "scientist", 2, "person", 1)));
+    index.add(new FrequencyVector<String, Integer>(new FinalMap<String, Integer>("singer", 3, "person", 1)));
+    index.add(new FrequencyVector<String, Integer>(new FinalMap<String, Integer>("chemist", 3, "scientist", 2, "person", 1)));
+    D.p(index.topK(new FrequencyVector<String, Integer>(new FinalMap<String, Integer>("scientist", 1, "person", 1)), 2));
+    D.p(index.topK(new FastFrequencyVector<String>(new DoubleHashMap<String>("singer", "person")), 2));
+    benchmark(200000, 500, 10, Runtime.getRuntime().availableProcessors());
+  }
+}
@@ -0,0 +1,499 @@
+package javatools.datatypes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javatools.administrative.Announce;
+import javatools.administrative.D;
+
+/**
+Copyright 2016 Fabian M. Suchanek
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+This class does k-means clustering of SparseVectors with several threads.
+The centers are held as dense arrays, which are reused from one iteration to the
+next. The squared norms of the dots and of the centers are cached, so that the
+eucledian distance and the cosine distance of a dot to a center need only the
+scalar product, which costs the number of non-zero entries of the dot.
+The assignment of the dots to the centers runs in parallel on a ForkJoinPool.
+The center of a cluster is computed from its members in the order of the dots,
+so that run() gives the same centers as SparseVector.kMeans() (up to rounding
+in the distances).<BR>
+The engine also offers k-means++ seeding (seed()) and mini-batch k-means
+(runMiniBatch()). The time of each iteration is reported by Announce.messageDetailed()
+and is available by iterationTimes().<BR>
+The dense centers need k times the number of dimensions doubles.<BR>
+Example:
+<PRE>
+  KMeans kMeans=new KMeans(dots);
+  SparseVector[] centers=kMeans.seed(10, new Random(42));
+  int[] clusters=kMeans.run(centers, 0.1, 100);
+</PRE>
+*/
+public class KMeans {
+
+  /** Holds the dots */
+  protected final SparseVector[] dots;
+
+  /** Holds the squared norms of the dots */
+  protected final double[] dotNorms;
+
+  /** The distance function */
+  protected final SparseVector.Distance distance;
+
+  /** The pool of threads */
+  protected final ForkJoinPool pool;
+
+  /** Number of dimensions (1 + the largest dimension of the dots and centers) */
+  protected int numDims;
+
+  /** Holds the current centers */
+  protected double[][] centers;
+
+  /** Holds the squared norms of the centers */
+  protected double[] centerNorms;
+
+  /** Holds the centers as SparseVectors, for distance functions other than eucledian and cosine */
+  protected SparseVector[] centerVectors;
+
+  /** Holds the center of each dot */
+  protected int[] assignment;
+
+  /** Holds the time of each iteration of the last run, in nanoseconds */
+  protected final List<Long> iterationTimes = new ArrayList<Long>();
+
+  /** Creates a k-means engine with the eucledian distance that uses all processors */
+  public KMeans(SparseVector[] dots) {
+    this(dots, SparseVector.eucledianDistance, Runtime.getRuntime().availableProcessors());
+  }
+
+  /** Creates a k-means engine. SparseVector.eucledianDistance and SparseVector.cosineDistance are computed from cached norms,
+   * other distance functions are called for each pair of dot and center. */
+  public KMeans(SparseVector[] dots, SparseVector.Distance distance, int threads) {
+    this.dots = dots;
+    this.distance = distance;
+    pool = new ForkJoinPool(threads);
+    dotNorms = new double[dots.length];
+    for (int i = 0; i < dots.length; i++) {
+      dotNorms[i] = dots[i].squaredl2norm();
+    }
+    numDims = numDims(dots, 0);
+    assignment = new int[dots.length];
+  }
+
+  /** Returns the maximum of numDims and 1 + the largest dimension of the vectors */
+  protected static int numDims(SparseVector[] vectors, int numDims) {
+    for (SparseVector v : vectors) {
+      if (v.size > 0 && v.dim[v.size - 1] >= numDims) numDims = v.dim[v.size - 1] + 1;
+    }
+    return (numDims);
+  }
+
+  // ---------------------------------------------------------------------
+  //           Parallel loops
+  // ---------------------------------------------------------------------
+
+  /** The body of a parallel loop */
+  protected interface Body {
+
+    /** Runs the loop from start to end */
+    public void run(int start, int end);
+  }
+
+  /** Splits a loop until the pieces are small enough */
+  protected static class Range extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    protected final Body body;
+
+    protected final int start;
+
+    protected final int end;
+
+    protected final int grain;
+
+    public Range(Body body, int start, int end, int grain) {
+      this.body = body;
+      this.start = start;
+      this.end = end;
+      this.grain = grain;
+    }
+
+    @Override
+    protected void compute() {
+      if (end - start <= grain) {
+        body.run(start, end);
+        return;
+      }
+      int middle = (start + end) >>> 1;
+      invokeAll(new Range(body, start, middle, grain), new Range(body, middle, end, grain));
+    }
+  }
+
+  /** Runs the body for 0...n-1 in parallel */
+  protected void parallel(int n, Body body) {
+    int grain = Math.max(16, n / (8 * pool.getParallelism()));
+    pool.invoke(new Range(body, 0, n, grain));
+  }
+
+  // ---------------------------------------------------------------------
+  //           Distances
+  // ---------------------------------------------------------------------
+
+  /** Returns the scalar product of a dot with a center */
+  protected static double sprod(SparseVector v, double[] center) {
+    double result = 0;
+    for (int i = 0; i < v.size; i++)
+      result += v.val[i] * center[v.dim[i]];
+    return (result);
+  }
+
+  /** Returns a number that grows with the distance of a dot to a center (the squared eucledian distance, or the distance) */
+  protected double distance(int dot, int center) {
+    if (distance == SparseVector.eucledianDistance) {
+      return (Math.max(0, dotNorms[dot] - 2 * sprod(dots[dot], centers[center]) + centerNorms[center]));
+    }
+    if (distance == SparseVector.cosineDistance) {
+      return (1 - sprod(dots[dot], centers[center]) / Math.sqrt(dotNorms[dot]) / Math.sqrt(centerNorms[center]));
+    }
+    return (distance.distance(dots[dot], centerVectors[center]));
+  }
+
+  /** Returns the closest center of a dot (the first one if there are several) */
+  protected int closest(int dot) {
+    double bestDist = Double.MAX_VALUE;
+    int best = 0;
+    for (int center = 0; center < centers.length; center++) {
+      double dist = distance(dot, center);
+      if (dist < bestDist) {
+        bestDist = dist;
+        best = center;
+      }
+    }
+    return (best);
+  }
+
+  /** Assigns each dot to its closest center, in parallel */
+  protected void assign() {
+    parallel(dots.length, new Body() {
+
+      @Override
+      public void run(int start, int end) {
+        for (int dot = start; dot < end; dot++)
+          assignment[dot] = closest(dot);
+      }
+    });
+  }
+
+  /** Computes the squared norm of a center, and its SparseVector if needed */
+  protected void centerChanged(int center, double label) {
+    double norm = 0;
+    for (double d : centers[center])
+      norm += d * d;
+    centerNorms[center] = norm;
+    if (distance != SparseVector.eucledianDistance && distance != SparseVector.cosineDistance) {
+      centerVectors[center] = toSparseVector(centers[center], label);
+    }
+  }
+
+  // ---------------------------------------------------------------------
+  //           Conversion
+  // ---------------------------------------------------------------------
+
+  /** Sets the centers from SparseVectors */
+  protected void setCenters(SparseVector[] vectors) {
+    numDims = numDims(vectors, numDims);
+    if (centers == null || centers.length != vectors.length || centers[0].length != numDims) {
+      centers = new double[vectors.length][numDims];
+      centerNorms = new double[vectors.length];
+      centerVectors = new SparseVector[vectors.length];
+    }
+    for (int c = 0; c < vectors.length; c++) {
+      Arrays.fill(centers[c], 0);
+      SparseVector v = vectors[c];
+      for (int i = 0; i < v.size; i++)
+        centers[c][v.dim[i]] = v.val[i];
+      centerChanged(c, v.label);
+    }
+  }
+
+  /** Returns the non-zero entries of a dense vector as a SparseVector */
+  protected static SparseVector toSparseVector(double[] dense, double label) {
+    int size = 0;
+    for (double d : dense) {
+      if (d != 0) size++;
+    }
+    int[] dim = new int[size];
+    double[] val = new double[size];
+    int j = 0;
+    for (int i = 0; i < dense.length; i++) {
+      if (dense[i] == 0) continue;
+      dim[j] = i;
+      val[j++] = dense[i];
+    }
+    return (new SparseVector(label, dim, val));
+  }
+
+  /** Writes the current centers into the array (keeping the labels) */
+  protected void getCenters(SparseVector[] vectors) {
+    for (int c = 0; c < vectors.length; c++)
+      vectors[c] = toSparseVector(centers[c], vectors[c].label);
+  }
+
+  // ---------------------------------------------------------------------
+  //           Clustering
+  // ---------------------------------------------------------------------
+
+  /** Chooses k dots as centers by k-means++ (the first at random, each next one with a probability that grows with the squared
+   * distance to the closest center chosen so far). Returns copies of the dots. Afterwards, the engine holds the chosen centers
+   * and assigns each dot to its closest one, so that cost() and assignment() refer to the seeds. */
+  public SparseVector[] seed(int k, Random random) {
+    if (k > dots.length) throw new IllegalArgumentException("Cannot choose " + k + " centers from " + dots.length + " dots");
+    SparseVector[] result = new SparseVector[k];
+    result[0] = dots[random.nextInt(dots.length)].clone();
+    final double[] closest = new double[dots.length];
+    Arrays.fill(closest, Double.MAX_VALUE);
+    for (int c = 1; c <= k; c++) {
+      // Update the distances to the closest center
+      setCenters(new SparseVector[] { result[c - 1] });
+      parallel(dots.length, new Body() {
+
+        @Override
+        public void run(int start, int end) {
+          for (int dot = start; dot < end; dot++) {
+            double d = distance(dot, 0);
+            if (distance != SparseVector.eucledianDistance) d *= d;
+            if (d < closest[dot]) closest[dot] = d;
+          }
+        }
+      });
+      if (c == k) break;
+      double sum = 0;
+      for (double d : closest)
+        sum += d;
+      double r = random.nextDouble() * sum;
+      int next = 0;
+      while (next < dots.length - 1 && (r -= closest[next]) >= 0)
+        next++;
+      result[c] = dots[next].clone();
+    }
+    setCenters(result);
+    assign();
+    return (result);
+  }
+
+  /** Runs k-means from the given centers until no center moves more than epsilon, or the number of iterations is exceeded.
+   * Writes the new centers into the array, and returns the center of each dot.
+   * Like SparseVector.kMeans(), a center without dots moves to 0. */
+  public int[] run(SparseVector[] initialCenters, double epsilon, int iterations) {
+    iterationTimes.clear();
+    setCenters(initialCenters);
+    final int k = centers.length;
+    final double[] labels = new double[k];
+    for (int c = 0; c < k; c++)
+      labels[c] = initialCenters[c].label;
+    final int[] members = new int[dots.length];
+    final int[] firstMember = new int[k + 1];
+    final double[] moves = new double[k];
+    for (int iteration = 0; iteration < iterations; iteration++) {
+      long time = System.nanoTime();
+      assign();
+      // Sort the dots by center, keeping their order
+      Arrays.fill(firstMember, 0);
+      for (int dot = 0; dot < dots.length; dot++)
+        firstMember[assignment[dot] + 1]++;
+      for (int c = 0; c < k; c++)
+        firstMember[c + 1] += firstMember[c];
+      int[] next = firstMember.clone();
+      for (int dot = 0; dot < dots.length; dot++)
+        members[next[assignment[dot]]++] = dot;
+      // Recompute the centers
+      parallel(k, new Body() {
+
+        @Override
+        public void run(int start, int end) {
+          double[] old = new double[numDims];
+          for (int c = start; c < end; c++) {
+            double[] center = centers[c];
+            System.arraycopy(center, 0, old, 0, numDims);
+            Arrays.fill(center, 0);
+            for (int m = firstMember[c]; m < firstMember[c + 1]; m++) {
+              SparseVector v = dots[members[m]];
+              for (int i = 0; i < v.size; i++)
+                center[v.dim[i]] += v.val[i];
+            }
+            int num = firstMember[c + 1] - firstMember[c];
+            moves[c] = 0;
+            if (num != 0) {
+              double factor = 1.0 / num;
+              double move = 0;
+              for (int i = 0; i < numDims; i++) {
+                center[i] *= factor;
+                double d = old[i] - center[i];
+                move += d * d;
+              }
+              moves[c] = Math.sqrt(move);
+            }
+            centerChanged(c, labels[c]);
+          }
+        }
+      });
+      double maxEpsilon = 0;
+      for (double m : moves)
+        if (m > maxEpsilon) maxEpsilon = m;
+      time = System.nanoTime() - time;
+      iterationTimes.add(time);
+      Announce.messageDetailed("k-means iteration", iteration, ":", time / 1000000, "ms, largest move", maxEpsilon);
+      if (maxEpsilon < epsilon) break;
+    }
+    getCenters(initialCenters);
+    return (assignment.clone());
+  }
+
+  /** Runs mini-batch k-means (Sculley: "Web-scale k-means clustering", 2010) from the given centers.
+   * Each iteration assigns batchSize random dots, and moves each center towards its dots with a learning rate of
+   * 1/(number of dots the center got so far). Writes the new centers into the array, and returns the center of each dot. */
+  public int[] runMiniBatch(SparseVector[] initialCenters, final int batchSize, int iterations, Random random) {
+    iterationTimes.clear();
+    setCenters(initialCenters);
+    final int k = centers.length;
+    final double[] labels = new double[k];
+    for (int c = 0; c < k; c++)
+      labels[c] = initialCenters[c].label;
+    final long[] counts = new long[k];
+    final int[] batch = new int[batchSize];
+    final int[] batchCenter = new int[batchSize];
+    for (int iteration = 0; iteration < iterations; iteration++) {
+      long time = System.nanoTime();
+      for (int i = 0; i < batchSize; i++)
+        batch[i] = random.nextInt(dots.length);
+      parallel(batchSize, new Body() {
+
+        @Override
+        public void run(int start, int end) {
+          for (int i = start; i < end; i++)
+            batchCenter[i] = closest(batch[i]);
+        }
+      });
+      parallel(k, new Body() {
+
+        @Override
+        public void run(int start, int end) {
+          double[] sum = new double[numDims];
+          for (int c = start; c < end; c++) {
+            int num = 0;
+            for (int i = 0; i < batchSize; i++) {
+              if (batchCenter[i] != c) continue;
+              SparseVector v = dots[batch[i]];
+              for (int j = 0; j < v.size; j++)
+                sum[v.dim[j]] += v.val[j];
+              num++;
+            }
+            if (num == 0) continue;
+            counts[c] += num;
+            double keep = 1 - (double) num / counts[c];
+            double[] center = centers[c];
+            for (int j = 0; j < numDims; j++) {
+              center[j] = center[j] * keep + sum[j] / counts[c];
+              sum[j] = 0;
+            }
+            centerChanged(c, labels[c]);
+          }
+        }
+      });
+      time = System.nanoTime() - time;
+      iterationTimes.add(time);
+      Announce.messageDetailed("Mini-batch k-means iteration", iteration, ":", time / 1000000, "ms");
+    }
+    assign();
+    getCenters(initialCenters);
+    return (assignment.clone());
+  }
+
+  /** Returns the center of each dot after the last run */
+  public int[] assignment() {
+    return (assignment.clone());
+  }
+
+  /** Returns the time of each iteration of the last run in nanoseconds */
+  public List<Long> iterationTimes() {
+    return (iterationTimes);
+  }
+
+  /** Returns the sum of the squared eucledian distances of the dots to their centers after the last run (or seed) */
+  public double cost() {
+    if (centers == null) throw new IllegalStateException("No centers yet, call seed() or run() first");
+    double cost = 0;
+    for (int dot = 0; dot < dots.length; dot++) {
+      int c = assignment[dot];
+      cost += Math.max(0, dotNorms[dot] - 2 * sprod(dots[dot], centers[c]) + centerNorms[c]);
+    }
+    return (cost);
+  }
+
+  /** Shuts down the threads */
+  public void close() {
+    pool.shutdown();
+  }
+
+  @Override
+  public String toString() {
+    return "KMeans engine for " + dots.length + " dots with " + numDims + " dimensions on " + pool.getParallelism() + " threads";
+  }
+
+  /** Compares the engine with SparseVector.kMeans on random sparse vectors */
+  public static void main(String[] args) throws Exception {
+    Random random = new Random(42);
+    int numDots = 20000;
+    int k = 50;
+    SparseVector[] dots = new SparseVector[numDots];
+    for (int i = 0; i < numDots; i++) {
+      int cluster = random.nextInt(k);
+      int[] dim = new int[20];
+      double[] val = new double[20];
+      for (int j = 0; j < dim.length; j++) {
+        dim[j] = cluster * 40 + j * 2 + random.nextInt(2);
+        val[j] = random.nextDouble();
+      }
+      dots[i] = new SparseVector(0, dim, val);
+    }
+    KMeans engine = new KMeans(dots);
+    SparseVector[] seeds = engine.seed(k, random);
+    SparseVector[] centers1 = new SparseVector[k];
+    SparseVector[] centers2 = new SparseVector[k];
+    for (int c = 0; c < k; c++) {
+      centers1[c] = seeds[c].clone();
+      centers2[c] = seeds[c].clone();
+    }
+    long time = System.nanoTime();
+    SparseVector.kMeans(dots, centers1, SparseVector.eucledianDistance, 0.001, 20);
+    D.p("SparseVector.kMeans:", (System.nanoTime() - time) / 1000000, "ms");
+    time = System.nanoTime();
+    engine.run(centers2, 0.001, 20);
+    D.p("KMeans.run:", (System.nanoTime() - time) / 1000000, "ms in", engine.iterationTimes().size(), "iterations, cost", engine.cost());
+    double maxDifference = 0;
+    for (int c = 0; c < k; c++)
+      maxDifference = Math.max(maxDifference, centers1[c].eucledianDistance(centers2[c]));
+    D.p("Largest difference of the centers:", maxDifference);
+    time = System.nanoTime();
+    engine.runMiniBatch(seeds, 1000, 50, random);
+    D.p("KMeans.runMiniBatch:", (System.nanoTime() - time) / 1000000, "ms, cost", engine.cost());
+    engine.close();
+  }
+}
@@ -4,6 +4,13 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javatools.administrative.D;
 
@@ -56,6 +63,22 @@ public class SVMModel implements Serializable {
 
   private SparseVector[] sv;
 
+  // Precompiled scoring (see prepare())
+  /** 1 + the largest dimension of the support vectors */
+  private transient int numDims;
+
+  /** Weight vector of a linear model, if it is dense, else null */
+  private transient double[] weights;
+
+  /** Weight vector of a linear model, if it is sparse, else null */
+  private transient SparseVector sparseWeights;
+
+  /** Holds a dense copy of the vector that is classified, per thread, or null if the support vectors have too many dimensions */
+  private transient ThreadLocal<double[]> denseVector;
+
+  /** Squared norms of the support vectors, set last by prepare() */
+  private transient volatile double[] svNorms;
+
   /** Reads the first double value from a line */
   private double readDouble(BufferedReader in) throws Exception {
     String s = in.readLine();
@@ -107,12 +130,130 @@ public class SVMModel implements Serializable {
     b = readDouble(in);
     sv = new SparseVector[sv_num];
     for (int i = 0; i < sv.length; i++)
-      sv[i] = new SparseVector(in.readLine());
+      sv[i] = SparseVector.parse(in.readLine());
     in.close();
+    prepare();
   }
 
-  /** Classifies a SparseVector  */
+  /** Precompiles the model for classify(): collapses a linear model to a single weight vector (dense, unless the
+   * dimensions are much more than the non-zero entries), and computes the norms of the support vectors for the other kernels */
+  private synchronized void prepare() {
+    if (svNorms != null) return;
+    numDims = 0;
+    long nonZeros = 0;
+    for (SparseVector v : sv) {
+      if (v.size > 0) numDims = Math.max(numDims, v.dim[v.size - 1] + 1);
+      nonZeros += v.size;
+    }
+    final boolean dense = numDims <= Math.max(1 << 20, 2 * nonZeros);
+    double[] norms = new double[sv.length];
+    for (int i = 0; i < sv.length; i++)
+      norms[i] = sv[i].squaredl2norm();
+    if (kernel_type == KernelType.LINEAR) {
+      if (dense) {
+        weights = new double[numDims];
+        for (SparseVector v : sv) {
+          for (int i = 0; i < v.size; i++)
+            weights[v.dim[i]] += v.label * v.val[i];
+        }
+      } else {
+        IntDoubleMap w = new IntDoubleMap();
+        for (SparseVector v : sv) {
+          for (int i = 0; i < v.size; i++)
+            w.add(v.dim[i], v.label * v.val[i]);
+        }
+        int[] dims = new int[w.size()];
+        double[] vals = new double[w.size()];
+        w.toSortedArrays(dims, vals);
+        sparseWeights = new SparseVector(0, dims, vals);
+      }
+    } else if (dense) {
+      final int length = numDims;
+      denseVector = new ThreadLocal<double[]>() {
+
+        @Override
+        protected double[] initialValue() {
+          return (new double[length]);
+        }
+      };
+    }
+    svNorms = norms;
+  }
+
+  /** Classifies a SparseVector with the precompiled model. This gives the same result as classifyByKernel() up to rounding. */
   public double classify(SparseVector v) {
+    if (svNorms == null) prepare();
+    if (kernel_type == KernelType.LINEAR) {
+      if (weights == null) return (sparseWeights.sprod(v) - b);
+      double dist = 0.0;
+      for (int i = 0; i < v.size; i++) {
+        if (v.dim[i] < weights.length) dist += v.val[i] * weights[v.dim[i]];
+      }
+      return (dist - b);
+    }
+    double vNorm = v.squaredl2norm();
+    double dist = 0.0;
+    if (denseVector == null) {
+      for (int i = 0; i < sv.length; i++)
+        dist += kernel(sv[i].sprod(v), svNorms[i], vNorm) * sv[i].label;
+      return (dist - b);
+    }
+    // Spread v over a dense array, so that the scalar product with a support vector costs only its non-zero entries
+    double[] d = denseVector.get();
+    for (int i = 0; i < v.size; i++) {
+      if (v.dim[i] < d.length) d[v.dim[i]] = v.val[i];
+    }
+    for (int i = 0; i < sv.length; i++) {
+      SparseVector s = sv[i];
+      double sprod = 0.0;
+      for (int j = 0; j < s.size; j++)
+        sprod += s.val[j] * d[s.dim[j]];
+      dist += kernel(sprod, svNorms[i], vNorm) * s.label;
+    }
+    for (int i = 0; i < v.size; i++) {
+      if (v.dim[i] < d.length) d[v.dim[i]] = 0.0;
+    }
+    return (dist - b);
+  }
+
+  /** Classifies several SparseVectors in parallel */
+  public double[] classifyAll(SparseVector[] vectors) throws InterruptedException {
+    return (classifyAll(vectors, Runtime.getRuntime().availableProcessors()));
+  }
+
+  /** Classifies several SparseVectors with the given number of threads */
+  public double[] classifyAll(final SparseVector[] vectors, int threads) throws InterruptedException {
+    if (svNorms == null) prepare();
+    final double[] result = new double[vectors.length];
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      int chunk = Math.max(1, (vectors.length + 4 * threads - 1) / (4 * threads));
+      List<Future<Object>> results = new ArrayList<Future<Object>>();
+      for (int start = 0; start < vectors.length; start += chunk) {
+        final int s = start;
+        final int e = Math.min(start + chunk, vectors.length);
+        results.add(executor.submit(new Callable<Object>() {
+
+          @Override
+          public Object call() {
+            for (int i = s; i < e; i++)
+              result[i] = classify(vectors[i]);
+            return (null);
+          }
+        }));
+      }
+      for (Future<Object> f : results)
+        f.get();
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    } finally {
+      executor.shutdown();
+    }
+    return (result);
+  }
+
+  /** Classifies a SparseVector by computing the kernel with each support vector */
+  public double classifyByKernel(SparseVector v) {
     double dist = 0.0;
     for (int i = 0; i < sv.length; i++) {
       dist += kernel(sv[i], v) * sv[i].label;
@@ -135,6 +276,21 @@ public class SVMModel implements Serializable {
     return (0.0); // This cannot happen, but Java wants it
   }
 
+  /** Computes a kernel from the scalar product and the squared norms of the vectors */
+  private double kernel(double sprod, double aNorm, double bNorm) {
+    switch (kernel_type) {
+      case LINEAR:
+        return (sprod);
+      case POLY:
+        return (Math.pow(coef_lin * sprod + coef_const, poly_degree));
+      case RBF:
+        return (Math.exp(-rbf_gamma * (aNorm - 2 * sprod + bNorm)));
+      case SIGMOID:
+        return (Math.tanh(coef_lin * sprod + coef_const));
+    }
+    return (0.0); // This cannot happen, but Java wants it
+  }
+
   /** Returns this model as a descriptive string */
   @Override
   public String toString() {
@@ -146,8 +302,57 @@ public class SVMModel implements Serializable {
     return (s.toString());
   }
 
-  /** Test routine */
+  /** Writes a random model with the given kernel, loads it, and compares classify() with classifyByKernel() */
+  public static void benchmark(KernelType kernel, int numSV, int numVectors) throws Exception {
+    java.util.Random random = new java.util.Random(42);
+    File file = File.createTempFile("svm", ".model");
+    java.io.Writer out = new java.io.BufferedWriter(new java.io.FileWriter(file));
+    out.write("SVM-light Version V6.01\n" + kernel.ordinal() + " # kernel type\n3 # poly degree\n0.1 # rbf gamma\n1 # coef lin\n1 # coef const\nempty # custom\n"
+        + 10000 + " # highest feature index\n" + numSV + " # training documents\n" + (numSV + 1) + " # support vectors plus 1\n0.5 # threshold b\n");
+    SparseVector[] vectors = new SparseVector[numVectors];
+    for (int i = 0; i < numSV + numVectors; i++) {
+      int[] dim = new int[50];
+      double[] val = new double[50];
+      for (int j = 0; j < dim.length; j++) {
+        dim[j] = j * 200 + random.nextInt(200);
+        val[j] = Math.round(random.nextDouble() * 1000) / 1000.0;
+      }
+      SparseVector v = new SparseVector(random.nextGaussian(), dim, val);
+      if (i < numSV) out.write(v + " #\n");
+      else vectors[i - numSV] = v;
+    }
+    out.close();
+    long time = System.nanoTime();
+    BufferedReader in = new BufferedReader(new FileReader(file));
+    for (String line = in.readLine(); line != null; line = in.readLine())
+      if (line.endsWith("#")) new SparseVector(line);
+    in.close();
+    D.p(kernel, ": reading with new SparseVector(String):", (System.nanoTime() - time) / 1000000, "ms");
+    time = System.nanoTime();
+    SVMModel model = new SVMModel(file);
+    D.p(kernel, ": reading the model:", (System.nanoTime() - time) / 1000000, "ms");
+    file.delete();
+    time = System.nanoTime();
+    double[] slow = new double[numVectors];
+    for (int i = 0; i < numVectors; i++)
+      slow[i] = model.classifyByKernel(vectors[i]);
+    D.p(kernel, ": classifyByKernel:", (System.nanoTime() - time) / 1000000, "ms");
+    time = System.nanoTime();
+    double[] fast = model.classifyAll(vectors);
+    D.p(kernel, ": classifyAll:", (System.nanoTime() - time) / 1000000, "ms");
+    double maxDifference = 0;
+    for (int i = 0; i < numVectors; i++)
+      maxDifference = Math.max(maxDifference, Math.abs(slow[i] - fast[i]));
+    D.p(kernel, ": largest difference:", maxDifference);
+  }
+
+  /** Test routine. Runs benchmark() if the argument is "benchmark". */
   public static void main(String[] argv) throws Exception {
+    if (argv.length > 0 && argv[0].equals("benchmark")) {
+      for (KernelType kernel : KernelType.values())
+        benchmark(kernel, 2000, 2000);
+      return;
+    }
     D.p("Enter the name of an SVM-light model file");
     SVMModel m = new SVMModel(D.r());
     D.p("Enter a vector in SVM-light notation and hit ENTER. Press CTRL+C to abort");
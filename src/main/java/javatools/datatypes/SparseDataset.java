@@ -0,0 +1,445 @@
+package javatools.datatypes;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import javatools.administrative.D;
+
+/**
+Copyright 2016 Fabian M. Suchanek
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+This class is a set of SparseVectors in a binary file, which is mapped into memory.
+Opening the file does not read it, and reading a vector does not parse anything.
+The file is written by a SparseDataset.Writer, or converted from the SVM-light text
+format by fromSVMLight(). Binary vectors (whose values are all 1.0) store only their
+dimensions.<BR>
+The format is (all numbers big-endian):
+<PRE>
+  long     MAGIC ("JTSPVEC1")
+  long     n, the number of vectors
+  long     the number of dimensions stored
+  long     the number of values stored
+  double[] the n labels
+  long[]   n+1 offsets of the dimensions of each vector
+  long[]   n+1 offsets of the values of each vector (a vector with dimensions but no values is binary)
+  int[]    the dimensions of all vectors, padded to a multiple of 8 bytes
+  double[] the values of all non-binary vectors
+</PRE>
+A SparseVector holds its dimensions and values in Java arrays, so that get() has to
+copy them. The methods label(), size(), dim(), val() and sprod() work directly
+on the mapped file.<BR>
+Example:
+<PRE>
+  SparseDataset.fromSVMLight(new File("train.txt"), new File("train.vectors"));
+  SparseDataset data=SparseDataset.open(new File("train.vectors"));
+  for(int i=0;i&lt;data.size();i++) D.p(data.get(i));
+</PRE>
+*/
+public class SparseDataset {
+
+  /** Identifies the file format */
+  public static final long MAGIC = 0x4A54535056454331L; // "JTSPVEC1"
+
+  /** Number of bytes of the header */
+  protected static final int HEADERSIZE = 32;
+
+  /** Number of vectors */
+  protected final int size;
+
+  /** Holds the labels */
+  protected final ByteChunks labels;
+
+  /** Holds the offsets of the dimensions */
+  protected final ByteChunks dimOffsets;
+
+  /** Holds the offsets of the values */
+  protected final ByteChunks valOffsets;
+
+  /** Holds the dimensions */
+  protected final ByteChunks dims;
+
+  /** Holds the values */
+  protected final ByteChunks vals;
+
+  /** Constructs a dataset from the mapped sections */
+  protected SparseDataset(int size, ByteChunks labels, ByteChunks dimOffsets, ByteChunks valOffsets,
+      ByteChunks dims, ByteChunks vals) {
+    this.size = size;
+    this.labels = labels;
+    this.dimOffsets = dimOffsets;
+    this.valOffsets = valOffsets;
+    this.dims = dims;
+    this.vals = vals;
+  }
+
+  /** Returns the number of vectors */
+  public int size() {
+    return (size);
+  }
+
+  /** Returns the label of a vector */
+  public double label(int vector) {
+    return (Double.longBitsToDouble(labels.getLong(vector * 8L)));
+  }
+
+  /** Returns the number of non-zero entries of a vector */
+  public int size(int vector) {
+    return ((int) (dimOffsets.getLong((vector + 1) * 8L) - dimOffsets.getLong(vector * 8L)));
+  }
+
+  /** TRUE if all values of the vector are 1.0 */
+  public boolean isBinary(int vector) {
+    return (valOffsets.getLong((vector + 1) * 8L) == valOffsets.getLong(vector * 8L));
+  }
+
+  /** Returns the dimension of the i-th entry of a vector */
+  public int dim(int vector, int i) {
+    return (dims.getInt((dimOffsets.getLong(vector * 8L) + i) * 4));
+  }
+
+  /** Returns the value of the i-th entry of a vector */
+  public double val(int vector, int i) {
+    if (isBinary(vector)) return (1.0);
+    return (Double.longBitsToDouble(vals.getLong((valOffsets.getLong(vector * 8L) + i) * 8)));
+  }
+
+  /** Returns the scalar product of a vector with a dense vector */
+  public double sprod(int vector, double[] dense) {
+    long dimStart = dimOffsets.getLong(vector * 8L);
+    long dimEnd = dimOffsets.getLong((vector + 1) * 8L);
+    long valStart = valOffsets.getLong(vector * 8L);
+    boolean binary = valOffsets.getLong((vector + 1) * 8L) == valStart;
+    double result = 0;
+    for (long i = dimStart; i < dimEnd; i++) {
+      int d = dims.getInt(i * 4);
+      if (d >= dense.length) continue;
+      result += binary ? dense[d] : Double.longBitsToDouble(vals.getLong((valStart + i - dimStart) * 8)) * dense[d];
+    }
+    return (result);
+  }
+
+  /** Returns a vector as a SparseVector (which holds a copy of the dimensions and values) */
+  public SparseVector get(int vector) {
+    long dimStart = dimOffsets.getLong(vector * 8L);
+    int length = (int) (dimOffsets.getLong((vector + 1) * 8L) - dimStart);
+    int[] dim = new int[length];
+    for (int i = 0; i < length; i++)
+      dim[i] = dims.getInt((dimStart + i) * 4);
+    if (isBinary(vector)) {
+      SparseVector.updateBINARY(length);
+      return (new SparseVector(label(vector), dim, SparseVector.BINARY));
+    }
+    long valStart = valOffsets.getLong(vector * 8L);
+    double[] val = new double[length];
+    for (int i = 0; i < length; i++)
+      val[i] = Double.longBitsToDouble(vals.getLong((valStart + i) * 8));
+    return (new SparseVector(label(vector), dim, val));
+  }
+
+  /** Returns all vectors as SparseVectors */
+  public SparseVector[] toArray() {
+    SparseVector[] result = new SparseVector[size];
+    for (int i = 0; i < size; i++)
+      result[i] = get(i);
+    return (result);
+  }
+
+  @Override
+  public String toString() {
+    return "SparseDataset of " + size + " vectors";
+  }
+
+  // ---------------------------------------------------------------------
+  //           Reading and writing
+  // ---------------------------------------------------------------------
+
+  /** Rounds up to a multiple of 8 */
+  protected static long align(long n) {
+    return ((n + 7) & ~7L);
+  }
+
+  /** Maps a file written by a SparseDataset.Writer into memory */
+  public static SparseDataset open(File f) throws IOException {
+    RandomAccessFile in = new RandomAccessFile(f, "r");
+    try {
+      FileChannel channel = in.getChannel();
+      ByteBuffer header = ByteBuffer.allocate(HEADERSIZE);
+      while (header.hasRemaining()) {
+        if (channel.read(header, header.position()) < 0) throw new IOException(f + " is not a SparseDataset");
+      }
+      header.flip();
+      if (header.getLong() != MAGIC) throw new IOException(f + " is not a SparseDataset");
+      long n = header.getLong();
+      long numDims = header.getLong();
+      long numVals = header.getLong();
+      if (n < 0 || n >= Integer.MAX_VALUE || numDims < 0 || numVals < 0) throw new IOException(f + " has an invalid header");
+      long pos = HEADERSIZE;
+      ByteChunks labels = ByteChunks.map(channel, pos, n * 8);
+      pos += n * 8;
+      ByteChunks dimOffsets = ByteChunks.map(channel, pos, (n + 1) * 8);
+      pos += (n + 1) * 8;
+      ByteChunks valOffsets = ByteChunks.map(channel, pos, (n + 1) * 8);
+      pos += (n + 1) * 8;
+      ByteChunks dims = ByteChunks.map(channel, pos, numDims * 4);
+      pos += align(numDims * 4);
+      if (channel.size() < pos + numVals * 8) throw new IOException(f + " is truncated");
+      ByteChunks vals = ByteChunks.map(channel, pos, numVals * 8);
+      return (new SparseDataset((int) n, labels, dimOffsets, valOffsets, dims, vals));
+    } finally {
+      // The mapping stays valid after the file is closed
+      in.close();
+    }
+  }
+
+  /** Writes SparseVectors to a file that can be opened by SparseDataset.open(). The dimensions and
+   * values go to temporary files, which are appended to the labels and offsets by close(). */
+  public static class Writer implements Closeable {
+
+    /** The file to write */
+    protected final File file;
+
+    /** Temporary file of the dimensions */
+    protected final File dimFile;
+
+    /** Temporary file of the values */
+    protected final File valFile;
+
+    protected final DataOutputStream dimOut;
+
+    protected final DataOutputStream valOut;
+
+    /** Holds the labels */
+    protected double[] labels = new double[1024];
+
+    /** Holds the offsets of the dimensions, and of the values */
+    protected long[] dimOffsets = new long[1025];
+
+    protected long[] valOffsets = new long[1025];
+
+    /** Number of vectors */
+    protected int size = 0;
+
+    /** Creates a writer for a file */
+    public Writer(File file) throws IOException {
+      this.file = file;
+      dimFile = File.createTempFile("dims", ".tmp", file.getAbsoluteFile().getParentFile());
+      valFile = File.createTempFile("vals", ".tmp", file.getAbsoluteFile().getParentFile());
+      dimOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dimFile), 1 << 20));
+      valOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(valFile), 1 << 20));
+    }
+
+    /** Adds a vector */
+    public void add(SparseVector v) throws IOException {
+      if (size == labels.length) {
+        labels = Arrays.copyOf(labels, size * 2);
+        dimOffsets = Arrays.copyOf(dimOffsets, size * 2 + 1);
+        valOffsets = Arrays.copyOf(valOffsets, size * 2 + 1);
+      }
+      labels[size] = v.label;
+      for (int i = 0; i < v.size; i++)
+        dimOut.writeInt(v.dim[i]);
+      dimOffsets[size + 1] = dimOffsets[size] + v.size;
+      valOffsets[size + 1] = valOffsets[size];
+      if (!v.isBinary()) {
+        for (int i = 0; i < v.size; i++)
+          valOut.writeDouble(v.val[i]);
+        valOffsets[size + 1] += v.size;
+      }
+      size++;
+    }
+
+    /** Returns the number of vectors added so far */
+    public int size() {
+      return (size);
+    }
+
+    /** Writes the file */
+    @Override
+    public void close() throws IOException {
+      dimOut.close();
+      valOut.close();
+      RandomAccessFile out = new RandomAccessFile(file, "rw");
+      try {
+        out.setLength(0);
+        FileChannel channel = out.getChannel();
+        ByteBuffer b = ByteBuffer.allocate(1024 * 1024);
+        b.putLong(MAGIC).putLong(size).putLong(dimOffsets[size]).putLong(valOffsets[size]);
+        for (int i = 0; i < size; i++)
+          b = flushIfFull(b, channel).putDouble(labels[i]);
+        for (int i = 0; i <= size; i++)
+          b = flushIfFull(b, channel).putLong(dimOffsets[i]);
+        for (int i = 0; i <= size; i++)
+          b = flushIfFull(b, channel).putLong(valOffsets[i]);
+        b.flip();
+        while (b.hasRemaining())
+          channel.write(b);
+        append(dimFile, channel);
+        if (dimOffsets[size] % 2 != 0) channel.write(ByteBuffer.allocate(4));
+        append(valFile, channel);
+      } finally {
+        out.close();
+        dimFile.delete();
+        valFile.delete();
+      }
+    }
+
+    /** Deletes the temporary files without writing the file */
+    public void discard() throws IOException {
+      try {
+        dimOut.close();
+        valOut.close();
+      } finally {
+        dimFile.delete();
+        valFile.delete();
+      }
+    }
+
+    /** Appends a file to the channel */
+    protected static void append(File f, FileChannel channel) throws IOException {
+      FileInputStream in = new FileInputStream(f);
+      try {
+        FileChannel source = in.getChannel();
+        long pos = 0;
+        while (pos < source.size())
+          pos += source.transferTo(pos, source.size() - pos, channel);
+      } finally {
+        in.close();
+      }
+    }
+
+    /** Writes the buffer to the channel if it has less than 8 bytes left, returns the buffer */
+    protected static ByteBuffer flushIfFull(ByteBuffer b, FileChannel channel) throws IOException {
+      if (b.remaining() >= 8) return (b);
+      b.flip();
+      while (b.hasRemaining())
+        channel.write(b);
+      b.clear();
+      return (b);
+    }
+  }
+
+  /** Converts a file in the SVM-light text format (one vector per line, see SparseVector(String)) to a SparseDataset file.
+   * Skips empty lines and lines that start with #. Returns the number of vectors. The file is written to a temporary file,
+   * which is renamed when it is complete, so that a failure (e.g. a line that cannot be parsed) leaves no partial file. */
+  public static int fromSVMLight(File text, File binary) throws IOException {
+    File tmp = new File(binary.getPath() + ".tmp");
+    BufferedReader in = new BufferedReader(new FileReader(text), 1 << 20);
+    Writer out = null;
+    boolean done = false;
+    try {
+      out = new Writer(tmp);
+      for (String line = in.readLine(); line != null; line = in.readLine()) {
+        if (line.trim().length() == 0 || line.startsWith("#")) continue;
+        out.add(SparseVector.parse(line));
+      }
+      out.close();
+      Files.move(tmp.toPath(), binary.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      done = true;
+    } finally {
+      in.close();
+      if (!done) {
+        if (out != null) out.discard();
+        tmp.delete();
+      }
+    }
+    return (out.size());
+  }
+
+  /** Converts a SparseDataset file to the SVM-light text format */
+  public static void toSVMLight(File binary, File text) throws IOException {
+    SparseDataset data = open(binary);
+    java.io.Writer out = new BufferedWriter(new FileWriter(text), 1 << 20);
+    try {
+      for (int i = 0; i < data.size(); i++) {
+        out.write(data.get(i).toString());
+        out.write('\n');
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  /** Compares reading the SVM-light format with reading a SparseDataset */
+  public static void main(String[] args) throws Exception {
+    Random random = new Random(42);
+    File text = File.createTempFile("vectors", ".txt");
+    File binary = File.createTempFile("vectors", ".vectors");
+    java.io.Writer w = new BufferedWriter(new FileWriter(text));
+    SparseVector.updateBINARY(50);
+    for (int i = 0; i < 100000; i++) {
+      int[] dim = new int[50];
+      double[] val = new double[50];
+      for (int j = 0; j < dim.length; j++) {
+        dim[j] = j * 1000 + random.nextInt(1000) + 1;
+        val[j] = random.nextInt(3) == 0 ? 1.0 : random.nextDouble();
+      }
+      w.write(new SparseVector(random.nextInt(2) * 2 - 1, dim, i % 2 == 0 ? val : SparseVector.BINARY).toString() + "\n");
+    }
+    w.close();
+    long time = System.nanoTime();
+    BufferedReader in = new BufferedReader(new FileReader(text));
+    int n = 0;
+    for (String line = in.readLine(); line != null; line = in.readLine(), n++)
+      new SparseVector(line);
+    in.close();
+    D.p("new SparseVector(String):", n, "vectors in", (System.nanoTime() - time) / 1000000, "ms");
+    time = System.nanoTime();
+    fromSVMLight(text, binary);
+    D.p("fromSVMLight:", (System.nanoTime() - time) / 1000000, "ms,", text.length() / 1024 / 1024, "MB text,", binary.length() / 1024 / 1024,
+        "MB binary");
+    time = System.nanoTime();
+    SparseDataset data = open(binary);
+    D.p("open:", (System.nanoTime() - time) / 1000, "us");
+    time = System.nanoTime();
+    SparseVector[] vectors = data.toArray();
+    D.p("toArray:", vectors.length, "vectors in", (System.nanoTime() - time) / 1000000, "ms");
+    File text2 = File.createTempFile("vectors", ".txt");
+    toSVMLight(binary, text2);
+    D.p("Round trip gives the same text:", D.equal(new String(readAll(text)), new String(readAll(text2))));
+    text.delete();
+    text2.delete();
+    binary.delete();
+  }
+
+  /** Reads a file into a byte array (for the test) */
+  protected static byte[] readAll(File f) throws IOException {
+    byte[] result = new byte[(int) f.length()];
+    FileInputStream in = new FileInputStream(f);
+    try {
+      int pos = 0;
+      while (pos < result.length)
+        pos += in.read(result, pos, result.length - pos);
+    } finally {
+      in.close();
+    }
+    return (result);
+  }
+}
@@ -176,6 +176,115 @@ public class SparseVector implements Serializable, Cloneable {
     }
   }
 
+  /** Parses a SparseVector in the SVM-light-like format of SparseVector(String)
+   * in one pass, without creating substrings. Gives the same vector as SparseVector(String),
+   * except that it also accepts leading blanks and tabs, and throws a NumberFormatException
+   * for a token without ':', which SparseVector(String) ignores at the end of the line. */
+  public static SparseVector parse(CharSequence s) {
+    int len = s.length();
+    int pos = skipSpaces(s, 0);
+    int end = tokenEnd(s, pos);
+    double label = parseDouble(s, pos, end);
+    int[] dims = new int[16];
+    double[] vals = new double[16];
+    int n = 0;
+    boolean isBinary = true;
+    while (true) {
+      pos = skipSpaces(s, end);
+      if (pos >= len || s.charAt(pos) == '#') break;
+      end = tokenEnd(s, pos);
+      int colon = pos;
+      while (colon < end && s.charAt(colon) != ':')
+        colon++;
+      if (colon == end) throw new NumberFormatException("Missing ':' in " + s.subSequence(pos, end));
+      int d = parseInt(s, pos, colon);
+      double v = parseDouble(s, colon + 1, end);
+      if (v == 0.0) continue;
+      if (v != 1.0) isBinary = false;
+      if (n == dims.length) {
+        dims = Arrays.copyOf(dims, n * 2);
+        vals = Arrays.copyOf(vals, n * 2);
+      }
+      dims[n] = d;
+      vals[n++] = v;
+    }
+    if (isBinary) {
+      updateBINARY(n);
+      return (new SparseVector(label, Arrays.copyOf(dims, n), BINARY));
+    }
+    return (new SparseVector(label, Arrays.copyOf(dims, n), Arrays.copyOf(vals, n)));
+  }
+
+  /** Returns the position of the first character from pos on that is not a blank */
+  protected static int skipSpaces(CharSequence s, int pos) {
+    while (pos < s.length() && (s.charAt(pos) == ' ' || s.charAt(pos) == '\t'))
+      pos++;
+    return (pos);
+  }
+
+  /** Returns the position of the first blank from pos on */
+  protected static int tokenEnd(CharSequence s, int pos) {
+    while (pos < s.length() && s.charAt(pos) != ' ' && s.charAt(pos) != '\t')
+      pos++;
+    return (pos);
+  }
+
+  /** Parses a non-negative int from start to end */
+  protected static int parseInt(CharSequence s, int start, int end) {
+    if (start == end || end - start > 9) return (Integer.parseInt(s.subSequence(start, end).toString()));
+    int result = 0;
+    for (int i = start; i < end; i++) {
+      char c = s.charAt(i);
+      if (c < '0' || c > '9') return (Integer.parseInt(s.subSequence(start, end).toString()));
+      result = result * 10 + c - '0';
+    }
+    return (result);
+  }
+
+  /** Powers of 10 that are exact as doubles */
+  protected static final double[] POWERSOF10 = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+      1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+  /** Parses a double from start to end. Numbers with at most 15 digits and a small exponent are computed as mantissa
+   * times or divided by a power of 10, which is exact up to the last bit (Clinger's fast path).
+   * All other numbers are parsed by Double.parseDouble(). */
+  protected static double parseDouble(CharSequence s, int start, int end) {
+    int i = start;
+    boolean negative = false;
+    if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')) negative = s.charAt(i++) == '-';
+    long mantissa = 0;
+    int digits = 0;
+    int numDigits = 0;
+    int exponent = 0;
+    for (; i < end && s.charAt(i) >= '0' && s.charAt(i) <= '9'; i++, numDigits++) {
+      mantissa = mantissa * 10 + s.charAt(i) - '0';
+      if (mantissa != 0) digits++;
+    }
+    if (i < end && s.charAt(i) == '.') {
+      for (i++; i < end && s.charAt(i) >= '0' && s.charAt(i) <= '9'; i++, numDigits++) {
+        mantissa = mantissa * 10 + s.charAt(i) - '0';
+        if (mantissa != 0) digits++;
+        exponent--;
+      }
+    }
+    if (i < end && numDigits > 0 && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+      i++;
+      boolean negativeExponent = false;
+      if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')) negativeExponent = s.charAt(i++) == '-';
+      int e = 0;
+      int start2 = i;
+      for (; i < end && s.charAt(i) >= '0' && s.charAt(i) <= '9' && e < 1000; i++)
+        e = e * 10 + s.charAt(i) - '0';
+      if (i == start2) numDigits = 0;
+      exponent += negativeExponent ? -e : e;
+    }
+    if (i != end || numDigits == 0 || digits > 15 || exponent < -22 || exponent > 22) {
+      return (Double.parseDouble(s.subSequence(start, end).toString()));
+    }
+    double result = exponent < 0 ? mantissa / POWERSOF10[-exponent] : mantissa * POWERSOF10[exponent];
+    return (negative ? -result : result);
+  }
+
   /** Kicks out 0-entries (without affecting the vector in a mathematical sense) */
   public SparseVector compress() {
     if (val == BINARY) return (this);
@@ -228,10 +337,13 @@ public class SparseVector implements Serializable, Cloneable {
     while (true) {
       if (++i >= this.size()) return (r);
       if (++j >= v.size()) return (r);
-      while (this.dim[i] < v.dim[j])
-        if (++i >= this.size()) return (r);
-      while (this.dim[i] > v.dim[j])
-        if (++j >= v.size()) return (r);
+      while (this.dim[i] != v.dim[j]) {
+        if (this.dim[i] < v.dim[j]) {
+          if (++i >= this.size()) return (r);
+        } else {
+          if (++j >= v.size()) return (r);
+        }
+      }
       r += this.val[i] * v.val[j];
     }
   }
@@ -365,7 +477,7 @@ public class SparseVector implements Serializable, Cloneable {
     kMeans(dots, centers, eucledianDistance, 0.1, 10);
   }
 
-  /** Does a simple K-means until the number of iterations is exceeded*/
+  /** Does a simple K-means until the number of iterations is exceeded (see KMeans for a parallel version)*/
   public static void kMeans(SparseVector[] dots, SparseVector[] centers, Distance distanceFunction, double epsilon, int iterations) {
     while (iterations-- > 0) {
       //D.p("Iteration", iterations);
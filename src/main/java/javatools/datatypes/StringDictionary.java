@@ -0,0 +1,541 @@
+package javatools.datatypes;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import javatools.administrative.D;
+
+/**
+Copyright 2016 Fabian M. Suchanek
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+This class assigns dense int ids (0, 1, 2, ...) to strings, and keeps the strings
+outside of the Java heap. The strings are stored as UTF-8 bytes in direct ByteBuffers,
+and so are the hash table and the positions of the strings. Therefore, a dictionary
+of hundreds of millions of strings does not slow down the garbage collector.
+The dictionary can be saved to a file, and reopened instantly by mapping the file
+into memory. A reopened dictionary is read-only.<BR>
+It can replace an IntHashMap&lt;String&gt; that is used as an interner:
+<PRE>
+  StringDictionary dict=new StringDictionary();
+  int id=dict.add("Elvis");         // 0
+  dict.add("Priscilla");            // 1
+  dict.get("Elvis");                // 0
+  dict.get("Lisa");                 // -1
+  dict.string(1);                   // "Priscilla"
+  dict.save(new File("names.dict"));
+
+  StringDictionary names=StringDictionary.open(new File("names.dict"));
+  ByteSlice bytes=names.bytes(0, new ByteSlice());  // UTF-8 bytes of "Elvis" (copied)
+  ByteBuffer view=names.view(0);                     // UTF-8 bytes of "Elvis" (not copied)
+  CharSequence chars=names.chars(0);                 // "Elvis" (not copied, because it is ASCII)
+</PRE>
+Lookups can run in several threads at the same time, additions cannot.
+*/
+public class StringDictionary implements Closeable {
+
+  /** Marks the files of dictionaries */
+  public static final long MAGIC = 0x4A54444943543031L; // "JTDICT01"
+
+  /** Maximal length of a string in bytes */
+  public static final int MAXLENGTH = (1 << 24) - 1;
+
+  /** UTF-8 */
+  public static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /** Size of the header of the file */
+  protected static final int HEADERSIZE = 32;
+
+  /** Position and length of each string, as position&lt;&lt;24 | length */
+  protected ByteChunks entries;
+
+  /** Hash code of each string */
+  protected ByteChunks hashes;
+
+  /** Hash table of id+1 (0 for an empty position), its length is a power of 2 */
+  protected ByteChunks table;
+
+  /** Number of positions of the hash table */
+  protected int tableLength;
+
+  /** Number of strings above which the table grows */
+  protected int threshold;
+
+  /** UTF-8 bytes of the strings */
+  protected ByteChunks data;
+
+  /** Position after the last string in data */
+  protected long dataLength = 0;
+
+  /** Number of strings */
+  protected int size = 0;
+
+  /** TRUE if the dictionary was opened from a file */
+  protected boolean readOnly = false;
+
+  /** The file of a reopened dictionary */
+  protected RandomAccessFile file;
+
+  /** TRUE after close() */
+  protected boolean closed = false;
+
+  /** Holds the UTF-8 bytes of the string that is looked up */
+  protected static final ThreadLocal<byte[]> scratch = new ThreadLocal<byte[]>() {
+
+    @Override
+    protected byte[] initialValue() {
+      return new byte[256];
+    }
+  };
+
+  /** Creates an empty dictionary */
+  public StringDictionary() {
+    this(0);
+  }
+
+  /** Creates an empty dictionary that holds capacity strings without growing its hash table */
+  public StringDictionary(int capacity) {
+    entries = new ByteChunks();
+    hashes = new ByteChunks();
+    data = new ByteChunks();
+    tableLength = IntHashMap.tableSize(capacity, IntHashMap.LOADFACTOR);
+    table = new ByteChunks();
+    table.ensure(tableLength * 4L);
+    threshold = IntHashMap.threshold(tableLength, IntHashMap.LOADFACTOR);
+  }
+
+  // ---------------------------------------------------------------------
+  //           Lookup
+  // ---------------------------------------------------------------------
+
+  /** Computes the hash code of bytes (FNV-1a, with a final scrambling) */
+  protected static int hash(byte[] bytes, int start, int length) {
+    int h = 0x811C9DC5;
+    for (int i = start; i < start + length; i++)
+      h = (h ^ bytes[i]) * 0x01000193;
+    h ^= h >>> 16;
+    h *= 0x85EBCA6B;
+    return (h ^ (h >>> 13));
+  }
+
+  /** Encodes a string as UTF-8 into the scratch array, returns the number of bytes */
+  protected static int encode(CharSequence s) {
+    int n = s.length();
+    byte[] b = scratch.get();
+    if (b.length < n * 3) {
+      b = new byte[Math.max(n * 3, b.length * 2)];
+      scratch.set(b);
+    }
+    int p = 0;
+    for (int i = 0; i < n; i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        b[p++] = (byte) c;
+      } else if (c < 0x800) {
+        b[p++] = (byte) (0xC0 | c >> 6);
+        b[p++] = (byte) (0x80 | c & 0x3F);
+      } else if (Character.isSurrogate(c)) {
+        // Like String.getBytes(), write '?' for a surrogate without partner
+        if (!Character.isHighSurrogate(c) || i + 1 == n || !Character.isLowSurrogate(s.charAt(i + 1))) {
+          b[p++] = '?';
+          continue;
+        }
+        int cp = Character.toCodePoint(c, s.charAt(++i));
+        b[p++] = (byte) (0xF0 | cp >> 18);
+        b[p++] = (byte) (0x80 | cp >> 12 & 0x3F);
+        b[p++] = (byte) (0x80 | cp >> 6 & 0x3F);
+        b[p++] = (byte) (0x80 | cp & 0x3F);
+      } else {
+        b[p++] = (byte) (0xE0 | c >> 12);
+        b[p++] = (byte) (0x80 | c >> 6 & 0x3F);
+        b[p++] = (byte) (0x80 | c & 0x3F);
+      }
+    }
+    return (p);
+  }
+
+  /** TRUE if the string with this id has these bytes */
+  protected boolean matches(int id, byte[] bytes, int start, int length) {
+    long entry = entries.getLong(id * 8L);
+    if ((int) (entry & MAXLENGTH) != length) return (false);
+    long pos = entry >>> 24;
+    for (int i = 0; i < length; i++) {
+      if (data.get(pos + i) != bytes[start + i]) return (false);
+    }
+    return (true);
+  }
+
+  /** Returns the position of the table that holds the id of the bytes, or the empty position where it would go */
+  protected int find(byte[] bytes, int start, int length, int hash) {
+    checkOpen();
+    int mask = tableLength - 1;
+    int i = hash & mask;
+    while (true) {
+      int id = table.getInt(i * 4L) - 1;
+      if (id < 0) return (i);
+      if (hashes.getInt(id * 4L) == hash && matches(id, bytes, start, length)) return (i);
+      i = (i + 1) & mask;
+    }
+  }
+
+  /** Returns the id of the UTF-8 bytes, or -1 */
+  public int get(byte[] bytes, int start, int length) {
+    int pos = find(bytes, start, length, hash(bytes, start, length));
+    return (table.getInt(pos * 4L) - 1);
+  }
+
+  /** Returns the id of the UTF-8 bytes, or -1 */
+  public int get(ByteSlice bytes) {
+    return (get(bytes.data, bytes.start, bytes.length));
+  }
+
+  /** Returns the id of the string, or -1 */
+  public int get(CharSequence s) {
+    int length = encode(s);
+    return (get(scratch.get(), 0, length));
+  }
+
+  /** TRUE if the string is there */
+  public boolean containsKey(CharSequence s) {
+    return (get(s) != -1);
+  }
+
+  /** Returns the number of UTF-8 bytes of the string with this id */
+  public int length(int id) {
+    checkId(id);
+    return ((int) (entries.getLong(id * 8L) & MAXLENGTH));
+  }
+
+  /** Copies the UTF-8 bytes of the string with this id into the slice (reusing its array if it is large enough), 
+   * returns the slice. See view() for access without copying. */
+  public ByteSlice bytes(int id, ByteSlice target) {
+    checkId(id);
+    long entry = entries.getLong(id * 8L);
+    int length = (int) (entry & MAXLENGTH);
+    long pos = entry >>> 24;
+    byte[] b = target.data;
+    if (b == null || b.length < length) b = new byte[Math.max(length, 16)];
+    for (int i = 0; i < length; i++)
+      b[i] = data.get(pos + i);
+    return (target.set(b, 0, length));
+  }
+
+  /** Returns a read-only view of the UTF-8 bytes of the string with this id, without copying them.
+   * The view is valid until the dictionary is closed. */
+  public ByteBuffer view(int id) {
+    checkId(id);
+    long entry = entries.getLong(id * 8L);
+    int length = (int) (entry & MAXLENGTH);
+    if (length == 0) return (ByteBuffer.allocate(0).asReadOnlyBuffer());
+    long pos = entry >>> 24;
+    // Strings do not cross the border of two chunks
+    ByteBuffer b = data.buffers.get((int) (pos >>> ByteChunks.SHIFT)).duplicate();
+    b.clear();
+    b.position((int) (pos & ByteChunks.MASK));
+    b.limit(b.position() + length);
+    return (b.slice().asReadOnlyBuffer());
+  }
+
+  /** Returns the string with this id */
+  public String string(int id) {
+    return (bytes(id, new ByteSlice()).toString(UTF8));
+  }
+
+  /** Returns the string with this id as a CharSequence. If the string is ASCII (as most URLs), the 
+   * CharSequence reads its chars from the dictionary without copying them, and is valid until the 
+   * dictionary is closed. Other strings are decoded into a String, because in UTF-8 the i-th char 
+   * cannot be found without decoding the chars before it. */
+  public CharSequence chars(int id) {
+    ByteBuffer b = view(id);
+    for (int i = 0; i < b.limit(); i++) {
+      if (b.get(i) < 0) return (UTF8.decode(b).toString());
+    }
+    return (new AsciiView(b));
+  }
+
+  /** A CharSequence on ASCII bytes, which does not copy them */
+  protected static class AsciiView implements CharSequence {
+
+    /** The bytes, from position 0 */
+    protected final ByteBuffer bytes;
+
+    public AsciiView(ByteBuffer bytes) {
+      this.bytes = bytes;
+    }
+
+    @Override
+    public int length() {
+      return (bytes.limit());
+    }
+
+    @Override
+    public char charAt(int index) {
+      return ((char) bytes.get(index));
+    }
+
+    /** Returns a view on the same bytes (does not copy) */
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      if (start < 0 || end > length() || start > end) throw new IndexOutOfBoundsException("No subsequence from " + start + " to " + end);
+      ByteBuffer b = bytes.duplicate();
+      b.limit(end).position(start);
+      return (new AsciiView(b.slice()));
+    }
+
+    @Override
+    public String toString() {
+      return (ByteSlice.LATIN1.decode(bytes.duplicate()).toString());
+    }
+  }
+
+  /** Throws an exception if the dictionary has been closed */
+  protected void checkOpen() {
+    if (closed) throw new IllegalStateException("The dictionary has been closed");
+  }
+
+  /** Throws an exception for an unknown id (or if the dictionary has been closed) */
+  protected void checkId(int id) {
+    checkOpen();
+    if (id < 0 || id >= size) throw new IndexOutOfBoundsException("No string with id " + id + " in a dictionary of " + size);
+  }
+
+  /** Returns the number of strings */
+  public int size() {
+    return (size);
+  }
+
+  /** TRUE if there are no strings */
+  public boolean isEmpty() {
+    return (size == 0);
+  }
+
+  /** Returns the number of bytes outside of the heap (or in the file) */
+  public long byteSize() {
+    return (size * 12L + tableLength * 4L + dataLength);
+  }
+
+  /** Returns the strings in the order of their ids. Can be used only once. */
+  public PeekIterator<String> keys() {
+    return (new PeekIterator<String>() {
+
+      int id = 0;
+
+      @Override
+      protected String internalNext() throws Exception {
+        if (id >= size) return (null);
+        return (string(id++));
+      }
+    });
+  }
+
+  // ---------------------------------------------------------------------
+  //           Adding
+  // ---------------------------------------------------------------------
+
+  /** Returns the id of the UTF-8 bytes, adds them with the next id if they are not there */
+  public int add(byte[] bytes, int start, int length) {
+    checkOpen();
+    if (readOnly) throw new UnsupportedOperationException("A dictionary opened from a file is read-only");
+    if (length > MAXLENGTH) throw new IllegalArgumentException("Strings can have at most " + MAXLENGTH + " bytes");
+    int hash = hash(bytes, start, length);
+    int pos = find(bytes, start, length, hash);
+    int id = table.getInt(pos * 4L) - 1;
+    if (id >= 0) return (id);
+    if (size == Integer.MAX_VALUE - 1) throw new IllegalStateException("The dictionary is full");
+    // A string must not cross the border of two chunks
+    if (length > 0 && (dataLength >>> ByteChunks.SHIFT) != ((dataLength + length - 1) >>> ByteChunks.SHIFT)) {
+      dataLength = ((dataLength >>> ByteChunks.SHIFT) + 1) << ByteChunks.SHIFT;
+    }
+    data.ensure(dataLength + length);
+    for (int i = 0; i < length; i++)
+      data.put(dataLength + i, bytes[start + i]);
+    id = size++;
+    entries.ensure(size * 8L);
+    entries.putLong(id * 8L, dataLength << 24 | length);
+    hashes.ensure(size * 4L);
+    hashes.putInt(id * 4L, hash);
+    dataLength += length;
+    table.putInt(pos * 4L, id + 1);
+    if (size > threshold) rehash();
+    return (id);
+  }
+
+  /** Returns the id of the UTF-8 bytes, adds them with the next id if they are not there */
+  public int add(ByteSlice bytes) {
+    return (add(bytes.data, bytes.start, bytes.length));
+  }
+
+  /** Returns the id of the string, adds it with the next id if it is not there */
+  public int add(CharSequence s) {
+    int length = encode(s);
+    return (add(scratch.get(), 0, length));
+  }
+
+  /** Moves the ids into a hash table of twice the size */
+  protected void rehash() {
+    if (tableLength >= 1 << 30) throw new IllegalStateException("The dictionary cannot grow further");
+    tableLength *= 2;
+    threshold = IntHashMap.threshold(tableLength, IntHashMap.LOADFACTOR);
+    table = new ByteChunks();
+    table.ensure(tableLength * 4L);
+    int mask = tableLength - 1;
+    for (int id = 0; id < size; id++) {
+      int i = hashes.getInt(id * 4L) & mask;
+      while (table.getInt(i * 4L) != 0)
+        i = (i + 1) & mask;
+      table.putInt(i * 4L, id + 1);
+    }
+  }
+
+  // ---------------------------------------------------------------------
+  //           Files
+  // ---------------------------------------------------------------------
+
+  /** Writes the dictionary to a file, which can be reopened by open(). The file is written to a temporary
+   * file, which is renamed when it is complete. Therefore, a reopened dictionary can be saved to the file
+   * that it maps (which stays mapped), and a failure leaves no partial file. */
+  public void save(File f) throws IOException {
+    checkOpen();
+    File tmp = new File(f.getPath() + ".tmp");
+    RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+    boolean done = false;
+    try {
+      out.setLength(0);
+      FileChannel channel = out.getChannel();
+      ByteBuffer header = ByteBuffer.allocate(HEADERSIZE);
+      header.putLong(MAGIC).putInt(size).putInt(tableLength).putLong(dataLength);
+      header.clear();
+      while (header.hasRemaining())
+        channel.write(header);
+      entries.write(channel, size * 8L);
+      hashes.write(channel, align(size * 4L));
+      table.write(channel, tableLength * 4L);
+      data.write(channel, dataLength);
+      out.close();
+      Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      done = true;
+    } finally {
+      if (!done) {
+        out.close();
+        tmp.delete();
+      }
+    }
+  }
+
+  /** Rounds up to a multiple of 8 */
+  protected static long align(long n) {
+    return ((n + 7) & ~7L);
+  }
+
+  /** Maps a dictionary file into memory. The dictionary is read-only. */
+  public static StringDictionary open(File f) throws IOException {
+    RandomAccessFile in = new RandomAccessFile(f, "r");
+    try {
+      FileChannel channel = in.getChannel();
+      ByteBuffer header = ByteBuffer.allocate(HEADERSIZE);
+      while (header.hasRemaining()) {
+        if (channel.read(header) < 0) throw new IOException(f + " is not a dictionary file");
+      }
+      header.flip();
+      if (header.getLong() != MAGIC) throw new IOException(f + " is not a dictionary file");
+      StringDictionary result = new StringDictionary(0);
+      result.size = header.getInt();
+      result.tableLength = header.getInt();
+      result.dataLength = header.getLong();
+      long pos = HEADERSIZE;
+      result.entries = ByteChunks.map(channel, pos, result.size * 8L);
+      pos += result.size * 8L;
+      result.hashes = ByteChunks.map(channel, pos, align(result.size * 4L));
+      pos += align(result.size * 4L);
+      result.table = ByteChunks.map(channel, pos, result.tableLength * 4L);
+      pos += result.tableLength * 4L;
+      result.data = ByteChunks.map(channel, pos, result.dataLength);
+      if (pos + result.dataLength != channel.size()) throw new IOException(f + " is truncated");
+      result.threshold = Integer.MAX_VALUE;
+      result.readOnly = true;
+      result.file = in;
+      return (result);
+    } catch (IOException e) {
+      in.close();
+      throw e;
+    }
+  }
+
+  /** Releases the memory (a mapped file stays mapped until the dictionary is garbage collected).
+   * Afterwards, lookups, additions and save() throw an IllegalStateException. */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    entries = hashes = table = data = new ByteChunks();
+    size = 0;
+    tableLength = 0;
+    dataLength = 0;
+    readOnly = true;
+    if (file != null) file.close();
+    file = null;
+  }
+
+  @Override
+  public String toString() {
+    return ("StringDictionary of " + size + " strings, " + byteSize() / 1024 / 1024 + " MB" + (readOnly ? ", read-only" : ""));
+  }
+
+  /** Compares StringDictionary and IntHashMap on interning n strings, then saves and reopens the dictionary */
+  public static void main(String[] args) throws Exception {
+    int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    for (int run = 0; run < 3; run++) {
+      System.gc();
+      long heap = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+      long time = System.nanoTime();
+      StringDictionary dict = new StringDictionary();
+      for (int i = 0; i < n; i++)
+        dict.add("http://yago-knowledge.org/resource/Entity_" + i);
+      int found = 0;
+      for (int i = 0; i < n; i++)
+        if (dict.get("http://yago-knowledge.org/resource/Entity_" + i) == i) found++;
+      System.gc();
+      D.p("StringDictionary:", n, "strings in", (System.nanoTime() - time) / 1000000, "ms,", found, "found,",
+          (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory() - heap) / 1024 / 1024, "MB heap,", dict.byteSize() / 1024 / 1024, "MB off heap");
+      System.gc();
+      heap = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+      time = System.nanoTime();
+      IntHashMap<String> map = new IntHashMap<String>();
+      for (int i = 0; i < n; i++)
+        map.put("http://yago-knowledge.org/resource/Entity_" + i, i);
+      found = 0;
+      for (int i = 0; i < n; i++)
+        if (map.get("http://yago-knowledge.org/resource/Entity_" + i) == i) found++;
+      System.gc();
+      D.p("IntHashMap:", n, "strings in", (System.nanoTime() - time) / 1000000, "ms,", found, "found,",
+          (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory() - heap) / 1024 / 1024, "MB heap");
+      map = null;
+      File f = File.createTempFile("dictionary", ".dict");
+      time = System.nanoTime();
+      dict.save(f);
+      long saved = System.nanoTime() - time;
+      time = System.nanoTime();
+      StringDictionary reopened = open(f);
+      D.p("Saved in", saved / 1000000, "ms, reopened in", (System.nanoTime() - time) / 1000000, "ms:", reopened, reopened.string(n / 2), reopened.get("http://yago-knowledge.org/resource/Entity_7"));
+      reopened.close();
+      f.delete();
+    }
+  }
+}
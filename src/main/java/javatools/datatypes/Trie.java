@@ -174,6 +174,11 @@ public class Trie extends AbstractSet<CharSequence> {
     });
   }
 
+  /** Returns a compact, immutable copy of this trie, which can be saved to a file (see FrozenTrie) */
+  public FrozenTrie freeze() {
+    return (FrozenTrie.of(this));
+  }
+
   /** Test method */
   public static void main(String[] args) {
     Trie t = new Trie();
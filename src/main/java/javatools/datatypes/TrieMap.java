@@ -208,6 +208,11 @@ public class TrieMap<V> extends AbstractMap<CharSequence, V> implements Iterable
     });
   }
 
+  /** Returns a compact, immutable copy of this trie, which can be saved to a file (see FrozenTrieMap) */
+  public FrozenTrieMap<V> freeze() {
+    return (FrozenTrieMap.of(this));
+  }
+
   /** Test method */
   public static void main(String[] args) {
     TrieMap<String> t = new TrieMap<String>();
@@ -68,7 +68,7 @@ public class ByteFileLines extends FileLines {
 
   @Override
   public String internalNext() {
-    StringBuffer next = new StringBuffer(100);
+    StringBuilder next = new StringBuilder(100);
     try {
       int c;
       do {
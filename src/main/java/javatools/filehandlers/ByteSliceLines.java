@@ -0,0 +1,217 @@
+package javatools.filehandlers;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+import javatools.administrative.Announce;
+import javatools.administrative.D;
+import javatools.datatypes.ByteSlice;
+import javatools.datatypes.PeekIterator;
+
+/**
+Copyright 2016 Fabian M. Suchanek
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Does the same as ByteFileLines (see there), but does not allocate anything per line.
+The file is read in blocks into a buffer, and each line is returned as a ByteSlice
+on that buffer. The iterator returns always the same ByteSlice object, which is
+valid only until the next call to next() or hasNext(). Call toString() or copy()
+on the ByteSlice to keep a line. As in ByteFileLines, empty lines are skipped.<BR>
+Example:
+<PRE>
+   for (ByteSlice line : new ByteSliceLines("c:\\dump.tsv")) {
+     if (line.startsWith("&lt;Elvis&gt;")) System.out.println(line);
+   }
+</PRE>
+*/
+public class ByteSliceLines extends PeekIterator<ByteSlice> implements Iterable<ByteSlice>, Iterator<ByteSlice>, Closeable {
+
+  /** Default size of the buffer in bytes */
+  public static final int BUFFERSIZE = 1024 * 1024;
+
+  /** number of bytes for announce (or -1) */
+  protected long announceBytes = -1;
+
+  /** The stream to read the lines from */
+  public InputStream in;
+
+  /** Holds the bytes */
+  protected byte[] buffer;
+
+  /** Position of the next unread byte in the buffer */
+  protected int pos = 0;
+
+  /** End of the valid bytes in the buffer */
+  protected int limit = 0;
+
+  /** TRUE if the stream is exhausted */
+  protected boolean eof = false;
+
+  /** The slice that is returned for each line */
+  protected ByteSlice slice = new ByteSlice();
+
+  /** Constructs ByteSliceLines from a filename */
+  public ByteSliceLines(String f) throws IOException {
+    this(f, null);
+  }
+
+  /** Constructs ByteSliceLines from a file */
+  public ByteSliceLines(File f) throws IOException {
+    this(f, null);
+  }
+
+  /** Constructs ByteSliceLines from a filename, shows progress bar */
+  public ByteSliceLines(String f, String announceMsg) throws IOException {
+    this(new File(f), announceMsg);
+  }
+
+  /** Constructs ByteSliceLines from a file, shows progress bar */
+  public ByteSliceLines(File f, String announceMsg) throws IOException {
+    this(new FileInputStream(f), BUFFERSIZE);
+    if (announceMsg != null) {
+      Announce.progressStart(announceMsg, f.length());
+      announceBytes = 0;
+    }
+  }
+
+  /** Constructs ByteSliceLines from a stream */
+  public ByteSliceLines(InputStream i) {
+    this(i, BUFFERSIZE);
+  }
+
+  /** Constructs ByteSliceLines from a stream with a given initial buffer size (main constructor) */
+  public ByteSliceLines(InputStream i, int bufferSize) {
+    in = i;
+    buffer = new byte[bufferSize];
+  }
+
+  /** Reads more bytes into the buffer after limit, returns FALSE at the end of the stream */
+  protected boolean fill() throws IOException {
+    if (eof) return (false);
+    int read = in.read(buffer, limit, buffer.length - limit);
+    if (read == -1) {
+      eof = true;
+      return (false);
+    }
+    limit += read;
+    return (true);
+  }
+
+  /** Moves the bytes from start on to the beginning of the buffer, grows the buffer if it is full */
+  protected void compact(int start) {
+    if (start == 0) {
+      byte[] newBuffer = new byte[buffer.length * 2];
+      System.arraycopy(buffer, 0, newBuffer, 0, limit);
+      buffer = newBuffer;
+      return;
+    }
+    System.arraycopy(buffer, start, buffer, 0, limit - start);
+    limit -= start;
+    pos -= start;
+  }
+
+  @Override
+  protected ByteSlice internalNext() throws IOException {
+    // Skip line breaks
+    while (true) {
+      if (pos >= limit) {
+        pos = limit = 0;
+        if (!fill()) return (null);
+        continue;
+      }
+      byte b = buffer[pos];
+      if (b != '\n' && b != '\r') break;
+      pos++;
+      if (announceBytes != -1) announceBytes++;
+    }
+    int start = pos;
+    while (true) {
+      for (; pos < limit; pos++) {
+        byte b = buffer[pos];
+        if (b == '\n' || b == '\r') {
+          slice.set(buffer, start, pos - start);
+          if (announceBytes != -1) Announce.progressAt(announceBytes += pos - start + 1);
+          pos++;
+          return (slice);
+        }
+      }
+      // The line continues beyond the buffer
+      if (limit == buffer.length) {
+        compact(start);
+        start = 0;
+      }
+      if (!fill()) {
+        slice.set(buffer, start, limit - start);
+        if (announceBytes != -1) Announce.progressAt(announceBytes += limit - start);
+        pos = limit;
+        return (slice);
+      }
+    }
+  }
+
+  /** Unsupported, throws an UnsupportedOperationException */
+  @Override
+  public void remove() throws UnsupportedOperationException {
+    throw new UnsupportedOperationException("ByteSliceLines does not support \"remove\"");
+  }
+
+  /** Returns a simple identifier */
+  @Override
+  public String toString() {
+    return ("ByteSliceLines of " + in);
+  }
+
+  /** Returns this */
+  @Override
+  public Iterator<ByteSlice> iterator() {
+    return this;
+  }
+
+  /** Closes the stream */
+  @Override
+  public void close() {
+    try {
+      in.close();
+    } catch (IOException e) {
+    }
+    if (announceBytes != -1) Announce.progressDone();
+    announceBytes = -1;
+  }
+
+  /** Compares the speed of FileLines, ByteFileLines and ByteSliceLines on a file */
+  public static void main(String[] args) throws Exception {
+    File f = new File(args[0]);
+    for (int run = 0; run < 3; run++) {
+      long time = System.currentTimeMillis();
+      long chars = 0;
+      for (String l : new FileLines(f))
+        chars += l.length();
+      D.p("FileLines:", chars, "chars in", System.currentTimeMillis() - time, "ms");
+      time = System.currentTimeMillis();
+      chars = 0;
+      for (String l : new ByteFileLines(f))
+        chars += l.length();
+      D.p("ByteFileLines:", chars, "chars in", System.currentTimeMillis() - time, "ms");
+      time = System.currentTimeMillis();
+      chars = 0;
+      for (ByteSlice l : new ByteSliceLines(f))
+        chars += l.length();
+      D.p("ByteSliceLines:", chars, "chars in", System.currentTimeMillis() - time, "ms");
+    }
+  }
+}
@@ -0,0 +1,424 @@
+package javatools.filehandlers;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javatools.administrative.Announce;
+import javatools.administrative.D;
+import javatools.datatypes.PeekIterator;
+
+/**
+ * Copyright 2016 Fabian M. Suchanek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Does the same as FileLines (see there), but memory-maps the file in
+ * segments that end at a line break, and decodes the segments on several
+ * (daemon) worker threads. A segment holds at most Integer.MAX_VALUE bytes, so
+ * that a line longer than that is refused with an IOException. The lines are returned in file order by default. If the
+ * order does not matter, the iterator can return the segments as soon as they
+ * are decoded. The encoding has to map '\n' and '\r' to single bytes (as
+ * UTF-8 and the ISO-8859 encodings do).<BR>
+ * Example:
+ *
+ * <PRE>
+ * for (String s : new MappedFileLines(&quot;c:\\dump.tsv&quot;, &quot;Reading dump&quot;)) {
+ *   System.out.println(s);
+ * }
+ * </PRE>
+ *
+ * Lines can also be handed directly to worker threads by
+ * MappedFileLines.process(). As with FileLines, the file is closed when there
+ * are no more lines. If you do not use all lines of the iterator, close the
+ * iterator manually.
+ */
+public class MappedFileLines extends PeekIterator<String> implements Iterable<String>, Iterator<String>, Closeable {
+
+  /** Default size of a segment in bytes */
+  public static final int SEGMENTSIZE = 16 * 1024 * 1024;
+
+  /** Number of segments per thread that may be decoded in advance */
+  public static final int SEGMENTSPERTHREAD = 2;
+
+  /** Handles the lines of a file in MappedFileLines.process */
+  public static interface LineHandler {
+
+    /** Called for each line, possibly from several threads at once */
+    public void handle(String line) throws Exception;
+  }
+
+  /** number of bytes for announce (or -1) */
+  protected long announceBytes = -1;
+
+  /** The file */
+  protected RandomAccessFile file;
+
+  /** Channel of the file */
+  protected FileChannel channel;
+
+  /** Size of the file */
+  protected long size;
+
+  /** Start of the next segment to be submitted */
+  protected long position = 0;
+
+  /** Size of a segment */
+  protected int segmentSize;
+
+  /** Encoding of the file */
+  protected Charset encoding;
+
+  /** Decodes the segments */
+  protected ExecutorService executor;
+
+  /** Collects decoded segments if the order does not matter, else NULL */
+  protected CompletionService<Segment> completion;
+
+  /** Decoded segments in file order if the order matters */
+  protected LinkedList<Future<Segment>> pending = new LinkedList<Future<Segment>>();
+
+  /** Number of segments that have been submitted but not consumed */
+  protected int inFlight = 0;
+
+  /** Maximal number of segments in flight */
+  protected int maxInFlight;
+
+  /** Lines of the current segment */
+  protected List<String> lines = new ArrayList<String>(0);
+
+  /** Position in the current segment */
+  protected int linePos = 0;
+
+  /** Constructs MappedFileLines from a filename */
+  public MappedFileLines(String f) throws IOException {
+    this(f, null);
+  }
+
+  /** Constructs MappedFileLines from a file */
+  public MappedFileLines(File f) throws IOException {
+    this(f, null);
+  }
+
+  /** Constructs MappedFileLines from a filename, shows progress bar */
+  public MappedFileLines(String f, String announceMsg) throws IOException {
+    this(new File(f), announceMsg);
+  }
+
+  /** Constructs MappedFileLines from a file, shows progress bar */
+  public MappedFileLines(File f, String announceMsg) throws IOException {
+    this(f, "UTF-8", announceMsg, Runtime.getRuntime().availableProcessors(), true);
+  }
+
+  /**
+   * Constructs MappedFileLines from a file with an encoding, shows progress
+   * bar, decodes on the given number of threads. If ordered is false, the
+   * lines of different segments may come out of order. (main constructor)
+   */
+  public MappedFileLines(File f, String encoding, String announceMsg, int threads, boolean ordered) throws IOException {
+    this(f, encoding, announceMsg, threads, ordered, SEGMENTSIZE);
+  }
+
+  /** Constructs MappedFileLines with a given segment size (for testing) */
+  protected MappedFileLines(File f, String encoding, String announceMsg, int threads, boolean ordered, int segmentSize) throws IOException {
+    if (threads < 1) throw new IllegalArgumentException("MappedFileLines needs at least one thread");
+    this.encoding = Charset.forName(encoding);
+    this.segmentSize = segmentSize;
+    file = new RandomAccessFile(f, "r");
+    channel = file.getChannel();
+    size = channel.size();
+    if (announceMsg != null) {
+      Announce.progressStart(announceMsg, size);
+      announceBytes = 0;
+    }
+    executor = Executors.newFixedThreadPool(threads, daemonThreads(f));
+    if (!ordered) completion = new ExecutorCompletionService<Segment>(executor);
+    maxInFlight = threads * SEGMENTSPERTHREAD;
+  }
+
+  /** Returns a factory of daemon threads, so that an iterator that is not closed does not keep the JVM alive */
+  protected static ThreadFactory daemonThreads(File f) {
+    final String name = "MappedFileLines of " + f;
+    return (new ThreadFactory() {
+
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return (t);
+      }
+    });
+  }
+
+  /** A decoded segment */
+  protected static class Segment {
+
+    /** Lines of the segment */
+    public final List<String> lines;
+
+    /** Number of bytes of the segment */
+    public final long bytes;
+
+    public Segment(List<String> lines, long bytes) {
+      this.lines = lines;
+      this.bytes = bytes;
+    }
+  }
+
+  /**
+   * Returns the end of the segment that starts at start, i.e., the position
+   * after the next line break ('\n', '\r' or "\r\n") at or after
+   * start+segmentSize. Throws an IOException if the segment would exceed
+   * Integer.MAX_VALUE bytes.
+   */
+  protected static long segmentEnd(FileChannel channel, long start, long size, int segmentSize) throws IOException {
+    long pos = start + segmentSize;
+    if (pos >= size) return (size);
+    ByteBuffer buf = ByteBuffer.allocate(8192);
+    while (pos < size) {
+      buf.clear();
+      int read = channel.read(buf, pos);
+      if (read <= 0) break;
+      for (int i = 0; i < read; i++) {
+        byte b = buf.get(i);
+        if (b == '\n') return (checkSegment(start, pos + i + 1));
+        if (b != '\r') continue;
+        // Keep "\r\n" in one segment
+        if (i + 1 < read) return (checkSegment(start, buf.get(i + 1) == '\n' ? pos + i + 2 : pos + i + 1));
+        ByteBuffer next = ByteBuffer.allocate(1);
+        if (channel.read(next, pos + i + 1) == 1 && next.get(0) == '\n') return (checkSegment(start, pos + i + 2));
+        return (checkSegment(start, pos + i + 1));
+      }
+      pos += read;
+      checkSegment(start, pos);
+    }
+    return (checkSegment(start, size));
+  }
+
+  /** Returns end, throws an IOException if the segment from start to end does not fit into a buffer */
+  protected static long checkSegment(long start, long end) throws IOException {
+    if (end - start > Integer.MAX_VALUE) throw new IOException("MappedFileLines cannot read a line of more than " + Integer.MAX_VALUE + " bytes at position " + start);
+    return (end);
+  }
+
+  /** Maps a segment of the file and splits it into lines, decoding them directly from the mapped buffer */
+  protected static List<String> decode(FileChannel channel, long start, long end, Charset encoding) throws IOException {
+    MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+    int length = map.limit();
+    List<String> result = new ArrayList<String>();
+    int lineStart = 0;
+    for (int i = 0; i < length; i++) {
+      byte b = map.get(i);
+      if (b != '\n' && b != '\r') continue;
+      result.add(decode(map, lineStart, i, encoding));
+      if (b == '\r' && i + 1 < length && map.get(i + 1) == '\n') i++;
+      lineStart = i + 1;
+    }
+    if (lineStart < length) result.add(decode(map, lineStart, length, encoding));
+    return (result);
+  }
+
+  /** Decodes the bytes from start to end of the buffer */
+  protected static String decode(ByteBuffer buffer, int start, int end, Charset encoding) {
+    if (start == end) return ("");
+    ByteBuffer line = buffer.duplicate();
+    line.limit(end);
+    line.position(start);
+    return (encoding.decode(line).toString());
+  }
+
+  /** Submits segments until enough segments are in flight */
+  protected void fill() throws IOException {
+    while (inFlight < maxInFlight && position < size) {
+      final long start = position;
+      final long end = segmentEnd(channel, start, size, segmentSize);
+      position = end;
+      Callable<Segment> task = new Callable<Segment>() {
+
+        @Override
+        public Segment call() throws Exception {
+          return (new Segment(decode(channel, start, end, encoding), end - start));
+        }
+      };
+      if (completion != null) completion.submit(task);
+      else pending.add(executor.submit(task));
+      inFlight++;
+    }
+  }
+
+  /** Returns the next decoded segment or NULL */
+  protected Segment nextSegment() throws IOException, InterruptedException, ExecutionException {
+    fill();
+    if (inFlight == 0) return (null);
+    Future<Segment> future = completion != null ? completion.take() : pending.removeFirst();
+    Segment segment = future.get();
+    inFlight--;
+    fill();
+    return (segment);
+  }
+
+  /** Returns the next line, closes the file and stops the threads if a segment fails */
+  @Override
+  protected String internalNext() throws Exception {
+    boolean failed = true;
+    try {
+      while (linePos >= lines.size()) {
+        if (channel == null) {
+          failed = false;
+          return (null);
+        }
+        Segment segment = nextSegment();
+        if (segment == null) {
+          failed = false;
+          return (null);
+        }
+        lines = segment.lines;
+        linePos = 0;
+        if (announceBytes != -1) Announce.progressAt(announceBytes += segment.bytes);
+      }
+      failed = false;
+      return (lines.get(linePos++));
+    } finally {
+      if (failed) close();
+    }
+  }
+
+  /** Unsupported, throws an UnsupportedOperationException */
+  @Override
+  public void remove() throws UnsupportedOperationException {
+    throw new UnsupportedOperationException("MappedFileLines does not support \"remove\"");
+  }
+
+  /** Returns a simple identifier */
+  @Override
+  public String toString() {
+    return ("MappedFileLines of " + file);
+  }
+
+  /** Returns this */
+  @Override
+  public Iterator<String> iterator() {
+    return this;
+  }
+
+  /** Closes the file and stops the threads */
+  @Override
+  public void close() {
+    if (executor != null) executor.shutdownNow();
+    try {
+      if (file != null) file.close();
+    } catch (IOException e) {
+    }
+    channel = null;
+    pending.clear();
+    if (announceBytes != -1) Announce.progressDone();
+    announceBytes = -1;
+  }
+
+  /** Closes the file */
+  @Override
+  public void finalize() {
+    close();
+  }
+
+  /**
+   * Hands the lines of a file to the handler on the given number of threads.
+   * Each thread handles whole segments, so that the lines of one segment are
+   * handled in order. Shows a progress bar if announceMsg is not NULL.
+   */
+  public static void process(File f, String encoding, String announceMsg, int threads, final LineHandler handler) throws IOException, InterruptedException {
+    final Charset charset = Charset.forName(encoding);
+    RandomAccessFile file = new RandomAccessFile(f, "r");
+    final FileChannel channel = file.getChannel();
+    long size = channel.size();
+    if (announceMsg != null) Announce.progressStart(announceMsg, size);
+    ExecutorService executor = Executors.newFixedThreadPool(threads, daemonThreads(f));
+    CompletionService<Long> completion = new ExecutorCompletionService<Long>(executor);
+    try {
+      long position = 0;
+      long done = 0;
+      int inFlight = 0;
+      while (position < size || inFlight > 0) {
+        while (inFlight < threads * SEGMENTSPERTHREAD && position < size) {
+          final long start = position;
+          final long end = segmentEnd(channel, start, size, SEGMENTSIZE);
+          position = end;
+          completion.submit(new Callable<Long>() {
+
+            @Override
+            public Long call() throws Exception {
+              for (String line : decode(channel, start, end, charset)) {
+                handler.handle(line);
+              }
+              return (end - start);
+            }
+          });
+          inFlight++;
+        }
+        try {
+          done += completion.take().get();
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+          throw new RuntimeException(e.getCause());
+        }
+        inFlight--;
+        if (announceMsg != null) Announce.progressAt(done);
+      }
+    } finally {
+      executor.shutdownNow();
+      executor.awaitTermination(1, TimeUnit.MINUTES);
+      file.close();
+      if (announceMsg != null) Announce.progressDone();
+    }
+  }
+
+  /** Hands the lines of a UTF-8 file to the handler on all available processors */
+  public static void process(File f, String announceMsg, LineHandler handler) throws IOException, InterruptedException {
+    process(f, "UTF-8", announceMsg, Runtime.getRuntime().availableProcessors(), handler);
+  }
+
+  /** Test method: compares the lines of FileLines and MappedFileLines */
+  public static void main(String[] args) throws Exception {
+    File f = new File(args[0]);
+    long time = System.currentTimeMillis();
+    long fileLines = 0;
+    for (@SuppressWarnings("unused")
+    String l : new FileLines(f))
+      fileLines++;
+    D.p("FileLines:", fileLines, "lines in", System.currentTimeMillis() - time, "ms");
+    time = System.currentTimeMillis();
+    long mappedLines = 0;
+    for (@SuppressWarnings("unused")
+    String l : new MappedFileLines(f))
+      mappedLines++;
+    D.p("MappedFileLines:", mappedLines, "lines in", System.currentTimeMillis() - time, "ms");
+  }
+}
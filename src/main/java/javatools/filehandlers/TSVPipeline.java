@@ -0,0 +1,353 @@
+package javatools.filehandlers;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import javatools.administrative.Announce;
+import javatools.administrative.D;
+import javatools.datatypes.PeekIterator;
+
+/**
+Copyright 2016 Fabian M. Suchanek
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+This class reads a TSV file in parallel, and returns the rows in batches.
+One reader thread splits the file into blocks that end at a line break,
+a pool of parser threads splits the blocks into rows of columns, and a bounded
+queue hands the batches to the consumer in file order. If the consumer
+is slow, the reader waits.<BR>
+Unlike TSVFile, empty lines are skipped, and trailing empty columns are kept.
+<BR>
+If a checkpoint file is given, the pipeline stores there the byte offset up
+to which the consumer has processed the file. A batch counts as processed when
+the consumer asks for the next one (or calls checkpoint()). If the checkpoint
+file exists when the pipeline is created, the pipeline starts at the offset stored there.
+Example:
+<PRE>
+for(TSVPipeline.Batch batch : new TSVPipeline(new File("blah.tsv"), new File("blah.checkpoint"), "Loading")) {
+  for(String[] row : batch.rows) {
+    System.out.println(row[0]);
+  }
+}
+</PRE>
+*/
+public class TSVPipeline extends PeekIterator<TSVPipeline.Batch> implements Iterable<TSVPipeline.Batch>, Iterator<TSVPipeline.Batch>, Closeable {
+
+  /** Default size of a block in bytes */
+  public static final int BLOCKSIZE = 4 * 1024 * 1024;
+
+  /** Default number of parsed blocks that can wait for the consumer */
+  public static final int QUEUESIZE = 16;
+
+  /** A batch of rows, which covers the bytes start to end of the file */
+  public static class Batch {
+
+    /** The rows */
+    public final List<String[]> rows;
+
+    /** Byte offset of the first row */
+    public final long start;
+
+    /** Byte offset after the last row */
+    public final long end;
+
+    public Batch(List<String[]> rows, long start, long end) {
+      this.rows = rows;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public String toString() {
+      return "Batch[" + start + "-" + end + ", " + rows.size() + " rows]";
+    }
+  }
+
+  /** Marks the end of the file in the queue */
+  protected static final Batch END = new Batch(new ArrayList<String[]>(0), -1, -1);
+
+  /** The file */
+  protected RandomAccessFile file;
+
+  /** Channel of the file */
+  protected FileChannel channel;
+
+  /** Size of the file */
+  protected long size;
+
+  /** Encoding of the file */
+  protected Charset encoding;
+
+  /** Size of a block */
+  protected int blockSize = BLOCKSIZE;
+
+  /** Checkpoint file or NULL */
+  protected File checkpointFile;
+
+  /** Offset after the last batch that was returned to the consumer, or -1 */
+  protected long returnedOffset = -1;
+
+  /** TRUE if a progress bar is shown */
+  protected boolean announce = false;
+
+  /** Parses the blocks */
+  protected ExecutorService parsers;
+
+  /** Batches in file order */
+  protected BlockingQueue<Future<Batch>> queue;
+
+  /** Reads the blocks */
+  protected Thread reader;
+
+  /** Constructs a pipeline with a checkpoint file (or NULL) and a progress message (or NULL) */
+  public TSVPipeline(File f, File checkpoint, String announceMsg) throws IOException {
+    this(f, "UTF-8", checkpoint, announceMsg, Runtime.getRuntime().availableProcessors(), QUEUESIZE);
+  }
+
+  /** Constructs a pipeline without checkpoints */
+  public TSVPipeline(File f) throws IOException {
+    this(f, null, null);
+  }
+
+  /** Constructs a pipeline (main constructor) */
+  public TSVPipeline(File f, String encoding, File checkpoint, String announceMsg, int threads, int queueSize) throws IOException {
+    this(f, encoding, checkpoint, announceMsg, threads, queueSize, BLOCKSIZE);
+  }
+
+  /** Constructs a pipeline with a given block size (for testing) */
+  protected TSVPipeline(File f, String encoding, File checkpoint, String announceMsg, int threads, int queueSize, int blockSize) throws IOException {
+    if (threads < 1) throw new IllegalArgumentException("TSVPipeline needs at least one thread");
+    this.encoding = Charset.forName(encoding);
+    this.blockSize = blockSize;
+    this.checkpointFile = checkpoint;
+    file = new RandomAccessFile(f, "r");
+    channel = file.getChannel();
+    size = channel.size();
+    long start = readCheckpoint(checkpoint);
+    if (start > size) throw new IOException("Checkpoint " + checkpoint + " is beyond the end of " + f);
+    if (announceMsg != null) {
+      Announce.progressStart(announceMsg, size);
+      Announce.progressAt(start);
+      announce = true;
+    }
+    parsers = Executors.newFixedThreadPool(threads);
+    queue = new ArrayBlockingQueue<Future<Batch>>(queueSize);
+    reader = new Thread(new BlockReader(start), "TSVPipeline reader of " + f);
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  /** Returns the offset stored in the checkpoint file, or 0. A temporary file left by a crash in writeCheckpoint is ignored, because it may be incomplete. */
+  public static long readCheckpoint(File checkpoint) throws IOException {
+    if (checkpoint == null || !checkpoint.exists()) return (0);
+    FileLines lines = new FileLines(checkpoint);
+    try {
+      for (String line : lines) {
+        line = line.trim();
+        if (line.length() > 0) return (Long.parseLong(line));
+      }
+      return (0);
+    } finally {
+      lines.close();
+    }
+  }
+
+  /** Writes the offset to the checkpoint file (via a temporary file that is renamed atomically, so that a crash leaves a valid checkpoint) */
+  public static void writeCheckpoint(File checkpoint, long offset) throws IOException {
+    File tmp = new File(checkpoint.getPath() + ".tmp");
+    Writer w = new UTF8Writer(tmp);
+    try {
+      w.write(Long.toString(offset));
+      w.write("\n");
+    } finally {
+      w.close();
+    }
+    Files.move(tmp.toPath(), checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /** Records that all batches returned so far have been processed */
+  public void checkpoint() throws IOException {
+    if (checkpointFile == null || returnedOffset == -1) return;
+    writeCheckpoint(checkpointFile, returnedOffset);
+  }
+
+  /** Returns the offset after the last batch returned to the consumer (or -1)*/
+  public long offset() {
+    return (returnedOffset);
+  }
+
+  /** Splits a block into rows of columns */
+  protected static List<String[]> parse(byte[] bytes, int length, Charset encoding) {
+    List<String[]> rows = new ArrayList<String[]>();
+    List<String> columns = new ArrayList<String>();
+    int lineStart = 0;
+    while (lineStart < length) {
+      int lineEnd = lineStart;
+      while (lineEnd < length && bytes[lineEnd] != '\n')
+        lineEnd++;
+      int next = lineEnd + 1;
+      if (lineEnd > lineStart && bytes[lineEnd - 1] == '\r') lineEnd--;
+      if (lineEnd > lineStart) {
+        columns.clear();
+        int columnStart = lineStart;
+        for (int i = lineStart; i <= lineEnd; i++) {
+          if (i == lineEnd || bytes[i] == '\t') {
+            columns.add(new String(bytes, columnStart, i - columnStart, encoding));
+            columnStart = i + 1;
+          }
+        }
+        rows.add(columns.toArray(new String[columns.size()]));
+      }
+      lineStart = next;
+    }
+    return (rows);
+  }
+
+  /** Reads the blocks and hands them to the parsers */
+  protected class BlockReader implements Runnable {
+
+    /** Start of the next block */
+    protected long position;
+
+    /** The queue of the pipeline (which close() sets to NULL) */
+    protected final BlockingQueue<Future<Batch>> out;
+
+    public BlockReader(long start) {
+      position = start;
+      out = queue;
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (position < size) {
+          final long start = position;
+          final long end = MappedFileLines.segmentEnd(channel, start, size, blockSize);
+          final byte[] bytes = new byte[(int) (end - start)];
+          ByteBuffer buf = ByteBuffer.wrap(bytes);
+          while (buf.hasRemaining()) {
+            if (channel.read(buf, start + buf.position()) < 0) throw new IOException("Unexpected end of file");
+          }
+          position = end;
+          out.put(parsers.submit(new Callable<Batch>() {
+
+            @Override
+            public Batch call() {
+              return (new Batch(parse(bytes, bytes.length, encoding), start, end));
+            }
+          }));
+        }
+        out.put(done(END, null));
+      } catch (InterruptedException e) {
+        // Closed by the consumer
+      } catch (final Exception e) {
+        // If closed by the consumer, the thread is interrupted, and put() returns at once
+        try {
+          out.put(done(null, e));
+        } catch (InterruptedException e1) {
+        }
+      }
+    }
+  }
+
+  /** Returns a finished future with the result or the exception */
+  protected static Future<Batch> done(final Batch result, final Exception e) {
+    FutureTask<Batch> task = new FutureTask<Batch>(new Callable<Batch>() {
+
+      @Override
+      public Batch call() throws Exception {
+        if (e != null) throw e;
+        return (result);
+      }
+    });
+    task.run();
+    return (task);
+  }
+
+  @Override
+  protected Batch internalNext() throws Exception {
+    if (queue == null) return (null);
+    checkpoint();
+    Batch batch;
+    try {
+      batch = queue.take().get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+      throw e;
+    }
+    if (batch == END) return (null);
+    returnedOffset = batch.end;
+    if (announce) Announce.progressAt(batch.end);
+    return (batch);
+  }
+
+  /** Returns this */
+  @Override
+  public Iterator<Batch> iterator() {
+    return this;
+  }
+
+  /** Unsupported, throws an UnsupportedOperationException */
+  @Override
+  public void remove() throws UnsupportedOperationException {
+    throw new UnsupportedOperationException("TSVPipeline does not support \"remove\"");
+  }
+
+  @Override
+  public String toString() {
+    return ("TSVPipeline of " + file);
+  }
+
+  /** Stops the threads and closes the file. Does not write a checkpoint. */
+  @Override
+  public void close() {
+    if (reader != null) reader.interrupt();
+    if (parsers != null) parsers.shutdownNow();
+    try {
+      if (file != null) file.close();
+    } catch (IOException e) {
+    }
+    queue = null;
+    if (announce) Announce.progressDone();
+    announce = false;
+  }
+
+  /** Counts the rows of a TSV file */
+  public static void main(String[] args) throws Exception {
+    long rows = 0;
+    for (Batch b : new TSVPipeline(new File(args[0]), null, "Counting rows")) {
+      rows += b.rows.size();
+    }
+    D.p(rows, "rows");
+  }
+}
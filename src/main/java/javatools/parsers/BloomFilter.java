@@ -16,12 +16,23 @@ package javatools.parsers;
 */
 
 
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
 * Implementation of a Bloom-filter, as described here:
@@ -43,6 +54,20 @@ private int bitSetSize;
 private int expectedNumberOfFilterElements; // expected (maximum) number of elements to be added
 private int numberOfAddedElements; // number of elements actually added to the Bloom filter
 private int k;
+private HashMethod hashMethod; // null in filters serialized before there was a choice, which used MD5
+
+/**
+ * The ways of computing the k bit positions of an element.
+ */
+public enum HashMethod {
+	/** k MD5 digests over the string of the element with the numbers 0..k-1 appended (the original method) */
+	MD5,
+	/** One 64 bit Murmur3-style hash over the chars of the element (see murmurStyleHash()), split into
+	 * two halves h1 and h2 for the positions h1+i*h2 (Kirsch-Mitzenmacher double hashing). h2 is made
+	 * odd, so that the k positions are not all the same. Does not lock and does not allocate for
+	 * CharSequence elements. */
+	MURMUR3
+}
 
 static String hashName = "MD5"; // MD5 gives good enough accuracy in most circumstances. Change to SHA1 if it's needed
 static final MessageDigest digestFunction;
@@ -63,6 +88,18 @@ static { // The digest method is reused between instances to provide higher entr
  * @param expectedNumberOfFilterElements defines the maximum number of elements the filter is expected to contain.
  */
 public BloomFilter(int bitSetSize, int expectedNumberOfFilterElements) {
+	this(bitSetSize, expectedNumberOfFilterElements, HashMethod.MD5);
+}
+
+/**
+ * Constructs an empty Bloom filter with a given hash method.
+ *
+ * @param bitSetSize defines how many bits should be used for the filter.
+ * @param expectedNumberOfFilterElements defines the maximum number of elements the filter is expected to contain.
+ * @param hashMethod defines how the bit positions of an element are computed.
+ */
+public BloomFilter(int bitSetSize, int expectedNumberOfFilterElements, HashMethod hashMethod) {
+	this.hashMethod = hashMethod;
 	this.expectedNumberOfFilterElements = expectedNumberOfFilterElements;
 	this.k = (int) Math.round((bitSetSize / expectedNumberOfFilterElements) *
 			Math.log(2.0));
@@ -115,6 +152,73 @@ public static long createHash(byte[] data) {
 	return h;
 }
 
+/**
+ * Generates a 64 bit hash in the style of MurmurHash3 of the chars of a CharSequence,
+ * without converting them to bytes. It uses the block mixing and the finalizer of
+ * MurmurHash3_x64_128, but with a single 64 bit lane over blocks of 4 chars, so that
+ * it does not give the same values as MurmurHash3 implementations over bytes.
+ *
+ * @param val specifies the input data.
+ * @return hash as long.
+ */
+public static long murmurStyleHash(CharSequence val) {
+	final long c1 = 0x87c37b91114253d5L;
+	final long c2 = 0x4cf5ad432745937fL;
+	long h = 0;
+	int len = val.length();
+	int i = 0;
+	for (; i + 4 <= len; i += 4) {
+		long block = val.charAt(i) | (long) val.charAt(i + 1) << 16 | (long) val.charAt(i + 2) << 32 | (long) val.charAt(i + 3) << 48;
+		block *= c1;
+		block = Long.rotateLeft(block, 31);
+		block *= c2;
+		h ^= block;
+		h = Long.rotateLeft(h, 27) * 5 + 0x52dce729;
+	}
+	if (i < len) {
+		long block = 0;
+		for (int shift = 0; i < len; i++, shift += 16)
+			block |= (long) val.charAt(i) << shift;
+		block *= c1;
+		block = Long.rotateLeft(block, 31);
+		block *= c2;
+		h ^= block;
+	}
+	h ^= len;
+	// Finalization mix of MurmurHash3
+	h ^= h >>> 33;
+	h *= 0xff51afd7ed558ccdL;
+	h ^= h >>> 33;
+	h *= 0xc4ceb9fe1a85ec53L;
+	h ^= h >>> 33;
+	return h;
+}
+
+/**
+ * Returns the x-th bit position of the MURMUR3 method for a hash by double hashing.
+ * The second half of the hash is made odd, so that the positions do not collapse into one.
+ *
+ * @param hash the hash of the element (see murmurStyleHash()).
+ * @param x the number of the hash function.
+ * @param bitSetSize the number of bits.
+ * @return the bit position.
+ */
+static int position(long hash, int x, int bitSetSize) {
+	int h1 = (int) hash;
+	int h2 = (int) (hash >>> 32) | 1;
+	int combined = h1 + x * h2;
+	return (combined < 0 ? ~combined : combined) % bitSetSize;
+}
+
+/**
+ * Returns the method that computes the bit positions of an element.
+ *
+ * @return the hash method.
+ */
+public HashMethod getHashMethod() {
+	return hashMethod == null ? HashMethod.MD5 : hashMethod;
+}
+
 /**
  * Compares the contents of two instances to see if they are equal.
  * 
@@ -141,6 +245,8 @@ public boolean equals(Object obj) {
 	}
 	if (this.bitSetSize != other.bitSetSize)
 		return false;
+	if (this.getHashMethod() != other.getHashMethod())
+		return false;
 	return true;
 }
 
@@ -227,6 +333,13 @@ public double getFalsePositiveProbability() {
      * @throws UnsupportedEncodingException if UTF-8 is unsupported.
      */
     public void add(E element) throws UnsupportedEncodingException {
+       if (getHashMethod() == HashMethod.MURMUR3) {
+           long hash = murmurStyleHash(element instanceof CharSequence ? (CharSequence) element : element.toString());
+           for (int x = 0; x < k; x++)
+               bitset.set(position(hash, x, bitSetSize), true);
+           numberOfAddedElements ++;
+           return;
+       }
        long hash;
        String valString = element.toString();
        for (int x = 0; x < k; x++) {
@@ -257,6 +370,13 @@ public double getFalsePositiveProbability() {
      * @throws UnsupportedEncodingException if UTF-8 is unsupported.
      */
     public boolean contains(E element) throws UnsupportedEncodingException {
+       if (getHashMethod() == HashMethod.MURMUR3) {
+           long hash = murmurStyleHash(element instanceof CharSequence ? (CharSequence) element : element.toString());
+           for (int x = 0; x < k; x++)
+               if (!bitset.get(position(hash, x, bitSetSize)))
+                   return false;
+           return true;
+       }
        long hash;
        String valString = element.toString();
        for (int x = 0; x < k; x++) {
@@ -320,5 +440,94 @@ public double getFalsePositiveProbability() {
     public int count() {
         return this.numberOfAddedElements;
     }
-}
 
+    /**
+     * Writes the Bloom filter to a file, which can be mapped into memory by
+     * MappedBloomFilter.open(). See MappedBloomFilter for the format.
+     *
+     * @param f the file to write.
+     * @throws IOException if the file cannot be written.
+     */
+    public void save(File f) throws IOException {
+        RandomAccessFile out = new RandomAccessFile(f, "rw");
+        try {
+            out.setLength(0);
+            FileChannel channel = out.getChannel();
+            ByteBuffer b = MappedBloomFilter.header(getHashMethod().ordinal(), k, bitSetSize, numberOfAddedElements, expectedNumberOfFilterElements);
+            long numWords = MappedBloomFilter.numWords(bitSetSize);
+            long w = 0;
+            long word = 0;
+            for (int bit = bitset.nextSetBit(0); bit >= 0 && bit < bitSetSize; bit = bitset.nextSetBit(bit + 1)) {
+                for (; w < bit >>> 6; w++) {
+                    b = MappedBloomFilter.flushIfFull(b, channel).putLong(word);
+                    word = 0;
+                }
+                word |= 1L << bit;
+            }
+            for (; w < numWords; w++) {
+                b = MappedBloomFilter.flushIfFull(b, channel).putLong(word);
+                word = 0;
+            }
+            MappedBloomFilter.flush(b, channel);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Measures add() and contains() with both hash methods, and contains() from
+     * several threads at the same time.
+     *
+     * @param numElements number of elements to add.
+     * @param threads number of threads for the concurrent lookups.
+     * @throws Exception if a lookup thread fails.
+     */
+    public static void benchmark(int numElements, int threads) throws Exception {
+        final String[] keys = new String[numElements];
+        for (int i = 0; i < numElements; i++)
+            keys[i] = "http://example.org/resource/" + Integer.toString(i * 7919, 36);
+        for (HashMethod method : HashMethod.values()) {
+            final BloomFilter<String> filter = new BloomFilter<String>(numElements * 10, numElements, method);
+            long time = System.nanoTime();
+            for (String key : keys)
+                filter.add(key);
+            long addTime = System.nanoTime() - time;
+            time = System.nanoTime();
+            int found = 0;
+            for (int i = 0; i < numElements; i++)
+                if (filter.contains(keys[i] + "x"))
+                    found++;
+            long containsTime = System.nanoTime() - time;
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            List<Future<Object>> results = new ArrayList<Future<Object>>();
+            time = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                results.add(executor.submit(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        for (String key : keys)
+                            filter.contains(key);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> f : results)
+                f.get();
+            long concurrentTime = System.nanoTime() - time;
+            executor.shutdown();
+            System.out.println(method + ": add " + addTime / numElements + " ns, contains " + containsTime / numElements + " ns, "
+                    + threads + " threads " + concurrentTime / numElements / threads + " ns per lookup, false positives "
+                    + (double) found / numElements + " (expected " + filter.expectedFalsePositiveProbability() + ")");
+        }
+    }
+
+    /**
+     * Runs the benchmark 3 times.
+     *
+     * @param args ignored.
+     * @throws Exception if the benchmark fails.
+     */
+    public static void main(String[] args) throws Exception {
+        for (int run = 0; run < 3; run++)
+            benchmark(1000000, Runtime.getRuntime().availableProcessors());
+    }
+}
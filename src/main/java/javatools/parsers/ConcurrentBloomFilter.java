@@ -0,0 +1,325 @@
+package javatools.parsers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javatools.administrative.D;
+
+/**
+ * Copyright 2016 Fabian M. Suchanek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * <p>
+ * This class is a Bloom filter that several threads can fill and query at the
+ * same time without locks. The bits are held in an AtomicLongArray and are set
+ * by compare-and-set, so that the filter can have more than 2^31 bits. The bit
+ * positions are computed by double hashing from a Murmur3-style hash of the element
+ * (see BloomFilter.murmurStyleHash()).<BR>
+ * Example:
+ * <PRE>
+ *   ConcurrentBloomFilter&lt;String&gt; seen=ConcurrentBloomFilter.forElements(100000000, 0.01);
+ *   // in each thread
+ *   if(seen.add(url)) crawl(url);
+ * </PRE>
+ * See also ScalableBloomFilter and CountingBloomFilter.
+ *
+ * @param <E> type of the elements. Elements that are not CharSequences are hashed by their toString().
+ */
+public class ConcurrentBloomFilter<E> implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  /** Holds the bits */
+  protected final AtomicLongArray bits;
+
+  /** Number of bits */
+  protected final long numBits;
+
+  /** Number of hash functions */
+  protected final int k;
+
+  /** Number of added elements (that set at least one new bit) */
+  protected final AtomicLong count = new AtomicLong();
+
+  /** Constructs an empty filter with the given number of bits and hash functions */
+  public ConcurrentBloomFilter(long numBits, int k) {
+    if (numBits <= 0 || numBits > 64L * Integer.MAX_VALUE) throw new IllegalArgumentException("Number of bits out of range: " + numBits);
+    if (k <= 0) throw new IllegalArgumentException("Number of hash functions must be positive: " + k);
+    this.numBits = numBits;
+    this.k = k;
+    bits = new AtomicLongArray((int) ((numBits + 63) >>> 6));
+  }
+
+  /** Constructs a copy of a filter */
+  public ConcurrentBloomFilter(ConcurrentBloomFilter<E> other) {
+    this(other.numBits, other.k);
+    for (int i = 0; i < bits.length(); i++)
+      bits.set(i, other.bits.get(i));
+    count.set(other.count());
+  }
+
+  /** Constructs an empty filter for an expected number of elements and a false positive probability */
+  public static <E> ConcurrentBloomFilter<E> forElements(long expectedElements, double falsePositiveProbability) {
+    long m = optimalNumBits(expectedElements, falsePositiveProbability);
+    return (new ConcurrentBloomFilter<E>(m, optimalK(expectedElements, m)));
+  }
+
+  /** Returns the number of bits that n elements need for a false positive probability p */
+  public static long optimalNumBits(long n, double p) {
+    return (Math.max(64, (long) Math.ceil(-n * Math.log(p) / (Math.log(2) * Math.log(2)))));
+  }
+
+  /** Returns the number of hash functions that minimizes the false positive probability of n elements in m bits */
+  public static int optimalK(long n, long m) {
+    return (Math.max(1, (int) Math.round((double) m / Math.max(1, n) * Math.log(2))));
+  }
+
+  /** Returns the first hash of an element */
+  protected static long hash(Object element) {
+    return (BloomFilter.murmurStyleHash(element instanceof CharSequence ? (CharSequence) element : element.toString()));
+  }
+
+  /** Returns the second hash of an element from its first one (odd, so that it does not repeat positions for powers of 2) */
+  protected static long hash2(long h1) {
+    long h = h1 ^ 0x9E3779B97F4A7C15L;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    return (h | 1);
+  }
+
+  /** Returns the i-th position of an element with hashes h1 and h2 in a range of the given size */
+  protected static long position(long h1, long h2, int i, long range) {
+    return (((h1 + i * h2) & Long.MAX_VALUE) % range);
+  }
+
+  /** Sets a bit, returns TRUE if it was not set before */
+  protected boolean setBit(long bit) {
+    int word = (int) (bit >>> 6);
+    long mask = 1L << bit;
+    while (true) {
+      long old = bits.get(word);
+      if ((old & mask) != 0) return (false);
+      if (bits.compareAndSet(word, old, old | mask)) return (true);
+    }
+  }
+
+  /** Returns a bit */
+  public boolean getBit(long bit) {
+    return ((bits.get((int) (bit >>> 6)) & (1L << bit)) != 0);
+  }
+
+  /** Adds an element, returns TRUE if the element was definitely not in the filter before */
+  public boolean add(E element) {
+    long h1 = hash(element);
+    long h2 = hash2(h1);
+    boolean changed = false;
+    for (int i = 0; i < k; i++) {
+      if (setBit(position(h1, h2, i, numBits))) changed = true;
+    }
+    if (changed) count.incrementAndGet();
+    return (changed);
+  }
+
+  /** TRUE if the element could have been added */
+  public boolean contains(E element) {
+    long h1 = hash(element);
+    long h2 = hash2(h1);
+    for (int i = 0; i < k; i++) {
+      if (!getBit(position(h1, h2, i, numBits))) return (false);
+    }
+    return (true);
+  }
+
+  /** Adds all elements, returns the number of elements that were definitely not in the filter before */
+  public int addAll(Collection<? extends E> elements) {
+    int added = 0;
+    for (E e : elements) {
+      if (add(e)) added++;
+    }
+    return (added);
+  }
+
+  /** Adds all elements, returns the number of elements that were definitely not in the filter before */
+  public int addAll(E[] elements) {
+    return (addAll(elements, 0, elements.length));
+  }
+
+  /** Adds the elements from start to end, returns the number of elements that were definitely not in the filter before */
+  public int addAll(E[] elements, int start, int end) {
+    int added = 0;
+    for (int i = start; i < end; i++) {
+      if (add(elements[i])) added++;
+    }
+    return (added);
+  }
+
+  /** Adds all elements with the given number of threads, returns the number of elements that were definitely not in the filter before */
+  public int addAll(final E[] elements, int threads) throws InterruptedException {
+    if (threads <= 0) throw new IllegalArgumentException("Number of threads must be positive: " + threads);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      int chunk = (elements.length + threads - 1) / threads;
+      List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+      for (int start = 0; start < elements.length; start += chunk) {
+        final int s = start;
+        final int e = Math.min(start + chunk, elements.length);
+        results.add(executor.submit(new Callable<Integer>() {
+
+          @Override
+          public Integer call() {
+            return (addAll(elements, s, e));
+          }
+        }));
+      }
+      int added = 0;
+      for (Future<Integer> f : results)
+        added += f.get();
+      return (added);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /** Throws an exception if the other filter has a different number of bits or hash functions */
+  protected void checkCompatible(ConcurrentBloomFilter<?> other) {
+    if (numBits != other.numBits || k != other.k)
+      throw new IllegalArgumentException("Filters differ in size or number of hash functions: " + this + " and " + other);
+  }
+
+  /** Adds all elements of the other filter (which must have the same size and number of hash functions). Returns this.
+   * The count becomes the sum of the two counts. */
+  public ConcurrentBloomFilter<E> union(ConcurrentBloomFilter<E> other) {
+    checkCompatible(other);
+    for (int i = 0; i < bits.length(); i++) {
+      long o = other.bits.get(i);
+      while (true) {
+        long old = bits.get(i);
+        if ((old | o) == old || bits.compareAndSet(i, old, old | o)) break;
+      }
+    }
+    count.addAndGet(other.count());
+    return (this);
+  }
+
+  /** Keeps only the bits that are also set in the other filter (which must have the same size and number of hash functions). Returns this.
+   * The count becomes the smaller of the two counts. */
+  public ConcurrentBloomFilter<E> intersect(ConcurrentBloomFilter<E> other) {
+    checkCompatible(other);
+    for (int i = 0; i < bits.length(); i++) {
+      long o = other.bits.get(i);
+      while (true) {
+        long old = bits.get(i);
+        if ((old & o) == old || bits.compareAndSet(i, old, old & o)) break;
+      }
+    }
+    count.set(Math.min(count(), other.count()));
+    return (this);
+  }
+
+  /** Removes all elements */
+  public void clear() {
+    for (int i = 0; i < bits.length(); i++)
+      bits.set(i, 0);
+    count.set(0);
+  }
+
+  /** Returns the number of added elements (that set at least one new bit, so this may be lower than the number of distinct elements) */
+  public long count() {
+    return (count.get());
+  }
+
+  /** Returns the number of bits */
+  public long numBits() {
+    return (numBits);
+  }
+
+  /** Returns the number of hash functions */
+  public int getK() {
+    return (k);
+  }
+
+  /** Returns the number of bits that are set */
+  public long cardinality() {
+    long result = 0;
+    for (int i = 0; i < bits.length(); i++)
+      result += Long.bitCount(bits.get(i));
+    return (result);
+  }
+
+  /** Returns the probability of a false positive after adding the given number of elements */
+  public double getFalsePositiveProbability(double numberOfElements) {
+    return (Math.pow(1 - Math.exp(-k * numberOfElements / numBits), k));
+  }
+
+  /** Returns the current probability of a false positive */
+  public double getFalsePositiveProbability() {
+    return (getFalsePositiveProbability(count()));
+  }
+
+  /** Writes the filter to a file, which can be mapped into memory by MappedBloomFilter.open().
+   * Adds that happen during the write may or may not be in the file. */
+  public void save(File f) throws IOException {
+    RandomAccessFile out = new RandomAccessFile(f, "rw");
+    try {
+      out.setLength(0);
+      FileChannel channel = out.getChannel();
+      ByteBuffer b = MappedBloomFilter.header(MappedBloomFilter.MURMUR3_LONG, k, numBits, count(), 0);
+      for (int i = 0; i < bits.length(); i++)
+        b = MappedBloomFilter.flushIfFull(b, channel).putLong(bits.get(i));
+      MappedBloomFilter.flush(b, channel);
+    } finally {
+      out.close();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "ConcurrentBloomFilter with " + numBits + " bits, " + k + " hash functions and " + count() + " elements";
+  }
+
+  /** Test method */
+  public static void main(String[] args) throws Exception {
+    int n = 1000000;
+    String[] keys = new String[n];
+    for (int i = 0; i < n; i++)
+      keys[i] = "http://example.org/resource/" + Integer.toString(i * 7919, 36);
+    for (int threads = 1; threads <= 2 * Runtime.getRuntime().availableProcessors(); threads *= 2) {
+      ConcurrentBloomFilter<String> filter = ConcurrentBloomFilter.forElements(n, 0.01);
+      long time = System.nanoTime();
+      filter.addAll(keys, threads);
+      time = System.nanoTime() - time;
+      int falsePositives = 0;
+      for (String key : keys)
+        if (filter.contains(key + "x")) falsePositives++;
+      D.p(threads, "threads:", time / n, "ns per add,", filter, ", false positives", (double) falsePositives / n, "expected",
+          filter.getFalsePositiveProbability());
+    }
+  }
+}
@@ -0,0 +1,283 @@
+package javatools.parsers;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javatools.administrative.D;
+
+/**
+ * Copyright 2016 Fabian M. Suchanek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * <p>
+ * This class is a Bloom filter that supports removal. Instead of one bit, each
+ * position has a 4-bit counter (16 counters per long), which add() increases and
+ * remove() decreases. A counter that reaches 15 stays at 15, so that it can never
+ * produce a false negative. Like the ConcurrentBloomFilter, the counters are
+ * updated by compare-and-set, so that several threads can use the filter at the
+ * same time.<BR>
+ * Example:
+ * <PRE>
+ *   CountingBloomFilter&lt;String&gt; f=CountingBloomFilter.forElements(1000000, 0.01);
+ *   f.add("Elvis");
+ *   f.contains("Elvis");
+ *   --&gt; true
+ *   f.remove("Elvis");
+ *   f.contains("Elvis");
+ *   --&gt; false
+ * </PRE>
+ * Only elements that were added should be removed, otherwise the filter can produce false negatives.
+ *
+ * @param <E> type of the elements. Elements that are not CharSequences are hashed by their toString().
+ */
+public class CountingBloomFilter<E> implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  /** Maximal value of a counter */
+  public static final int MAXCOUNT = 15;
+
+  /** Holds the counters */
+  protected final AtomicLongArray counters;
+
+  /** Number of counters */
+  protected final long numCounters;
+
+  /** Number of hash functions */
+  protected final int k;
+
+  /** Number of added minus number of removed elements */
+  protected final AtomicLong count = new AtomicLong();
+
+  /** Constructs an empty filter with the given number of counters and hash functions */
+  public CountingBloomFilter(long numCounters, int k) {
+    if (numCounters <= 0 || numCounters > 16L * Integer.MAX_VALUE) throw new IllegalArgumentException("Number of counters out of range: " + numCounters);
+    if (k <= 0) throw new IllegalArgumentException("Number of hash functions must be positive: " + k);
+    this.numCounters = numCounters;
+    this.k = k;
+    counters = new AtomicLongArray((int) ((numCounters + 15) >>> 4));
+  }
+
+  /** Constructs an empty filter for an expected number of elements and a false positive probability */
+  public static <E> CountingBloomFilter<E> forElements(long expectedElements, double falsePositiveProbability) {
+    long m = ConcurrentBloomFilter.optimalNumBits(expectedElements, falsePositiveProbability);
+    return (new CountingBloomFilter<E>(m, ConcurrentBloomFilter.optimalK(expectedElements, m)));
+  }
+
+  /** Returns a counter */
+  public int getCounter(long counter) {
+    return ((int) (counters.get((int) (counter >>> 4)) >>> ((counter & 15) << 2)) & 15);
+  }
+
+  /** Adds delta (1 or -1) to a counter, unless it is 0 (for -1) or 15. Returns FALSE if the counter was 0 for -1. */
+  protected boolean addToCounter(long counter, int delta) {
+    int word = (int) (counter >>> 4);
+    int shift = (int) (counter & 15) << 2;
+    while (true) {
+      long old = counters.get(word);
+      int value = (int) (old >>> shift) & 15;
+      if (value == 0 && delta < 0) return (false);
+      if (value == MAXCOUNT) return (true);
+      long updated = (old & ~(15L << shift)) | ((long) (value + delta) << shift);
+      if (counters.compareAndSet(word, old, updated)) return (true);
+    }
+  }
+
+  /** Adds an element */
+  public void add(E element) {
+    long h1 = ConcurrentBloomFilter.hash(element);
+    long h2 = ConcurrentBloomFilter.hash2(h1);
+    for (int i = 0; i < k; i++)
+      addToCounter(ConcurrentBloomFilter.position(h1, h2, i, numCounters), 1);
+    count.incrementAndGet();
+  }
+
+  /** Removes an element that was added before. Returns FALSE (and does nothing) if the element is not in the filter. 
+   * Each counter is checked and decremented by one compare-and-set. If a counter has dropped to 0 meanwhile 
+   * (because another thread removed the element), the counters that were already decremented are incremented again. */
+  public boolean remove(E element) {
+    if (!contains(element)) return (false);
+    long h1 = ConcurrentBloomFilter.hash(element);
+    long h2 = ConcurrentBloomFilter.hash2(h1);
+    for (int i = 0; i < k; i++) {
+      if (!addToCounter(ConcurrentBloomFilter.position(h1, h2, i, numCounters), -1)) {
+        for (int j = 0; j < i; j++)
+          addToCounter(ConcurrentBloomFilter.position(h1, h2, j, numCounters), 1);
+        return (false);
+      }
+    }
+    count.decrementAndGet();
+    return (true);
+  }
+
+  /** TRUE if the element could have been added */
+  public boolean contains(E element) {
+    long h1 = ConcurrentBloomFilter.hash(element);
+    long h2 = ConcurrentBloomFilter.hash2(h1);
+    for (int i = 0; i < k; i++) {
+      if (getCounter(ConcurrentBloomFilter.position(h1, h2, i, numCounters)) == 0) return (false);
+    }
+    return (true);
+  }
+
+  /** Adds all elements */
+  public void addAll(Collection<? extends E> elements) {
+    for (E e : elements)
+      add(e);
+  }
+
+  /** Adds all elements */
+  public void addAll(E[] elements) {
+    addAll(elements, 0, elements.length);
+  }
+
+  /** Adds the elements from start to end */
+  public void addAll(E[] elements, int start, int end) {
+    for (int i = start; i < end; i++)
+      add(elements[i]);
+  }
+
+  /** Adds all elements with the given number of threads */
+  public void addAll(final E[] elements, int threads) throws InterruptedException {
+    if (threads <= 0) throw new IllegalArgumentException("Number of threads must be positive: " + threads);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      int chunk = (elements.length + threads - 1) / threads;
+      List<Future<Object>> results = new ArrayList<Future<Object>>();
+      for (int start = 0; start < elements.length; start += chunk) {
+        final int s = start;
+        final int e = Math.min(start + chunk, elements.length);
+        results.add(executor.submit(new Callable<Object>() {
+
+          @Override
+          public Object call() {
+            addAll(elements, s, e);
+            return (null);
+          }
+        }));
+      }
+      for (Future<Object> f : results)
+        f.get();
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /** Throws an exception if the other filter has a different number of counters or hash functions */
+  protected void checkCompatible(CountingBloomFilter<?> other) {
+    if (numCounters != other.numCounters || k != other.k)
+      throw new IllegalArgumentException("Filters differ in size or number of hash functions: " + this + " and " + other);
+  }
+
+  /** Combines each word of this filter with the word of the other filter, counter by counter, taking the sum (union) or the minimum */
+  protected void combine(CountingBloomFilter<E> other, boolean sum) {
+    checkCompatible(other);
+    for (int i = 0; i < counters.length(); i++) {
+      long o = other.counters.get(i);
+      while (true) {
+        long old = counters.get(i);
+        long updated = 0;
+        for (int shift = 0; shift < 64; shift += 4) {
+          int a = (int) (old >>> shift) & 15;
+          int b = (int) (o >>> shift) & 15;
+          int c = sum ? (a == MAXCOUNT || b == MAXCOUNT ? MAXCOUNT : Math.min(MAXCOUNT, a + b)) : Math.min(a, b);
+          updated |= (long) c << shift;
+        }
+        if (updated == old || counters.compareAndSet(i, old, updated)) break;
+      }
+    }
+  }
+
+  /** Adds all elements of the other filter (which must have the same size and number of hash functions) by adding up the counters. Returns this. */
+  public CountingBloomFilter<E> union(CountingBloomFilter<E> other) {
+    combine(other, true);
+    count.addAndGet(other.count());
+    return (this);
+  }
+
+  /** Keeps only the elements that are also in the other filter (which must have the same size and number of hash functions) by taking the
+   * smaller counters. Returns this. The count becomes the smaller of the two counts. */
+  public CountingBloomFilter<E> intersect(CountingBloomFilter<E> other) {
+    combine(other, false);
+    count.set(Math.min(count(), other.count()));
+    return (this);
+  }
+
+  /** Removes all elements */
+  public void clear() {
+    for (int i = 0; i < counters.length(); i++)
+      counters.set(i, 0);
+    count.set(0);
+  }
+
+  /** Returns the number of added minus the number of removed elements */
+  public long count() {
+    return (count.get());
+  }
+
+  /** Returns the number of counters */
+  public long numCounters() {
+    return (numCounters);
+  }
+
+  /** Returns the number of hash functions */
+  public int getK() {
+    return (k);
+  }
+
+  /** Returns the probability of a false positive after adding the given number of elements */
+  public double getFalsePositiveProbability(double numberOfElements) {
+    return (Math.pow(1 - Math.exp(-k * numberOfElements / numCounters), k));
+  }
+
+  /** Returns the current probability of a false positive */
+  public double getFalsePositiveProbability() {
+    return (getFalsePositiveProbability(count()));
+  }
+
+  @Override
+  public String toString() {
+    return "CountingBloomFilter with " + numCounters + " counters, " + k + " hash functions and " + count() + " elements";
+  }
+
+  /** Test method */
+  public static void main(String[] args) throws Exception {
+    int n = 100000;
+    String[] keys = new String[n];
+    for (int i = 0; i < n; i++)
+      keys[i] = "key" + i;
+    CountingBloomFilter<String> filter = CountingBloomFilter.forElements(n, 0.01);
+    filter.addAll(keys, Runtime.getRuntime().availableProcessors());
+    for (int i = 0; i < n; i += 2)
+      filter.remove(keys[i]);
+    int falseNegatives = 0;
+    int falsePositives = 0;
+    for (int i = 0; i < n; i++) {
+      if (i % 2 == 1 && !filter.contains(keys[i])) falseNegatives++;
+      if (i % 2 == 0 && filter.contains(keys[i])) falsePositives++;
+    }
+    D.p(filter, ", false negatives", falseNegatives, ", false positives", (double) falsePositives / (n / 2), "expected",
+        filter.getFalsePositiveProbability());
+  }
+}
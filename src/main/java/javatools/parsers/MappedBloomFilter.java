@@ -0,0 +1,256 @@
+package javatools.parsers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+import javatools.administrative.D;
+
+/**
+ * Copyright 2016 Fabian M. Suchanek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * <p>
+ * This class is a read-only Bloom filter that is mapped into memory from a file.
+ * The file is written by BloomFilter.save() or ConcurrentBloomFilter.save().
+ * Opening it does not read the bits, so that the first lookup can happen right
+ * away, and the bits are paged in as they are needed. Since the mapping is
+ * read-only, several processes that open the same file share the bits in the
+ * page cache of the operating system.<BR>
+ * The file format is (all numbers big-endian):
+ * <PRE>
+ *   long  MAGIC ("JTBLOOM1")
+ *   int   hash method (MD5=0, MURMUR3=1 for BloomFilter, MURMUR3_LONG=2 for ConcurrentBloomFilter)
+ *   int   k, the number of hash functions
+ *   long  number of bits
+ *   long  number of added elements
+ *   long  expected number of elements (or 0)
+ *   long[] the bits, bit i in word i/64 at position i%64
+ * </PRE>
+ * Example:
+ * <PRE>
+ *   BloomFilter&lt;String&gt; filter=new BloomFilter&lt;String&gt;(10000000, 1000000, BloomFilter.HashMethod.MURMUR3);
+ *   ...
+ *   filter.save(new File("urls.bloom"));
+ *   // in another process
+ *   MappedBloomFilter&lt;String&gt; urls=MappedBloomFilter.open(new File("urls.bloom"));
+ *   urls.contains("http://example.org");
+ * </PRE>
+ *
+ * @param <E> type of the elements. Elements that are not CharSequences are hashed by their toString().
+ */
+public class MappedBloomFilter<E> {
+
+  /** Identifies the file format */
+  public static final long MAGIC = 0x4A54424C4F4F4D31L; // "JTBLOOM1"
+
+  /** Number of bytes of the header */
+  protected static final int HEADERSIZE = 40;
+
+  /** Hash method of BloomFilter.HashMethod.MD5 */
+  public static final int MD5 = 0;
+
+  /** Hash method of BloomFilter.HashMethod.MURMUR3 */
+  public static final int MURMUR3 = 1;
+
+  /** Hash method of ConcurrentBloomFilter */
+  public static final int MURMUR3_LONG = 2;
+
+  /** Number of bits of the number of words per mapped chunk (1 GB) */
+  protected static final int SHIFT = 27;
+
+  /** Holds the words of the bits, in chunks of 2^SHIFT words */
+  protected final LongBuffer[] words;
+
+  /** Hash method */
+  protected final int hashMethod;
+
+  /** Number of hash functions */
+  protected final int k;
+
+  /** Number of bits */
+  protected final long numBits;
+
+  /** Number of added elements */
+  protected final long count;
+
+  /** Expected number of elements (or 0) */
+  protected final long expectedElements;
+
+  /** Constructs a mapped filter */
+  protected MappedBloomFilter(LongBuffer[] words, int hashMethod, int k, long numBits, long count, long expectedElements) {
+    this.words = words;
+    this.hashMethod = hashMethod;
+    this.k = k;
+    this.numBits = numBits;
+    this.count = count;
+    this.expectedElements = expectedElements;
+  }
+
+  /** Returns a bit */
+  public boolean getBit(long bit) {
+    long word = bit >>> 6;
+    return ((words[(int) (word >>> SHIFT)].get((int) (word & ((1 << SHIFT) - 1))) & (1L << bit)) != 0);
+  }
+
+  /** TRUE if the element could have been added to the filter that was saved */
+  public boolean contains(E element) throws UnsupportedEncodingException {
+    switch (hashMethod) {
+      case MD5:
+        String valString = element.toString();
+        for (int x = 0; x < k; x++) {
+          long hash = BloomFilter.createHash(valString + Integer.toString(x)) % numBits;
+          if (!getBit(Math.abs((int) hash))) return (false);
+        }
+        return (true);
+      case MURMUR3:
+        long h = ConcurrentBloomFilter.hash(element);
+        for (int x = 0; x < k; x++) {
+          if (!getBit(BloomFilter.position(h, x, (int) numBits))) return (false);
+        }
+        return (true);
+      default:
+        long l1 = ConcurrentBloomFilter.hash(element);
+        long l2 = ConcurrentBloomFilter.hash2(l1);
+        for (int x = 0; x < k; x++) {
+          if (!getBit(ConcurrentBloomFilter.position(l1, l2, x, numBits))) return (false);
+        }
+        return (true);
+    }
+  }
+
+  /** Returns the hash method (MD5, MURMUR3 or MURMUR3_LONG) */
+  public int getHashMethod() {
+    return (hashMethod);
+  }
+
+  /** Returns the number of hash functions */
+  public int getK() {
+    return (k);
+  }
+
+  /** Returns the number of bits */
+  public long numBits() {
+    return (numBits);
+  }
+
+  /** Returns the number of elements that were added to the filter that was saved */
+  public long count() {
+    return (count);
+  }
+
+  /** Returns the probability of a false positive */
+  public double getFalsePositiveProbability() {
+    return (Math.pow(1 - Math.exp(-k * (double) count / numBits), k));
+  }
+
+  @Override
+  public String toString() {
+    return "MappedBloomFilter with " + numBits + " bits, " + k + " hash functions and " + count + " elements";
+  }
+
+  // ---------------------------------------------------------------------
+  //           Writing and reading
+  // ---------------------------------------------------------------------
+
+  /** Returns a buffer for writing a file, which already contains the header */
+  protected static ByteBuffer header(int hashMethod, int k, long numBits, long count, long expectedElements) {
+    ByteBuffer b = ByteBuffer.allocate(1024 * 1024);
+    b.putLong(MAGIC).putInt(hashMethod).putInt(k).putLong(numBits).putLong(count).putLong(expectedElements);
+    return (b);
+  }
+
+  /** Writes the buffer to the channel if it has less than 8 bytes left, returns the buffer */
+  protected static ByteBuffer flushIfFull(ByteBuffer b, FileChannel channel) throws IOException {
+    if (b.remaining() >= 8) return (b);
+    flush(b, channel);
+    return (b);
+  }
+
+  /** Writes the buffer to the channel */
+  protected static void flush(ByteBuffer b, FileChannel channel) throws IOException {
+    b.flip();
+    while (b.hasRemaining())
+      channel.write(b);
+    b.clear();
+  }
+
+  /** Returns the number of words of a filter with the given number of bits */
+  protected static long numWords(long numBits) {
+    return ((numBits + 63) >>> 6);
+  }
+
+  /** Maps a file written by BloomFilter.save() or ConcurrentBloomFilter.save() into memory */
+  public static <E> MappedBloomFilter<E> open(File f) throws IOException {
+    RandomAccessFile in = new RandomAccessFile(f, "r");
+    try {
+      FileChannel channel = in.getChannel();
+      ByteBuffer header = ByteBuffer.allocate(HEADERSIZE);
+      while (header.hasRemaining()) {
+        if (channel.read(header, header.position()) < 0) throw new IOException(f + " is not a Bloom filter");
+      }
+      header.flip();
+      if (header.getLong() != MAGIC) throw new IOException(f + " is not a Bloom filter");
+      int hashMethod = header.getInt();
+      int k = header.getInt();
+      long numBits = header.getLong();
+      long count = header.getLong();
+      long expectedElements = header.getLong();
+      if (hashMethod < MD5 || hashMethod > MURMUR3_LONG) throw new IOException(f + " has an unknown hash method: " + hashMethod);
+      if (k <= 0 || numBits <= 0) throw new IOException(f + " has an invalid header");
+      long numWords = numWords(numBits);
+      if (channel.size() < HEADERSIZE + numWords * 8) throw new IOException(f + " is truncated");
+      LongBuffer[] words = new LongBuffer[(int) ((numWords + (1 << SHIFT) - 1) >>> SHIFT)];
+      for (int i = 0; i < words.length; i++) {
+        long start = (long) i << SHIFT;
+        long length = Math.min(1L << SHIFT, numWords - start);
+        words[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADERSIZE + start * 8, length * 8).asLongBuffer();
+      }
+      return (new MappedBloomFilter<E>(words, hashMethod, k, numBits, count, expectedElements));
+    } finally {
+      // The mapping stays valid after the file is closed
+      in.close();
+    }
+  }
+
+  /** Test method */
+  public static void main(String[] args) throws Exception {
+    int n = 1000000;
+    BloomFilter<String> filter = new BloomFilter<String>(10 * n, n, BloomFilter.HashMethod.MURMUR3);
+    ConcurrentBloomFilter<String> concurrent = ConcurrentBloomFilter.forElements(n, 0.01);
+    for (int i = 0; i < n; i++) {
+      filter.add("key" + i);
+      concurrent.add("key" + i);
+    }
+    File file = File.createTempFile("bloom", ".bloom");
+    for (int run = 0; run < 2; run++) {
+      if (run == 0) filter.save(file);
+      else concurrent.save(file);
+      long time = System.nanoTime();
+      MappedBloomFilter<String> mapped = open(file);
+      time = System.nanoTime() - time;
+      int falseNegatives = 0;
+      int falsePositives = 0;
+      for (int i = 0; i < n; i++) {
+        if (!mapped.contains("key" + i)) falseNegatives++;
+        if (mapped.contains("other" + i)) falsePositives++;
+      }
+      D.p(mapped, "opened in", time / 1000, "us, false negatives", falseNegatives, ", false positives", (double) falsePositives / n);
+    }
+    file.delete();
+  }
+}
@@ -0,0 +1,269 @@
+package javatools.parsers;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+
+import javatools.administrative.D;
+
+/**
+ * Copyright 2016 Fabian M. Suchanek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * <p>
+ * This class is a Bloom filter that does not need to know the number of
+ * elements in advance (Almeida et al.: "Scalable Bloom Filters", 2007). It is a
+ * chain of ConcurrentBloomFilters. When the last filter of the chain is full, a
+ * new filter is appended that can hold twice as many elements with a smaller
+ * false positive probability, so that the false positive probability of the
+ * whole chain stays below the target. Elements are added to the last filter, and
+ * looked up in all filters.<BR>
+ * Lookups do not lock. Adds lock only when a new filter is appended.<BR>
+ * Two filters with the same parameters can be combined by union() and intersect().<BR>
+ * Example:
+ * <PRE>
+ *   ScalableBloomFilter&lt;String&gt; seen=new ScalableBloomFilter&lt;String&gt;(1000, 0.01);
+ *   for(String url : urls) if(seen.add(url)) crawl(url);
+ * </PRE>
+ *
+ * @param <E> type of the elements. Elements that are not CharSequences are hashed by their toString().
+ */
+public class ScalableBloomFilter<E> implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  /** Factor by which the capacity of each new filter grows */
+  public static final int GROWTH = 2;
+
+  /** Factor by which the false positive probability of each new filter shrinks */
+  public static final double TIGHTENING = 0.8;
+
+  /** Holds the filters (replaced by a longer copy when a filter is appended) */
+  protected volatile ConcurrentBloomFilter<E>[] filters;
+
+  /** Holds the capacity of each filter */
+  protected volatile long[] capacities;
+
+  /** Holds the intersection of the filters that this filter was intersected with (see intersect()), or NULL */
+  protected volatile ScalableBloomFilter<E> restriction = null;
+
+  /** Capacity of the first filter */
+  protected final long initialCapacity;
+
+  /** Target false positive probability */
+  protected final double falsePositiveProbability;
+
+  /** Constructs a filter that starts with room for initialCapacity elements, and keeps the false positive probability below the given one */
+  public ScalableBloomFilter(long initialCapacity, double falsePositiveProbability) {
+    if (initialCapacity <= 0) throw new IllegalArgumentException("Capacity must be positive: " + initialCapacity);
+    if (falsePositiveProbability <= 0 || falsePositiveProbability >= 1) throw new IllegalArgumentException("Probability out of range: " + falsePositiveProbability);
+    this.initialCapacity = initialCapacity;
+    this.falsePositiveProbability = falsePositiveProbability;
+    filters = newArray(0);
+    capacities = new long[0];
+    append();
+  }
+
+  /** Returns an array of filters */
+  protected static <E> ConcurrentBloomFilter<E>[] newArray(int length) {
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    ConcurrentBloomFilter<E>[] array = (ConcurrentBloomFilter<E>[]) new ConcurrentBloomFilter[length];
+    return (array);
+  }
+
+  /** Appends a new filter. The probabilities of the filters are p*(1-r), p*(1-r)*r, p*(1-r)*r^2..., which add up to at most p. */
+  protected synchronized void append() {
+    int i = filters.length;
+    long capacity = initialCapacity;
+    double p = falsePositiveProbability * (1 - TIGHTENING);
+    for (int j = 0; j < i; j++) {
+      capacity *= GROWTH;
+      p *= TIGHTENING;
+    }
+    ConcurrentBloomFilter<E>[] f = Arrays.copyOf(filters, i + 1);
+    f[i] = ConcurrentBloomFilter.forElements(capacity, p);
+    long[] c = Arrays.copyOf(capacities, i + 1);
+    c[i] = capacity;
+    capacities = c;
+    filters = f;
+  }
+
+  /** Adds an element, returns TRUE if the element was definitely not in the filter before */
+  public boolean add(E element) {
+    if (contains(element)) return (false);
+    ScalableBloomFilter<E> r = restriction;
+    if (r != null) r.add(element);
+    if (chainContains(element)) return (true);
+    ConcurrentBloomFilter<E>[] f = filters;
+    ConcurrentBloomFilter<E> last = f[f.length - 1];
+    last.add(element);
+    if (last.count() >= capacities[f.length - 1]) {
+      synchronized (this) {
+        if (filters.length == f.length) append();
+      }
+    }
+    return (true);
+  }
+
+  /** TRUE if one of the filters of the chain contains the element */
+  protected boolean chainContains(E element) {
+    ConcurrentBloomFilter<E>[] f = filters;
+    for (int i = f.length - 1; i >= 0; i--) {
+      if (f[i].contains(element)) return (true);
+    }
+    return (false);
+  }
+
+  /** TRUE if the element could have been added */
+  public boolean contains(E element) {
+    if (!chainContains(element)) return (false);
+    ScalableBloomFilter<E> r = restriction;
+    return (r == null || r.contains(element));
+  }
+
+  /** Adds all elements, returns the number of elements that were definitely not in the filter before */
+  public int addAll(Collection<? extends E> elements) {
+    int added = 0;
+    for (E e : elements) {
+      if (add(e)) added++;
+    }
+    return (added);
+  }
+
+  /** Adds all elements, returns the number of elements that were definitely not in the filter before */
+  public int addAll(E[] elements) {
+    int added = 0;
+    for (E e : elements) {
+      if (add(e)) added++;
+    }
+    return (added);
+  }
+
+  /** Throws an exception if the other filter has different parameters */
+  protected void checkCompatible(ScalableBloomFilter<?> other) {
+    if (initialCapacity != other.initialCapacity || falsePositiveProbability != other.falsePositiveProbability)
+      throw new IllegalArgumentException("Filters differ in initial capacity or false positive probability: " + this + " and " + other);
+  }
+
+  /** ORs the filters of another chain into the filters of the same size of this chain */
+  protected synchronized void unionChain(ConcurrentBloomFilter<E>[] o) {
+    while (filters.length < o.length)
+      append();
+    for (int i = 0; i < o.length; i++)
+      filters[i].union(o[i]);
+    if (filters[filters.length - 1].count() >= capacities[filters.length - 1]) append();
+  }
+
+  /** Adds all elements of the other filter (which must have the same initial capacity and probability), filter by filter. Returns this.
+   * If both filters were full, the union may exceed the target probability. */
+  public synchronized ScalableBloomFilter<E> union(ScalableBloomFilter<E> other) {
+    checkCompatible(other);
+    unionChain(other.filters);
+    if (restriction != null) restriction.union(other);
+    return (this);
+  }
+
+  /** Keeps only the elements that are also in the other filter (which must have the same initial capacity and probability). Returns this.
+   * If both chains consist of one filter, the filters are intersected bit by bit. Otherwise, the elements of the two chains can sit 
+   * in filters of different sizes, so that the chains cannot be intersected bit by bit. Then this filter keeps one restriction filter, 
+   * and contains() checks both. The first intersection copies the other filter into the restriction, and further intersections are 
+   * merged into the restriction in the same way (bit by bit where the restriction and the other filter consist of one filter). 
+   * Later adds go to both. */
+  public synchronized ScalableBloomFilter<E> intersect(ScalableBloomFilter<E> other) {
+    checkCompatible(other);
+    if (other == this) return (this);
+    if (filters.length == 1 && other.filters.length == 1) {
+      filters[0].intersect(other.filters[0]);
+      if (other.restriction != null) restrict(other.restriction);
+    } else {
+      restrict(other);
+    }
+    return (this);
+  }
+
+  /** Merges the other filter into the restriction */
+  protected synchronized void restrict(ScalableBloomFilter<E> other) {
+    if (restriction == null) restriction = other.copy();
+    else restriction.intersect(other);
+  }
+
+  /** Returns a copy of this filter */
+  public synchronized ScalableBloomFilter<E> copy() {
+    ScalableBloomFilter<E> result = new ScalableBloomFilter<E>(initialCapacity, falsePositiveProbability);
+    ConcurrentBloomFilter<E>[] f = newArray(filters.length);
+    for (int i = 0; i < f.length; i++)
+      f[i] = new ConcurrentBloomFilter<E>(filters[i]);
+    result.filters = f;
+    result.capacities = capacities.clone();
+    if (restriction != null) result.restriction = restriction.copy();
+    return (result);
+  }
+
+  /** Removes all elements */
+  public synchronized void clear() {
+    filters = newArray(0);
+    capacities = new long[0];
+    restriction = null;
+    append();
+  }
+
+  /** Returns the number of added elements (which is an upper bound after intersect()) */
+  public long count() {
+    long count = 0;
+    for (ConcurrentBloomFilter<E> f : filters)
+      count += f.count();
+    return (count);
+  }
+
+  /** Returns the number of filters in the chain */
+  public int numFilters() {
+    return (filters.length);
+  }
+
+  /** Returns the number of bits of all filters */
+  public long numBits() {
+    long numBits = 0;
+    for (ConcurrentBloomFilter<E> f : filters)
+      numBits += f.numBits();
+    return (numBits);
+  }
+
+  /** Returns the current probability of a false positive */
+  public double getFalsePositiveProbability() {
+    double none = 1;
+    for (ConcurrentBloomFilter<E> f : filters)
+      none *= 1 - f.getFalsePositiveProbability();
+    return (1 - none);
+  }
+
+  @Override
+  public String toString() {
+    return "ScalableBloomFilter with " + numFilters() + " filters, " + numBits() + " bits and " + count() + " elements";
+  }
+
+  /** Test method */
+  public static void main(String[] args) throws Exception {
+    ScalableBloomFilter<String> filter = new ScalableBloomFilter<String>(1000, 0.01);
+    int n = 1000000;
+    for (int i = 0; i < n; i++)
+      filter.add("key" + i);
+    int falseNegatives = 0;
+    int falsePositives = 0;
+    for (int i = 0; i < n; i++) {
+      if (!filter.contains("key" + i)) falseNegatives++;
+      if (filter.contains("other" + i)) falsePositives++;
+    }
+    D.p(filter, ", false negatives", falseNegatives, ", false positives", (double) falsePositives / n, "expected",
+        filter.getFalsePositiveProbability());
+  }
+}
@@ -1,8 +1,44 @@
 package javatools;
 
+import javatools.database.AsyncInserterTest;
+import javatools.database.BulkInserterTest;
+import javatools.database.CSVExporterTest;
+import javatools.database.ConnectionPoolTest;
+import javatools.database.InserterTest;
+import javatools.database.StatementCacheTest;
+import javatools.datatypes.AhoCorasickTest;
+import javatools.datatypes.ByteSliceTest;
+import javatools.datatypes.ConcurrentDoubleHashMapTest;
+import javatools.datatypes.ConcurrentIntHashMapTest;
 import javatools.datatypes.DateParserTest;
+import javatools.datatypes.DoubleHashMapTest;
+import javatools.datatypes.FastFrequencyVectorTest;
+import javatools.datatypes.FrozenTrieTest;
+import javatools.datatypes.IdPriorityQueueTest;
+import javatools.datatypes.IntDoubleMapTest;
+import javatools.datatypes.IntHashMapTest;
+import javatools.datatypes.IntIntMapTest;
+import javatools.datatypes.IntKeyMapTest;
+import javatools.datatypes.IntSetTest;
+import javatools.datatypes.InvertedIndexTest;
+import javatools.datatypes.KMeansTest;
+import javatools.datatypes.LongDoubleMapTest;
+import javatools.datatypes.LongIntMapTest;
 import javatools.datatypes.MultiMapTest;
+import javatools.datatypes.SVMModelTest;
+import javatools.datatypes.SparseDatasetTest;
+import javatools.datatypes.SparseVectorTest;
+import javatools.datatypes.StringDictionaryTest;
+import javatools.filehandlers.ByteSliceLinesTest;
+import javatools.filehandlers.FastCSVLinesTest;
+import javatools.filehandlers.MappedFileLinesTest;
+import javatools.filehandlers.TSVPipelineTest;
+import javatools.parsers.BloomFilterTest;
+import javatools.parsers.ConcurrentBloomFilterTest;
+import javatools.parsers.CountingBloomFilterTest;
+import javatools.parsers.MappedBloomFilterTest;
 import javatools.parsers.NumberParserTest;
+import javatools.parsers.ScalableBloomFilterTest;
 import javatools.util.ArrayUtilsTest;
 
 import org.junit.runner.RunWith;
@@ -13,7 +49,7 @@ import org.junit.runners.Suite.SuiteClasses;
 /** A test suite containing all unit-tests of the project */
 
 @RunWith(Suite.class)
-@SuiteClasses({DateParserTest.class,MultiMapTest.class,NumberParserTest.class, ArrayUtilsTest.class})
+@SuiteClasses({DateParserTest.class,MultiMapTest.class,NumberParserTest.class, ArrayUtilsTest.class, MappedFileLinesTest.class, ConnectionPoolTest.class, TSVPipelineTest.class, FastCSVLinesTest.class, AsyncInserterTest.class, CSVExporterTest.class, IntSetTest.class, IdPriorityQueueTest.class, IntHashMapTest.class, DoubleHashMapTest.class, IntKeyMapTest.class, IntIntMapTest.class, IntDoubleMapTest.class, LongIntMapTest.class, LongDoubleMapTest.class, StringDictionaryTest.class, FrozenTrieTest.class, AhoCorasickTest.class, BloomFilterTest.class, ConcurrentBloomFilterTest.class, CountingBloomFilterTest.class, ScalableBloomFilterTest.class, KMeansTest.class, SparseVectorTest.class, SparseDatasetTest.class, InvertedIndexTest.class, FastFrequencyVectorTest.class, ByteSliceLinesTest.class, ByteSliceTest.class, InserterTest.class, BulkInserterTest.class, StatementCacheTest.class, ConcurrentIntHashMapTest.class, ConcurrentDoubleHashMapTest.class, MappedBloomFilterTest.class, SVMModelTest.class})
 public class AllTests {
 
 }
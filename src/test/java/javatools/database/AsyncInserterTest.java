@@ -0,0 +1,141 @@
+package javatools.database;
+
+import static org.junit.Assert.*;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class AsyncInserterTest {
+
+  @Test
+  public void failureTest() throws Exception {
+    DummyDatabase d = new DummyDatabase(Arrays.asList("a"), "x");
+    final List<Object> flushed = Collections.synchronizedList(new ArrayList<Object>());
+    final Semaphore failed = new Semaphore(0);
+    final CountDownLatch go = new CountDownLatch(1);
+    // Batches that contain "bad" fail, once go is counted down
+    Database.AsyncInserter inserter = d.new AsyncInserter("t", String.class) {
+
+      @Override
+      protected void flushWithReconnect(Database.Batch batch) throws SQLException {
+        for (List<Object> row : batch.rows()) {
+          if (!row.get(0).equals("bad")) continue;
+          try {
+            go.await();
+          } catch (InterruptedException e) {
+          }
+          throw new SQLException("bad row");
+        }
+        for (List<Object> row : batch.rows())
+          flushed.add(row.get(0));
+      }
+    };
+    inserter.setBatchThreshold(2);
+    inserter.setFailureHandler(new Database.FailureHandler() {
+
+      @Override
+      public void failed(List<List<Object>> batch, SQLException e) {
+        failed.release();
+      }
+    });
+    inserter.insert("bad");
+    inserter.insert("ugly");
+    inserter.insert("good");
+    go.countDown();
+    failed.acquire();
+
+    // flush() hands over the current batch before it throws the pending failure
+    try {
+      inserter.flush();
+      fail("The failure was not thrown");
+    } catch (Exception e) {
+      // Not catching SQLException here, because the test runner scans the class without java.sql
+      assertEquals("bad row", e.getMessage());
+    }
+    assertEquals(Arrays.asList((Object) "good"), flushed);
+    assertEquals(2, inserter.getFailedRows().size());
+
+    // The failure is thrown only once, and insert() does not store a row when it throws
+    inserter.insert("late");
+    inserter.insert("bad");
+    failed.acquire();
+    try {
+      inserter.insert("rejected");
+      fail("The failure was not thrown");
+    } catch (Exception e) {
+      assertEquals("bad row", e.getMessage());
+    }
+    inserter.insert("good2");
+    inserter.close();
+    assertEquals(Arrays.asList((Object) "good", "good2"), flushed);
+    assertEquals(Arrays.asList(Arrays.asList((Object) "bad"), Arrays.asList((Object) "ugly"), Arrays.asList((Object) "late"), Arrays.asList((Object) "bad")),
+        inserter.getFailedRows());
+  }
+
+  @Test
+  public void flushersTest() throws Exception {
+    final DummyDatabase d = new DummyDatabase(Arrays.asList("a"), "x");
+    // Several flushers need a connection each
+    Database.AsyncInserter unpooled = d.new AsyncInserter("t", String.class);
+    try {
+      unpooled.setFlushers(2);
+      fail("Several flushers were started in unpooled mode");
+    } catch (Exception e) {
+    }
+    unpooled.close();
+
+    d.setPoolSize(4);
+    final Set<Connection> connections = Collections.synchronizedSet(new HashSet<Connection>());
+    final List<Object> flushed = Collections.synchronizedList(new ArrayList<Object>());
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    Database.AsyncInserter inserter = d.new AsyncInserter("t", String.class) {
+
+      @Override
+      protected void flushWithReconnect(Database.Batch batch) throws SQLException {
+        connections.add(d.leaseConnection());
+        int now = running.incrementAndGet();
+        while (maxRunning.get() < now)
+          maxRunning.set(now);
+        try {
+          Thread.sleep(20);
+        } catch (InterruptedException e) {
+        }
+        for (List<Object> row : batch.rows())
+          flushed.add(row.get(0));
+        running.decrementAndGet();
+      }
+    };
+    inserter.setBatchThreshold(10);
+    inserter.setFlushers(4);
+    assertEquals(4, inserter.getFlushers());
+    for (int i = 0; i < 1000; i++)
+      inserter.insert("row" + i);
+    inserter.flush();
+    assertEquals(1000, flushed.size());
+    assertEquals(1000, new HashSet<Object>(flushed).size());
+    assertTrue(maxRunning.get() > 1);
+    assertTrue(connections.size() > 1);
+    assertEquals(connections.size(), d.getPool().getActiveCount());
+
+    // Fewer flushers release their connections
+    inserter.setFlushers(1);
+    assertEquals(0, d.getPool().getActiveCount());
+    inserter.insert("last");
+    inserter.close();
+    assertEquals(1001, flushed.size());
+    assertEquals(0, d.getPool().getActiveCount());
+    d.close();
+  }
+}
@@ -0,0 +1,164 @@
+package javatools.database;
+
+import static org.junit.Assert.*;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BulkInserterTest {
+
+  /** Values that the text format has to escape */
+  protected static final String[] VALUES = { "plain", "", "tab\there", "new\nline", "carriage\rreturn", "back\\slash", "\\N", "\\", "trailing\\", null,
+      "ünïcödé" };
+
+  @Test
+  public void roundTripTest() throws Exception {
+    DummyDatabase d = new DummyDatabase(Arrays.asList("a", "b"));
+    d.setBulkLoading(true);
+    Database.Inserter inserter = d.newInserter("t", String.class, String.class);
+    assertTrue(inserter instanceof DummyDatabase.DummyInserter);
+    for (String a : VALUES) {
+      for (String b : VALUES)
+        inserter.insert(a, b);
+    }
+    // Empty rows at the end of a batch are kept
+    inserter.insert("", "");
+    inserter.insert("", null);
+    inserter.close();
+    assertEquals(VALUES.length * VALUES.length + 2, d.numRows);
+    int row = 0;
+    for (String a : VALUES) {
+      for (String b : VALUES) {
+        assertEquals(a, d.columns.get(0).get(row));
+        assertEquals(b, d.columns.get(1).get(row));
+        row++;
+      }
+    }
+    assertEquals(Arrays.asList("", ""), Arrays.asList(d.columns.get(0).get(row), d.columns.get(1).get(row)));
+    assertEquals(Arrays.asList("", null), Arrays.asList(d.columns.get(0).get(row + 1), d.columns.get(1).get(row + 1)));
+  }
+
+  @Test
+  public void emptyRowsTest() throws Exception {
+    DummyDatabase d = new DummyDatabase(Arrays.asList("a"));
+    Database.Inserter inserter = d.new DummyInserter("t", String.class);
+    inserter.insert("p");
+    inserter.insert("");
+    inserter.insert("");
+    inserter.close();
+    assertEquals(Arrays.asList("p", "", ""), d.columns.get(0));
+  }
+
+  @Test
+  public void columnsTest() throws Exception {
+    DummyDatabase d = new DummyDatabase(Arrays.asList("a", "b", "c"), "1", "2", "3");
+    Database.Inserter inserter = d.new DummyInserter("t", new String[] { "c", "a" }, new Class<?>[] { String.class, Integer.class });
+    inserter.insert("x", 7);
+    inserter.close();
+    assertEquals(2, d.numRows);
+    assertEquals(Arrays.asList("1", "7"), d.columns.get(0));
+    assertEquals(Arrays.asList("2", null), d.columns.get(1));
+    assertEquals(Arrays.asList("3", "x"), d.columns.get(2));
+  }
+
+  @Test
+  public void copyTextTest() throws Exception {
+    final StringBuilder copied = new StringBuilder();
+    PostgresDatabase p = new PostgresDatabase();
+    Database.BulkInserter inserter = p.new CopyInserter("t", Types.VARCHAR, Types.BLOB, Types.TIMESTAMP, Types.INTEGER) {
+
+      @Override
+      protected void load(CharSequence rows, int numRows) throws SQLException {
+        copied.append(rows);
+      }
+    };
+    Timestamp time = Timestamp.valueOf("2016-02-29 12:34:56.5");
+    inserter.insert("a\tb\\c\nd", new byte[] { 0, 0x1b, (byte) 0xff }, new java.util.Date(time.getTime()), 42);
+    inserter.insert(null, new byte[0], null, null);
+    inserter.close();
+    assertEquals("a\\tb\\\\c\\nd\t\\\\x001bff\t2016-02-29 12:34:56.5\t42\n\\N\t\\\\x\t\\N\t\\N\n", copied.toString());
+  }
+
+  @Test
+  public void loadDataTest() throws Exception {
+    MySQLDatabase m = new MySQLDatabase();
+    StubConnection stub = new StubConnection();
+    m.connection = stub.connection;
+    final List<CharSequence> loaded = new ArrayList<CharSequence>();
+    final boolean[] fail = { false };
+    MySQLDatabase.LoadDataInserter inserter = m.new LoadDataInserter("t", Types.BOOLEAN, Types.BLOB) {
+
+      @Override
+      protected void execute(Statement statement, CharSequence rows) throws SQLException {
+        if (fail[0]) throw new SQLException("bad row");
+        loaded.add(rows.toString());
+      }
+
+      @Override
+      protected String warnings(Statement statement) throws SQLException {
+        return (null);
+      }
+    };
+
+    // A batch is loaded in a transaction of its own, autocommit is switched back on
+    inserter.insert(true, null);
+    inserter.insert(false, null);
+    inserter.flush();
+    assertEquals(Arrays.asList((CharSequence) "1\t\\N\n0\t\\N\n"), loaded);
+    assertEquals(1, stub.commits);
+    assertTrue(stub.autoCommit);
+
+    // A failed batch is rolled back, autocommit is switched back on
+    fail[0] = true;
+    inserter.insert(true, null);
+    try {
+      inserter.flush();
+      fail("The failure was not thrown");
+    } catch (Exception e) {
+      assertTrue(e.getMessage().startsWith("bad row"));
+    }
+    assertEquals(1, stub.rollbacks);
+    assertTrue(stub.autoCommit);
+    fail[0] = false;
+    inserter.flush();
+    assertEquals(2, loaded.size());
+
+    // In a transaction of the caller, the inserter neither commits nor changes autocommit
+    stub.autoCommit = false;
+    inserter.insert(false, null);
+    inserter.flush();
+    assertEquals(3, loaded.size());
+    assertEquals(2, stub.commits);
+    assertFalse(stub.autoCommit);
+    stub.autoCommit = true;
+
+    // Batches with byte arrays go by INSERT statements
+    inserter.insert(true, new byte[] { 1, 2 });
+    inserter.flush();
+    assertEquals(3, loaded.size());
+    assertEquals(1, stub.statements("INSERT INTO t VALUES(?, ?)").size());
+    assertArrayEquals(new byte[] { 1, 2 }, (byte[]) stub.statements("INSERT INTO t VALUES(?, ?)").get(0).executed.get(0).get(1));
+    inserter.close();
+  }
+
+  @Test
+  public void loadDataDisabledTest() throws Exception {
+    // Without a driver that streams local files, the inserter falls back on INSERT statements
+    MySQLDatabase m = new MySQLDatabase();
+    StubConnection stub = new StubConnection();
+    m.connection = stub.connection;
+    Database.Inserter inserter = m.new LoadDataInserter("t", String.class);
+    inserter.insert("a");
+    inserter.close();
+    assertTrue(stub.autoCommit);
+    assertEquals(1, stub.rollbacks);
+    assertEquals(Arrays.asList(Arrays.asList((Object) "a")), stub.statements("INSERT INTO t VALUES(?)").get(0).executed);
+  }
+}
@@ -0,0 +1,153 @@
+package javatools.database;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javatools.filehandlers.CSVLines;
+
+import org.junit.Test;
+
+public class CSVExporterTest {
+
+  /** Values that have to be quoted, trimmed or written as NULL */
+  protected static final String[] VALUES = { "plain", "a,b", "a, b", "with \"quotes\"", "\"", "multi\nline", "carriage\rreturn", "tab\there",
+      "  padded  ", "", null, "ünïcödé" };
+
+  @Test
+  public void shardRangesTest() {
+    assertArrayEquals(new String[] { "id >= 0 AND id <= 3", "id >= 4 AND id <= 7", "id >= 8 AND id <= 9" },
+        CSVExporter.shardRanges("id", 0, 9, 3));
+    // More shards than keys, and an empty table
+    assertArrayEquals(new String[] { "id >= 5 AND id <= 5", "1 = 0" }, CSVExporter.shardRanges("id", 5, 5, 2));
+    assertArrayEquals(new String[] { "1 = 0", "1 = 0" }, CSVExporter.shardRanges("id", 0, -1, 2));
+    // The full range of longs does not overflow
+    assertArrayEquals(new String[] { "id >= " + Long.MIN_VALUE + " AND id <= -1", "id >= 0 AND id <= " + Long.MAX_VALUE },
+        CSVExporter.shardRanges("id", Long.MIN_VALUE, Long.MAX_VALUE, 2));
+    assertArrayEquals(new String[] { "id >= " + (Long.MAX_VALUE - 1) + " AND id <= " + Long.MAX_VALUE },
+        CSVExporter.shardRanges("id", Long.MAX_VALUE - 1, Long.MAX_VALUE, 1));
+  }
+
+  @Test
+  public void formatTest() {
+    CSVExporter e = new CSVExporter();
+    assertEquals("plain, \"a b\", \"a\"\"b\", trimmed, \"\u000B\", \"\"\n",
+        e.format(new Object[][] { { "plain", "a b", "a\"b", "trimmed\u0001", "\u000B", null } }, 1));
+    e.setSeparator(";");
+    assertEquals("\"a;b\";a,b\n", e.format(new Object[][] { { "a;b", "a,b" } }, 1));
+    // An empty last value
+    assertEquals(";\"\"\n", e.format(new Object[][] { { "", "" } }, 1));
+    e.setQuoting(false);
+    assertEquals(";\n", e.format(new Object[][] { { "", null } }, 1));
+  }
+
+  /** Reads the file */
+  protected static String read(File f) throws Exception {
+    Reader in = new InputStreamReader(new FileInputStream(f), "UTF-8");
+    StringBuilder b = new StringBuilder();
+    int c;
+    while ((c = in.read()) != -1)
+      b.append((char) c);
+    in.close();
+    return (b.toString());
+  }
+
+  /** A database with one row for each pair of VALUES */
+  protected static DummyDatabase database() {
+    List<String> rows = new ArrayList<String>();
+    for (String a : VALUES) {
+      for (String b : VALUES) {
+        rows.add(a);
+        rows.add(b);
+      }
+    }
+    return (new DummyDatabase(Arrays.asList("a", "b"), rows.toArray(new String[rows.size()])));
+  }
+
+  @Test
+  public void dumpQueryAsCSVTest() throws Exception {
+    File f = File.createTempFile("CSVExporterTest", ".csv");
+    f.deleteOnExit();
+    database().dumpQueryAsCSV("SELECT * FROM t", f, ',');
+    CSVLines lines = new CSVLines(new InputStreamReader(new FileInputStream(f), "UTF-8"));
+    assertEquals(Arrays.asList("Column1", "Column2"), lines.columnNames());
+    int rows = 0;
+    for (String a : VALUES) {
+      for (String b : VALUES) {
+        assertTrue(lines.hasNext());
+        // NULL is written as the empty string, unquoted values are trimmed
+        assertEquals(Arrays.asList(a == null ? "" : a, b == null ? "" : b), lines.next());
+        rows++;
+      }
+    }
+    assertFalse(lines.hasNext());
+    lines.close();
+    assertEquals(VALUES.length * VALUES.length, rows);
+  }
+
+  @Test
+  public void makeCSVForQueryTest() throws Exception {
+    File f = File.createTempFile("CSVExporterTest", ".csv");
+    f.deleteOnExit();
+    new DummyDatabase(Arrays.asList("a", "b"), "x", null, "a, \"b\"", "multi\nline").makeCSVForQuery("SELECT * FROM t", f, ';');
+    assertEquals("Column1; Column2\nx; null\na, \"b\"; multi\nline\n", read(f));
+  }
+
+  @Test
+  public void threadsTest() throws Exception {
+    // Several chunks on several formatting threads come out in order
+    List<String> rows = new ArrayList<String>();
+    StringBuilder expected = new StringBuilder("# Column1\n");
+    for (int i = 0; i < CSVExporter.CHUNKSIZE * 5 + 17; i++) {
+      rows.add("row " + i);
+      expected.append("\"row ").append(i).append("\"\n");
+    }
+    DummyDatabase d = new DummyDatabase(Arrays.asList("a"), rows.toArray(new String[rows.size()]));
+    File f = File.createTempFile("CSVExporterTest", ".csv");
+    f.deleteOnExit();
+    CSVExporter e = new CSVExporter();
+    e.setThreads(3);
+    assertEquals(rows.size(), e.export(d, "SELECT * FROM t", f));
+    assertEquals(expected.toString(), read(f));
+  }
+
+  @Test
+  public void autoCommitTest() throws Exception {
+    DummyDatabase d = database();
+    StubConnection stub = new StubConnection();
+    d.connection = stub.connection;
+    File f = File.createTempFile("CSVExporterTest", ".csv");
+    f.deleteOnExit();
+    CSVExporter e = new CSVExporter();
+    e.export(d, "SELECT * FROM t", f);
+    assertTrue(stub.autoCommit);
+
+    // A failing query
+    try {
+      e.export(d, "no query", f);
+      fail("The query did not fail");
+    } catch (Exception ex) {
+      assertTrue(ex.getMessage(), ex.getMessage().startsWith("Unsupported query"));
+    }
+    assertTrue(stub.autoCommit);
+
+    // A file that cannot be opened
+    try {
+      e.export(d, "SELECT * FROM t", f.getParentFile());
+      fail("The file could be opened");
+    } catch (Exception ex) {
+    }
+    assertTrue(stub.autoCommit);
+
+    // A transaction of the caller stays open
+    stub.autoCommit = false;
+    e.export(d, "SELECT * FROM t", f);
+    assertFalse(stub.autoCommit);
+  }
+}
@@ -0,0 +1,124 @@
+package javatools.database;
+
+import static org.junit.Assert.*;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class ConnectionPoolTest {
+
+  @Test
+  public void leaseTest() throws Exception {
+    final DummyDatabase d = new DummyDatabase(Arrays.asList("arg1", "arg2"), "a", "b", "c", "d");
+    d.setPoolSize(2);
+    ConnectionPool pool = d.getPool();
+    pool.setLeaseTimeout(200);
+
+    // A thread keeps its connection until it releases it
+    Connection mine = d.getConnection();
+    Database.close(d.query("SELECT * FROM t"));
+    assertSame(mine, d.getConnection());
+    assertEquals(1, pool.getActiveCount());
+
+    // A second thread gets another connection, a third one has to wait
+    final CountDownLatch leased = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final Connection[] other = new Connection[1];
+    Thread t = new Thread() {
+
+      @Override
+      public void run() {
+        try {
+          d.executeUpdate("DELETE FROM t");
+          other[0] = d.getConnection();
+          leased.countDown();
+          release.await();
+          d.releaseConnection();
+        } catch (Exception e) {
+        }
+      }
+    };
+    t.start();
+    leased.await();
+    assertNotSame(mine, other[0]);
+    assertEquals(2, pool.getActiveCount());
+    d.releaseConnection();
+    assertEquals(1, pool.getIdleCount());
+
+    // Broken connections are replaced
+    mine.close();
+    assertTrue(d.connected());
+    assertNotSame(mine, d.getConnection());
+    assertEquals(1, pool.getDiscardedCount());
+
+    // The pool is exhausted until the other thread releases
+    final SQLException[] failure = new SQLException[1];
+    Thread waiting = new Thread() {
+
+      @Override
+      public void run() {
+        try {
+          d.executeUpdate("DELETE FROM t");
+        } catch (SQLException e) {
+          failure[0] = e;
+        }
+      }
+    };
+    waiting.start();
+    waiting.join();
+    assertNotNull(failure[0]);
+    release.countDown();
+    t.join();
+    assertEquals(2, pool.getOpenCount());
+    assertTrue(pool.getWaitCount() >= 1);
+
+    d.close();
+    assertEquals(0, pool.getOpenCount());
+  }
+
+  @Test
+  public void transactionTest() throws Exception {
+    final DummyDatabase d = new DummyDatabase(Arrays.asList("arg1", "arg2"), "a", "b", "c", "d");
+    d.setPoolSize(1);
+    d.getPool().setLeaseTimeout(200);
+
+    // A thread that dies in a transaction without releasing its connection
+    final Connection[] other = new Connection[1];
+    Thread t = new Thread() {
+
+      @Override
+      public void run() {
+        try {
+          d.startTransaction();
+          other[0] = d.getConnection();
+        } catch (Exception e) {
+        }
+      }
+    };
+    t.start();
+    t.join();
+    assertFalse(other[0].getAutoCommit());
+    assertEquals(Connection.TRANSACTION_REPEATABLE_READ, other[0].getTransactionIsolation());
+
+    // The transaction belongs to the connection of the other thread
+    assertNull(d.currentTransaction());
+
+    // Its connection is reset before this thread gets it
+    Connection mine = d.getConnection();
+    assertSame(other[0], mine);
+    assertTrue(mine.getAutoCommit());
+    assertEquals(Connection.TRANSACTION_READ_COMMITTED, mine.getTransactionIsolation());
+    assertNull(d.currentTransaction());
+
+    d.startTransaction();
+    assertNotNull(d.currentTransaction());
+    d.endTransaction();
+    assertNull(d.currentTransaction());
+    assertTrue(mine.getAutoCommit());
+    d.close();
+  }
+}
@@ -0,0 +1,117 @@
+package javatools.database;
+
+import static org.junit.Assert.*;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class InserterTest {
+
+  @Test
+  public void batchTest() throws Exception {
+    Database.Batch batch = new Database.Batch(2, 1);
+    assertTrue(batch.isEmpty());
+    for (int i = 0; i < 10; i++)
+      batch.add("a" + i, i);
+    batch.add(Arrays.asList((Object) "b", null));
+    assertEquals(11, batch.size);
+    assertEquals("a3", batch.get(3, 0));
+    assertEquals(3, batch.get(3, 1));
+    assertEquals(Arrays.asList((Object) "b", null), batch.row(10));
+    try {
+      batch.add("too", "many", "values");
+      fail("A row with too many values was added");
+    } catch (Exception e) {
+    }
+    try {
+      batch.add(Arrays.asList((Object) "few"));
+      fail("A row with too few values was added");
+    } catch (Exception e) {
+    }
+    assertEquals(11, batch.size);
+
+    // rows() returns copies, clear() keeps the arrays
+    List<List<Object>> rows = batch.rows();
+    Database.Batch other = new Database.Batch(2, 4);
+    other.addAll(batch);
+    assertEquals(rows, other.rows());
+    Object[] column = batch.columns[0];
+    batch.clear();
+    assertTrue(batch.isEmpty());
+    assertSame(column, batch.columns[0]);
+    assertNull(column[0]);
+    assertEquals(11, rows.size());
+    assertEquals("a0", rows.get(0).get(0));
+  }
+
+  @Test
+  public void statementReuseTest() throws Exception {
+    DummyDatabase d = new DummyDatabase();
+    StubConnection stub = new StubConnection();
+    d.connection = stub.connection;
+    Database.Inserter inserter = d.new Inserter("t", String.class, Integer.class);
+    inserter.setBatchThreshold(3);
+    for (int i = 0; i < 7; i++)
+      inserter.insert("row" + i, i);
+    assertEquals(1, inserter.getBatchSize());
+    assertEquals(6, inserter.getFlushedRows());
+    assertEquals(2, inserter.getFlushedBatches());
+    inserter.flush();
+    assertEquals(0, inserter.getBatchSize());
+    assertEquals(7, inserter.getFlushedRows());
+    assertEquals(3, inserter.getFlushedBatches());
+    assertTrue(inserter.getAverageBatchLatency() >= 0);
+    assertTrue(inserter.getRowsPerSecond() > 0);
+
+    // All batches went through the same prepared statement
+    assertEquals(1, stub.statements.size());
+    StubConnection.StubStatement statement = stub.statements.get(0);
+    assertEquals("INSERT INTO t VALUES(?, ?)", statement.sql);
+    assertEquals(3, statement.executions);
+    assertEquals(7, statement.executed.size());
+    assertEquals(Arrays.asList((Object) "row4", 4), statement.executed.get(4));
+    assertTrue(statement.batch.isEmpty());
+
+    inserter.close();
+    assertTrue(statement.closed);
+  }
+
+  @Test
+  public void failureTest() throws Exception {
+    DummyDatabase d = new DummyDatabase();
+    StubConnection stub = new StubConnection();
+    d.connection = stub.connection;
+    Database.Inserter inserter = d.new Inserter("t", String.class);
+    inserter.insert("a");
+    inserter.insert("b");
+    inserter.flush();
+    StubConnection.StubStatement statement = stub.statements.get(0);
+    statement.failExecute = new SQLException("execute failed");
+    statement.failClear = new SQLException("clear failed");
+    inserter.insert("c");
+    try {
+      inserter.flush();
+      fail("The failure was not thrown");
+    } catch (Exception e) {
+      // The failure of clearBatch() does not hide the failure of executeBatch()
+      Throwable cause = e.getCause();
+      assertEquals("execute failed", cause.getMessage());
+      assertEquals(1, cause.getSuppressed().length);
+      assertEquals("clear failed", cause.getSuppressed()[0].getMessage());
+    }
+    // The rows are kept, the statement is prepared anew, the counters count only flushed batches
+    assertTrue(statement.closed);
+    assertEquals(1, inserter.getBatchSize());
+    assertEquals(2, inserter.getFlushedRows());
+    assertEquals(1, inserter.getFlushedBatches());
+    inserter.flush();
+    assertEquals(2, stub.statements.size());
+    assertEquals(Arrays.asList(Arrays.asList((Object) "c")), stub.statements.get(1).executed);
+    assertEquals(3, inserter.getFlushedRows());
+    assertEquals(2, inserter.getFlushedBatches());
+    inserter.close();
+  }
+}
@@ -0,0 +1,157 @@
+package javatools.database;
+
+import static org.junit.Assert.*;
+
+import java.sql.ResultSet;
+import java.util.Arrays;
+
+import javatools.database.StubConnection.StubStatement;
+
+import org.junit.Test;
+
+public class StatementCacheTest {
+
+  /** Returns a database on a stub connection */
+  protected static DummyDatabase database(StubConnection stub) {
+    DummyDatabase d = new DummyDatabase();
+    d.connection = stub.connection;
+    return (d);
+  }
+
+  @Test
+  public void queryTest() throws Exception {
+    StubConnection stub = new StubConnection();
+    DummyDatabase d = database(stub);
+    String sql = "SELECT * FROM t WHERE a=? AND b=? AND c=?";
+    ResultSet rs = d.query(sql, "x", 5, null);
+    assertTrue(rs.next());
+    assertEquals("x", rs.getObject(1));
+    assertEquals(5, rs.getObject(2));
+    assertNull(rs.getObject(3));
+    assertFalse(rs.next());
+    Database.close(rs);
+    assertTrue(rs.isClosed());
+    StubStatement statement = stub.statements(sql).get(0);
+    assertFalse(statement.closed);
+
+    // The second query reuses the statement, also if the caller closed the statement of the result
+    rs = d.query(sql, "y", 6, 7);
+    rs.getStatement().close();
+    assertTrue(rs.next());
+    assertEquals("y", rs.getObject(1));
+    Database.close(rs);
+    assertEquals(1, stub.statements(sql).size());
+    assertFalse(statement.closed);
+    assertEquals(2, statement.executions);
+    assertEquals(1, d.getStatementCacheHits());
+    assertEquals(1, d.getStatementCacheMisses());
+    d.close();
+    assertTrue(statement.closed);
+  }
+
+  @Test
+  public void executeUpdateTest() throws Exception {
+    StubConnection stub = new StubConnection();
+    DummyDatabase d = database(stub);
+    String sql = "UPDATE t SET a=? WHERE b=?";
+    assertEquals(1, d.executeUpdate(sql, "x", 1));
+    assertEquals(1, d.executeUpdate(sql, null, 2));
+    assertEquals(1, stub.statements(sql).size());
+    StubStatement statement = stub.statements(sql).get(0);
+    assertEquals(Arrays.asList(Arrays.asList((Object) "x", 1), Arrays.asList(null, (Object) 2)), statement.executed);
+    assertFalse(statement.closed);
+    assertEquals(1, d.getStatementCacheHits());
+
+    // Without the cache, every update prepares and closes a statement
+    d.setStatementCacheSize(0);
+    assertTrue(statement.closed);
+    d.executeUpdate(sql, "y", 3);
+    d.executeUpdate(sql, "z", 4);
+    assertEquals(3, stub.statements(sql).size());
+    assertTrue(stub.statements(sql).get(1).closed);
+    assertTrue(stub.statements(sql).get(2).closed);
+    assertEquals(3, d.getStatementCacheMisses());
+
+    // Without the cache, closing the result closes the statement
+    ResultSet rs = d.query("SELECT * FROM t WHERE a=?", "x");
+    Database.close(rs);
+    assertTrue(stub.statements("SELECT * FROM t WHERE a=?").get(0).closed);
+    d.close();
+  }
+
+  @Test
+  public void evictionTest() throws Exception {
+    StubConnection stub = new StubConnection();
+    DummyDatabase d = database(stub);
+    d.setStatementCacheSize(2);
+    for (String sql : new String[] { "UPDATE t SET a=?", "UPDATE t SET b=?", "UPDATE t SET a=?", "UPDATE t SET c=?" })
+      d.executeUpdate(sql, 1);
+    // b was used least recently
+    assertTrue(stub.statements("UPDATE t SET b=?").get(0).closed);
+    assertFalse(stub.statements("UPDATE t SET a=?").get(0).closed);
+    assertFalse(stub.statements("UPDATE t SET c=?").get(0).closed);
+    assertEquals(2, d.cachedStatements.size());
+    d.executeUpdate("UPDATE t SET b=?", 1);
+    assertEquals(2, stub.statements("UPDATE t SET b=?").size());
+    assertTrue(stub.statements("UPDATE t SET a=?").get(0).closed);
+    assertEquals(1, d.getStatementCacheHits());
+    assertEquals(4, d.getStatementCacheMisses());
+    d.close();
+    assertTrue(d.cachedStatements.isEmpty());
+  }
+
+  @Test
+  public void threadsTest() throws Exception {
+    StubConnection stub = new StubConnection();
+    final DummyDatabase d = database(stub);
+    final String sql = "UPDATE t SET a=?";
+    d.executeUpdate(sql, 1);
+    // Another thread prepares a statement of its own
+    Thread t = new Thread() {
+
+      @Override
+      public void run() {
+        try {
+          d.executeUpdate(sql, 2);
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    t.start();
+    t.join();
+    assertEquals(2, stub.statements(sql).size());
+    StubStatement dead = stub.statements(sql).get(1);
+    assertFalse(dead.closed);
+    // The statements of the dead thread are closed with the next miss
+    d.executeUpdate(sql, 3);
+    assertFalse(dead.closed);
+    d.executeUpdate("UPDATE t SET b=?", 3);
+    assertTrue(dead.closed);
+    assertFalse(d.cachedStatements.contains(dead.statement));
+    assertFalse(stub.statements(sql).get(0).closed);
+    // releaseConnection() closes the statements of the current thread
+    d.releaseConnection();
+    assertTrue(stub.statements(sql).get(0).closed);
+    assertTrue(d.cachedStatements.isEmpty());
+    d.close();
+  }
+
+  @Test
+  public void instancesTest() throws Exception {
+    // The databases do not see each other's statements
+    StubConnection stub1 = new StubConnection();
+    StubConnection stub2 = new StubConnection();
+    DummyDatabase d1 = database(stub1);
+    DummyDatabase d2 = database(stub2);
+    d1.executeUpdate("UPDATE t SET a=?", 1);
+    d2.executeUpdate("UPDATE t SET a=?", 1);
+    assertEquals(1, d1.cachedStatements.size());
+    assertTrue(d1.cachedStatements.contains(stub1.statements.get(0).statement));
+    assertFalse(d1.cachedStatements.contains(stub2.statements.get(0).statement));
+    d2.close();
+    assertTrue(stub2.statements.get(0).closed);
+    assertFalse(stub1.statements.get(0).closed);
+    d1.close();
+  }
+}
@@ -0,0 +1,202 @@
+package javatools.database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * A stand-in Connection (made by a Proxy) that records the statements that are
+ * prepared on it and what they execute, so that the statement handling of
+ * Database can be tested without a database server. A query returns one row
+ * with the parameters of the query.
+ */
+public class StubConnection implements InvocationHandler {
+
+  /** The connection */
+  public final Connection connection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, this);
+
+  /** The statements prepared on the connection, in order */
+  public final List<StubStatement> statements = Collections.synchronizedList(new ArrayList<StubStatement>());
+
+  /** TRUE if the connection has been closed */
+  public boolean closed = false;
+
+  /** Auto-commit mode */
+  public boolean autoCommit = true;
+
+  /** Number of commits and rollbacks */
+  public int commits = 0, rollbacks = 0;
+
+  /** A prepared statement on the connection */
+  public class StubStatement implements InvocationHandler {
+
+    /** The statement */
+    public final PreparedStatement statement = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+        new Class<?>[] { PreparedStatement.class }, this);
+
+    /** The SQL of the statement */
+    public final String sql;
+
+    /** TRUE if the statement has been closed */
+    public boolean closed = false;
+
+    /** The parameters that are currently set */
+    public TreeMap<Integer, Object> parameters = new TreeMap<Integer, Object>();
+
+    /** The rows that have been added to the batch */
+    public List<List<Object>> batch = new ArrayList<List<Object>>();
+
+    /** The rows that have been executed */
+    public List<List<Object>> executed = new ArrayList<List<Object>>();
+
+    /** Number of executions (of batches, updates and queries) */
+    public int executions = 0;
+
+    /** Thrown by the next execution if not NULL */
+    public SQLException failExecute;
+
+    /** Thrown by clearBatch() if not NULL */
+    public SQLException failClear;
+
+    public StubStatement(String sql) {
+      this.sql = sql;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      String name = method.getName();
+      if (name.equals("close")) closed = true;
+      else if (name.equals("isClosed")) return (closed);
+      else if (name.equals("setObject") || name.equals("setString") || name.equals("setInt")) parameters.put((Integer) args[0], args[1]);
+      else if (name.equals("setNull")) parameters.put((Integer) args[0], null);
+      else if (name.equals("clearParameters")) parameters.clear();
+      else if (name.equals("addBatch")) {
+        if (closed) throw new SQLException("Statement is closed");
+        batch.add(new ArrayList<Object>(parameters.values()));
+      } else if (name.equals("clearBatch")) {
+        batch.clear();
+        if (failClear != null) throw failClear;
+      } else if (name.equals("executeBatch")) {
+        execute();
+        int[] result = new int[batch.size()];
+        Arrays.fill(result, 1);
+        executed.addAll(batch);
+        batch.clear();
+        return (result);
+      } else if (name.equals("executeUpdate")) {
+        execute();
+        executed.add(new ArrayList<Object>(parameters.values()));
+        return (1);
+      } else if (name.equals("executeQuery")) {
+        execute();
+        executed.add(new ArrayList<Object>(parameters.values()));
+        return (new StubResultSet(this, new ArrayList<Object>(parameters.values())).resultSet);
+      } else if (name.equals("getConnection")) return (connection);
+      else if (name.equals("hashCode")) return (System.identityHashCode(proxy));
+      else if (name.equals("equals")) return (proxy == args[0]);
+      else if (name.equals("toString")) return ("StubStatement " + sql);
+      else if (!name.equals("setFetchSize")) throw new SQLFeatureNotSupportedException(name);
+      return (null);
+    }
+
+    /** Counts an execution, throws failExecute if set */
+    protected void execute() throws SQLException {
+      if (closed) throw new SQLException("Statement is closed");
+      executions++;
+      SQLException e = failExecute;
+      failExecute = null;
+      if (e != null) throw e;
+    }
+  }
+
+  /** A result set with one row */
+  public static class StubResultSet implements InvocationHandler {
+
+    /** The result set */
+    public final ResultSet resultSet = (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class }, this);
+
+    /** The statement that made the result set */
+    public final StubStatement statement;
+
+    /** The values of the row */
+    public final List<Object> row;
+
+    /** Position (-1 before the row) */
+    public int pos = -1;
+
+    /** TRUE if the result set has been closed */
+    public boolean closed = false;
+
+    public StubResultSet(StubStatement statement, List<Object> row) {
+      this.statement = statement;
+      this.row = row;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      String name = method.getName();
+      if (name.equals("close")) closed = true;
+      else if (name.equals("isClosed")) return (closed);
+      else if (name.equals("next")) return (++pos == 0);
+      else if (name.equals("getObject")) return (row.get((Integer) args[0] - 1));
+      else if (name.equals("getString")) return (String.valueOf(row.get((Integer) args[0] - 1)));
+      else if (name.equals("getStatement")) return (statement.statement);
+      else if (name.equals("hashCode")) return (System.identityHashCode(proxy));
+      else if (name.equals("equals")) return (proxy == args[0]);
+      else if (name.equals("toString")) return ("StubResultSet " + row);
+      else throw new SQLFeatureNotSupportedException(name);
+      return (null);
+    }
+  }
+
+  /** Returns the statements that were prepared for the SQL */
+  public List<StubStatement> statements(String sql) {
+    List<StubStatement> result = new ArrayList<StubStatement>();
+    synchronized (statements) {
+      for (StubStatement s : statements)
+        if (s.sql.equals(sql)) result.add(s);
+    }
+    return (result);
+  }
+
+  /** Returns the stub of a statement */
+  public StubStatement stub(Statement statement) {
+    synchronized (statements) {
+      for (StubStatement s : statements)
+        if (s.statement == statement) return (s);
+    }
+    return (null);
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    String name = method.getName();
+    if (name.equals("close")) closed = true;
+    else if (name.equals("isClosed")) return (closed);
+    else if (name.equals("isValid")) return (!closed);
+    else if (name.equals("prepareStatement") || name.equals("createStatement")) {
+      StubStatement s = new StubStatement(name.equals("prepareStatement") ? (String) args[0] : "");
+      statements.add(s);
+      return (s.statement);
+    } else if (name.equals("getAutoCommit")) return (autoCommit);
+    else if (name.equals("setAutoCommit")) autoCommit = (Boolean) args[0];
+    else if (name.equals("commit")) commits++;
+    else if (name.equals("rollback")) rollbacks++;
+    else if (name.equals("hashCode")) return (System.identityHashCode(proxy));
+    else if (name.equals("equals")) return (proxy == args[0]);
+    else if (name.equals("toString")) return ("StubConnection@" + Integer.toHexString(System.identityHashCode(proxy)));
+    else throw new SQLFeatureNotSupportedException(name);
+    return (null);
+  }
+}
@@ -0,0 +1,95 @@
+package javatools.datatypes;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class AhoCorasickTest {
+
+  /** Returns a random string over a small alphabet, so that words overlap often */
+  protected static String random(Random random, String alphabet, int maxLength) {
+    int length = 1 + random.nextInt(maxLength);
+    StringBuilder b = new StringBuilder();
+    for (int i = 0; i < length; i++)
+      b.append(alphabet.charAt(random.nextInt(alphabet.length())));
+    return (b.toString());
+  }
+
+  /** TRUE if the match does not start or end inside a word */
+  protected static boolean wholeWord(String text, int start, int end) {
+    if (start > 0 && Character.isLetterOrDigit(text.charAt(start - 1)) && Character.isLetterOrDigit(text.charAt(start))) return (false);
+    if (end < text.length() && Character.isLetterOrDigit(text.charAt(end - 1)) && Character.isLetterOrDigit(text.charAt(end))) return (false);
+    return (true);
+  }
+
+  /** Looks up every substring of the text, as "start-end value" strings */
+  protected static List<String> bruteForce(Map<String, String> words, String text, boolean ignoreCase, boolean longestOnly, boolean wholeWords) {
+    List<String> result = new ArrayList<String>();
+    int covered = 0;
+    for (int start = 0; start < text.length(); start++) {
+      if (longestOnly && start < covered) continue;
+      for (int end = text.length(); end > start; end--) {
+        String s = text.substring(start, end);
+        String value = words.get(ignoreCase ? s.toLowerCase() : s);
+        if (value == null || wholeWords && !wholeWord(text, start, end)) continue;
+        result.add(start + "-" + end + " " + value);
+        if (longestOnly) {
+          covered = end;
+          break;
+        }
+      }
+    }
+    return (result);
+  }
+
+  /** Returns the matches as "start-end value" strings */
+  protected static List<String> strings(List<AhoCorasick.Match<String>> matches) {
+    List<String> result = new ArrayList<String>();
+    for (AhoCorasick.Match<String> m : matches)
+      result.add(m.toString());
+    return (result);
+  }
+
+  @Test
+  public void bruteForceTest() {
+    Random random = new Random(42);
+    for (int round = 0; round < 200; round++) {
+      boolean ignoreCase = round % 2 == 0;
+      Map<String, String> words = new LinkedHashMap<String, String>();
+      int n = 1 + random.nextInt(20);
+      for (int i = 0; i < n; i++) {
+        String w = random(random, "abc", 5);
+        words.put(w, "<" + w + ">");
+      }
+      String text = random(random, ignoreCase ? "abcAB c" : "abc c", 200);
+      AhoCorasick<String> ac = AhoCorasick.of(words, ignoreCase);
+      for (boolean longestOnly : new boolean[] { false, true }) {
+        for (boolean wholeWords : new boolean[] { false, true }) {
+          AhoCorasick<String> options = ac.withLongestOnly(longestOnly).withWholeWords(wholeWords);
+          assertEquals(text + " " + words.keySet(), bruteForce(words, text, ignoreCase, longestOnly, wholeWords), strings(options.matches(text)));
+        }
+      }
+      // The options of the original automaton did not change
+      assertFalse(ac.longestOnly());
+      assertFalse(ac.wholeWords());
+    }
+  }
+
+  @Test
+  public void frozenTest() {
+    Trie trie = new Trie();
+    for (String w : new String[] { "he", "she", "his", "hers" })
+      trie.add(w);
+    String text = "ushers and his hens";
+    List<String> expected = strings(AhoCorasick.of(trie, false).matches(text));
+    assertEquals("[1-4 she, 2-6 hers, 2-4 he, 11-14 his, 15-17 he]", expected.toString());
+    assertEquals(expected, strings(AhoCorasick.of(trie.freeze(), false).matches(text)));
+    assertEquals("[1-4 she, 11-14 his, 15-17 he]", strings(AhoCorasick.of(trie, false).withLongestOnly(true).matches(text)).toString());
+  }
+}
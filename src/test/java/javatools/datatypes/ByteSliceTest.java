@@ -0,0 +1,46 @@
+package javatools.datatypes;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+public class ByteSliceTest {
+
+  @Test
+  public void sliceTest() throws Exception {
+    byte[] bytes = "xxHello wörldxx".getBytes("UTF-8");
+    ByteSlice s = new ByteSlice(bytes, 2, bytes.length - 4);
+    assertEquals("Hello wörld", s.toString(Charset.forName("UTF-8")));
+    assertEquals(new String(bytes, 2, bytes.length - 4, "ISO-8859-1"), s.toString());
+    assertEquals(bytes.length - 4, s.length());
+    assertEquals('H', s.charAt(0));
+    assertEquals((char) 0xC3, s.charAt(7));
+    assertEquals(2, s.indexOf((byte) 'l'));
+    assertEquals(3, s.indexOf((byte) 'l', 3));
+    assertEquals(-1, s.indexOf((byte) 'x'));
+    assertTrue(s.startsWith("Hello"));
+    assertFalse(s.startsWith("Hello world and more"));
+    assertEquals("ell", s.subSequence(1, 4).toString());
+  }
+
+  @Test
+  public void compareTest() throws Exception {
+    byte[] bytes = "abcabd".getBytes("ISO-8859-1");
+    ByteSlice abc = new ByteSlice(bytes, 0, 3);
+    ByteSlice copy = abc.copy();
+    assertNotSame(bytes, copy.data);
+    assertEquals(abc, copy);
+    assertEquals(abc.hashCode(), copy.hashCode());
+    assertFalse(abc.equals(new ByteSlice(bytes, 3, 3)));
+    assertTrue(abc.compareTo(new ByteSlice(bytes, 3, 3)) < 0);
+    assertTrue(abc.compareTo(new ByteSlice(bytes, 0, 2)) > 0);
+    // Bytes compare unsigned
+    assertTrue(abc.compareTo(new ByteSlice(new byte[] { (byte) 0xE9 })) < 0);
+    // set() moves the slice, the copy keeps its content
+    abc.set(bytes, 3, 3);
+    assertEquals("abd", abc.toString());
+    assertEquals("abc", copy.toString());
+  }
+}
@@ -0,0 +1,114 @@
+package javatools.datatypes;
+
+import static javatools.datatypes.ConcurrentIntHashMapTest.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javatools.datatypes.ConcurrentIntHashMapTest.Job;
+import javatools.datatypes.IntHashMapTest.Key;
+
+import org.junit.Test;
+
+public class ConcurrentDoubleHashMapTest {
+
+  @Test
+  public void increaseTest() throws Throwable {
+    // Few stripes and colliding hash codes, so that the threads meet
+    final ConcurrentDoubleHashMap<Key> map = new ConcurrentDoubleHashMap<Key>(4);
+    runThreads(new Job() {
+
+      @Override
+      public void run(int thread) {
+        for (int[] update : updates(thread)) {
+          if (update[1] == 0) map.increase(new Key(update[0]));
+          else map.add(new Key(update[0]), update[1] * 0.5);
+        }
+      }
+    });
+    DoubleHashMap<Key> expected = new DoubleHashMap<Key>();
+    for (int t = 0; t < THREADS; t++) {
+      for (int[] update : updates(t)) {
+        if (update[1] == 0) expected.increase(new Key(update[0]));
+        else expected.add(new Key(update[0]), update[1] * 0.5);
+      }
+    }
+    DoubleHashMap<Key> snapshot = map.snapshot();
+    assertEquals(expected, snapshot);
+    assertEquals(expected.size(), map.size());
+    assertEquals(expected.computeSum(), map.computeSum(), 0);
+    for (Key key : expected.keys())
+      assertEquals(expected.get(key), map.get(key), 0);
+  }
+
+  @Test
+  public void mergeTest() throws Throwable {
+    Random random = new Random(7);
+    List<DoubleHashMap<String>> maps = new ArrayList<DoubleHashMap<String>>();
+    DoubleHashMap<String> expected = new DoubleHashMap<String>();
+    for (int m = 0; m < 40; m++) {
+      DoubleHashMap<String> map = new DoubleHashMap<String>();
+      for (int i = 0; i < 2000; i++)
+        map.add("key" + random.nextInt(KEYS), (random.nextInt(10) - 3) * 0.25);
+      maps.add(map);
+      expected.add(map);
+    }
+    ConcurrentDoubleHashMap<String> merged = new ConcurrentDoubleHashMap<String>(2).merge(maps, THREADS);
+    assertEquals(expected, merged.snapshot());
+    // Merging into a map that is increased at the same time
+    final ConcurrentDoubleHashMap<String> map = new ConcurrentDoubleHashMap<String>(2);
+    final List<DoubleHashMap<String>> parts = maps;
+    runThreads(new Job() {
+
+      @Override
+      public void run(int thread) throws Exception {
+        if (thread == 0) map.merge(parts, 3);
+        else for (int i = 0; i < 1000; i++)
+          map.increase("key" + i % KEYS);
+      }
+    });
+    for (int i = 0; i < 1000; i++)
+      expected.add("key" + i % KEYS, THREADS - 1);
+    assertEquals(expected, map.snapshot());
+  }
+
+  @Test
+  public void snapshotTest() throws Throwable {
+    // Each writer increases a, then b. A consistent snapshot never shows b ahead of a,
+    // nor a ahead by more than 1.
+    final ConcurrentDoubleHashMap<String> map = new ConcurrentDoubleHashMap<String>(16);
+    final AtomicBoolean done = new AtomicBoolean(false);
+    final int writers = THREADS - 1;
+    runThreads(new Job() {
+
+      @Override
+      public void run(int thread) {
+        if (thread < writers) {
+          for (int i = 0; i < UPDATES; i++) {
+            map.increase("a" + thread);
+            map.increase("b" + thread);
+          }
+          return;
+        }
+        while (!done.get()) {
+          DoubleHashMap<String> snapshot = map.snapshot();
+          boolean running = false;
+          for (int w = 0; w < writers; w++) {
+            double a = snapshot.get("a" + w, 0);
+            double b = snapshot.get("b" + w, 0);
+            assertTrue(a + " " + b, a == b || a == b + 1);
+            if (b < UPDATES) running = true;
+          }
+          if (!running) done.set(true);
+        }
+      }
+    });
+    for (int w = 0; w < writers; w++) {
+      assertEquals(UPDATES, map.get("a" + w), 0);
+      assertEquals(UPDATES, map.get("b" + w), 0);
+    }
+  }
+}
@@ -0,0 +1,168 @@
+package javatools.datatypes;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javatools.datatypes.IntHashMapTest.Key;
+
+import org.junit.Test;
+
+public class ConcurrentIntHashMapTest {
+
+  /** Number of writing threads */
+  protected static final int THREADS = 8;
+
+  /** Number of updates per thread */
+  protected static final int UPDATES = 20000;
+
+  /** Number of distinct keys */
+  protected static final int KEYS = 500;
+
+  /** Runs the job on THREADS threads that start at the same time, rethrows the first failure */
+  protected static void runThreads(final Job job) throws Throwable {
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < THREADS; t++) {
+      final int thread = t;
+      threads.add(new Thread() {
+
+        @Override
+        public void run() {
+          try {
+            start.await();
+            job.run(thread);
+          } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+          }
+        }
+      });
+    }
+    for (Thread t : threads)
+      t.start();
+    start.countDown();
+    for (Thread t : threads)
+      t.join();
+    if (failure.get() != null) throw failure.get();
+  }
+
+  /** The work of one thread */
+  protected interface Job {
+
+    public void run(int thread) throws Exception;
+  }
+
+  /** The updates of one thread: keys and deltas (0 for increase) */
+  protected static int[][] updates(int thread) {
+    Random random = new Random(thread);
+    int[][] result = new int[UPDATES][2];
+    for (int i = 0; i < UPDATES; i++) {
+      result[i][0] = random.nextInt(KEYS);
+      result[i][1] = random.nextInt(5) - 2;
+    }
+    return (result);
+  }
+
+  @Test
+  public void increaseTest() throws Throwable {
+    // Few stripes and colliding hash codes, so that the threads meet
+    final ConcurrentIntHashMap<Key> map = new ConcurrentIntHashMap<Key>(4);
+    runThreads(new Job() {
+
+      @Override
+      public void run(int thread) {
+        for (int[] update : updates(thread)) {
+          if (update[1] == 0) map.increase(new Key(update[0]));
+          else map.add(new Key(update[0]), update[1]);
+        }
+      }
+    });
+    IntHashMap<Key> expected = new IntHashMap<Key>();
+    for (int t = 0; t < THREADS; t++) {
+      for (int[] update : updates(t)) {
+        if (update[1] == 0) expected.increase(new Key(update[0]));
+        else expected.add(new Key(update[0]), update[1]);
+      }
+    }
+    IntHashMap<Key> snapshot = map.snapshot();
+    assertEquals(expected, snapshot);
+    assertEquals(expected.size(), map.size());
+    assertEquals(expected.computeSum(), map.computeSum());
+    for (Key key : expected.keys())
+      assertEquals(expected.get(key), map.get(key));
+  }
+
+  @Test
+  public void mergeTest() throws Throwable {
+    Random random = new Random(7);
+    List<IntHashMap<String>> maps = new ArrayList<IntHashMap<String>>();
+    IntHashMap<String> expected = new IntHashMap<String>();
+    for (int m = 0; m < 40; m++) {
+      IntHashMap<String> map = new IntHashMap<String>();
+      for (int i = 0; i < 2000; i++)
+        map.add("key" + random.nextInt(KEYS), random.nextInt(10) - 3);
+      maps.add(map);
+      expected.add(map);
+    }
+    ConcurrentIntHashMap<String> merged = new ConcurrentIntHashMap<String>(2).merge(maps, THREADS);
+    assertEquals(expected, merged.snapshot());
+    // Merging into a map that is increased at the same time
+    final ConcurrentIntHashMap<String> map = new ConcurrentIntHashMap<String>(2);
+    final List<IntHashMap<String>> parts = maps;
+    runThreads(new Job() {
+
+      @Override
+      public void run(int thread) throws Exception {
+        if (thread == 0) map.merge(parts, 3);
+        else for (int i = 0; i < 1000; i++)
+          map.increase("key" + i % KEYS);
+      }
+    });
+    for (int i = 0; i < 1000; i++)
+      expected.add("key" + i % KEYS, THREADS - 1);
+    assertEquals(expected, map.snapshot());
+  }
+
+  @Test
+  public void snapshotTest() throws Throwable {
+    // Each writer increases a, then b. A consistent snapshot never shows b ahead of a,
+    // nor a ahead by more than 1.
+    final ConcurrentIntHashMap<String> map = new ConcurrentIntHashMap<String>(16);
+    final AtomicBoolean done = new AtomicBoolean(false);
+    final int writers = THREADS - 1;
+    runThreads(new Job() {
+
+      @Override
+      public void run(int thread) {
+        if (thread < writers) {
+          for (int i = 0; i < UPDATES; i++) {
+            map.increase("a" + thread);
+            map.increase("b" + thread);
+          }
+          return;
+        }
+        while (!done.get()) {
+          IntHashMap<String> snapshot = map.snapshot();
+          boolean running = false;
+          for (int w = 0; w < writers; w++) {
+            int a = snapshot.get("a" + w, 0);
+            int b = snapshot.get("b" + w, 0);
+            assertTrue(a + " " + b, a == b || a == b + 1);
+            if (b < UPDATES) running = true;
+          }
+          if (!running) done.set(true);
+        }
+      }
+    });
+    for (int w = 0; w < writers; w++) {
+      assertEquals(UPDATES, map.get("a" + w));
+      assertEquals(UPDATES, map.get("b" + w));
+    }
+  }
+}
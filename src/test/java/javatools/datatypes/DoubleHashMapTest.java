@@ -0,0 +1,49 @@
+package javatools.datatypes;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+import javatools.datatypes.IntHashMapTest.Key;
+
+import org.junit.Test;
+
+public class DoubleHashMapTest {
+
+  @Test
+  public void randomTest() {
+    Random random = new Random(42);
+    DoubleHashMap<Key> map = new DoubleHashMap<Key>(1, 0.9f);
+    Map<Key, Double> expected = new HashMap<Key, Double>();
+    for (int step = 0; step < 50000; step++) {
+      Key key = new Key(random.nextInt(500));
+      double value = random.nextInt(100) / 4.0;
+      switch (random.nextInt(5)) {
+        case 0:
+          assertEquals(!expected.containsKey(key), map.put(key, value));
+          expected.put(key, value);
+          break;
+        case 1:
+          Double old = expected.get(key);
+          assertEquals(old == null, map.add(key, value));
+          expected.put(key, old == null ? value : old + value);
+          break;
+        case 2:
+        case 3:
+          assertEquals(expected.remove(key) != null, map.remove(key));
+          break;
+        default:
+          Double v = expected.get(key);
+          assertEquals(v != null, map.containsKey(key));
+          assertEquals(v == null ? -1 : v, map.get(key), 0);
+      }
+      assertEquals(expected.size(), map.size());
+    }
+    for (Map.Entry<Key, Double> e : expected.entrySet())
+      assertEquals(e.getValue(), map.get(e.getKey()), 0);
+    assertEquals(expected.keySet(), new HashSet<Key>(map));
+  }
+}
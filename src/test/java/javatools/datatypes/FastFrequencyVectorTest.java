@@ -0,0 +1,105 @@
+package javatools.datatypes;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FastFrequencyVectorTest {
+
+  /** Returns random counts with many ties, and some zero and negative ones */
+  protected static Map<Integer, Double> random(Random random, int numTerms) {
+    Map<Integer, Double> map = new HashMap<Integer, Double>();
+    for (int i = 0; i < numTerms; i++)
+      map.put(random.nextInt(numTerms * 2), (double) (random.nextInt(12) - 2));
+    return (map);
+  }
+
+  /** Checks that the ranks have the same values (the order of ties is arbitrary) */
+  protected static void checkRanks(FrequencyVector<Integer, Double> expected, FastFrequencyVector<Integer> found) {
+    for (int i = 0; i <= expected.numTerms(); i++) {
+      if (i == expected.numTerms()) {
+        assertNull(found.termAtRank(i));
+        break;
+      }
+      assertEquals(expected.doubleValueFor(expected.termAtRank(i)), found.doubleValueFor(found.termAtRank(i)), 0);
+    }
+    List<Integer> sorted = found.sortedTerms();
+    assertEquals(expected.numTerms(), sorted.size());
+    for (int i = 0; i < sorted.size(); i++)
+      assertEquals(expected.doubleValueFor(expected.termAtRank(i)), found.doubleValueFor(sorted.get(i)), 0);
+  }
+
+  @Test
+  public void parityTest() {
+    Random random = new Random(42);
+    for (int round = 0; round < 300; round++) {
+      int n = round % 10 == 0 ? 0 : 1 + random.nextInt(60);
+      Map<Integer, Double> a = random(random, n);
+      Map<Integer, Double> b = random(random, 1 + random.nextInt(60));
+      FrequencyVector<Integer, Double> slow = new FrequencyVector<Integer, Double>(new HashMap<Integer, Double>(a));
+      FrequencyVector<Integer, Double> slowB = new FrequencyVector<Integer, Double>(new HashMap<Integer, Double>(b));
+      FastFrequencyVector<Integer> fast = new FastFrequencyVector<Integer>(a);
+      FastFrequencyVector<Integer> fastB = new FastFrequencyVector<Integer>(b);
+
+      assertEquals(slow.numTerms(), fast.numTerms());
+      assertEquals(slow.sum(), fast.sum(), 1e-9);
+      assertEquals(slow.norm(), fast.norm(), 1e-9);
+      assertEquals(slow.max(), fast.max(), 0);
+      assertEquals(slow.terms(), fast.terms());
+      for (int term = -1; term < 2 * n + 1; term++) {
+        assertEquals(slow.valueFor(term), fast.valueFor(term));
+        assertEquals(slow.doubleValueFor(term), fast.doubleValueFor(term), 0);
+        assertEquals(slow.normalizedValueFor(term), fast.normalizedValueFor(term), 1e-12);
+      }
+      // Ask for a few ranks first, so that the ranking is extended later
+      int k = random.nextInt(5);
+      assertEquals(Math.min(k, slow.numTerms()), fast.topTerms(k).size());
+      checkRanks(slow, fast);
+      assertEquals(slow.firstTiePos() == -1, fast.firstTiePos() == -1);
+
+      // With another fast vector, and with a FrequencyVector
+      assertEquals(slow.cosine(slowB), fast.cosine(fastB), 1e-9);
+      assertEquals(slow.cosine(slowB), fast.cosine(slowB), 1e-9);
+      assertEquals(slow.intersection(slowB), fast.intersection(fastB));
+      assertEquals(slow.intersection(slowB), fast.intersection(slowB));
+      assertEquals(slow.intersection(slowB).size(), fast.intersectionSize(fastB));
+      assertEquals(slow.precisionWithRespectTo(slowB), fast.precisionWithRespectTo(fastB), 1e-12);
+      assertEquals(slow.recallWithRespectTo(slowB), fast.recallWithRespectTo(fastB), 1e-12);
+      assertEquals(slow.fuzzyRecallWithRespectTo(slowB), fast.fuzzyRecallWithRespectTo(fastB), 1e-9);
+      assertEquals(slow.fuzzyPrecisionWithRespectTo(slowB), fast.fuzzyPrecisionWithRespectTo(fastB), 1e-9);
+      assertEquals(slow.fuzzyRecallWithRespectTo(slowB), fast.fuzzyRecallWithRespectTo(slowB), 1e-9);
+      assertEquals(slow.normalized().terms(), fast.normalized().terms());
+      assertEquals(new FastFrequencyVector<Integer>(slow), fast);
+    }
+  }
+
+  @Test
+  public void topTermsTest() {
+    FastFrequencyVector<String> empty = new FastFrequencyVector<String>(new DoubleHashMap<String>());
+    assertTrue(empty.topTerms(0).isEmpty());
+    assertTrue(empty.topTerms(5).isEmpty());
+    assertTrue(empty.sortedTerms().isEmpty());
+    assertNull(empty.termAtRank(0));
+    assertEquals("[]", empty.toString());
+    DoubleHashMap<String> map = new DoubleHashMap<String>();
+    map.put("a", 3);
+    map.put("b", 1);
+    map.put("c", 2);
+    FastFrequencyVector<String> v = new FastFrequencyVector<String>(map);
+    assertTrue(v.topTerms(0).isEmpty());
+    assertTrue(v.topTerms(-1).isEmpty());
+    assertEquals("[a, c]", v.topTerms(2).toString());
+    assertEquals("[a (3.0), c (2.0), b (1.0)]", v.toString());
+    try {
+      v.topTerms(2).set(0, "x");
+      fail("The list can be modified");
+    } catch (UnsupportedOperationException e) {
+    }
+    assertEquals("a", v.termAtRank(0));
+  }
+}
@@ -0,0 +1,86 @@
+package javatools.datatypes;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class FrozenTrieTest {
+
+  /** Returns n distinct words */
+  protected static List<String> words(int n) {
+    List<String> result = new ArrayList<String>();
+    for (int i = 0; i < n; i++)
+      result.add("w" + Integer.toString(i * 7919, 36) + (i % 5 == 0 ? "é" : ""));
+    return (result);
+  }
+
+  /** Saves and reopens a frozen trie, checks that it has the same words */
+  protected static void roundTrip(FrozenTrie frozen, List<String> words) throws Exception {
+    File f = File.createTempFile("frozenTrie", ".trie");
+    f.deleteOnExit();
+    frozen.save(f);
+    assertEquals(FrozenTrie.fileLength(frozen.numNodes()), f.length());
+    FrozenTrie reopened = FrozenTrie.open(f);
+    assertEquals(frozen.numNodes(), reopened.numNodes());
+    assertEquals(words.size(), reopened.size());
+    for (String w : words)
+      assertEquals(frozen.indexOf(w), reopened.indexOf(w));
+    assertEquals(frozen.iterator().asList(), reopened.iterator().asList());
+    f.delete();
+  }
+
+  @Test
+  public void roundTripTest() throws Exception {
+    Trie t = new Trie();
+    List<String> words = words(20000);
+    for (String w : words)
+      t.add(w);
+    roundTrip(t.freeze(), words);
+  }
+
+  @Test
+  public void largeRoundTripTest() throws Exception {
+    // More than 1 MB, so that the write buffer is flushed in the middle of the chars.
+    // With these numbers of nodes, padding the buffer instead of the file was off by 2 bytes.
+    for (int numNodes : new int[] { 104986, 104987, 120000 }) {
+      // Each word adds one node
+      List<String> words = new ArrayList<String>();
+      for (int k = 1; k < numNodes; k++) {
+        if (k < 60000) words.add(String.valueOf((char) (0x100 + k)));
+        else words.add(String.valueOf((char) (0x100 + k / 60000)) + (char) (0x100 + k % 60000));
+      }
+      Trie t = new Trie();
+      for (String w : words)
+        t.add(w);
+      FrozenTrie frozen = t.freeze();
+      assertEquals(numNodes, frozen.numNodes());
+      assertTrue(FrozenTrie.fileLength(numNodes) > 1024 * 1024);
+      roundTrip(frozen, words);
+    }
+  }
+
+  @Test
+  public void mapRoundTripTest() throws Exception {
+    TrieMap<String> map = new TrieMap<String>();
+    List<String> words = words(1000);
+    for (String w : words)
+      map.put(w, "<" + w + ">");
+    map.put("", "<>");
+    FrozenTrieMap<String> frozen = map.freeze();
+    File f = File.createTempFile("frozenTrieMap", ".trie");
+    f.deleteOnExit();
+    frozen.save(f);
+    FrozenTrieMap<String> reopened = FrozenTrieMap.open(f);
+    assertEquals(words.size() + 1, reopened.size());
+    for (String w : words)
+      assertEquals("<" + w + ">", reopened.get(w));
+    assertEquals("<>", reopened.get(""));
+    assertNull(reopened.get("w"));
+    assertEquals(words.get(5).length(), reopened.containedLength(words.get(5) + " and more", 0));
+    f.delete();
+  }
+}
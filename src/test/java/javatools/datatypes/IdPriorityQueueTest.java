@@ -0,0 +1,80 @@
+package javatools.datatypes;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class IdPriorityQueueTest {
+
+  /** Returns the highest priority in the map */
+  protected static double max(Map<Integer, Double> map) {
+    double max = Double.NEGATIVE_INFINITY;
+    for (double d : map.values())
+      max = Math.max(max, d);
+    return (max);
+  }
+
+  @Test
+  public void randomTest() {
+    Random random = new Random(42);
+    IdPriorityQueue queue = new IdPriorityQueue();
+    Map<Integer, Double> expected = new HashMap<Integer, Double>();
+    for (int step = 0; step < 100000; step++) {
+      int id = random.nextInt(1000) - 500;
+      switch (random.nextInt(5)) {
+        case 0:
+        case 1:
+          // Adds or updates, with ties
+          double priority = random.nextInt(100);
+          queue.add(id, priority);
+          expected.put(id, priority);
+          break;
+        case 2:
+          assertEquals(expected.remove(id) != null, queue.remove(id));
+          break;
+        case 3:
+          if (expected.isEmpty()) break;
+          double highest = queue.highestPriority();
+          assertEquals(max(expected), highest, 0);
+          int polled = queue.poll();
+          assertEquals(highest, expected.remove(polled), 0);
+          break;
+        default:
+          Double p = expected.get(id);
+          assertEquals(p == null ? Double.NaN : p, queue.priority(id), 0);
+          assertEquals(p != null, queue.contains(id));
+      }
+      assertEquals(expected.size(), queue.size());
+    }
+    // Polls in the order of the priorities
+    double last = Double.POSITIVE_INFINITY;
+    while (!queue.isEmpty()) {
+      assertEquals(queue.priority(queue.peek()), queue.highestPriority(), 0);
+      double priority = queue.highestPriority();
+      assertTrue(priority <= last);
+      assertEquals(priority, expected.remove(queue.poll()), 0);
+      last = priority;
+    }
+    assertTrue(expected.isEmpty());
+  }
+
+  @Test
+  public void updateTest() {
+    IdPriorityQueue queue = new IdPriorityQueue();
+    for (int i = 1; i < 10; i++)
+      queue.add(i, 1000 - i * 10);
+    queue.add(5, 2000);
+    queue.add(1, 0);
+    assertEquals(5, queue.peek());
+    assertTrue(queue.remove(5));
+    assertFalse(queue.remove(5));
+    int[] expected = { 2, 3, 4, 6, 7, 8, 9, 1 };
+    for (int id : expected)
+      assertEquals(id, queue.poll());
+    assertTrue(queue.isEmpty());
+  }
+}
@@ -0,0 +1,93 @@
+package javatools.datatypes;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class IntDoubleMapTest {
+
+  /** Returns a random key, many of which collide in the table */
+  protected static int randomKey(Random random) {
+    int k = random.nextInt(500);
+    switch (random.nextInt(3)) {
+      case 0:
+        return (-k);
+      case 1:
+        return (k << 20);
+      default:
+        return (k == 0 ? Integer.MIN_VALUE : k);
+    }
+  }
+
+  @Test
+  public void randomTest() {
+    Random random = new Random(42);
+    // A small table, so that the map grows many times
+    IntDoubleMap map = new IntDoubleMap(1, 0.75f);
+    Map<Integer, Double> expected = new HashMap<Integer, Double>();
+    for (int step = 0; step < 50000; step++) {
+      int key = randomKey(random);
+      double value = random.nextInt(100) / 4.0;
+      switch (random.nextInt(5)) {
+        case 0:
+          assertEquals(!expected.containsKey(key), map.put(key, value));
+          expected.put(key, value);
+          break;
+        case 1:
+          Double old = expected.get(key);
+          assertEquals(old == null, map.add(key, value));
+          expected.put(key, old == null ? value : old + value);
+          break;
+        case 2:
+        case 3:
+          // Removal shifts the colliding keys back
+          assertEquals(expected.remove(key) != null, map.remove(key));
+          break;
+        default:
+          Double v = expected.get(key);
+          assertEquals(v != null, map.containsKey(key));
+          assertEquals(v == null ? -1 : v, map.get(key), 0);
+      }
+      assertEquals(expected.size(), map.size());
+    }
+    assertEquals(expected.keySet(), new HashSet<Integer>(map.keys().asList()));
+
+    // The sorted arrays agree with the map
+    int[] keys = new int[map.size()];
+    double[] values = new double[map.size()];
+    assertEquals(expected.size(), map.toSortedArrays(keys, values));
+    assertArrayEquals(keys, map.sortedKeys());
+    double sum = 0;
+    for (int i = 0; i < keys.length; i++) {
+      if (i > 0) assertTrue(keys[i - 1] < keys[i]);
+      assertEquals(expected.get(keys[i]), values[i], 0);
+      sum += values[i];
+    }
+    assertEquals(sum, map.computeSum(), 0);
+    Arrays.sort(values);
+    assertEquals(values[values.length - 1], map.findMax(), 0);
+  }
+
+  @Test
+  public void sentinelTest() {
+    IntDoubleMap map = new IntDoubleMap();
+    map.put(Integer.MIN_VALUE, 1);
+    map.put(Integer.MAX_VALUE - 1, 2);
+    map.increase(0);
+    assertEquals(1, map.get(Integer.MIN_VALUE), 0);
+    assertEquals(1, map.get(0), 0);
+    assertFalse(map.containsKey(Integer.MAX_VALUE));
+    try {
+      map.put(Integer.MAX_VALUE, 3);
+      fail("The marker of empty positions was accepted as key");
+    } catch (RuntimeException e) {
+    }
+    assertEquals(3, map.size());
+  }
+}
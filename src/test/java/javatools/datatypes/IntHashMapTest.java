@@ -0,0 +1,91 @@
+package javatools.datatypes;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class IntHashMapTest {
+
+  /** A key whose hash code collides with that of many other keys */
+  protected static class Key {
+
+    protected final int id;
+
+    public Key(int id) {
+      this.id = id;
+    }
+
+    @Override
+    public int hashCode() {
+      // Integer.MIN_VALUE broke Math.abs(hashCode())
+      return (id % 4 == 0 ? Integer.MIN_VALUE : id % 7);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return (o instanceof Key && ((Key) o).id == id);
+    }
+
+    @Override
+    public String toString() {
+      return ("Key" + id);
+    }
+  }
+
+  @Test
+  public void randomTest() {
+    Random random = new Random(42);
+    // A small table, so that the map grows many times
+    IntHashMap<Key> map = new IntHashMap<Key>(1, 0.5f);
+    Map<Key, Integer> expected = new HashMap<Key, Integer>();
+    for (int step = 0; step < 50000; step++) {
+      Key key = new Key(random.nextInt(500));
+      int value = random.nextInt(100) - 50;
+      switch (random.nextInt(5)) {
+        case 0:
+          assertEquals(!expected.containsKey(key), map.put(key, value));
+          expected.put(key, value);
+          break;
+        case 1:
+          Integer old = expected.get(key);
+          assertEquals(old == null, map.add(key, value));
+          expected.put(key, old == null ? value : old + value);
+          break;
+        case 2:
+        case 3:
+          // Removal shifts the colliding keys back
+          assertEquals(expected.remove(key) != null, map.remove(key));
+          break;
+        default:
+          Integer v = expected.get(key);
+          assertEquals(v != null, map.containsKey(key));
+          assertEquals(v == null ? -1 : v.intValue(), map.get(key));
+      }
+      assertEquals(expected.size(), map.size());
+    }
+    for (Map.Entry<Key, Integer> e : expected.entrySet())
+      assertEquals(e.getValue().intValue(), map.get(e.getKey()));
+    assertEquals(expected.keySet(), new HashSet<Key>(map));
+  }
+
+  @Test
+  public void loadFactorTest() {
+    try {
+      new IntHashMap<String>(10, 1f);
+      fail("A load factor of 1 was accepted");
+    } catch (IllegalArgumentException e) {
+    }
+    IntHashMap<String> map = new IntHashMap<String>("a", "b", "a");
+    assertEquals(2, map.get("a"));
+    assertEquals(1, map.get("b"));
+    assertEquals(7, map.get("c", 7));
+    assertTrue(map.remove("a"));
+    assertFalse(map.containsKey("a"));
+    assertEquals(1, map.size());
+  }
+}
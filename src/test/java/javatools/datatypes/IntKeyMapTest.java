@@ -0,0 +1,67 @@
+package javatools.datatypes;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class IntKeyMapTest {
+
+  /** Returns a random key, many of which collide in the table */
+  protected static int randomKey(Random random) {
+    int k = random.nextInt(500);
+    switch (random.nextInt(3)) {
+      case 0:
+        return (-k);
+      case 1:
+        return (k << 20);
+      default:
+        return (k == 0 ? Integer.MIN_VALUE : k);
+    }
+  }
+
+  @Test
+  public void randomTest() {
+    Random random = new Random(42);
+    IntKeyMap<String> map = new IntKeyMap<String>(1, 0.75f);
+    Map<Integer, String> expected = new HashMap<Integer, String>();
+    for (int step = 0; step < 50000; step++) {
+      int key = randomKey(random);
+      switch (random.nextInt(4)) {
+        case 0:
+        case 1:
+          String value = "v" + step;
+          assertEquals(!expected.containsKey(key), map.put(key, value));
+          expected.put(key, value);
+          break;
+        case 2:
+          assertEquals(expected.remove(key) != null, map.remove(key));
+          break;
+        default:
+          assertEquals(expected.containsKey(key), map.containsKey(key));
+          assertEquals(expected.get(key), map.get(key));
+      }
+      assertEquals(expected.size(), map.size());
+    }
+    assertEquals(expected.keySet(), new HashSet<Integer>(map.keys().asList()));
+  }
+
+  @Test
+  public void sentinelTest() {
+    IntKeyMap<String> map = new IntKeyMap<String>();
+    map.put(Integer.MIN_VALUE, "min");
+    map.put(Integer.MAX_VALUE - 1, "max-1");
+    assertEquals("min", map.get(Integer.MIN_VALUE));
+    assertFalse(map.containsKey(Integer.MAX_VALUE));
+    try {
+      map.put(Integer.MAX_VALUE, "max");
+      fail("The marker of empty positions was accepted as key");
+    } catch (RuntimeException e) {
+    }
+    assertEquals(2, map.size());
+  }
+}
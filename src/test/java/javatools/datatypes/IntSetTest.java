@@ -0,0 +1,76 @@
+package javatools.datatypes;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class IntSetTest {
+
+  /** Returns a random int from a small range, so that adds and removes hit existing elements */
+  protected static int randomInt(Random random) {
+    int i = random.nextInt(2000) - 1000;
+    // Multiples of large powers of 2 collide in the table
+    return (random.nextInt(4) == 0 ? i << 16 : i);
+  }
+
+  @Test
+  public void randomTest() {
+    Random random = new Random(42);
+    IntSet set = new IntSet();
+    Set<Integer> expected = new HashSet<Integer>();
+    for (int step = 0; step < 200000; step++) {
+      int i = randomInt(random);
+      switch (random.nextInt(4)) {
+        case 0:
+        case 1:
+          assertEquals(expected.add(i), set.add(i));
+          break;
+        case 2:
+          assertEquals(expected.remove(i), set.remove(i));
+          break;
+        default:
+          assertEquals(expected.contains(i), set.contains(i));
+      }
+      assertEquals(expected.size(), set.size());
+      // Let the set grow and shrink
+      if (step % 50000 == 49999) {
+        while (set.size() > 10)
+          assertTrue(expected.remove(set.poll()));
+      }
+    }
+    Set<Integer> found = new HashSet<Integer>();
+    for (int i : set)
+      assertTrue(found.add(i));
+    assertEquals(expected, found);
+  }
+
+  @Test
+  public void pollTest() {
+    IntSet set = IntSet.of(0, -1, 7, 1 << 20, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    Set<Integer> expected = new HashSet<Integer>(set);
+    assertEquals(6, expected.size());
+    while (!set.isEmpty())
+      assertTrue(expected.remove(set.poll()));
+    assertTrue(expected.isEmpty());
+    try {
+      set.poll();
+      fail("poll() on an empty set");
+    } catch (NoSuchElementException e) {
+    }
+  }
+
+  @Test
+  public void bulkTest() {
+    IntSet set = IntSet.of(1, 2, 3, 4, 5);
+    assertTrue(set.retainAll(IntSet.of(2, 4, 6)));
+    assertEquals(new HashSet<Integer>(Arrays.asList(2, 4)), new HashSet<Integer>(set));
+    assertTrue(set.removeAll(set));
+    assertTrue(set.isEmpty());
+  }
+}
@@ -0,0 +1,121 @@
+package javatools.datatypes;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class InvertedIndexTest {
+
+  /** Returns a random vector over few dimensions, with negative values if negative is TRUE */
+  protected static SparseVector random(Random random, int numDims, int size, boolean negative) {
+    SparseVector v = InvertedIndex.randomVector(random, numDims, size);
+    if (negative) {
+      for (int i = 0; i < v.size(); i++)
+        if (random.nextInt(3) == 0) v.val[i] = -v.val[i];
+    }
+    return (v);
+  }
+
+  /** Returns the k vectors with the highest positive cosine by a scan, highest first */
+  protected static List<InvertedIndex.Neighbor> scan(List<Double> cosines, int k) {
+    List<InvertedIndex.Neighbor> result = new ArrayList<InvertedIndex.Neighbor>();
+    for (int id = 0; id < cosines.size(); id++) {
+      if (cosines.get(id) > 0) result.add(new InvertedIndex.Neighbor(id, cosines.get(id)));
+    }
+    Collections.sort(result, new Comparator<InvertedIndex.Neighbor>() {
+
+      @Override
+      public int compare(InvertedIndex.Neighbor o1, InvertedIndex.Neighbor o2) {
+        return (Double.compare(o2.score, o1.score));
+      }
+    });
+    return (result.subList(0, Math.min(k, result.size())));
+  }
+
+  /** Checks that the scores are those of the scan, and that each id has its true cosine */
+  protected static void check(List<Double> cosines, int k, List<InvertedIndex.Neighbor> found) {
+    List<InvertedIndex.Neighbor> expected = scan(cosines, k);
+    assertEquals(expected.size(), found.size());
+    for (int i = 0; i < found.size(); i++) {
+      assertEquals(expected.get(i).score, found.get(i).score, 1e-9);
+      assertEquals(cosines.get(found.get(i).id), found.get(i).score, 1e-9);
+    }
+  }
+
+  @Test
+  public void sparseVectorTest() {
+    Random random = new Random(42);
+    for (boolean negative : new boolean[] { false, true }) {
+      InvertedIndex index = new InvertedIndex();
+      List<SparseVector> vectors = new ArrayList<SparseVector>();
+      for (int i = 0; i < 3000; i++) {
+        vectors.add(random(random, 500, 1 + random.nextInt(20), negative));
+        index.add(vectors.get(i));
+      }
+      for (int q = 0; q < 100; q++) {
+        SparseVector query = random(random, 500, 1 + random.nextInt(10), negative);
+        List<Double> cosines = new ArrayList<Double>();
+        for (SparseVector v : vectors)
+          cosines.add(query.cosine(v));
+        for (int k : new int[] { 0, 1, 10, 5000 })
+          check(cosines, k, index.topK(query, k));
+      }
+    }
+  }
+
+  @Test
+  public void frequencyVectorTest() {
+    Random random = new Random(42);
+    InvertedIndex index = new InvertedIndex();
+    List<FrequencyVector<String, Integer>> vectors = new ArrayList<FrequencyVector<String, Integer>>();
+    for (int i = 0; i < 1000; i++) {
+      Map<String, Integer> map = new HashMap<String, Integer>();
+      for (int j = random.nextInt(10); j >= 0; j--)
+        map.put("term" + random.nextInt(100), 1 + random.nextInt(5));
+      vectors.add(new FrequencyVector<String, Integer>(map));
+      index.add(vectors.get(i));
+    }
+    for (int q = 0; q < 100; q++) {
+      Map<String, Integer> map = new HashMap<String, Integer>();
+      for (int j = random.nextInt(5); j >= 0; j--)
+        map.put("term" + random.nextInt(120), 1 + random.nextInt(5));
+      FrequencyVector<String, Integer> query = new FrequencyVector<String, Integer>(map);
+      List<Double> cosines = new ArrayList<Double>();
+      for (FrequencyVector<String, Integer> v : vectors)
+        cosines.add(query.cosine(v));
+      check(cosines, 10, index.topK(query, 10));
+    }
+  }
+
+  @Test
+  public void fastFrequencyVectorTest() {
+    Random random = new Random(42);
+    InvertedIndex index = new InvertedIndex();
+    List<FastFrequencyVector<String>> vectors = new ArrayList<FastFrequencyVector<String>>();
+    for (int i = 0; i < 1000; i++) {
+      DoubleHashMap<String> map = new DoubleHashMap<String>();
+      for (int j = random.nextInt(10); j >= 0; j--)
+        map.put("term" + random.nextInt(100), 1 + random.nextInt(5));
+      vectors.add(new FastFrequencyVector<String>(map));
+      index.add(vectors.get(i));
+    }
+    for (int q = 0; q < 100; q++) {
+      DoubleHashMap<String> map = new DoubleHashMap<String>();
+      for (int j = random.nextInt(5); j >= 0; j--)
+        map.put("term" + random.nextInt(120), 1 + random.nextInt(5));
+      FastFrequencyVector<String> query = new FastFrequencyVector<String>(map);
+      List<Double> cosines = new ArrayList<Double>();
+      for (FastFrequencyVector<String> v : vectors)
+        cosines.add(query.cosine(v));
+      check(cosines, 10, index.topK(query, 10));
+    }
+  }
+}
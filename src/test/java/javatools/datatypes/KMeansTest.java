@@ -0,0 +1,81 @@
+package javatools.datatypes;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class KMeansTest {
+
+  /** Returns random sparse dots around k clusters */
+  protected static SparseVector[] dots(Random random, int numDots, int k) {
+    SparseVector[] dots = new SparseVector[numDots];
+    for (int i = 0; i < numDots; i++) {
+      int cluster = random.nextInt(k);
+      int[] dim = new int[10];
+      double[] val = new double[10];
+      for (int j = 0; j < dim.length; j++) {
+        dim[j] = cluster * 20 + j * 2 + random.nextInt(2);
+        val[j] = random.nextDouble();
+      }
+      dots[i] = new SparseVector(0, dim, val);
+    }
+    return (dots);
+  }
+
+  /** Returns the squared eucledian distances of the dots to their closest centers */
+  protected static double cost(SparseVector[] dots, SparseVector[] centers) {
+    double cost = 0;
+    for (SparseVector dot : dots) {
+      double best = Double.MAX_VALUE;
+      for (SparseVector center : centers) {
+        double d = dot.eucledianDistance(center);
+        best = Math.min(best, d * d);
+      }
+      cost += best;
+    }
+    return (cost);
+  }
+
+  @Test
+  public void baselineTest() {
+    Random random = new Random(42);
+    int k = 10;
+    SparseVector[] dots = dots(random, 2000, k);
+    KMeans engine = new KMeans(dots, SparseVector.eucledianDistance, 4);
+    try {
+      SparseVector[] seeds = engine.seed(k, new Random(7));
+      // The seeds are valid centers
+      assertEquals(cost(dots, seeds), engine.cost(), 1e-6);
+      SparseVector[] expected = new SparseVector[k];
+      SparseVector[] found = new SparseVector[k];
+      for (int c = 0; c < k; c++) {
+        expected[c] = seeds[c].clone();
+        found[c] = seeds[c].clone();
+      }
+      SparseVector.kMeans(dots, expected, SparseVector.eucledianDistance, 0.001, 20);
+      int[] assignment = engine.run(found, 0.001, 20);
+      for (int c = 0; c < k; c++)
+        assertEquals("Center " + c, 0, expected[c].eucledianDistance(found[c]), 1e-9);
+      assertEquals(cost(dots, expected), engine.cost(), 1e-6);
+      // The engine gives the same result on one thread
+      KMeans single = new KMeans(dots, SparseVector.eucledianDistance, 1);
+      SparseVector[] again = engine.seed(k, new Random(7));
+      assertArrayEquals(assignment, single.run(again, 0.001, 20));
+      single.close();
+    } finally {
+      engine.close();
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void noCentersTest() {
+    KMeans engine = new KMeans(dots(new Random(1), 10, 2));
+    try {
+      engine.cost();
+    } finally {
+      engine.close();
+    }
+  }
+}
@@ -0,0 +1,93 @@
+package javatools.datatypes;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LongDoubleMapTest {
+
+  /** Returns a random key, many of which collide in the table */
+  protected static long randomKey(Random random) {
+    long k = random.nextInt(500);
+    switch (random.nextInt(3)) {
+      case 0:
+        return (-k);
+      case 1:
+        return (k << 40);
+      default:
+        return (k == 0 ? Long.MIN_VALUE : k);
+    }
+  }
+
+  @Test
+  public void randomTest() {
+    Random random = new Random(42);
+    // A small table, so that the map grows many times
+    LongDoubleMap map = new LongDoubleMap(1, 0.75f);
+    Map<Long, Double> expected = new HashMap<Long, Double>();
+    for (int step = 0; step < 50000; step++) {
+      long key = randomKey(random);
+      double value = random.nextInt(100) / 4.0;
+      switch (random.nextInt(5)) {
+        case 0:
+          assertEquals(!expected.containsKey(key), map.put(key, value));
+          expected.put(key, value);
+          break;
+        case 1:
+          Double old = expected.get(key);
+          assertEquals(old == null, map.add(key, value));
+          expected.put(key, old == null ? value : old + value);
+          break;
+        case 2:
+        case 3:
+          // Removal shifts the colliding keys back
+          assertEquals(expected.remove(key) != null, map.remove(key));
+          break;
+        default:
+          Double v = expected.get(key);
+          assertEquals(v != null, map.containsKey(key));
+          assertEquals(v == null ? -1 : v, map.get(key), 0);
+      }
+      assertEquals(expected.size(), map.size());
+    }
+    assertEquals(expected.keySet(), new HashSet<Long>(map.keys().asList()));
+
+    // The sorted arrays agree with the map
+    long[] keys = new long[map.size()];
+    double[] values = new double[map.size()];
+    assertEquals(expected.size(), map.toSortedArrays(keys, values));
+    assertArrayEquals(keys, map.sortedKeys());
+    double sum = 0;
+    for (int i = 0; i < keys.length; i++) {
+      if (i > 0) assertTrue(keys[i - 1] < keys[i]);
+      assertEquals(expected.get(keys[i]), values[i], 0);
+      sum += values[i];
+    }
+    assertEquals(sum, map.computeSum(), 0);
+    Arrays.sort(values);
+    assertEquals(values[values.length - 1], map.findMax(), 0);
+  }
+
+  @Test
+  public void sentinelTest() {
+    LongDoubleMap map = new LongDoubleMap();
+    map.put(Long.MIN_VALUE, 1);
+    map.put(Long.MAX_VALUE - 1, 2);
+    map.increase(0);
+    assertEquals(1, map.get(Long.MIN_VALUE), 0);
+    assertEquals(1, map.get(0), 0);
+    assertFalse(map.containsKey(Long.MAX_VALUE));
+    try {
+      map.put(Long.MAX_VALUE, 3);
+      fail("The marker of empty positions was accepted as key");
+    } catch (RuntimeException e) {
+    }
+    assertEquals(3, map.size());
+  }
+}
@@ -0,0 +1,93 @@
+package javatools.datatypes;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LongIntMapTest {
+
+  /** Returns a random key, many of which collide in the table */
+  protected static long randomKey(Random random) {
+    long k = random.nextInt(500);
+    switch (random.nextInt(3)) {
+      case 0:
+        return (-k);
+      case 1:
+        return (k << 40);
+      default:
+        return (k == 0 ? Long.MIN_VALUE : k);
+    }
+  }
+
+  @Test
+  public void randomTest() {
+    Random random = new Random(42);
+    // A small table, so that the map grows many times
+    LongIntMap map = new LongIntMap(1, 0.75f);
+    Map<Long, Integer> expected = new HashMap<Long, Integer>();
+    for (int step = 0; step < 50000; step++) {
+      long key = randomKey(random);
+      int value = random.nextInt(100) - 50;
+      switch (random.nextInt(5)) {
+        case 0:
+          assertEquals(!expected.containsKey(key), map.put(key, value));
+          expected.put(key, value);
+          break;
+        case 1:
+          Integer old = expected.get(key);
+          assertEquals(old == null, map.add(key, value));
+          expected.put(key, old == null ? value : old + value);
+          break;
+        case 2:
+        case 3:
+          // Removal shifts the colliding keys back
+          assertEquals(expected.remove(key) != null, map.remove(key));
+          break;
+        default:
+          Integer v = expected.get(key);
+          assertEquals(v != null, map.containsKey(key));
+          assertEquals(v == null ? -1 : v, map.get(key));
+      }
+      assertEquals(expected.size(), map.size());
+    }
+    assertEquals(expected.keySet(), new HashSet<Long>(map.keys().asList()));
+
+    // The sorted arrays agree with the map
+    long[] keys = new long[map.size()];
+    int[] values = new int[map.size()];
+    assertEquals(expected.size(), map.toSortedArrays(keys, values));
+    assertArrayEquals(keys, map.sortedKeys());
+    long sum = 0;
+    for (int i = 0; i < keys.length; i++) {
+      if (i > 0) assertTrue(keys[i - 1] < keys[i]);
+      assertEquals((int) expected.get(keys[i]), values[i]);
+      sum += values[i];
+    }
+    assertEquals(sum, map.computeSum());
+    Arrays.sort(values);
+    assertEquals(values[values.length - 1], map.findMax());
+  }
+
+  @Test
+  public void sentinelTest() {
+    LongIntMap map = new LongIntMap();
+    map.put(Long.MIN_VALUE, 1);
+    map.put(Long.MAX_VALUE - 1, 2);
+    map.increase(0);
+    assertEquals(1, map.get(Long.MIN_VALUE));
+    assertEquals(1, map.get(0));
+    assertFalse(map.containsKey(Long.MAX_VALUE));
+    try {
+      map.put(Long.MAX_VALUE, 3);
+      fail("The marker of empty positions was accepted as key");
+    } catch (RuntimeException e) {
+    }
+    assertEquals(3, map.size());
+  }
+}
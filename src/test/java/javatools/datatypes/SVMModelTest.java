@@ -0,0 +1,118 @@
+package javatools.datatypes;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Writer;
+import java.util.Random;
+
+import javatools.datatypes.SVMModel.KernelType;
+
+import org.junit.Test;
+
+public class SVMModelTest {
+
+  /** Returns a random vector with the given number of entries below the given dimension */
+  protected static SparseVector random(Random random, int entries, int dims) {
+    int[] dim = new int[entries];
+    double[] val = new double[entries];
+    int d = 0;
+    for (int i = 0; i < entries; i++) {
+      d += 1 + random.nextInt(dims / entries);
+      dim[i] = d - 1;
+      val[i] = Math.round(random.nextDouble() * 1000) / 1000.0;
+    }
+    return (new SparseVector(random.nextGaussian(), dim, val));
+  }
+
+  /** Writes an SVM-light model file with the given kernel and support vectors, and loads it */
+  protected static SVMModel model(KernelType kernel, SparseVector... sv) throws Exception {
+    File file = File.createTempFile("svm", ".model");
+    try {
+      Writer out = new FileWriter(file);
+      out.write("SVM-light Version V6.01\n" + kernel.ordinal() + " # kernel type\n2 # poly degree\n0.5 # rbf gamma\n0.25 # coef lin\n1 # coef const\nempty # custom\n"
+          + 10000 + " # highest feature index\n" + sv.length + " # training documents\n" + (sv.length + 1) + " # support vectors plus 1\n0.125 # threshold b\n");
+      for (SparseVector v : sv)
+        out.write(v + " #\n");
+      out.close();
+      return (new SVMModel(file));
+    } finally {
+      file.delete();
+    }
+  }
+
+  /** Asserts that classify() and classifyAll() give the same result as classifyByKernel() up to rounding */
+  protected static void assertClassify(SVMModel model, SparseVector... vectors) throws Exception {
+    double[] all = model.classifyAll(vectors, 3);
+    for (int i = 0; i < vectors.length; i++) {
+      double expected = model.classifyByKernel(vectors[i]);
+      assertEquals(vectors[i].toString(), expected, model.classify(vectors[i]), 1e-9 * (1 + Math.abs(expected)));
+      assertEquals(vectors[i].toString(), expected, all[i], 1e-9 * (1 + Math.abs(expected)));
+    }
+  }
+
+  /** Returns query vectors: random ones, ones with dimensions beyond the support vectors, a binary one and an empty one */
+  protected static SparseVector[] queries(Random random, int dims) {
+    SparseVector[] result = new SparseVector[50];
+    for (int i = 0; i < 40; i++)
+      result[i] = random(random, 1 + random.nextInt(10), dims);
+    for (int i = 40; i < 47; i++)
+      result[i] = random(random, 10, 2 * dims);
+    result[47] = SparseVector.parse("1 0:1 3:1 " + (dims - 1) + ":1 " + (dims + 5) + ":1");
+    result[48] = SparseVector.parse("-1 " + (dims - 1) + ":0.5");
+    result[49] = SparseVector.parse("1");
+    return (result);
+  }
+
+  @Test
+  public void denseTest() throws Exception {
+    Random random = new Random(42);
+    for (KernelType kernel : KernelType.values()) {
+      SparseVector[] sv = new SparseVector[30];
+      for (int i = 0; i < sv.length - 1; i++)
+        sv[i] = random(random, 1 + random.nextInt(10), 100);
+      sv[sv.length - 1] = new SparseVector(0.5, new int[0], new double[0]);
+      assertClassify(model(kernel, sv), queries(random, 100));
+    }
+  }
+
+  @Test
+  public void sparseTest() throws Exception {
+    // The support vectors have far more dimensions than non-zero entries, so that the model is not spread over dense arrays
+    Random random = new Random(42);
+    for (KernelType kernel : KernelType.values()) {
+      SparseVector[] sv = new SparseVector[10];
+      for (int i = 0; i < sv.length; i++)
+        sv[i] = random(random, 5, 1 << 22);
+      sv[0].dim[4] = (1 << 22) - 1; // makes sure that the model spans more than 2^20 dimensions
+      assertClassify(model(kernel, sv), queries(random, 1 << 22));
+      // The support vectors themselves, whose scalar products with the support vectors are not all 0
+      assertClassify(model(kernel, sv), sv);
+    }
+  }
+
+  @Test
+  public void serializationTest() throws Exception {
+    Random random = new Random(42);
+    for (KernelType kernel : KernelType.values()) {
+      SparseVector[] sv = new SparseVector[10];
+      for (int i = 0; i < sv.length; i++)
+        sv[i] = random(random, 5, 100);
+      SVMModel model = model(kernel, sv);
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ObjectOutputStream out = new ObjectOutputStream(bytes);
+      out.writeObject(model);
+      out.close();
+      SVMModel copy = (SVMModel) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+      SparseVector[] queries = queries(random, 100);
+      assertClassify(copy, queries);
+      for (SparseVector v : queries)
+        assertEquals(model.classify(v), copy.classify(v), 1e-12);
+    }
+  }
+}
@@ -0,0 +1,95 @@
+package javatools.datatypes;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SparseDatasetTest {
+
+  /** Writes a text file */
+  protected static void write(File f, String text) throws Exception {
+    Writer w = new FileWriter(f);
+    w.write(text);
+    w.close();
+  }
+
+  @Test
+  public void roundTripTest() throws Exception {
+    Random random = new Random(42);
+    SparseVector.updateBINARY(20);
+    SparseVector[] vectors = new SparseVector[1001];
+    StringBuilder text = new StringBuilder("# comment\n");
+    for (int i = 0; i < vectors.length; i++) {
+      // Odd sizes, so that the dimensions need padding; binary and empty vectors in between
+      int size = i % 100 == 0 ? 0 : 1 + random.nextInt(19);
+      int[] dim = new int[size];
+      double[] val = new double[size];
+      for (int j = 0; j < size; j++) {
+        dim[j] = (j == 0 ? 0 : dim[j - 1]) + 1 + random.nextInt(100);
+        val[j] = random.nextDouble();
+      }
+      vectors[i] = new SparseVector(random.nextInt(2) * 2 - 1, dim, i % 3 == 0 ? SparseVector.BINARY : val);
+      text.append(vectors[i]).append(i % 7 == 0 ? "\n\n" : "\n");
+    }
+    File txt = File.createTempFile("sparseDataset", ".txt");
+    File bin = new File(txt.getPath() + ".vectors");
+    File txt2 = new File(txt.getPath() + ".2");
+    try {
+      write(txt, text.toString());
+      assertEquals(vectors.length, SparseDataset.fromSVMLight(txt, bin));
+      SparseDataset data = SparseDataset.open(bin);
+      assertEquals(vectors.length, data.size());
+      double[] dense = new double[2000];
+      for (int d = 0; d < dense.length; d++)
+        dense[d] = random.nextDouble();
+      for (int i = 0; i < vectors.length; i++) {
+        assertEquals(vectors[i].toString(), data.get(i).toString());
+        assertEquals(vectors[i].label, data.label(i), 0);
+        assertEquals(vectors[i].size(), data.size(i));
+        assertEquals(i % 3 == 0 || vectors[i].size() == 0, data.isBinary(i));
+        double expected = 0;
+        for (int j = 0; j < vectors[i].size(); j++)
+          expected += vectors[i].val[j] * dense[vectors[i].dim[j]];
+        assertEquals(expected, data.sprod(i, dense), 1e-9);
+      }
+      SparseDataset.toSVMLight(bin, txt2);
+      assertEquals(text.toString().replace("# comment\n", "").replace("\n\n", "\n"), new String(SparseDataset.readAll(txt2)));
+    } finally {
+      txt.delete();
+      bin.delete();
+      txt2.delete();
+    }
+  }
+
+  @Test
+  public void failureTest() throws Exception {
+    File txt = File.createTempFile("sparseDataset", ".txt");
+    File bin = new File(txt.getPath() + ".vectors");
+    try {
+      write(txt, "1 1:0.5 3:2\n");
+      SparseDataset.fromSVMLight(txt, bin);
+      long length = bin.length();
+      write(txt, "1 1:0.5\n-1 2:x\n");
+      try {
+        SparseDataset.fromSVMLight(txt, bin);
+        fail("The bad line was not noticed");
+      } catch (Exception e) {
+      }
+      // The old file is still there, and no temporary file is left
+      assertEquals(length, bin.length());
+      assertEquals("1.0 1:0.5 3:2.0", SparseDataset.open(bin).get(0).toString());
+      assertFalse(new File(bin.getPath() + ".tmp").exists());
+      File[] left = txt.getAbsoluteFile().getParentFile().listFiles();
+      for (File f : left)
+        assertFalse(f.getName(), f.getName().startsWith(bin.getName()) && !f.equals(bin));
+    } finally {
+      txt.delete();
+      bin.delete();
+    }
+  }
+}
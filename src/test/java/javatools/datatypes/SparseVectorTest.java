@@ -0,0 +1,105 @@
+package javatools.datatypes;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SparseVectorTest {
+
+  /** Returns a random sparse vector, and writes its values into the dense array */
+  protected static SparseVector random(Random random, double[] dense) {
+    int size = 0;
+    int[] dim = new int[dense.length];
+    double[] val = new double[dense.length];
+    for (int d = 0; d < dense.length; d++) {
+      dense[d] = 0;
+      if (random.nextInt(3) != 0) continue;
+      dense[d] = random.nextDouble();
+      dim[size] = d;
+      val[size++] = dense[d];
+    }
+    int[] dims = new int[size];
+    double[] vals = new double[size];
+    System.arraycopy(dim, 0, dims, 0, size);
+    System.arraycopy(val, 0, vals, 0, size);
+    return (new SparseVector(0, dims, vals));
+  }
+
+  @Test
+  public void sprodTest() {
+    // The second vector skips past dimension 5 of the first one, and must not multiply 5 with 6
+    SparseVector a = new SparseVector(0, new int[] { 2, 5 }, new double[] { 1, 1 });
+    SparseVector b = new SparseVector(0, new int[] { 3, 4, 6 }, new double[] { 1, 1, 1 });
+    assertEquals(0, a.sprod(b), 0);
+    assertEquals(0, b.sprod(a), 0);
+    Random random = new Random(42);
+    double[] x = new double[30];
+    double[] y = new double[30];
+    for (int round = 0; round < 1000; round++) {
+      SparseVector v = random(random, x);
+      SparseVector w = random(random, y);
+      double expected = 0;
+      for (int d = 0; d < x.length; d++)
+        expected += x[d] * y[d];
+      assertEquals(expected, v.sprod(w), 1e-12);
+      assertEquals(expected, w.sprod(v), 1e-12);
+    }
+  }
+
+  /** Lines on which SparseVector(String) and parse() must agree, including the ones that both reject */
+  protected static final String[] LINES = { "", " ", "1", "1 ", "1\r", "-1 2:3", "1 2:3   ", "1  2:3", "1 # comment", "1 2:3 # comment 4:5",
+      "1 2:3\r", "1 3:1 2:1", "1 2:1 2:1", "1 2:0 3:1", "1 2:0", "1 2:1 3:1 4:2", "1 +2:1", "1 -2:1", "1 2:+1", "1 2:-0.5", "1 2:1e3",
+      "1 2:.5", "1 2:5.", "1 2:1e-30 3:123456789012345678", "1 2:0x1p3", "1d 2:3", "1 2:NaN", "1 2:-Infinity", "1 2147483647:1",
+      "1 2 3:4", "1 2:x", "x 2:3", "1 2:", "1 :3", "1 2::3", "1 2:3#c", "#c", "1 2:.", "1 2:1e", "1 2147483648:1" };
+
+  /** Asserts that two vectors have the same label, dimensions and values */
+  protected static void assertEqualVectors(String line, SparseVector expected, SparseVector actual) {
+    assertEquals(line, expected.label, actual.label, 0);
+    assertEquals(line, expected.size(), actual.size());
+    assertEquals(line, expected.isBinary(), actual.isBinary());
+    assertArrayEquals(line, Arrays.copyOf(expected.dim, expected.size()), Arrays.copyOf(actual.dim, actual.size()));
+    for (int i = 0; i < expected.size(); i++)
+      assertEquals(line, expected.val[i], actual.val[i], 0);
+  }
+
+  @Test
+  public void parseTest() {
+    for (String line : LINES) {
+      SparseVector expected = null;
+      try {
+        expected = new SparseVector(line);
+      } catch (NumberFormatException e) {
+      }
+      SparseVector actual = null;
+      try {
+        actual = SparseVector.parse(line);
+      } catch (NumberFormatException e) {
+      }
+      if (expected == null) assertNull(line, actual);
+      else assertEqualVectors(line, expected, actual);
+    }
+    // parse() also accepts leading blanks and tabs
+    assertEqualVectors("tabs", new SparseVector("1 2:3 4:5"), SparseVector.parse(" \t1\t2:3\t 4:5\t"));
+    // ... and rejects tokens without ':', which SparseVector(String) ignores at the end
+    for (String line : new String[] { "1 2", "1 3:4 5" }) {
+      new SparseVector(line);
+      try {
+        SparseVector.parse(line);
+        fail(line);
+      } catch (NumberFormatException e) {
+      }
+    }
+    // Random vectors survive toString() and parse()
+    Random random = new Random(42);
+    double[] dense = new double[30];
+    for (int round = 0; round < 1000; round++) {
+      SparseVector v = random(random, dense);
+      String line = v.toString();
+      assertEqualVectors(line, new SparseVector(line), SparseVector.parse(line));
+      assertEquals(line, SparseVector.parse(line).toString());
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package javatools.datatypes;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class StringDictionaryTest {
+
+  /** Returns strings with non-ASCII chars, duplicates and the empty string */
+  protected static List<String> strings(int n) {
+    List<String> result = new ArrayList<String>();
+    result.add("");
+    for (int i = 0; i < n; i++)
+      result.add((i % 3 == 0 ? "Café_" : i % 3 == 1 ? "東京_" : "😀_") + i);
+    return (result);
+  }
+
+  @Test
+  public void roundTripTest() throws Exception {
+    List<String> strings = strings(20000);
+    StringDictionary dict = new StringDictionary();
+    for (int i = 0; i < strings.size(); i++)
+      assertEquals(i, dict.add(strings.get(i)));
+    assertEquals(5, dict.add(strings.get(5)));
+    assertEquals(strings.size(), dict.size());
+
+    File f = File.createTempFile("stringDictionary", ".dict");
+    f.deleteOnExit();
+    dict.save(f);
+    StringDictionary reopened = StringDictionary.open(f);
+    assertEquals(dict.size(), reopened.size());
+    ByteSlice slice = new ByteSlice();
+    for (int i = 0; i < strings.size(); i++) {
+      String s = strings.get(i);
+      assertEquals(i, reopened.get(s));
+      assertEquals(s, reopened.string(i));
+      byte[] utf8 = s.getBytes("UTF-8");
+      assertEquals(utf8.length, reopened.length(i));
+      reopened.bytes(i, slice);
+      assertEquals(s, slice.toString(StringDictionary.UTF8));
+      ByteBuffer view = reopened.view(i);
+      byte[] viewed = new byte[view.remaining()];
+      view.get(viewed);
+      assertArrayEquals(utf8, viewed);
+    }
+    assertEquals(-1, reopened.get("missing"));
+    assertEquals(strings, reopened.keys().asList());
+    try {
+      reopened.add("new");
+      fail("A reopened dictionary accepted a string");
+    } catch (UnsupportedOperationException e) {
+    }
+
+    // After close(), lookups fail clearly
+    reopened.close();
+    dict.close();
+    for (StringDictionary d : new StringDictionary[] { reopened, dict }) {
+      try {
+        d.get("Café_0");
+        fail("get() after close()");
+      } catch (IllegalStateException e) {
+      }
+      try {
+        d.string(0);
+        fail("string() after close()");
+      } catch (IllegalStateException e) {
+      }
+    }
+    f.delete();
+  }
+
+  @Test
+  public void charsTest() throws Exception {
+    StringDictionary dict = new StringDictionary();
+    dict.add("http://example.org/Elvis_Presley");
+    dict.add("Café");
+    dict.add("");
+    File f = File.createTempFile("stringDictionary", ".dict");
+    f.deleteOnExit();
+    dict.save(f);
+    StringDictionary reopened = StringDictionary.open(f);
+    for (StringDictionary d : new StringDictionary[] { dict, reopened }) {
+      CharSequence ascii = d.chars(0);
+      assertFalse(ascii instanceof String);
+      assertEquals(32, ascii.length());
+      assertEquals('h', ascii.charAt(0));
+      assertEquals('y', ascii.charAt(31));
+      assertEquals("http://example.org/Elvis_Presley", ascii.toString());
+      CharSequence sub = ascii.subSequence(19, 24);
+      assertEquals("Elvis", sub.toString());
+      assertEquals("vis", sub.subSequence(2, 5).toString());
+      assertEquals(0, sub.subSequence(5, 5).length());
+      try {
+        sub.subSequence(2, 6);
+        fail("A subsequence beyond the end");
+      } catch (IndexOutOfBoundsException e) {
+      }
+      // Non-ASCII strings are decoded
+      assertEquals("Café", d.chars(1).toString());
+      assertEquals('é', d.chars(1).charAt(3));
+      assertEquals(0, d.chars(2).length());
+    }
+    reopened.close();
+    dict.close();
+    f.delete();
+  }
+
+  @Test
+  public void saveOwnFileTest() throws Exception {
+    List<String> strings = strings(1000);
+    StringDictionary dict = new StringDictionary();
+    for (String s : strings)
+      dict.add(s);
+    File f = File.createTempFile("stringDictionary", ".dict");
+    f.deleteOnExit();
+    dict.save(f);
+    dict.close();
+    // A reopened dictionary can be saved to the file that it maps
+    StringDictionary reopened = StringDictionary.open(f);
+    reopened.save(f);
+    assertFalse(new File(f.getPath() + ".tmp").exists());
+    assertEquals(strings, reopened.keys().asList());
+    StringDictionary again = StringDictionary.open(f);
+    assertEquals(strings, again.keys().asList());
+    again.close();
+    reopened.close();
+    f.delete();
+  }
+}
@@ -0,0 +1,90 @@
+package javatools.filehandlers;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javatools.datatypes.ByteSlice;
+
+import org.junit.Test;
+
+public class ByteSliceLinesTest {
+
+  /** Returns at most one byte per read, so that every line spans several reads */
+  protected static class TrickleInputStream extends FilterInputStream {
+
+    public TrickleInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      return (super.read(b, off, Math.min(len, 1)));
+    }
+  }
+
+  /** Returns the lines of ByteFileLines */
+  protected static List<String> expected(byte[] bytes) {
+    return (new ByteFileLines(new ByteArrayInputStream(bytes)).asList());
+  }
+
+  /** Returns the lines of ByteSliceLines, checks that copies keep their content */
+  protected static List<String> actual(InputStream in, int bufferSize) {
+    List<String> result = new ArrayList<String>();
+    List<ByteSlice> copies = new ArrayList<ByteSlice>();
+    for (ByteSlice line : new ByteSliceLines(in, bufferSize)) {
+      result.add(line.toString());
+      copies.add(line.copy());
+    }
+    for (int i = 0; i < copies.size(); i++)
+      assertEquals(result.get(i), copies.get(i).toString());
+    return (result);
+  }
+
+  /** Checks ByteSliceLines against ByteFileLines for small buffers and short reads */
+  protected static void check(byte[] bytes) {
+    List<String> expected = expected(bytes);
+    for (int bufferSize = 1; bufferSize < 10; bufferSize++) {
+      assertEquals(expected, actual(new ByteArrayInputStream(bytes), bufferSize));
+      assertEquals(expected, actual(new TrickleInputStream(new ByteArrayInputStream(bytes)), bufferSize));
+    }
+  }
+
+  @Test
+  public void lineBreakTest() throws Exception {
+    check("".getBytes("ISO-8859-1"));
+    check("\n\r\n\r".getBytes("ISO-8859-1"));
+    check("one line".getBytes("ISO-8859-1"));
+    check("a\r\nbc\r\n\r\ndef\n\nghij\rklm\r\rné\r\nlast without line break".getBytes("ISO-8859-1"));
+    check("ends with\r\n".getBytes("ISO-8859-1"));
+  }
+
+  @Test
+  public void randomTest() {
+    Random random = new Random(42);
+    byte[] alphabet = { 'a', 'b', '\t', ' ', '\n', '\r', (byte) 0xE9, (byte) 0xFF };
+    for (int run = 0; run < 200; run++) {
+      byte[] bytes = new byte[random.nextInt(100)];
+      for (int i = 0; i < bytes.length; i++)
+        bytes[i] = alphabet[random.nextInt(alphabet.length)];
+      check(bytes);
+    }
+  }
+
+  @Test
+  public void longLineTest() throws Exception {
+    StringBuilder b = new StringBuilder();
+    for (int i = 0; i < 5000; i++)
+      b.append((char) ('a' + i % 26));
+    String line = b.toString();
+    byte[] bytes = (line + "\r\n" + line + "\n" + line).getBytes("ISO-8859-1");
+    assertEquals(expected(bytes), actual(new ByteArrayInputStream(bytes), 3));
+    assertEquals(3, actual(new ByteArrayInputStream(bytes), 3).size());
+  }
+}
@@ -0,0 +1,95 @@
+package javatools.filehandlers;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FastCSVLinesTest {
+
+  /** A reader that returns at most a few chars per call, so that records span refills */
+  protected static class ChunkedReader extends Reader {
+
+    protected final Reader in;
+
+    protected final int chunk;
+
+    public ChunkedReader(String s, int chunk) {
+      in = new StringReader(s);
+      this.chunk = chunk;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+      return (in.read(cbuf, off, Math.min(len, chunk)));
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  /** Fields with quotes, escaped quotes, separators, spaces and chars that need decoding */
+  protected static final String[] FIELDS = { "plain", "two words", "\"quoted, with comma\"", "\"say \"\"hi\"\"\"", "\"\"", "  padded  ",
+      "café", "a &amp; b", "tab\\tbed", "100%25", "\"café &lt;q&gt;\"", "" };
+
+  /** Returns a random CSV text without empty lines */
+  protected static String randomCSV(Random random, int lines) {
+    StringBuilder b = new StringBuilder("#first,second,third\n");
+    for (int i = 0; i < lines; i++) {
+      int n = 1 + random.nextInt(6);
+      b.append("line").append(i);
+      for (int j = 1; j < n; j++)
+        b.append(',').append(FIELDS[random.nextInt(FIELDS.length)]);
+      b.append(random.nextBoolean() ? "\n" : "\r\n");
+    }
+    b.append("last,\"unterminated");
+    return (b.toString());
+  }
+
+  @Test
+  public void parityTest() throws Exception {
+    Random random = new Random(42);
+    // Longer than the buffer, so that the buffer is compacted and grown
+    String csv = randomCSV(random, 5000);
+    assertTrue(csv.length() > FastCSVLines.BUFFERSIZE);
+    CSVLines slowLines = new CSVLines(new StringReader(csv));
+    List<List<String>> expected = slowLines.asList();
+    for (int chunk : new int[] { 1, 7, 1000, Integer.MAX_VALUE }) {
+      FastCSVLines fast = new FastCSVLines(new ChunkedReader(csv, chunk));
+      assertEquals(slowLines.columnNames(), fast.columnNames());
+      List<List<String>> found = new ArrayList<List<String>>();
+      for (String[] line : fast)
+        found.add(Arrays.asList(line));
+      assertEquals("Chunks of " + chunk, expected, found);
+    }
+  }
+
+  @Test
+  public void projectionTest() throws Exception {
+    FastCSVLines fast = new FastCSVLines(new StringReader("#a,b,c\n1,\"x, y\",3\n4\n"));
+    fast.setProjection("c", "b");
+    assertArrayEquals(new String[] { "3", "x, y" }, fast.next());
+    assertArrayEquals(new String[] { null, null }, fast.next());
+    assertFalse(fast.hasNext());
+  }
+
+  @Test
+  public void emptyLinesTest() throws Exception {
+    // Unlike CSVLines, FastCSVLines skips empty lines
+    String csv = "a,b\n\n\n  \nc\r\n\r\nd";
+    List<String[]> found = new FastCSVLines(new StringReader(csv)).asList();
+    assertEquals(3, found.size());
+    assertArrayEquals(new String[] { "a", "b" }, found.get(0));
+    assertArrayEquals(new String[] { "c" }, found.get(1));
+    assertArrayEquals(new String[] { "d" }, found.get(2));
+  }
+}
@@ -0,0 +1,108 @@
+package javatools.filehandlers;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class MappedFileLinesTest {
+
+  @Test
+  public void linesTest() throws Exception {
+    File f = File.createTempFile("mappedFileLines", ".txt");
+    f.deleteOnExit();
+    Writer w = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+    for (int i = 0; i < 1000; i++) {
+      w.write("line " + i + "\tschön");
+      w.write(i % 3 == 0 ? "\r\n" : i % 7 == 0 ? "\r" : "\n");
+      if (i % 100 == 0) w.write("\n");
+    }
+    w.write("last");
+    w.close();
+
+    List<String> expected = new FileLines(f).asList();
+    // Small segments, so that the file is split in many places
+    List<String> ordered = new MappedFileLines(f, "UTF-8", null, 4, true, 50).asList();
+    assertEquals(expected, ordered);
+
+    List<String> unordered = new MappedFileLines(f, "UTF-8", null, 4, false, 50).asList();
+    Collections.sort(expected);
+    Collections.sort(unordered);
+    assertEquals(expected, unordered);
+
+    final List<String> processed = new ArrayList<String>();
+    MappedFileLines.process(f, null, new MappedFileLines.LineHandler() {
+
+      @Override
+      public void handle(String line) {
+        synchronized (processed) {
+          processed.add(line);
+        }
+      }
+    });
+    Collections.sort(processed);
+    assertEquals(expected, processed);
+  }
+
+  /** Writes the string to a temporary file */
+  protected static File write(String s) throws Exception {
+    File f = File.createTempFile("mappedFileLines", ".txt");
+    f.deleteOnExit();
+    Writer w = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+    w.write(s);
+    w.close();
+    return (f);
+  }
+
+  @Test
+  public void lineBreakTest() throws Exception {
+    // CR-only lines, CRLF across segment boundaries, empty lines, no final line break
+    StringBuilder b = new StringBuilder();
+    for (int i = 0; i < 500; i++) {
+      b.append("l").append(i);
+      b.append(i % 5 == 0 ? "\r\n" : i % 11 == 0 ? "\r\r" : "\r");
+    }
+    b.append("end");
+    File f = write(b.toString());
+    List<String> expected = new FileLines(f).asList();
+    assertTrue(expected.size() > 500);
+    for (int segmentSize = 1; segmentSize < 12; segmentSize++) {
+      assertEquals(expected, new MappedFileLines(f, "UTF-8", null, 3, true, segmentSize).asList());
+    }
+    // A CR-only file is split into many segments
+    RandomAccessFile raf = new RandomAccessFile(f, "r");
+    long end = MappedFileLines.segmentEnd(raf.getChannel(), 0, f.length(), 10);
+    raf.close();
+    assertTrue(end < 20);
+    assertEquals(Collections.<String> emptyList(), new MappedFileLines(write(""), "UTF-8", null, 1, true, 10).asList());
+    assertEquals(Collections.singletonList(""), new MappedFileLines(write("\n"), "UTF-8", null, 1, true, 10).asList());
+  }
+
+  @Test
+  public void failureTest() throws Exception {
+    StringBuilder b = new StringBuilder();
+    for (int i = 0; i < 1000; i++)
+      b.append("line ").append(i).append('\n');
+    File f = write(b.toString());
+    MappedFileLines lines = new MappedFileLines(f, "UTF-8", null, 2, true, 100);
+    // The segments beyond the new end of the file cannot be mapped
+    RandomAccessFile raf = new RandomAccessFile(f, "rw");
+    raf.setLength(10);
+    raf.close();
+    try {
+      while (lines.hasNext())
+        lines.next();
+      fail("A segment beyond the end of the file was read");
+    } catch (RuntimeException e) {
+    }
+    assertTrue(lines.executor.isShutdown());
+  }
+}
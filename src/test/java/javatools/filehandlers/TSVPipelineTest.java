@@ -0,0 +1,71 @@
+package javatools.filehandlers;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TSVPipelineTest {
+
+  /** Reads the remaining rows, stops after maxBatches batches (or -1 for all) and writes a checkpoint */
+  protected static List<String> read(File f, File checkpoint, int maxBatches) throws Exception {
+    List<String> rows = new ArrayList<String>();
+    // Small blocks, so that the file has many batches
+    TSVPipeline pipeline = new TSVPipeline(f, "UTF-8", checkpoint, null, 3, 4, 100);
+    try {
+      int batches = 0;
+      for (TSVPipeline.Batch batch : pipeline) {
+        for (String[] row : batch.rows)
+          rows.add(row[0] + "|" + row[1]);
+        if (++batches == maxBatches) break;
+      }
+      pipeline.checkpoint();
+    } finally {
+      pipeline.close();
+    }
+    return (rows);
+  }
+
+  @Test
+  public void checkpointTest() throws Exception {
+    File f = File.createTempFile("tsvPipeline", ".tsv");
+    f.deleteOnExit();
+    File checkpoint = new File(f.getPath() + ".checkpoint");
+    checkpoint.deleteOnExit();
+    Writer w = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+    List<String> expected = new ArrayList<String>();
+    for (int i = 0; i < 500; i++) {
+      w.write("key" + i + "\tschön " + i + "\n");
+      expected.add("key" + i + "|schön " + i);
+    }
+    w.close();
+
+    // Resume twice, every row is read exactly once
+    List<String> rows = read(f, checkpoint, 3);
+    assertTrue(rows.size() > 0 && rows.size() < expected.size());
+    long offset = TSVPipeline.readCheckpoint(checkpoint);
+    assertTrue(offset > 0 && offset < f.length());
+    rows.addAll(read(f, checkpoint, 5));
+    rows.addAll(read(f, checkpoint, -1));
+    assertEquals(expected, rows);
+    assertEquals(f.length(), TSVPipeline.readCheckpoint(checkpoint));
+    assertTrue(read(f, checkpoint, -1).isEmpty());
+
+    // A temporary file left by a crash is not trusted
+    assertTrue(checkpoint.delete());
+    File tmp = new File(checkpoint.getPath() + ".tmp");
+    tmp.deleteOnExit();
+    Writer half = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+    half.write("12");
+    half.close();
+    assertEquals(0, TSVPipeline.readCheckpoint(checkpoint));
+    assertEquals(expected, read(f, checkpoint, -1));
+    tmp.delete();
+  }
+}
@@ -0,0 +1,35 @@
+package javatools.parsers;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class BloomFilterTest {
+
+  @Test
+  public void positionTest() {
+    // A hash whose upper half is 0 must still give different positions
+    Set<Integer> positions = new HashSet<Integer>();
+    for (int x = 0; x < 5; x++)
+      positions.add(BloomFilter.position(12345L, x, 1 << 20));
+    assertEquals(5, positions.size());
+  }
+
+  @Test
+  public void noFalseNegativesTest() throws Exception {
+    for (BloomFilter.HashMethod method : BloomFilter.HashMethod.values()) {
+      BloomFilter<String> filter = new BloomFilter<String>(100000, 10000, method);
+      for (int i = 0; i < 10000; i++)
+        filter.add("element" + i);
+      int falsePositives = 0;
+      for (int i = 0; i < 10000; i++) {
+        assertTrue(method + " element" + i, filter.contains("element" + i));
+        if (filter.contains("other" + i)) falsePositives++;
+      }
+      assertTrue(method + " " + falsePositives, falsePositives < 10000 * 3 * filter.expectedFalsePositiveProbability());
+    }
+  }
+}
@@ -0,0 +1,53 @@
+package javatools.parsers;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class ConcurrentBloomFilterTest {
+
+  /** Returns n elements with the given prefix */
+  protected static String[] elements(String prefix, int n) {
+    String[] result = new String[n];
+    for (int i = 0; i < n; i++)
+      result[i] = prefix + i;
+    return (result);
+  }
+
+  @Test
+  public void noFalseNegativesTest() throws Exception {
+    String[] in = elements("in", 50000);
+    ConcurrentBloomFilter<String> filter = ConcurrentBloomFilter.forElements(in.length, 0.01);
+    // Several threads add at the same time, no element gets lost
+    filter.addAll(in, 4);
+    for (String s : in)
+      assertTrue(s, filter.contains(s));
+    int falsePositives = 0;
+    for (String s : elements("out", 50000))
+      if (filter.contains(s)) falsePositives++;
+    assertTrue("" + falsePositives, falsePositives < 50000 * 0.03);
+  }
+
+  @Test
+  public void unionIntersectTest() {
+    String[] a = elements("a", 1000);
+    String[] b = elements("b", 1000);
+    ConcurrentBloomFilter<String> fa = ConcurrentBloomFilter.forElements(2000, 0.01);
+    ConcurrentBloomFilter<String> fb = ConcurrentBloomFilter.forElements(2000, 0.01);
+    fa.addAll(a);
+    fb.addAll(b);
+    fb.add("both");
+    fa.add("both");
+    ConcurrentBloomFilter<String> union = new ConcurrentBloomFilter<String>(fa).union(fb);
+    for (String s : a)
+      assertTrue(union.contains(s));
+    for (String s : b)
+      assertTrue(union.contains(s));
+    assertTrue(new ConcurrentBloomFilter<String>(fa).intersect(fb).contains("both"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void noThreadsTest() throws Exception {
+    ConcurrentBloomFilter.<String> forElements(100, 0.01).addAll(new String[] { "a" }, 0);
+  }
+}
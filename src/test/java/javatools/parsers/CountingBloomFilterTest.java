@@ -0,0 +1,109 @@
+package javatools.parsers;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class CountingBloomFilterTest {
+
+  @Test
+  public void removeTest() throws Exception {
+    String[] kept = ConcurrentBloomFilterTest.elements("kept", 20000);
+    String[] removed = ConcurrentBloomFilterTest.elements("removed", 20000);
+    CountingBloomFilter<String> filter = CountingBloomFilter.forElements(40000, 0.01);
+    filter.addAll(kept, 4);
+    filter.addAll(removed);
+    assertEquals(40000, filter.count());
+    for (String s : removed)
+      assertTrue(s, filter.remove(s));
+    assertEquals(20000, filter.count());
+    // Removing elements does not remove the others
+    for (String s : kept)
+      assertTrue(s, filter.contains(s));
+    // ...but the removed ones are gone, except for false positives
+    int stillThere = 0;
+    for (String s : removed)
+      if (filter.contains(s)) stillThere++;
+    assertTrue("" + stillThere, stillThere < 20000 * 0.03);
+    assertFalse(filter.remove("never added"));
+  }
+
+  @Test
+  public void saturationTest() {
+    CountingBloomFilter<String> filter = new CountingBloomFilter<String>(1000, 3);
+    // The counters stick at MAXCOUNT, so that removing cannot make an element disappear too early
+    for (int i = 0; i < CountingBloomFilter.MAXCOUNT + 5; i++)
+      filter.add("x");
+    for (int i = 0; i < CountingBloomFilter.MAXCOUNT + 4; i++)
+      assertTrue(filter.remove("x"));
+    assertTrue(filter.contains("x"));
+    filter.clear();
+    assertFalse(filter.contains("x"));
+    filter.add("x");
+    assertTrue(filter.remove("x"));
+    assertFalse(filter.contains("x"));
+  }
+
+  @Test
+  public void unionTest() {
+    CountingBloomFilter<String> a = new CountingBloomFilter<String>(10000, 4);
+    CountingBloomFilter<String> b = new CountingBloomFilter<String>(10000, 4);
+    a.add("x");
+    b.add("x");
+    b.add("y");
+    a.union(b);
+    assertTrue(a.contains("y"));
+    // "x" was added twice, so that it survives one removal
+    assertTrue(a.remove("x"));
+    assertTrue(a.contains("x"));
+    assertTrue(a.remove("x"));
+    assertFalse(a.contains("x"));
+    assertTrue(a.contains("y"));
+  }
+
+  @Test
+  public void concurrentRemoveTest() throws Exception {
+    // Several threads remove the same element, which was added once. Only one of them succeeds,
+    // and the counters of the other elements stay intact.
+    final String[] others = ConcurrentBloomFilterTest.elements("other", 100);
+    for (int round = 0; round < 200; round++) {
+      final CountingBloomFilter<String> filter = CountingBloomFilter.forElements(10000, 0.001);
+      filter.addAll(others);
+      filter.add("x");
+      final CountDownLatch start = new CountDownLatch(1);
+      final AtomicInteger removed = new AtomicInteger();
+      Thread[] threads = new Thread[8];
+      for (int t = 0; t < threads.length; t++) {
+        threads[t] = new Thread() {
+
+          @Override
+          public void run() {
+            try {
+              start.await();
+            } catch (InterruptedException e) {
+              return;
+            }
+            if (filter.remove("x")) removed.incrementAndGet();
+          }
+        };
+        threads[t].start();
+      }
+      start.countDown();
+      for (Thread t : threads)
+        t.join();
+      assertEquals(1, removed.get());
+      assertEquals(others.length, filter.count());
+      assertFalse(filter.contains("x"));
+      for (String s : others)
+        assertTrue(s, filter.contains(s));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void noThreadsTest() throws Exception {
+    CountingBloomFilter.<String> forElements(100, 0.01).addAll(new String[] { "a" }, 0);
+  }
+}
@@ -0,0 +1,118 @@
+package javatools.parsers;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Test;
+
+public class MappedBloomFilterTest {
+
+  /** Returns a temporary file */
+  protected static File tempFile() throws IOException {
+    File f = File.createTempFile("mappedBloomFilter", ".bloom");
+    f.deleteOnExit();
+    return (f);
+  }
+
+  @Test
+  public void bloomFilterTest() throws Exception {
+    for (BloomFilter.HashMethod method : BloomFilter.HashMethod.values()) {
+      // A number of bits that is not a multiple of 64
+      BloomFilter<String> filter = new BloomFilter<String>(20011, 2000, method);
+      for (String s : ConcurrentBloomFilterTest.elements("in", 2000))
+        filter.add(s);
+      File f = tempFile();
+      filter.save(f);
+      MappedBloomFilter<String> mapped = MappedBloomFilter.open(f);
+      assertEquals(method.ordinal(), mapped.getHashMethod());
+      assertEquals(filter.getK(), mapped.getK());
+      assertEquals(20011, mapped.numBits());
+      assertEquals(2000, mapped.count());
+      for (int bit = 0; bit < 20011; bit++)
+        assertEquals(method + " bit " + bit, filter.getBit(bit), mapped.getBit(bit));
+      for (String s : ConcurrentBloomFilterTest.elements("in", 2000))
+        assertTrue(method + " " + s, mapped.contains(s));
+      for (String s : ConcurrentBloomFilterTest.elements("out", 2000))
+        assertEquals(method + " " + s, filter.contains(s), mapped.contains(s));
+      f.delete();
+    }
+  }
+
+  @Test
+  public void concurrentBloomFilterTest() throws Exception {
+    ConcurrentBloomFilter<String> filter = new ConcurrentBloomFilter<String>(30001, 5);
+    filter.addAll(ConcurrentBloomFilterTest.elements("in", 3000));
+    File f = tempFile();
+    filter.save(f);
+    MappedBloomFilter<String> mapped = MappedBloomFilter.open(f);
+    assertEquals(MappedBloomFilter.MURMUR3_LONG, mapped.getHashMethod());
+    assertEquals(5, mapped.getK());
+    assertEquals(30001, mapped.numBits());
+    assertEquals(filter.count(), mapped.count());
+    for (long bit = 0; bit < 30001; bit++)
+      assertEquals("bit " + bit, filter.getBit(bit), mapped.getBit(bit));
+    for (String s : ConcurrentBloomFilterTest.elements("in", 3000))
+      assertTrue(s, mapped.contains(s));
+    for (String s : ConcurrentBloomFilterTest.elements("out", 3000))
+      assertEquals(s, filter.contains(s), mapped.contains(s));
+    assertEquals(filter.getFalsePositiveProbability(), mapped.getFalsePositiveProbability(), 1e-9);
+    f.delete();
+  }
+
+  /** Asserts that open() rejects the file */
+  protected static void assertRejected(File f, String message) {
+    try {
+      MappedBloomFilter.open(f);
+      fail("Opened " + message);
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains(message));
+    }
+  }
+
+  @Test
+  public void rejectTest() throws Exception {
+    ConcurrentBloomFilter<String> filter = new ConcurrentBloomFilter<String>(1000, 3);
+    filter.add("x");
+    File f = tempFile();
+
+    // Truncated bits
+    filter.save(f);
+    RandomAccessFile file = new RandomAccessFile(f, "rw");
+    file.setLength(file.length() - 8);
+    file.close();
+    assertRejected(f, "is truncated");
+
+    // Truncated header
+    file = new RandomAccessFile(f, "rw");
+    file.setLength(20);
+    file.close();
+    assertRejected(f, "is not a Bloom filter");
+
+    // A foreign file
+    FileOutputStream out = new FileOutputStream(f);
+    out.write("# This is a CSV file, not a Bloom filter\na, b, c\n".getBytes("UTF-8"));
+    out.close();
+    assertRejected(f, "is not a Bloom filter");
+
+    // An unknown hash method
+    filter.save(f);
+    file = new RandomAccessFile(f, "rw");
+    file.seek(8);
+    file.writeInt(7);
+    file.close();
+    assertRejected(f, "unknown hash method");
+
+    // No hash functions
+    filter.save(f);
+    file = new RandomAccessFile(f, "rw");
+    file.seek(12);
+    file.writeInt(0);
+    file.close();
+    assertRejected(f, "invalid header");
+    f.delete();
+  }
+}
@@ -0,0 +1,100 @@
+package javatools.parsers;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class ScalableBloomFilterTest {
+
+  @Test
+  public void noFalseNegativesTest() {
+    // Far more elements than the initial capacity, so that the chain grows
+    String[] in = ConcurrentBloomFilterTest.elements("in", 100000);
+    ScalableBloomFilter<String> filter = new ScalableBloomFilter<String>(1000, 0.01);
+    // add() returns FALSE for false positives
+    int added = filter.addAll(in);
+    assertTrue("" + added, added > in.length * 0.98);
+    assertTrue(filter.numFilters() > 1);
+    for (String s : in)
+      assertTrue(s, filter.contains(s));
+    assertFalse(filter.add(in[0]));
+    int falsePositives = 0;
+    for (String s : ConcurrentBloomFilterTest.elements("out", 100000))
+      if (filter.contains(s)) falsePositives++;
+    assertTrue("" + falsePositives, falsePositives < 100000 * 0.02);
+  }
+
+  @Test
+  public void unionIntersectTest() {
+    String[] a = ConcurrentBloomFilterTest.elements("a", 5000);
+    String[] b = ConcurrentBloomFilterTest.elements("b", 500);
+    ScalableBloomFilter<String> fa = new ScalableBloomFilter<String>(100, 0.01);
+    ScalableBloomFilter<String> fb = new ScalableBloomFilter<String>(100, 0.01);
+    fa.addAll(a);
+    fb.addAll(b);
+    fb.addAll(Arrays.asList(a).subList(0, 10));
+    ScalableBloomFilter<String> union = fa.copy().union(fb);
+    for (String s : a)
+      assertTrue(union.contains(s));
+    for (String s : b)
+      assertTrue(union.contains(s));
+    ScalableBloomFilter<String> intersection = fa.copy().intersect(fb);
+    for (int i = 0; i < 10; i++)
+      assertTrue(intersection.contains(a[i]));
+    // Elements added after the intersection are in it
+    intersection.add("new");
+    assertTrue(intersection.contains("new"));
+  }
+
+  @Test
+  public void intersectMergeTest() {
+    String[] common = ConcurrentBloomFilterTest.elements("common", 200);
+    // Chains of one filter are intersected bit by bit
+    ScalableBloomFilter<String> small = new ScalableBloomFilter<String>(1000, 0.01);
+    small.addAll(common);
+    small.addAll(ConcurrentBloomFilterTest.elements("a", 300));
+    long numBits = small.numBits();
+    for (String prefix : new String[] { "b", "c", "d" }) {
+      ScalableBloomFilter<String> other = new ScalableBloomFilter<String>(1000, 0.01);
+      other.addAll(common);
+      other.addAll(ConcurrentBloomFilterTest.elements(prefix, 300));
+      small.intersect(other);
+    }
+    assertNull(small.restriction);
+    assertEquals(numBits, small.numBits());
+    for (String s : common)
+      assertTrue(s, small.contains(s));
+    int falsePositives = 0;
+    for (String s : ConcurrentBloomFilterTest.elements("a", 300))
+      if (small.contains(s)) falsePositives++;
+    assertTrue("" + falsePositives, falsePositives < 30);
+
+    // Longer chains keep one restriction, which holds the intersection of the others
+    ScalableBloomFilter<String> large = new ScalableBloomFilter<String>(100, 0.01);
+    large.addAll(common);
+    large.addAll(ConcurrentBloomFilterTest.elements("a", 1000));
+    for (int i = 0; i < 3; i++) {
+      ScalableBloomFilter<String> other = new ScalableBloomFilter<String>(100, 0.01);
+      other.addAll(ConcurrentBloomFilterTest.elements("x" + i, 1000));
+      other.addAll(common);
+      large.intersect(other);
+    }
+    assertNotNull(large.restriction);
+    for (String s : common)
+      assertTrue(s, large.contains(s));
+    falsePositives = 0;
+    for (int i = 0; i < 3; i++) {
+      for (String s : ConcurrentBloomFilterTest.elements("x" + i, 1000))
+        if (large.contains(s)) falsePositives++;
+    }
+    assertTrue("" + falsePositives, falsePositives < 60);
+    // Later adds go to the restriction
+    assertTrue(large.add("new"));
+    assertTrue(large.contains("new"));
+    ScalableBloomFilter<String> copy = large.copy();
+    assertTrue(copy.contains("new"));
+    assertNotSame(large.restriction, copy.restriction);
+  }
+}